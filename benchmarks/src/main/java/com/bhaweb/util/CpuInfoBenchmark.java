@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading and parsing CPU info, one step of the detection pipeline at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuInfoBenchmark {
+
+    @Benchmark
+    public String readCpuInfo(CpuInfoFixture fixture) throws IOException {
+        return RaspberryPiDetector.readCpuInfo(fixture.file);
+    }
+
+    @Benchmark
+    public boolean scanCpuInfo(CpuInfoFixture fixture) throws IOException {
+        return RaspberryPiDetector.defaultDetector().scanCpuInfo(fixture.file.toPath()).isRaspberryPi();
+    }
+
+    @Benchmark
+    public boolean streamCpuInfo(CpuInfoFixture fixture) throws IOException {
+        return CpuInfoFields.read(fixture.file.toPath()).isRaspberryPi(RaspberryPiDetector.defaultDetector().markers());
+    }
+
+    @Benchmark
+    public CpuInfo parseCpuInfo(CpuInfoFixture fixture) {
+        return CpuInfo.parse(fixture.text);
+    }
+
+    @Benchmark
+    public boolean containsRaspberryPiHardware(CpuInfoFixture fixture) {
+        return RaspberryPiDetector.containsRaspberryPiHardware(fixture.text);
+    }
+
+    @Benchmark
+    public String extractModelInfo(CpuInfoFixture fixture) {
+        return RaspberryPiDetector.extractModelInfo(fixture.text);
+    }
+}
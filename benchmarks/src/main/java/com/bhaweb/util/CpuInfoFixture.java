@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding one of the bundled real CPU info captures, both as text and as a file on disk.
+ */
+@State(Scope.Benchmark)
+public class CpuInfoFixture {
+
+    @Param({"pi-zero", "pi-3b-plus", "pi-4b", "pi-5", "x86-128-core"})
+    public String fixture;
+
+    /** The fixture contents. */
+    public String text;
+    /** A temporary directory holding the fixture file. */
+    public Path dir;
+    /** The fixture written to a temporary file. */
+    public File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        text = load(fixture);
+        dir = Files.createTempDirectory("cpuinfo-bench");
+        file = Files.writeString(dir.resolve("cpuinfo"), text).toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads a bundled fixture.
+     *
+     * @param name the fixture name, e.g. "pi-4b"
+     * @return the fixture contents
+     * @throws IOException if the fixture cannot be read
+     */
+    static String load(String name) throws IOException {
+        try (InputStream in = CpuInfoFixture.class.getResourceAsStream("/cpuinfo/" + name + ".txt")) {
+            if (in == null) {
+                throw new IOException("No such fixture: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the public detection API end to end, both from the cache and with a fresh detection, on a detector
+ * bound to the fixture. The static methods are not benchmarked, they would query the machine running the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DetectionBenchmark {
+
+    private RaspberryPiDetector detector;
+
+    @Setup(Level.Trial)
+    public void setUp(CpuInfoFixture fixture) {
+        // Detect against the fixture only, as if on Linux without a device tree
+        detector = RaspberryPiDetector.builder()
+                .root(fixture.dir)
+                .cpuInfoPath(fixture.file.toPath())
+                .osName("Linux")
+                .build();
+        detector.refresh();
+    }
+
+    @Benchmark
+    public boolean isRaspberryPi() {
+        return detector.detection().isRaspberryPi();
+    }
+
+    @Benchmark
+    public String getRaspberryPiModel() {
+        return detector.detection().getModel();
+    }
+
+    @Benchmark
+    public DetectionResult refresh() {
+        return detector.refresh();
+    }
+}
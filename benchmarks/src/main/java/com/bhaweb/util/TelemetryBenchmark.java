@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the steady state of the {@link MemInfo} and {@link CpuStat} samplers, which should allocate nothing
+ * ({@code gc.alloc.rate.norm} close to 0).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TelemetryBenchmark {
+
+    @Param({"1", "4", "128"})
+    public int cpus;
+
+    private Path dir;
+    private MemInfo memInfo;
+    private CpuStat cpuStat;
+    private final double[] utilizations = new double[128];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("telemetry-bench");
+        Files.writeString(dir.resolve("meminfo"), "MemTotal:        1891540 kB\nMemFree:          986444 kB\n"
+                + "MemAvailable:    1398932 kB\nBuffers:           40180 kB\nCached:           493616 kB\n"
+                + "SwapCached:            0 kB\nActive:           321040 kB\nInactive:         390804 kB\n"
+                + "SwapTotal:        102396 kB\nSwapFree:         102396 kB\nDirty:                56 kB\n"
+                + "Shmem:             19428 kB\nCmaTotal:         262144 kB\nCmaFree:          250276 kB\n");
+        StringBuilder stat = new StringBuilder("cpu  104523 96 32104 8762371 5811 0 1123 0 0 0\n");
+        for (int cpu = 0; cpu < cpus; cpu++) {
+            stat.append("cpu").append(cpu).append(" 26130 24 8026 2190592 1452 0 280 0 0 0\n");
+        }
+        stat.append("intr 8219131 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0\nctxt 14231921\nbtime 1700000000\n");
+        Files.writeString(dir.resolve("stat"), stat);
+        memInfo = MemInfo.open(dir.resolve("meminfo"));
+        cpuStat = CpuStat.open(dir.resolve("stat"));
+        // Let the buffers grow to fit before measuring
+        memInfo.sample();
+        cpuStat.sample();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        memInfo.close();
+        cpuStat.close();
+        Files.delete(dir.resolve("meminfo"));
+        Files.delete(dir.resolve("stat"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public double sampleMemInfo() {
+        memInfo.sample();
+        return memInfo.getUsedFraction();
+    }
+
+    @Benchmark
+    public int sampleCpuStat() {
+        cpuStat.sample();
+        return cpuStat.getUtilizations(utilizations);
+    }
+}
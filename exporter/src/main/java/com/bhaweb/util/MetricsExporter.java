@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the metrics of a {@link PlatformInfo} at {@value #PATH} in the Prometheus text format, on the HTTP server
+ * built into the JDK, so a Pi can be scraped without running node_exporter next to the JVM.
+ * <p>
+ * Requests are handled on virtual threads where the runtime has them, Java 21 and later, and on a small pool of
+ * daemon threads otherwise. Scrapes only read the latest sample of the {@link PlatformInfo}, which is rendered into
+ * one reused buffer, so serving a scrape allocates little beyond what the HTTP server itself needs.
+ */
+public final class MetricsExporter implements Closeable {
+
+    /**
+     * Default port.
+     */
+    public static final int DEFAULT_PORT = 9110;
+
+    /**
+     * Path the metrics are served at.
+     */
+    public static final String PATH = "/metrics";
+
+    private static final int FALLBACK_THREADS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MetricsRenderer renderer;
+    // Guards the renderer, whose buffer is shared by all scrapes
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private MetricsExporter(HttpServer server, PlatformInfo info) {
+        this.server = server;
+        this.executor = newExecutor();
+        this.renderer = new MetricsRenderer(info);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving the metrics of a platform. The platform stays owned by the caller, who decides how often it
+     * samples.
+     *
+     * @param address the address to listen on, port 0 for any free port
+     * @param info the platform to serve
+     * @return the running exporter
+     * @throws IOException if the server cannot listen on the address
+     */
+    public static MetricsExporter start(InetSocketAddress address, PlatformInfo info) throws IOException {
+        Objects.requireNonNull(info, "info");
+        MetricsExporter exporter = new MetricsExporter(HttpServer.create(address, 0), info);
+        exporter.server.start();
+        return exporter;
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, looked up reflectively so this module still runs on
+     * Java 17, or a small fixed pool of daemon threads where virtual threads are not available.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 17 to 20, virtual threads are missing or a preview feature
+            return Executors.newFixedThreadPool(FALLBACK_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "metrics-exporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!PATH.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", MetricsRenderer.CONTENT_TYPE);
+            lock.lock();
+            try {
+                int length = renderer.render();
+                if ("HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(renderer.buffer(), 0, length);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the port the exporter listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving, without waiting for scrapes in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Serves the metrics of the local machine until the JVM is stopped.
+     *
+     * @param args optionally the port, by default {@value #DEFAULT_PORT}, and a directory standing in for the file
+     * system root, e.g. a captured sysfs tree
+     * @throws IOException if the server cannot listen on the port
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        PlatformInfo.Builder builder = PlatformInfo.builder();
+        if (args.length > 1) {
+            builder.root(Path.of(args[1]));
+        }
+        PlatformInfo info = builder.build().start();
+        MetricsExporter exporter = start(new InetSocketAddress(port), info);
+        System.out.println("Serving http://localhost:" + exporter.getPort() + PATH);
+    }
+}
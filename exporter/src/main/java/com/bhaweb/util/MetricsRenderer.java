@@ -0,0 +1,241 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Renders the board identity and the latest {@link PlatformInfo} sample in the Prometheus text exposition format.
+ * <p>
+ * The board identity never changes, so its lines are rendered once. Gauges are rendered on each call into a reused
+ * buffer, sized up front for the usual output, so rendering allocates nothing. Gauges whose value is not known are
+ * left out. Not thread safe, callers render and send under a lock.
+ */
+final class MetricsRenderer {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int FRACTION_DIGITS = 6;
+    private static final long FRACTION_SCALE = 1_000_000;
+    // Beyond this the scaled value would overflow a long
+    private static final double MAX_FIXED_POINT = 9e12;
+    private static final long KHZ = 1000;
+
+    private static final byte[] TEMPERATURE = gauge("rpi_temperature_celsius",
+            "Highest thermal zone temperature.");
+    private static final byte[] FREQUENCY = gauge("rpi_cpu_frequency_hertz",
+            "Highest current CPU frequency.");
+    private static final byte[] MAX_FREQUENCY = gauge("rpi_cpu_frequency_max_hertz",
+            "Highest maximum CPU frequency.");
+    private static final byte[] THROTTLED_BITS = gauge("rpi_throttled_bits",
+            "Firmware get_throttled bitmask, as printed by vcgencmd get_throttled.");
+    private static final byte[] THROTTLED = header("rpi_throttled",
+            "1 if a firmware throttling condition is active now.");
+    private static final byte[][] CONDITIONS = {
+            bytes("rpi_throttled{condition=\"under_voltage\"} "),
+            bytes("rpi_throttled{condition=\"frequency_capped\"} "),
+            bytes("rpi_throttled{condition=\"throttled\"} "),
+            bytes("rpi_throttled{condition=\"soft_temp_limit\"} ")
+    };
+    private static final byte[] CPU_UTILIZATION = gauge("rpi_cpu_utilization_ratio",
+            "Utilization of all CPUs between the last two samples.");
+    private static final byte[] MEMORY_TOTAL = gauge("rpi_memory_total_bytes",
+            "Total usable memory.");
+    private static final byte[] MEMORY_AVAILABLE = gauge("rpi_memory_available_bytes",
+            "Memory available for new work without swapping.");
+    private static final byte[] SWAP_USED = gauge("rpi_swap_used_ratio",
+            "Fraction of swap in use.");
+    private static final byte[] MEMORY_PRESSURE = gauge("rpi_memory_pressure_ratio",
+            "Share of time some task stalled on memory over the last 10 seconds.");
+    private static final byte[] SAMPLE_AGE = gauge("rpi_sample_age_seconds",
+            "Age of the sample the gauges were read from.");
+
+    private final PlatformInfo info;
+    private final byte[] boardInfo;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    MetricsRenderer(PlatformInfo info) {
+        this.info = info;
+        this.boardInfo = bytes("# HELP rpi_board_info Board detected by the Raspberry Pi detector.\n"
+                + "# TYPE rpi_board_info gauge\n"
+                + "rpi_board_info{raspberry_pi=\"" + info.isRaspberryPi()
+                + "\",model=\"" + escape(info.getBoardModel().isEmpty() ? info.getModel() : info.getBoardModel())
+                + "\",revision=\"" + escape(info.getRevisionCode())
+                + "\",board_type=\"" + escape(info.getBoardType())
+                + "\",soc=\"" + escape(info.getSoc())
+                + "\",memory_mb=\"" + (info.getBoardMemoryMb() < 0 ? "" : info.getBoardMemoryMb())
+                + "\",features=\"" + escape(info.getArmFeatures()) + "\"} 1\n");
+    }
+
+    /**
+     * Renders the metrics into the buffer.
+     *
+     * @return the number of bytes rendered
+     */
+    int render() {
+        length = 0;
+        append(boardInfo);
+        gauge(TEMPERATURE, info.getTemperatureCelsius());
+        frequency(FREQUENCY, info.getFrequencyKHz());
+        frequency(MAX_FREQUENCY, info.getMaxFrequencyKHz());
+        int bits = info.getThrottledBits();
+        if (bits >= 0) {
+            gauge(THROTTLED_BITS, bits);
+            append(THROTTLED);
+            condition(0, info.isUnderVoltage());
+            condition(1, info.isFrequencyCapped());
+            condition(2, info.isThrottled());
+            condition(3, info.isSoftTemperatureLimit());
+        }
+        gauge(CPU_UTILIZATION, info.getCpuUtilization());
+        gauge(MEMORY_TOTAL, info.getMemoryTotalBytes());
+        gauge(MEMORY_AVAILABLE, info.getMemoryAvailableBytes());
+        gauge(SWAP_USED, info.getSwapUsedFraction());
+        gauge(MEMORY_PRESSURE, info.getMemoryPressure() / 100);
+        gauge(SAMPLE_AGE, info.getSampleAgeMillis() / 1000.0);
+        return length;
+    }
+
+    /**
+     * @return the buffer holding the last rendering, valid up to the length returned by {@link #render()}
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    private void frequency(byte[] metric, long kHz) {
+        if (kHz >= 0) {
+            gauge(metric, kHz * KHZ);
+        }
+    }
+
+    private void condition(int index, boolean active) {
+        append(CONDITIONS[index]);
+        append(active ? '1' : '0');
+        append('\n');
+    }
+
+    private void gauge(byte[] metric, long value) {
+        if (value >= 0) {
+            append(metric);
+            appendLong(value);
+            append('\n');
+        }
+    }
+
+    private void gauge(byte[] metric, double value) {
+        if (!Double.isNaN(value)) {
+            append(metric);
+            appendDouble(value);
+            append('\n');
+        }
+    }
+
+    private void appendDouble(double value) {
+        if (Double.isInfinite(value)) {
+            append(value > 0 ? "+Inf" : "-Inf");
+            return;
+        }
+        if (Math.abs(value) >= MAX_FIXED_POINT) {
+            // Rare enough to allocate, the exponent notation of Java is valid in the text format
+            append(Double.toString(value));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * FRACTION_SCALE);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        appendLong(scaled / FRACTION_SCALE);
+        long fraction = scaled % FRACTION_SCALE;
+        if (fraction != 0) {
+            append('.');
+            int digits = FRACTION_DIGITS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (long scale = pow10(digits - 1); scale > 0; scale /= 10) {
+                append((char) ('0' + fraction / scale % 10));
+            }
+        }
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private void appendLong(long value) {
+        // Writes the digits right to left in place, values are never negative here
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(String text) {
+        append(bytes(text));
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static byte[] header(String name, String help) {
+        return bytes("# HELP " + name + " " + help + "\n# TYPE " + name + " gauge\n");
+    }
+
+    private static byte[] gauge(String name, String help) {
+        return bytes("# HELP " + name + " " + help + "\n# TYPE " + name + " gauge\n" + name + " ");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escapes a label value as the text format requires.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for MetricsExporter.
+ */
+public class MetricsExporterTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private PlatformInfo createPi4() throws IOException {
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    createFile("proc/cpuinfo", "processor\t: 0\nHardware\t: BCM2835\nRevision\t: c03114\n");
+    createFile("sys/class/thermal/thermal_zone0/temp", "61500\n");
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    return PlatformInfo.builder().root(tempDir).detector(detector).build();
+  }
+
+  private static HttpURLConnection connect(MetricsExporter exporter, String method, String path)
+      throws IOException {
+    URL url = URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + exporter.getPort()
+        + path).toURL();
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  private static MetricsExporter start(PlatformInfo info) throws IOException {
+    return MetricsExporter.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), info);
+  }
+
+  @Test
+  public void testScrape() throws IOException {
+    try (PlatformInfo info = createPi4(); MetricsExporter exporter = start(info)) {
+      HttpURLConnection connection = connect(exporter, "GET", MetricsExporter.PATH);
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(MetricsRenderer.CONTENT_TYPE, connection.getContentType());
+      String text;
+      try (InputStream body = connection.getInputStream()) {
+        text = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      assertTrue(text.contains("board_type=\"4B\""), text);
+      assertTrue(text.contains("\nrpi_temperature_celsius 61.5\n"), text);
+
+      // Scrapes see new samples
+      createFile("sys/class/thermal/thermal_zone0/temp", "70000\n");
+      info.sample();
+      connection = connect(exporter, "GET", MetricsExporter.PATH);
+      try (InputStream body = connection.getInputStream()) {
+        text = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      assertTrue(text.contains("\nrpi_temperature_celsius 70\n"), text);
+    }
+  }
+
+  @Test
+  public void testHead() throws IOException {
+    try (PlatformInfo info = createPi4(); MetricsExporter exporter = start(info)) {
+      HttpURLConnection connection = connect(exporter, "HEAD", MetricsExporter.PATH);
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(MetricsRenderer.CONTENT_TYPE, connection.getContentType());
+    }
+  }
+
+  @Test
+  public void testOtherRequests() throws IOException {
+    try (PlatformInfo info = createPi4(); MetricsExporter exporter = start(info)) {
+      assertEquals(404, connect(exporter, "GET", "/").getResponseCode());
+      assertEquals(404, connect(exporter, "GET", "/metrics/other").getResponseCode());
+      HttpURLConnection post = connect(exporter, "POST", MetricsExporter.PATH);
+      assertEquals(405, post.getResponseCode());
+      assertEquals("GET, HEAD", post.getHeaderField("Allow"));
+    }
+  }
+
+  @Test
+  public void testNewExecutor() throws Exception {
+    ExecutorService executor = MetricsExporter.newExecutor();
+    try {
+      assertNotNull(executor.submit(() -> "done").get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
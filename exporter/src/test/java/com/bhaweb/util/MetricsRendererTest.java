@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for MetricsRenderer.
+ */
+public class MetricsRendererTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private PlatformInfo createPi4() throws IOException {
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    createFile("proc/cpuinfo", "processor\t: 0\nFeatures\t: fp asimd\nHardware\t: BCM2835\nRevision\t: c03114\n");
+    createFile("proc/meminfo", "MemTotal: 4000000 kB\nMemAvailable: 1000000 kB\nSwapTotal: 0 kB\nSwapFree: 0 kB\n");
+    createFile("proc/pressure/memory", "some avg10=12.50 avg60=3.00 avg300=1.00 total=4200\n");
+    createFile("sys/class/thermal/thermal_zone0/temp", "61534\n");
+    createFile("sys/devices/system/cpu/online", "0\n");
+    createFile("sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq", "1800000\n");
+    createFile("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "1500000\n");
+    createFile(ThrottleMonitor.THROTTLED_PATH, "0x50005\n");
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    return PlatformInfo.builder().root(tempDir).detector(detector).build();
+  }
+
+  private static String render(MetricsRenderer renderer) {
+    int length = renderer.render();
+    return new String(renderer.buffer(), 0, length, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testRender() throws IOException {
+    try (PlatformInfo info = createPi4()) {
+      String text = render(new MetricsRenderer(info));
+
+      assertTrue(text.startsWith("# HELP rpi_board_info "), text);
+      assertTrue(text.contains("rpi_board_info{raspberry_pi=\"true\",model=\"Raspberry Pi 4 Model B Rev 1.4\","
+          + "revision=\"c03114\",board_type=\"4B\",soc=\"BCM2711\",memory_mb=\"4096\",features=\"fp asimd\"} 1\n"),
+          text);
+      assertTrue(text.contains("# TYPE rpi_temperature_celsius gauge\nrpi_temperature_celsius 61.534\n"), text);
+      assertTrue(text.contains("\nrpi_cpu_frequency_hertz 1500000000\n"), text);
+      assertTrue(text.contains("\nrpi_cpu_frequency_max_hertz 1800000000\n"), text);
+      assertTrue(text.contains("\nrpi_throttled_bits 327685\n"), text);
+      assertTrue(text.contains("# TYPE rpi_throttled gauge\nrpi_throttled{condition=\"under_voltage\"} 1\n"
+          + "rpi_throttled{condition=\"frequency_capped\"} 0\nrpi_throttled{condition=\"throttled\"} 1\n"
+          + "rpi_throttled{condition=\"soft_temp_limit\"} 0\n"), text);
+      assertTrue(text.contains("\nrpi_memory_total_bytes 4096000000\n"), text);
+      assertTrue(text.contains("\nrpi_memory_available_bytes 1024000000\n"), text);
+      assertTrue(text.contains("\nrpi_swap_used_ratio 0\n"), text);
+      assertTrue(text.contains("\nrpi_memory_pressure_ratio 0.125\n"), text);
+      assertTrue(text.contains("\nrpi_sample_age_seconds "), text);
+      // Utilization needs two samples
+      assertFalse(text.contains("rpi_cpu_utilization_ratio"), text);
+      assertTrue(text.endsWith("\n"));
+    }
+  }
+
+  @Test
+  public void testRender_UnknownGaugesLeftOut() throws IOException {
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    try (PlatformInfo info = PlatformInfo.builder().root(tempDir).detector(detector).build()) {
+      String text = render(new MetricsRenderer(info));
+
+      assertTrue(text.contains("rpi_board_info{raspberry_pi=\"false\",model=\"\",revision=\"\",board_type=\"\","
+          + "soc=\"\",memory_mb=\"\",features=\"\"} 1\n"), text);
+      assertFalse(text.contains("rpi_temperature_celsius"), text);
+      assertFalse(text.contains("rpi_throttled"), text);
+      assertFalse(text.contains("rpi_memory_total_bytes"), text);
+    }
+  }
+
+  @Test
+  public void testRender_ReusesBuffer() throws IOException {
+    try (PlatformInfo info = createPi4()) {
+      MetricsRenderer renderer = new MetricsRenderer(info);
+      String first = render(renderer);
+      byte[] buffer = renderer.buffer();
+
+      createFile("sys/class/thermal/thermal_zone0/temp", "70000\n");
+      info.sample();
+      String second = render(renderer);
+      assertSame(buffer, renderer.buffer());
+      assertTrue(first.contains("rpi_temperature_celsius 61.534\n"));
+      assertTrue(second.contains("rpi_temperature_celsius 70\n"), second);
+    }
+  }
+
+  @Test
+  public void testEscape() {
+    assertEquals("a\\\\b\\\"c\\nd", MetricsRenderer.escape("a\\b\"c\nd"));
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Immutable set of ARM CPU features, parsed from the {@code Features} field of {@code /proc/cpuinfo}.
+ * <p>
+ * The set is a single {@code long} with one bit per {@link Feature}, so checking for a feature is a mask test and
+ * callers can pick a NEON, CRC32 or AES accelerated code path without searching strings. 32-bit and 64-bit kernels
+ * name some features differently: 64-bit kernels report NEON as {@link Feature#ASIMD}, and floating point as
+ * {@link Feature#FP} rather than {@link Feature#VFP}. Unknown feature names are ignored.
+ */
+public final class ArmFeatures {
+
+    /**
+     * CPU feature reported by the kernel, named as in {@code /proc/cpuinfo}.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    public enum Feature {
+        // 64-bit kernels
+        FP("fp"),
+        ASIMD("asimd"),
+        EVTSTRM("evtstrm"),
+        AES("aes"),
+        PMULL("pmull"),
+        SHA1("sha1"),
+        SHA2("sha2"),
+        CRC32("crc32"),
+        ATOMICS("atomics"),
+        FPHP("fphp"),
+        ASIMDHP("asimdhp"),
+        CPUID("cpuid"),
+        ASIMDRDM("asimdrdm"),
+        JSCVT("jscvt"),
+        FCMA("fcma"),
+        LRCPC("lrcpc"),
+        DCPOP("dcpop"),
+        SHA3("sha3"),
+        SHA512("sha512"),
+        ASIMDDP("asimddp"),
+        ASIMDFHM("asimdfhm"),
+        SVE("sve"),
+        SVE2("sve2"),
+        ILRCPC("ilrcpc"),
+        FLAGM("flagm"),
+        SSBS("ssbs"),
+        SB("sb"),
+        PACA("paca"),
+        PACG("pacg"),
+        I8MM("i8mm"),
+        BF16("bf16"),
+        // 32-bit kernels
+        HALF("half"),
+        THUMB("thumb"),
+        FASTMULT("fastmult"),
+        VFP("vfp"),
+        EDSP("edsp"),
+        JAVA("java"),
+        TLS("tls"),
+        NEON("neon"),
+        VFPV3("vfpv3"),
+        VFPV3D16("vfpv3d16"),
+        VFPV4("vfpv4"),
+        VFPD32("vfpd32"),
+        IDIVA("idiva"),
+        IDIVT("idivt"),
+        LPAE("lpae"),
+        SWP("swp");
+
+        private final String name;
+        private final long mask;
+
+        Feature(String name) {
+            this.name = name;
+            this.mask = 1L << ordinal();
+        }
+
+        /**
+         * @return the name used in {@code /proc/cpuinfo}, e.g. "asimd"
+         */
+        public String getFeatureName() {
+            return name;
+        }
+
+        /**
+         * @return the bit of this feature in {@link ArmFeatures#getBits()}
+         */
+        public long getMask() {
+            return mask;
+        }
+    }
+
+    /**
+     * The empty set, reported when the CPU info has no {@code Features} field or was not read.
+     */
+    public static final ArmFeatures NONE = new ArmFeatures(0);
+
+    private static final Feature[] FEATURES = Feature.values();
+    private static final Map<String, Feature> BY_NAME = new HashMap<>();
+    // Indexed by feature ordinal
+    private static final byte[][] NAME_BYTES = new byte[FEATURES.length][];
+
+    static {
+        for (Feature feature : FEATURES) {
+            BY_NAME.put(feature.name, feature);
+            NAME_BYTES[feature.ordinal()] = feature.name.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final long bits;
+
+    private ArmFeatures(long bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Parses the value of a {@code Features} field, a list of feature names separated by whitespace.
+     *
+     * @param features the field value, e.g. {@code fp asimd evtstrm crc32 cpuid}
+     * @return the features, unknown names ignored
+     */
+    public static ArmFeatures parse(String features) {
+        long bits = 0;
+        int length = features.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && Character.isWhitespace(features.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while (end < length && !Character.isWhitespace(features.charAt(end))) {
+                end++;
+            }
+            if (end > start) {
+                Feature feature = BY_NAME.get(features.substring(start, end));
+                if (feature != null) {
+                    bits |= feature.mask;
+                }
+            }
+            start = end;
+        }
+        return fromBits(bits);
+    }
+
+    /**
+     * Parses the value of a {@code Features} field from ASCII bytes, without allocating.
+     *
+     * @param bytes the bytes holding the field value
+     * @param from the start of the value, inclusive
+     * @param to the end of the value, exclusive
+     * @return the features, unknown names ignored
+     */
+    static ArmFeatures parse(byte[] bytes, int from, int to) {
+        long bits = 0;
+        int start = from;
+        while (start < to) {
+            while (start < to && (bytes[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            int end = start;
+            while (end < to && (bytes[end] & 0xFF) > ' ') {
+                end++;
+            }
+            for (int i = 0; i < FEATURES.length && end > start; i++) {
+                if (Arrays.equals(bytes, start, end, NAME_BYTES[i], 0, NAME_BYTES[i].length)) {
+                    bits |= FEATURES[i].mask;
+                    break;
+                }
+            }
+            start = end;
+        }
+        return fromBits(bits);
+    }
+
+    /**
+     * Creates a set from its bits, e.g. as previously returned by {@link #getBits()}.
+     *
+     * @param bits the feature bits, bits not assigned to a feature are ignored
+     * @return the features
+     */
+    public static ArmFeatures fromBits(long bits) {
+        bits &= (1L << FEATURES.length) - 1;
+        return bits == 0 ? NONE : new ArmFeatures(bits);
+    }
+
+    /**
+     * @param feature the feature
+     * @return true if the CPU has the feature
+     */
+    public boolean has(Feature feature) {
+        return (bits & feature.mask) != 0;
+    }
+
+    /**
+     * @param mask the bits of several features, combined with {@link Feature#getMask()}
+     * @return true if the CPU has all the features
+     */
+    public boolean hasAll(long mask) {
+        return (bits & mask) == mask;
+    }
+
+    /**
+     * @return true if the CPU has the Advanced SIMD (NEON) unit, as {@link Feature#ASIMD} or {@link Feature#NEON}
+     */
+    public boolean hasSimd() {
+        return (bits & (Feature.ASIMD.mask | Feature.NEON.mask)) != 0;
+    }
+
+    /**
+     * @return true if no feature is known
+     */
+    public boolean isEmpty() {
+        return bits == 0;
+    }
+
+    /**
+     * @return the feature bits, one {@link Feature#getMask()} per feature
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ArmFeatures && ((ArmFeatures) o).bits == bits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(bits);
+    }
+
+    /**
+     * @return the names of the features as in {@code /proc/cpuinfo}, in {@link Feature} order and separated by
+     * spaces, e.g. "fp asimd crc32", or an empty string if no feature is known
+     */
+    public String getNames() {
+        StringJoiner names = new StringJoiner(" ");
+        for (Feature feature : FEATURES) {
+            if (has(feature)) {
+                names.add(feature.name);
+            }
+        }
+        return names.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ArmFeatures{" + getNames() + "}";
+    }
+}
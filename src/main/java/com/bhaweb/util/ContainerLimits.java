@@ -0,0 +1,460 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sampler of the cgroup resource limits of this process, combined with the hardware into an effective CPU and
+ * memory budget. On a Pi running services in containers, the board reported by {@link RaspberryPiDetector} is not
+ * what the process can use.
+ * <p>
+ * Both cgroup v2 ({@code cpu.max}, {@code cpu.weight}, {@code memory.max}, {@code memory.high},
+ * {@code cpuset.cpus.effective}) and v1 ({@code cpu.cfs_quota_us}, {@code cpu.shares},
+ * {@code memory.limit_in_bytes}, {@code memory.soft_limit_in_bytes}, {@code cpuset.cpus}) are read. CPU and memory
+ * limits of ancestor groups apply too, so the tightest along the path to the root wins. The files are opened once
+ * and each {@link #sample()} re-reads them without allocating, so autoscaling logic can poll cheaply. Instances are
+ * not thread safe.
+ */
+public final class ContainerLimits implements Closeable {
+
+    static final String CGROUP_PATH = "proc/self/cgroup";
+    static final String CGROUP_ROOT = "sys/fs/cgroup";
+
+    /**
+     * Version of the cgroup hierarchy the limits are read from.
+     */
+    public enum Version {
+        /** No cgroup hierarchy was found, only the hardware limits apply. */
+        NONE,
+        /** The per-controller hierarchies of cgroup v1. */
+        V1,
+        /** The unified hierarchy of cgroup v2. */
+        V2
+    }
+
+    // cgroup v1 reports no limit as the largest long aligned to the kernel page size, which is up to 64 KiB
+    private static final long V1_UNLIMITED = Long.MAX_VALUE & ~0xFFFFL;
+    private static final long DEFAULT_CPU_PERIOD = 100_000;
+
+    private final Version version;
+    private final int hardwareCpus;
+    private final long hardwareMemoryBytes;
+    // One entry per group from this process' group up to the root, null where a file is missing
+    private final SysFile[] cpuQuotas;
+    private final SysFile[] cpuPeriods;
+    private final SysFile[] memoryMaxes;
+    private final SysFile[] memoryHighs;
+    private final SysFile cpuWeight;
+    private final SysFile cpuset;
+
+    private double cpuLimit = Double.POSITIVE_INFINITY;
+    private long weight = -1;
+    private int cpusetCount = -1;
+    private long memoryMax = -1;
+    private long memoryHigh = -1;
+
+    private ContainerLimits(Version version, int hardwareCpus, long hardwareMemoryBytes, List<Path> cpuGroups,
+                            List<Path> memoryGroups, Path cpusetGroup) {
+        this.version = version;
+        this.hardwareCpus = hardwareCpus;
+        this.hardwareMemoryBytes = hardwareMemoryBytes;
+        boolean v2 = version == Version.V2;
+        this.cpuQuotas = open(cpuGroups, v2 ? "cpu.max" : "cpu.cfs_quota_us");
+        this.cpuPeriods = v2 ? new SysFile[cpuGroups.size()] : open(cpuGroups, "cpu.cfs_period_us");
+        this.memoryMaxes = open(memoryGroups, v2 ? "memory.max" : "memory.limit_in_bytes");
+        this.memoryHighs = open(memoryGroups, v2 ? "memory.high" : "memory.soft_limit_in_bytes");
+        this.cpuWeight = cpuGroups.isEmpty() ? null
+                : SysFile.open(cpuGroups.get(0).resolve(v2 ? "cpu.weight" : "cpu.shares"));
+        this.cpuset = cpusetGroup == null ? null : openFirst(cpusetGroup, v2
+                ? new String[]{"cpuset.cpus.effective"} : new String[]{"cpuset.effective_cpus", "cpuset.cpus"});
+    }
+
+    private static SysFile[] open(List<Path> groups, String name) {
+        SysFile[] files = new SysFile[groups.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = SysFile.open(groups.get(i).resolve(name));
+        }
+        return files;
+    }
+
+    private static SysFile openFirst(Path group, String... names) {
+        for (String name : names) {
+            SysFile file = SysFile.open(group.resolve(name), 256);
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the limits of this process on the local machine, and samples them.
+     *
+     * @return the sampler
+     */
+    public static ContainerLimits open() {
+        return open(Path.of("/"));
+    }
+
+    /**
+     * Opens the limits from the standard locations below the given directory, e.g. {@code root/sys/fs/cgroup}, and
+     * samples them. A system without cgroups yields a sampler reporting the hardware only.
+     *
+     * @param root the directory standing in for the file system root
+     * @return the sampler
+     */
+    public static ContainerLimits open(Path root) {
+        int cpus = CpuTopology.read(root).getOnlineCount();
+        long memory = -1;
+        try (MemInfo memInfo = MemInfo.open(root.resolve(MemInfo.DEFAULT_MEM_INFO_PATH.substring(1)))) {
+            if (memInfo.sample() && memInfo.getTotalKb() > 0) {
+                memory = memInfo.getTotalKb() * 1024;
+            }
+        } catch (IOException e) {
+            // memory is then bounded by the cgroup limits only
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(root.resolve(CGROUP_PATH), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            lines = List.of();
+        }
+        Path mount = root.resolve(CGROUP_ROOT);
+        ContainerLimits limits;
+        if (Files.exists(mount.resolve("cgroup.controllers"))) {
+            List<Path> groups = groups(mount, group(lines, ""));
+            limits = new ContainerLimits(Version.V2, cpus, memory, groups, groups, groups.get(0));
+        } else if (group(lines, "memory") != null || group(lines, "cpu") != null) {
+            List<Path> cpuGroups = v1Groups(mount, lines, "cpu");
+            List<Path> memoryGroups = v1Groups(mount, lines, "memory");
+            List<Path> cpusetGroups = v1Groups(mount, lines, "cpuset");
+            limits = new ContainerLimits(Version.V1, cpus, memory, cpuGroups, memoryGroups,
+                    cpusetGroups.isEmpty() ? null : cpusetGroups.get(0));
+        } else {
+            limits = new ContainerLimits(Version.NONE, cpus, memory, List.of(), List.of(), null);
+        }
+        limits.sample();
+        return limits;
+    }
+
+    /**
+     * Finds the group of a controller in {@code /proc/self/cgroup}, whose lines are {@code id:controllers:path}.
+     *
+     * @param controller the controller, or an empty string for the unified v2 hierarchy
+     * @return the group path and the controller list naming it, or null if the controller is not listed
+     */
+    private static String[] group(List<String> lines, String controller) {
+        for (String line : lines) {
+            String[] fields = line.split(":", 3);
+            if (fields.length < 3) {
+                continue;
+            }
+            if (controller.isEmpty() ? fields[0].equals("0") && fields[1].isEmpty()
+                    : List.of(fields[1].split(",")).contains(controller)) {
+                return new String[]{fields[2], fields[1]};
+            }
+        }
+        return controller.isEmpty() ? new String[]{"/", ""} : null;
+    }
+
+    private static List<Path> v1Groups(Path mount, List<String> lines, String controller) {
+        String[] group = group(lines, controller);
+        if (group == null) {
+            return List.of();
+        }
+        // Controllers mounted together share a directory, e.g. cpu,cpuacct
+        Path controllerMount = mount.resolve(group[1]);
+        if (!Files.isDirectory(controllerMount)) {
+            controllerMount = mount.resolve(controller);
+        }
+        return groups(controllerMount, group);
+    }
+
+    /**
+     * Lists the group directories from a group up to the mount point. In a cgroup namespace, or when the host
+     * path is not visible, the mount point itself is the group.
+     */
+    private static List<Path> groups(Path mount, String[] group) {
+        String relative = group[0].startsWith("/") ? group[0].substring(1) : group[0];
+        Path dir = mount.resolve(relative).normalize();
+        if (!dir.startsWith(mount) || !Files.isDirectory(dir)) {
+            dir = mount;
+        }
+        List<Path> groups = new ArrayList<>();
+        for (; dir != null && dir.startsWith(mount); dir = dir.getParent()) {
+            groups.add(dir);
+        }
+        return groups;
+    }
+
+    /**
+     * Re-reads the limits.
+     *
+     * @return true if any limit file was read
+     */
+    public boolean sample() {
+        boolean read = false;
+        double cpus = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < cpuQuotas.length; i++) {
+            SysFile quotaFile = cpuQuotas[i];
+            if (quotaFile == null) {
+                continue;
+            }
+            long quota;
+            long period;
+            if (version == Version.V2) {
+                // "max 100000" or "50000 100000"
+                ByteBuffer bytes = quotaFile.read();
+                if (bytes == null) {
+                    continue;
+                }
+                read = true;
+                quota = SysFile.parseLong(bytes, 0, bytes.limit(), 10);
+                period = SysFile.parseLong(bytes, nextToken(bytes), bytes.limit(), 10);
+            } else {
+                quota = quotaFile.readLong(10);
+                read |= quota != SysFile.UNAVAILABLE;
+                period = cpuPeriods[i] == null ? DEFAULT_CPU_PERIOD : cpuPeriods[i].readLong(10);
+            }
+            if (quota > 0 && period > 0) {
+                cpus = Math.min(cpus, (double) quota / period);
+            }
+        }
+        cpuLimit = cpus;
+
+        memoryMax = readMin(memoryMaxes);
+        memoryHigh = readMin(memoryHighs);
+        read |= memoryMax >= 0 || memoryHigh >= 0;
+
+        weight = -1;
+        if (cpuWeight != null) {
+            long value = cpuWeight.readLong(10);
+            if (value > 0) {
+                read = true;
+                // v1 shares map to v2 weights as systemd converts them, so the default 1024 shares is weight 100
+                weight = version == Version.V2 ? value
+                        : Math.max(1, Math.min(10000, Math.min(value, 262144) * 100 / 1024));
+            }
+        }
+
+        cpusetCount = -1;
+        if (cpuset != null) {
+            ByteBuffer bytes = cpuset.read();
+            if (bytes != null) {
+                read = true;
+                int count = countCpuList(bytes, 0, bytes.limit());
+                cpusetCount = count > 0 ? count : -1;
+            }
+        }
+        return read;
+    }
+
+    private static int nextToken(ByteBuffer bytes) {
+        int i = 0;
+        while (i < bytes.limit() && bytes.get(i) <= ' ') {
+            i++;
+        }
+        while (i < bytes.limit() && bytes.get(i) > ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the lowest limit in bytes, or -1 if there is none
+     */
+    private static long readMin(SysFile[] files) {
+        long min = -1;
+        for (SysFile file : files) {
+            // "max" does not parse, and also means no limit
+            long value = file == null ? SysFile.UNAVAILABLE : file.readLong(10);
+            if (value >= 0 && value < V1_UNLIMITED && (min < 0 || value < min)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Counts the CPUs in a CPU list such as {@code 0-3,6}, without allocating.
+     *
+     * @return the CPU count, or -1 if the list is malformed
+     */
+    static int countCpuList(ByteBuffer bytes, int from, int limit) {
+        int count = 0;
+        int i = from;
+        while (i < limit) {
+            int start = 0;
+            int digits = 0;
+            for (; i < limit && bytes.get(i) >= '0' && bytes.get(i) <= '9'; i++, digits++) {
+                start = start * 10 + bytes.get(i) - '0';
+            }
+            int end = start;
+            if (i < limit && bytes.get(i) == '-') {
+                end = 0;
+                int endDigits = 0;
+                for (i++; i < limit && bytes.get(i) >= '0' && bytes.get(i) <= '9'; i++, endDigits++) {
+                    end = end * 10 + bytes.get(i) - '0';
+                }
+                if (endDigits == 0 || end < start) {
+                    return -1;
+                }
+            }
+            if (digits > 0) {
+                count += end - start + 1;
+            }
+            if (i < limit && bytes.get(i) == ',') {
+                i++;
+            } else if (i < limit && bytes.get(i) > ' ') {
+                return -1;
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the cgroup version the limits are read from
+     */
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the CPU bandwidth limit in CPUs, e.g. 1.5, or positive infinity if there is none
+     */
+    public double getCpuLimit() {
+        return cpuLimit;
+    }
+
+    /**
+     * @return the relative CPU weight from 1 to 10000 (100 by default), v1 shares converted, or -1 if unknown
+     */
+    public long getCpuWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of CPUs in the cpuset, or -1 if unknown
+     */
+    public int getCpusetCount() {
+        return cpusetCount;
+    }
+
+    /**
+     * @return the hard memory limit in bytes, or -1 if there is none
+     */
+    public long getMemoryMaxBytes() {
+        return memoryMax;
+    }
+
+    /**
+     * @return the memory throttling threshold in bytes ({@code memory.high}, or the v1 soft limit), or -1 if there
+     * is none
+     */
+    public long getMemoryHighBytes() {
+        return memoryHigh;
+    }
+
+    /**
+     * @return the online CPUs of the hardware
+     */
+    public int getHardwareCpus() {
+        return hardwareCpus;
+    }
+
+    /**
+     * @return the physical memory in bytes, or -1 if unknown
+     */
+    public long getHardwareMemoryBytes() {
+        return hardwareMemoryBytes;
+    }
+
+    /**
+     * @return the CPUs the process can use: the online CPUs, capped by the cpuset and the bandwidth limit
+     */
+    public double getEffectiveCpus() {
+        double cpus = Math.min(hardwareCpus, cpuLimit);
+        return cpusetCount > 0 ? Math.min(cpus, cpusetCount) : cpus;
+    }
+
+    /**
+     * @return the effective CPUs rounded up, at least 1, e.g. to size a thread pool
+     */
+    public int getEffectiveCpuCount() {
+        return Math.max(1, (int) Math.ceil(getEffectiveCpus()));
+    }
+
+    /**
+     * @return the memory the process can use in bytes: the physical memory, capped by the hard limit and the
+     * throttling threshold, or -1 if none of them is known
+     */
+    public long getEffectiveMemoryBytes() {
+        return min(min(hardwareMemoryBytes, memoryMax), memoryHigh);
+    }
+
+    // The lower of two sizes, -1 meaning unknown
+    private static long min(long a, long b) {
+        return a < 0 ? b : b < 0 ? a : Math.min(a, b);
+    }
+
+    /**
+     * @return true if the process is limited below the hardware in CPU or memory
+     */
+    public boolean isLimited() {
+        return getEffectiveCpus() < hardwareCpus || getEffectiveMemoryBytes() != hardwareMemoryBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SysFile[] files : new SysFile[][]{cpuQuotas, cpuPeriods, memoryMaxes, memoryHighs,
+                {cpuWeight, cpuset}}) {
+            for (SysFile file : files) {
+                try {
+                    if (file != null) {
+                        file.close();
+                    }
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ContainerLimits{version=%s, cpus=%.2f, memoryBytes=%d}", version, getEffectiveCpus(),
+                getEffectiveMemoryBytes());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable, structured view of the contents of {@code /proc/cpuinfo}.
+ * <p>
+ * Instances are created by {@link #parse(String)}, which walks the text once using indexes rather than splitting it
+ * into lines and fields, collecting the fields with the same rules as the streaming {@link CpuInfoParser}. Only the
+ * values of recognised fields are copied out of the source text, and per-processor blocks are kept as offsets into
+ * the source until requested.
+ * Absent fields are reported as an empty string.
+ */
+public final class CpuInfo {
+
+    static final String PROCESSOR_KEY = "processor";
+    static final String HARDWARE_KEY = "Hardware";
+    static final String REVISION_KEY = "Revision";
+    static final String SERIAL_KEY = "Serial";
+    static final String MODEL_KEY = "Model";
+    static final String MODEL_NAME_KEY = "model name";
+    static final String FEATURES_KEY = "Features";
+
+    private final String text;
+    private final String hardware;
+    private final String revision;
+    private final String serial;
+    private final String model;
+    private final String modelName;
+    private final String features;
+    // start and end offsets of each processor block, in pairs
+    private final int[] processorBounds;
+
+    private CpuInfo(String text, String hardware, String revision, String serial, String model, String modelName,
+                    String features, int[] processorBounds) {
+        this.text = text;
+        this.hardware = hardware;
+        this.revision = revision;
+        this.serial = serial;
+        this.model = model;
+        this.modelName = modelName;
+        this.features = features;
+        this.processorBounds = processorBounds;
+    }
+
+    /**
+     * Parses CPU info text in a single pass.
+     * When a field occurs more than once (e.g. {@code model name} in every processor block) the first value wins.
+     *
+     * @param text the CPU info text
+     * @return the parsed CPU info
+     */
+    public static CpuInfo parse(String text) {
+        // One byte per char, so line offsets into the bytes are offsets into the text
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        CpuInfoFields fields = new CpuInfoFields();
+        CpuInfoParser.FieldLines fieldLines = new CpuInfoParser.FieldLines(fields);
+        int[] bounds = new int[8];
+        int blockCount = 0;
+        int blockStart = -1;
+
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = CpuInfoParser.indexOfNewline(bytes, lineStart, bytes.length);
+            int processorCount = fields.getProcessorCount();
+            fieldLines.line(bytes, lineStart, lineEnd);
+            if (fields.getProcessorCount() > processorCount) {
+                // A processor line starts a block
+                if (blockStart >= 0) {
+                    bounds = addBlock(text, bounds, blockCount++, blockStart, lineStart);
+                }
+                blockStart = lineStart;
+            } else if (blockStart >= 0 && CpuInfoParser.trimStart(bytes, lineStart, lineEnd) == lineEnd) {
+                // A blank line ends one
+                bounds = addBlock(text, bounds, blockCount++, blockStart, lineStart);
+                blockStart = -1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (blockStart >= 0) {
+            bounds = addBlock(text, bounds, blockCount++, blockStart, bytes.length);
+        }
+        return new CpuInfo(text, fields.getHardware(), fields.getRevision(), fields.getSerial(), fields.getModel(),
+                fields.getModelName(), fields.getFeatures(), Arrays.copyOf(bounds, blockCount * 2));
+    }
+
+    /**
+     * @return the value of the {@code Hardware} field, e.g. {@code BCM2835}
+     */
+    public String getHardware() {
+        return hardware;
+    }
+
+    /**
+     * @return the value of the {@code Revision} field, e.g. {@code c03111}
+     */
+    public String getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the value of the {@code Serial} field
+     */
+    public String getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return the value of the {@code Model} field, e.g. {@code Raspberry Pi 4 Model B Rev 1.4}
+     */
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * @return the value of the first {@code model name} field, e.g. {@code ARMv7 Processor rev 3 (v7l)}
+     */
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * @return the value of the first {@code Features} field, a space separated list of CPU features
+     */
+    public String getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return the number of processor blocks
+     */
+    public int getProcessorCount() {
+        return processorBounds.length / 2;
+    }
+
+    /**
+     * Gets the text of a processor block, starting at its {@code processor} line.
+     *
+     * @param index the zero based block index
+     * @return the text of the block, without the trailing blank line
+     * @throws IndexOutOfBoundsException if there is no such block
+     */
+    public String getProcessorBlock(int index) {
+        if (index < 0 || index >= getProcessorCount()) {
+            throw new IndexOutOfBoundsException("Processor block " + index + " of " + getProcessorCount());
+        }
+        return text.substring(processorBounds[index * 2], processorBounds[index * 2 + 1]);
+    }
+
+    @Override
+    public String toString() {
+        return "CpuInfo{hardware='" + hardware + "', revision='" + revision + "', model='" + model
+                + "', modelName='" + modelName + "', processors=" + getProcessorCount() + "}";
+    }
+
+    private static int[] addBlock(String text, int[] bounds, int index, int start, int end) {
+        if (bounds.length < (index + 1) * 2) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[index * 2] = start;
+        // Exclude the line break ending the block
+        bounds[index * 2 + 1] = trimEnd(text, start, end);
+        return bounds;
+    }
+
+    private static int trimEnd(String text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+}
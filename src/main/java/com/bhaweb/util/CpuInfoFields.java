@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Collects the recognised {@link CpuInfo} fields from a {@link CpuInfoParser} run, without keeping the text.
+ * {@link CpuInfo#parse(String)} collects its fields with this class too, so both follow the same rules: the first
+ * value of a field wins and absent fields are empty strings. Processors are counted by their {@code processor} lines.
+ */
+final class CpuInfoFields implements CpuInfoParser.Visitor {
+
+    private String hardware = "";
+    private String revision = "";
+    private String serial = "";
+    private String model = "";
+    private String modelName = "";
+    private String features = "";
+    private int processorCount;
+    private int fieldCount;
+
+    /**
+     * Streams a CPU info file.
+     *
+     * @param cpuInfoFile the CPU info file, which may belong to any file system
+     * @return the collected fields
+     * @throws IOException if an I/O error occurs
+     */
+    static CpuInfoFields read(Path cpuInfoFile) throws IOException {
+        CpuInfoFields fields = new CpuInfoFields();
+        try (SeekableByteChannel channel = Files.newByteChannel(cpuInfoFile)) {
+            CpuInfoParser.parse(channel, fields);
+        }
+        return fields;
+    }
+
+    @Override
+    public void field(CharSequence key, CharSequence value) {
+        fieldCount++;
+        if (CpuInfo.PROCESSOR_KEY.contentEquals(key)) {
+            processorCount++;
+        } else if (hardware.isEmpty() && CpuInfo.HARDWARE_KEY.contentEquals(key)) {
+            hardware = value.toString();
+        } else if (revision.isEmpty() && CpuInfo.REVISION_KEY.contentEquals(key)) {
+            revision = value.toString();
+        } else if (serial.isEmpty() && CpuInfo.SERIAL_KEY.contentEquals(key)) {
+            serial = value.toString();
+        } else if (model.isEmpty() && CpuInfo.MODEL_KEY.contentEquals(key)) {
+            model = value.toString();
+        } else if (modelName.isEmpty() && CpuInfo.MODEL_NAME_KEY.contentEquals(key)) {
+            modelName = value.toString();
+        } else if (features.isEmpty() && CpuInfo.FEATURES_KEY.contentEquals(key)) {
+            features = value.toString();
+        }
+    }
+
+    /**
+     * @param markers the marker database
+     * @return true if the {@code Hardware} field names Raspberry Pi hardware or the {@code Model} field names a
+     * Raspberry Pi, false otherwise
+     */
+    boolean isRaspberryPi(SbcMarkers markers) {
+        return markers.findHardware(hardware) >= 0 || markers.findModel(model) >= 0;
+    }
+
+    /**
+     * @return true if no field was collected
+     */
+    boolean isEmpty() {
+        return fieldCount == 0;
+    }
+
+    String getHardware() {
+        return hardware;
+    }
+
+    String getRevision() {
+        return revision;
+    }
+
+    String getSerial() {
+        return serial;
+    }
+
+    String getModel() {
+        return model;
+    }
+
+    String getModelName() {
+        return modelName;
+    }
+
+    String getFeatures() {
+        return features;
+    }
+
+    ArmFeatures getArmFeatures() {
+        return ArmFeatures.parse(features);
+    }
+
+    int getProcessorCount() {
+        return processorCount;
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming parser of {@code /proc/cpuinfo} content, for inputs too large to hold as one string, such as servers
+ * with hundreds of cores or concatenated captures of a whole fleet.
+ * <p>
+ * Input is read from a channel in chunks into a buffer that only grows to fit the longest line, so memory stays
+ * bounded regardless of input size. Visitor parses reuse the buffer of the previous parse unless it had to grow.
+ * Content can be pushed to a {@link Visitor} line by line, or pulled as a
+ * {@linkplain #blocks(ReadableByteChannel) stream of blocks}. Bytes are mapped to characters one to one
+ * (ISO-8859-1), CPU info being ASCII.
+ */
+public final class CpuInfoParser {
+
+    /**
+     * Longest line accepted, longer lines fail the parse rather than growing the buffer without bound.
+     */
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Longest block accepted by {@link #blocks(ReadableByteChannel)}.
+     */
+    public static final int MAX_BLOCK_LENGTH = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    // Line buffer reused between parses, taken while in use so concurrent parses never share it
+    private static final AtomicReference<byte[]> SPARE_BUFFER = new AtomicReference<>();
+
+    private CpuInfoParser() {
+    }
+
+    /**
+     * Receives the lines of CPU info content. The character sequences passed are views into the parse buffer,
+     * valid only during the call; use {@code toString()} to keep them.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for each {@code key : value} line.
+         *
+         * @param key the key, without surrounding whitespace
+         * @param value the value, without surrounding whitespace
+         */
+        default void field(CharSequence key, CharSequence value) {
+        }
+
+        /**
+         * Called for each blank line, which ends a block.
+         */
+        default void blankLine() {
+        }
+
+        /**
+         * Called for each non-blank line without a colon, e.g. a header between concatenated captures.
+         *
+         * @param line the line, without surrounding whitespace
+         */
+        default void otherLine(CharSequence line) {
+        }
+
+        /**
+         * Checked after each line, so a visitor can stop the parse once it has what it needs.
+         *
+         * @return true to stop parsing
+         */
+        default boolean isDone() {
+            return false;
+        }
+    }
+
+    /**
+     * Receives the raw lines of CPU info content, for callers that route or match lines without decoding them.
+     */
+    interface LineVisitor {
+
+        /**
+         * Called for each line. The range indexes into the parse buffer and is valid only during the call.
+         *
+         * @param bytes the parse buffer
+         * @param from the start of the line, inclusive
+         * @param to the end of the line, exclusive, without its line break
+         * @throws IOException to fail the parse
+         */
+        void line(byte[] bytes, int from, int to) throws IOException;
+
+        /**
+         * Checked after each line, so a visitor can stop the parse once it has what it needs.
+         *
+         * @return true to stop parsing
+         */
+        default boolean isDone() {
+            return false;
+        }
+    }
+
+    /**
+     * Pushes the lines read from a channel to a visitor, until the end of the channel or the visitor is done.
+     * The channel is not closed.
+     *
+     * @param channel the channel
+     * @param visitor the visitor
+     * @throws IOException if reading fails or a line is longer than {@link #MAX_LINE_LENGTH}
+     */
+    public static void parse(ReadableByteChannel channel, Visitor visitor) throws IOException {
+        lines(channel, new FieldLines(visitor));
+    }
+
+    /**
+     * Splits raw lines into fields, blank lines and other lines for a {@link Visitor}, so callers matching some
+     * lines on their raw bytes, or walking text of their own, apply the same field rules in one pass.
+     */
+    static final class FieldLines implements LineVisitor {
+
+        private final Visitor visitor;
+        private final Ascii key = new Ascii();
+        private final Ascii value = new Ascii();
+
+        FieldLines(Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void line(byte[] bytes, int from, int to) {
+            int start = trimStart(bytes, from, to);
+            int end = trimEnd(bytes, start, to);
+            if (start == end) {
+                visitor.blankLine();
+                return;
+            }
+            int colon = indexOf(bytes, (byte) ':', start, end);
+            if (colon < 0) {
+                visitor.otherLine(key.set(bytes, start, end));
+            } else {
+                int valueStart = trimStart(bytes, colon + 1, end);
+                visitor.field(key.set(bytes, start, trimEnd(bytes, start, colon)), value.set(bytes, valueStart, end));
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return visitor.isDone();
+        }
+    }
+
+    /**
+     * Pushes the raw lines read from a channel to a visitor, until the end of the channel or the visitor is done.
+     * The channel is not closed.
+     *
+     * @param channel the channel
+     * @param visitor the visitor
+     * @throws IOException if reading fails, a line is longer than {@link #MAX_LINE_LENGTH} or the visitor fails
+     */
+    static void lines(ReadableByteChannel channel, LineVisitor visitor) throws IOException {
+        byte[] spare = SPARE_BUFFER.getAndSet(null);
+        LineReader lines = new LineReader(channel, spare == null ? new byte[BUFFER_SIZE] : spare);
+        try {
+            while (!visitor.isDone() && lines.next()) {
+                visitor.line(lines.bytes, lines.lineStart, lines.lineEnd);
+            }
+        } finally {
+            // A buffer grown for a long line is dropped, so the spare stays small
+            if (lines.bytes.length == BUFFER_SIZE) {
+                SPARE_BUFFER.set(lines.bytes);
+            }
+        }
+    }
+
+    /**
+     * Streams the blocks read from a channel, the runs of lines separated by blank lines, such as one processor
+     * block each. Each block is the text of its lines, without the separating blank lines. The channel is not
+     * closed, and the stream should be consumed before the channel is closed.
+     *
+     * @param channel the channel
+     * @return a sequential stream of blocks, reading fails with an {@link UncheckedIOException}
+     */
+    public static Stream<String> blocks(ReadableByteChannel channel) {
+        return StreamSupport.stream(new BlockSpliterator(new LineReader(channel, new byte[BUFFER_SIZE])), false);
+    }
+
+    /**
+     * Pulls one block at a time. Splitting, e.g. for a parallel stream, hands out batches of blocks.
+     */
+    private static final class BlockSpliterator extends Spliterators.AbstractSpliterator<String> {
+
+        private final LineReader lines;
+        private final StringBuilder block = new StringBuilder();
+
+        BlockSpliterator(LineReader lines) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            try {
+                while (lines.next()) {
+                    byte[] bytes = lines.bytes;
+                    if (trimStart(bytes, lines.lineStart, lines.lineEnd) == lines.lineEnd) {
+                        if (block.length() > 0) {
+                            return emit(action);
+                        }
+                        continue;
+                    }
+                    int length = lines.lineEnd - lines.lineStart;
+                    if (block.length() + length > MAX_BLOCK_LENGTH) {
+                        throw new IOException("Block longer than " + MAX_BLOCK_LENGTH + " bytes");
+                    }
+                    if (block.length() > 0) {
+                        block.append('\n');
+                    }
+                    block.append(new String(bytes, lines.lineStart, length, StandardCharsets.ISO_8859_1));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return block.length() > 0 && emit(action);
+        }
+
+        private boolean emit(Consumer<? super String> action) {
+            String text = block.toString();
+            block.setLength(0);
+            action.accept(text);
+            return true;
+        }
+    }
+
+    /**
+     * Reads lines from a channel into a reused buffer, growing it only for lines that do not fit.
+     */
+    private static final class LineReader {
+
+        private final ReadableByteChannel channel;
+        private byte[] bytes;
+        private ByteBuffer buffer;
+        // unconsumed bytes are bytes[start, limit)
+        private int start;
+        private int limit;
+        private boolean eof;
+        // the current line, without its line break
+        private int lineStart;
+        private int lineEnd;
+
+        LineReader(ReadableByteChannel channel, byte[] bytes) {
+            this.channel = channel;
+            this.bytes = bytes;
+            this.buffer = ByteBuffer.wrap(bytes);
+        }
+
+        boolean next() throws IOException {
+            while (true) {
+                int newline = indexOfNewline(bytes, start, limit);
+                if (newline < limit) {
+                    lineStart = start;
+                    lineEnd = newline;
+                    start = newline + 1;
+                    return true;
+                }
+                if (eof) {
+                    if (start == limit) {
+                        return false;
+                    }
+                    // Last line without a line break
+                    lineStart = start;
+                    lineEnd = limit;
+                    start = limit;
+                    return true;
+                }
+                fill();
+            }
+        }
+
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(bytes, start, bytes, 0, limit - start);
+                limit -= start;
+                start = 0;
+            }
+            if (limit == bytes.length) {
+                if (bytes.length >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+                }
+                byte[] larger = new byte[Math.min(bytes.length * 2, MAX_LINE_LENGTH)];
+                System.arraycopy(bytes, 0, larger, 0, limit);
+                bytes = larger;
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            buffer.limit(bytes.length).position(limit);
+            int read = channel.read(buffer);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Reused view of a range of ASCII bytes.
+     */
+    private static final class Ascii implements CharSequence {
+
+        private byte[] bytes;
+        private int from;
+        private int to;
+
+        Ascii set(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + (to - from));
+            }
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Finds the next line break, testing eight bytes at a time with the "has zero byte" bit trick.
+     *
+     * @return the index of the line break, or {@code to} if there is none
+     */
+    static int indexOfNewline(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONGS.get(bytes, i) ^ NEWLINES;
+            long zeroBytes = (word - ONES) & ~word & HIGH_BITS;
+            if (zeroBytes != 0) {
+                // Little endian, so the lowest flagged byte is the first line break
+                return i + (Long.numberOfTrailingZeros(zeroBytes) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int trimStart(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    static int trimEnd(byte[] bytes, int from, int to) {
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Sampler of the CPU time counters in {@code /proc/stat}, for live CPU utilization.
+ * <p>
+ * The file is kept open and each {@link #sample()} re-reads it into a reused direct buffer, parsing the {@code cpu}
+ * lines in place into a {@code long} array. The previous sample is kept in a second array, so utilization over the
+ * last interval is computed from the difference without allocating. New arrays are only allocated when the set of
+ * online CPUs changes. Instances are not thread safe.
+ */
+public final class CpuStat implements Closeable {
+
+    /**
+     * Path of the kernel statistics file.
+     */
+    public static final String DEFAULT_STAT_PATH = "/proc/stat";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * CPU time counter of a {@code cpu} line, in clock ticks.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    public enum Field {
+        USER, NICE, SYSTEM, IDLE, IOWAIT, IRQ, SOFTIRQ, STEAL, GUEST, GUEST_NICE
+    }
+
+    private static final int FIELD_COUNT = Field.values().length;
+    // Guest time is already counted in user and nice time, so the fields after STEAL are not part of the total
+    private static final int TOTAL_FIELDS = Field.STEAL.ordinal() + 1;
+    private static final int AGGREGATE_ID = -1;
+
+    private final SysFile file;
+    // Entry 0 is the aggregate cpu line, entries 1..n the per-CPU lines in file order
+    private int[] ids = new int[0];
+    private int[] nextIds = new int[0];
+    private long[] current = new long[0];
+    private long[] previous = new long[0];
+    private int entries;
+    private boolean hasPrevious;
+
+    private CpuStat(SysFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the statistics file of the local machine.
+     *
+     * @return the sampler, not yet sampled
+     * @throws IOException if the file cannot be opened
+     */
+    public static CpuStat open() throws IOException {
+        return open(Path.of(DEFAULT_STAT_PATH));
+    }
+
+    /**
+     * Opens a statistics file.
+     *
+     * @param path the file, e.g. {@code /proc/stat}
+     * @return the sampler, not yet sampled
+     * @throws IOException if the file cannot be opened
+     */
+    public static CpuStat open(Path path) throws IOException {
+        SysFile file = SysFile.open(path, BUFFER_SIZE);
+        if (file == null) {
+            throw new IOException("Cannot open " + path);
+        }
+        return new CpuStat(file);
+    }
+
+    /**
+     * Re-reads the counters. The previous counters are kept for the utilization over the interval between the two
+     * samples.
+     *
+     * @return true if the file was read, false if it could not be read and the previous counters were kept
+     */
+    public boolean sample() {
+        ByteBuffer bytes = file.read();
+        // Only the leading cpu lines are needed, grow only if they do not fit
+        while (bytes != null && file.isFull() && !endsCpuLines(bytes)) {
+            file.grow();
+            bytes = file.read();
+        }
+        if (bytes == null) {
+            return false;
+        }
+        int count = countCpuLines(bytes);
+        long[] next = previous;
+        if (next.length != count * FIELD_COUNT) {
+            next = new long[count * FIELD_COUNT];
+            nextIds = new int[count];
+        }
+        parse(bytes, next, nextIds);
+
+        boolean sameCpus = count == entries;
+        for (int i = 0; sameCpus && i < count; i++) {
+            sameCpus = ids[i] == nextIds[i];
+        }
+        hasPrevious = entries > 0 && sameCpus;
+        previous = sameCpus ? current : new long[count * FIELD_COUNT];
+        current = next;
+        int[] swap = ids.length == count ? ids : new int[count];
+        ids = nextIds;
+        nextIds = swap;
+        entries = count;
+        return true;
+    }
+
+    private static boolean endsCpuLines(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int line = 0;
+        while (line < limit && isCpuLine(bytes, line, limit)) {
+            line = nextLine(bytes, line, limit);
+        }
+        return line < limit;
+    }
+
+    private static int countCpuLines(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int count = 0;
+        int line = 0;
+        while (line < limit && isCpuLine(bytes, line, limit)) {
+            count++;
+            line = nextLine(bytes, line, limit);
+        }
+        return count;
+    }
+
+    /**
+     * Parses the leading {@code cpu} lines into counters and CPU ids, the aggregate line having id -1.
+     */
+    static void parse(ByteBuffer bytes, long[] counters, int[] cpuIds) {
+        int limit = bytes.limit();
+        int line = 0;
+        for (int entry = 0; entry < cpuIds.length && line < limit && isCpuLine(bytes, line, limit); entry++) {
+            int end = nextLine(bytes, line, limit) - 1;
+            int i = line + 3;
+            int id = AGGREGATE_ID;
+            if (i < end && bytes.get(i) != ' ') {
+                id = 0;
+                while (i < end && bytes.get(i) != ' ') {
+                    id = id * 10 + bytes.get(i++) - '0';
+                }
+            }
+            cpuIds[entry] = id;
+            int base = entry * FIELD_COUNT;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                while (i < end && bytes.get(i) == ' ') {
+                    i++;
+                }
+                // Older kernels have fewer columns
+                long value = i < end ? SysFile.parseLong(bytes, i, end, 10) : 0;
+                counters[base + field] = value == SysFile.UNAVAILABLE ? 0 : value;
+                while (i < end && bytes.get(i) != ' ') {
+                    i++;
+                }
+            }
+            line = end + 1;
+        }
+    }
+
+    private static boolean isCpuLine(ByteBuffer bytes, int line, int limit) {
+        return line + 3 < limit && bytes.get(line) == 'c' && bytes.get(line + 1) == 'p' && bytes.get(line + 2) == 'u';
+    }
+
+    private static int nextLine(ByteBuffer bytes, int line, int limit) {
+        int i = line;
+        while (i < limit && bytes.get(i) != '\n') {
+            i++;
+        }
+        return i + 1;
+    }
+
+    /**
+     * @return the number of per-CPU lines in the last sample, i.e. the online CPUs
+     */
+    public int getCpuCount() {
+        return Math.max(0, entries - 1);
+    }
+
+    /**
+     * @param index the index of the CPU line, from 0 to {@link #getCpuCount()} exclusive
+     * @return the CPU number of the line, as in {@code cpuN}
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int getCpuId(int index) {
+        return ids[entry(index)];
+    }
+
+    /**
+     * @param index the index of the CPU line, or -1 for the aggregate of all CPUs
+     * @param field the counter
+     * @return the counter in clock ticks from the last sample
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public long getTicks(int index, Field field) {
+        return current[entry(index) * FIELD_COUNT + field.ordinal()];
+    }
+
+    /**
+     * @return the utilization of all CPUs over the last interval, from 0 to 1, or NaN without two samples
+     */
+    public double getUtilization() {
+        return utilization(0);
+    }
+
+    /**
+     * @param index the index of the CPU line, from 0 to {@link #getCpuCount()} exclusive
+     * @return the utilization of the CPU over the last interval, from 0 to 1, or NaN without two samples
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public double getUtilization(int index) {
+        return utilization(entry(index));
+    }
+
+    /**
+     * Gets the utilization of every CPU over the last interval.
+     *
+     * @param utilizations the array receiving the utilization of each CPU line, at least {@link #getCpuCount()} long
+     * @return the number of CPUs written
+     * @throws IndexOutOfBoundsException if the array is too short
+     */
+    public int getUtilizations(double[] utilizations) {
+        int count = getCpuCount();
+        if (utilizations.length < count) {
+            throw new IndexOutOfBoundsException("Array length " + utilizations.length + " < " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            utilizations[i] = utilization(i + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return the fraction of time all CPUs spent waiting for I/O over the last interval, or NaN without two samples
+     */
+    public double getIoWaitFraction() {
+        long total = hasPrevious ? delta(0, 0, TOTAL_FIELDS) : 0;
+        return total <= 0 ? Double.NaN : (double) delta(0, Field.IOWAIT.ordinal(), 1) / total;
+    }
+
+    private double utilization(int entry) {
+        long total = hasPrevious ? delta(entry, 0, TOTAL_FIELDS) : 0;
+        if (total <= 0) {
+            return Double.NaN;
+        }
+        long idle = delta(entry, Field.IDLE.ordinal(), 1) + delta(entry, Field.IOWAIT.ordinal(), 1);
+        return Math.min(1.0, Math.max(0.0, (double) (total - idle) / total));
+    }
+
+    private long delta(int entry, int field, int fields) {
+        int base = entry * FIELD_COUNT + field;
+        long sum = 0;
+        for (int i = base; i < base + fields; i++) {
+            // iowait may go backwards on some kernels
+            sum += Math.max(0, current[i] - previous[i]);
+        }
+        return sum;
+    }
+
+    private int entry(int index) {
+        if (index < -1 || index >= entries - 1) {
+            throw new IndexOutOfBoundsException("CPU index " + index + " out of range, " + getCpuCount() + " CPUs");
+        }
+        return index + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CpuStat{cpus=%d, utilization=%.3f, ioWait=%.3f}", getCpuCount(), getUtilization(),
+                getIoWaitFraction());
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the CPU topology, read from {@code /sys/devices/system/cpu}.
+ * <p>
+ * Unlike {@link Runtime#availableProcessors()}, the topology tells online from possible CPUs, hardware threads from
+ * physical cores, and fast from slow clusters on heterogeneous (big.LITTLE style) ARM boards, which helps size
+ * executors. When sysfs is not available the CPU count falls back to the processor blocks of {@code /proc/cpuinfo},
+ * and then to {@link Runtime#availableProcessors()}.
+ */
+public final class CpuTopology {
+
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String CPU_DIR = "sys/devices/system/cpu";
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String CPU_INFO = "proc/cpuinfo";
+
+    /**
+     * One online logical CPU.
+     */
+    public static final class Cpu {
+
+        private final int id;
+        private final int coreId;
+        private final int packageId;
+        private final int clusterId;
+        private final long maxFrequencyKHz;
+
+        Cpu(int id, int coreId, int packageId, int clusterId, long maxFrequencyKHz) {
+            this.id = id;
+            this.coreId = coreId;
+            this.packageId = packageId;
+            this.clusterId = clusterId;
+            this.maxFrequencyKHz = maxFrequencyKHz;
+        }
+
+        /**
+         * @return the logical CPU number, as in {@code cpuN}
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the physical core id within the package, or -1 if unknown
+         */
+        public int getCoreId() {
+            return coreId;
+        }
+
+        /**
+         * @return the physical package (socket) id, or -1 if unknown
+         */
+        public int getPackageId() {
+            return packageId;
+        }
+
+        /**
+         * @return the cluster id, or -1 if the kernel does not report clusters
+         */
+        public int getClusterId() {
+            return clusterId;
+        }
+
+        /**
+         * @return the maximum frequency in kHz from {@code cpufreq/cpuinfo_max_freq}, or -1 if unknown
+         */
+        public long getMaxFrequencyKHz() {
+            return maxFrequencyKHz;
+        }
+
+        @Override
+        public String toString() {
+            return "Cpu{id=" + id + ", core=" + coreId + ", package=" + packageId + ", cluster=" + clusterId
+                    + ", maxFrequencyKHz=" + maxFrequencyKHz + "}";
+        }
+    }
+
+    private final BitSet possible;
+    private final BitSet online;
+    private final List<Cpu> cpus;
+    private final boolean fromSysfs;
+    private final int processorLimit;
+
+    private CpuTopology(BitSet possible, BitSet online, List<Cpu> cpus, boolean fromSysfs, int processorLimit) {
+        this.possible = possible;
+        this.online = online;
+        this.cpus = cpus;
+        this.fromSysfs = fromSysfs;
+        this.processorLimit = processorLimit;
+    }
+
+    /**
+     * Reads the topology of the local machine.
+     *
+     * @return the topology
+     */
+    public static CpuTopology read() {
+        return read(Path.of("/"));
+    }
+
+    /**
+     * Reads the topology from the standard locations below the given directory, e.g.
+     * {@code root/sys/devices/system/cpu}.
+     *
+     * @param root the directory standing in for the file system root
+     * @return the topology
+     */
+    public static CpuTopology read(Path root) {
+        return read(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param processorLimit the number of processors the JVM may use, which reflects cpusets and CPU quotas
+     */
+    static CpuTopology read(Path root, int processorLimit) {
+        Path cpuDir = root.resolve(CPU_DIR);
+        String onlineList = readString(cpuDir.resolve("online"));
+        if (onlineList == null) {
+            return fallback(root, processorLimit);
+        }
+        BitSet online;
+        BitSet possible;
+        try {
+            online = parseCpuList(onlineList);
+            String possibleList = readString(cpuDir.resolve("possible"));
+            possible = possibleList == null ? (BitSet) online.clone() : parseCpuList(possibleList);
+        } catch (IllegalArgumentException e) {
+            // A list the kernel would never write, count the CPUs some other way
+            return fallback(root, processorLimit);
+        }
+
+        List<Cpu> cpus = new ArrayList<>(online.cardinality());
+        for (int id = online.nextSetBit(0); id >= 0; id = online.nextSetBit(id + 1)) {
+            Path dir = cpuDir.resolve("cpu" + id);
+            cpus.add(new Cpu(id,
+                    (int) readLong(dir.resolve("topology/core_id")),
+                    (int) readLong(dir.resolve("topology/physical_package_id")),
+                    (int) readLong(dir.resolve("topology/cluster_id")),
+                    readLong(dir.resolve("cpufreq/cpuinfo_max_freq"))));
+        }
+        return new CpuTopology(possible, online, Collections.unmodifiableList(cpus), true, processorLimit);
+    }
+
+    private static CpuTopology fallback(Path root, int processorLimit) {
+        int count = 0;
+        Path cpuInfo = root.resolve(CPU_INFO);
+        if (Files.exists(cpuInfo)) {
+            try {
+                count = CpuInfoFields.read(cpuInfo).getProcessorCount();
+            } catch (IOException e) {
+                // fall through to the runtime count
+            }
+        }
+        if (count == 0) {
+            count = processorLimit;
+        }
+        BitSet online = new BitSet(count);
+        online.set(0, count);
+        List<Cpu> cpus = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            cpus.add(new Cpu(id, -1, -1, -1, -1));
+        }
+        return new CpuTopology((BitSet) online.clone(), online, Collections.unmodifiableList(cpus), false,
+                processorLimit);
+    }
+
+    /**
+     * @return true if the topology was read from sysfs, false if only a CPU count was available
+     */
+    public boolean isFromSysfs() {
+        return fromSysfs;
+    }
+
+    /**
+     * @return the number of possible CPUs, including offline ones
+     */
+    public int getPossibleCount() {
+        return possible.cardinality();
+    }
+
+    /**
+     * @return the number of online CPUs
+     */
+    public int getOnlineCount() {
+        return online.cardinality();
+    }
+
+    /**
+     * @param cpu the logical CPU number
+     * @return true if the CPU is online
+     */
+    public boolean isOnline(int cpu) {
+        return cpu >= 0 && online.get(cpu);
+    }
+
+    /**
+     * @return the online CPUs, in CPU number order
+     */
+    public List<Cpu> getCpus() {
+        return cpus;
+    }
+
+    /**
+     * Counts the physical cores of the online CPUs, so SMT siblings count once. ARM kernels may number cores per
+     * cluster, so cores are told apart by package, cluster and core id.
+     *
+     * @return the number of physical cores, or the online CPU count if core ids are unknown
+     */
+    public int getCoreCount() {
+        Set<Long> cores = new HashSet<>();
+        for (Cpu cpu : cpus) {
+            if (cpu.coreId < 0) {
+                return getOnlineCount();
+            }
+            cores.add(key(cpu.packageId, cpu.clusterId, cpu.coreId));
+        }
+        return cores.size();
+    }
+
+    /**
+     * Counts the clusters of the online CPUs. Clusters are taken from {@code topology/cluster_id} where the kernel
+     * reports it, otherwise CPUs sharing a maximum frequency are taken to form a cluster.
+     *
+     * @return the number of clusters, at least one
+     */
+    public int getClusterCount() {
+        Set<Long> clusters = new HashSet<>();
+        for (Cpu cpu : cpus) {
+            long cluster = cpu.clusterId >= 0 ? cpu.clusterId : cpu.maxFrequencyKHz / 1000;
+            clusters.add(key(cpu.packageId, cluster, 0));
+        }
+        return Math.max(1, clusters.size());
+    }
+
+    // Packs ids of at most 20 bits each, -1 included, into one set key
+    private static long key(long packageId, long clusterId, long coreId) {
+        return (packageId & 0xFFFFF) << 40 | (clusterId & 0xFFFFF) << 20 | coreId & 0xFFFFF;
+    }
+
+    /**
+     * @return the highest maximum frequency of the online CPUs in kHz, or -1 if unknown
+     */
+    public long getMaxFrequencyKHz() {
+        long max = -1;
+        for (Cpu cpu : cpus) {
+            max = Math.max(max, cpu.maxFrequencyKHz);
+        }
+        return max;
+    }
+
+    /**
+     * Counts the online CPUs running at the highest maximum frequency, i.e. the "big" cores of a heterogeneous board.
+     *
+     * @return the number of fastest CPUs, or the online CPU count if frequencies are unknown
+     */
+    public int getPerformanceCpuCount() {
+        long max = getMaxFrequencyKHz();
+        if (max < 0) {
+            return getOnlineCount();
+        }
+        int count = 0;
+        for (Cpu cpu : cpus) {
+            if (cpu.maxFrequencyKHz == max) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of processors the JVM could use when the topology was read, which reflects cpusets and
+     * CPU quotas
+     */
+    public int getProcessorLimit() {
+        return processorLimit;
+    }
+
+    /**
+     * Recommends a pool size for CPU-bound work: one thread per online CPU, but no more than the
+     * {@linkplain #getProcessorLimit() processor limit}.
+     *
+     * @return the recommended pool size, at least one
+     */
+    public int recommendedCpuBoundPoolSize() {
+        return Math.max(1, Math.min(getOnlineCount(), processorLimit));
+    }
+
+    /**
+     * Recommends a pool size for work that blocks, as {@code cpus * (1 + wait time / compute time)}.
+     *
+     * @param blockingCoefficient the ratio of time a task spends waiting to time it spends computing, e.g. 4.0
+     * @return the recommended pool size, at least the CPU-bound pool size
+     * @throws IllegalArgumentException if the coefficient is negative
+     */
+    public int recommendedIoBoundPoolSize(double blockingCoefficient) {
+        if (!(blockingCoefficient >= 0)) {
+            throw new IllegalArgumentException("Blocking coefficient must not be negative: " + blockingCoefficient);
+        }
+        return (int) Math.ceil(recommendedCpuBoundPoolSize() * (1 + blockingCoefficient));
+    }
+
+    @Override
+    public String toString() {
+        return "CpuTopology{possible=" + getPossibleCount() + ", online=" + getOnlineCount() + ", cores="
+                + getCoreCount() + ", clusters=" + getClusterCount() + ", maxFrequencyKHz=" + getMaxFrequencyKHz()
+                + "}";
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,6,8-9}.
+     *
+     * @param list the CPU list
+     * @return the CPUs in the list
+     * @throws IllegalArgumentException if the list is malformed or has a reversed range such as {@code 3-1}
+     */
+    static BitSet parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        int i = 0;
+        int length = list.length();
+        while (i < length) {
+            int start = i;
+            while (i < length && Character.isDigit(list.charAt(i))) {
+                i++;
+            }
+            if (start == i) {
+                throw new IllegalArgumentException("Malformed CPU list: " + list);
+            }
+            int from = Integer.parseInt(list, start, i, 10);
+            int to = from;
+            if (i < length && list.charAt(i) == '-') {
+                start = ++i;
+                while (i < length && Character.isDigit(list.charAt(i))) {
+                    i++;
+                }
+                if (start == i) {
+                    throw new IllegalArgumentException("Malformed CPU list: " + list);
+                }
+                to = Integer.parseInt(list, start, i, 10);
+                if (to < from) {
+                    throw new IllegalArgumentException("Reversed range in CPU list: " + list);
+                }
+            }
+            cpus.set(from, to + 1);
+            if (i < length && list.charAt(i) == ',') {
+                i++;
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Reads a small sysfs attribute.
+     *
+     * @return the trimmed content, or null if the file does not exist or cannot be read
+     */
+    static String readString(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a numeric sysfs attribute.
+     *
+     * @return the value, or -1 if the file does not exist, cannot be read or is not a number
+     */
+    static long readLong(Path file) {
+        String value = readString(file);
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
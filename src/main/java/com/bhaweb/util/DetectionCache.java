@@ -0,0 +1,247 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Persists a {@link DetectionResult} in a small versioned binary file, so a restarted JVM can skip detection.
+ * <p>
+ * The file is keyed by the boot id and the kernel release, so a reboot or kernel update invalidates it, and by the
+ * detector configuration. It is written to a temporary file and moved into place, and read back with a single
+ * memory mapped read. A file that is missing, corrupt, of another version or for another key reads as a miss.
+ * <pre>
+ * int    magic "RPDC"
+ * short  format version
+ * utf    boot id, kernel release, detector configuration
+ * byte   flags: 1 Raspberry Pi, 2 revision present
+ * byte   source ordinal
+ * utf    model, board model
+ * int    revision code
+ * long   {@link ArmFeatures} bits
+ * </pre>
+ * Strings are an unsigned short byte length followed by UTF-8 bytes.
+ */
+final class DetectionCache {
+
+    static final int MAGIC = 0x52504443;
+    static final short VERSION = 2;
+
+    private static final int MAX_SIZE = 64 * 1024;
+    private static final int FLAG_RASPBERRY_PI = 1;
+    private static final int FLAG_REVISION = 2;
+    private static final DetectionResult.Source[] SOURCES = DetectionResult.Source.values();
+
+    private DetectionCache() {
+    }
+
+    /**
+     * Identifies the boot, kernel and detector configuration a cached result is valid for.
+     */
+    static final class Key {
+
+        private final String bootId;
+        private final String kernelRelease;
+        private final String configuration;
+
+        Key(String bootId, String kernelRelease, String configuration) {
+            this.bootId = Objects.requireNonNull(bootId, "bootId");
+            this.kernelRelease = Objects.requireNonNull(kernelRelease, "kernelRelease");
+            this.configuration = Objects.requireNonNull(configuration, "configuration");
+        }
+
+        /**
+         * Reads the key of the running system.
+         *
+         * @param bootIdPath the boot id file, e.g. {@code /proc/sys/kernel/random/boot_id}
+         * @param kernelReleasePath the kernel release file, e.g. {@code /proc/sys/kernel/osrelease}
+         * @param configuration the detector configuration
+         * @return the key, or null if either file cannot be read, e.g. when not running on Linux
+         */
+        static Key read(Path bootIdPath, Path kernelReleasePath, String configuration) {
+            try {
+                String bootId = Files.readString(bootIdPath, StandardCharsets.US_ASCII).trim();
+                String kernelRelease = Files.readString(kernelReleasePath, StandardCharsets.US_ASCII).trim();
+                return bootId.isEmpty() || kernelRelease.isEmpty()
+                        ? null : new Key(bootId, kernelRelease, configuration);
+            } catch (IOException | UnsupportedOperationException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return bootId.equals(key.bootId) && kernelRelease.equals(key.kernelRelease)
+                    && configuration.equals(key.configuration);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bootId, kernelRelease, configuration);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{bootId=" + bootId + ", kernelRelease=" + kernelRelease + "}";
+        }
+    }
+
+    /**
+     * Reads a cached result.
+     *
+     * @param file the cache file
+     * @param key the key the result must have been written with
+     * @return the cached result, or null on a miss
+     */
+    static DetectionResult read(Path file, Key key) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                return null;
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(bytes, key);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    static DetectionResult decode(ByteBuffer bytes, Key key) {
+        try {
+            if (bytes.getInt() != MAGIC || bytes.getShort() != VERSION) {
+                return null;
+            }
+            Key cached = new Key(getString(bytes), getString(bytes), getString(bytes));
+            if (!cached.equals(key)) {
+                return null;
+            }
+            int flags = bytes.get();
+            int source = bytes.get();
+            String model = getString(bytes);
+            String boardModel = getString(bytes);
+            int revisionCode = bytes.getInt();
+            long armFeatures = bytes.getLong();
+            if (source < 0 || source >= SOURCES.length || bytes.hasRemaining()) {
+                return null;
+            }
+            PiRevision revision = (flags & FLAG_REVISION) == 0 ? null : PiRevision.decode(revisionCode).orElse(null);
+            return new DetectionResult((flags & FLAG_RASPBERRY_PI) != 0, SOURCES[source], model, boardModel,
+                    revision, ArmFeatures.fromBits(armFeatures));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a result to the cache, replacing the file atomically where the file system allows. Failures are
+     * ignored, the cache only saves work.
+     *
+     * @param file the cache file
+     * @param key the key to write the result with
+     * @param result the result
+     * @return true if the file was written
+     */
+    static boolean write(Path file, Key key, DetectionResult result) {
+        byte[] bytes = encode(key, result);
+        if (bytes == null) {
+            return false;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Path parent = file.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // nothing more to clean up
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the encoded result, or null if a string is too long to encode
+     */
+    static byte[] encode(Key key, DetectionResult result) {
+        byte[][] strings = {
+                utf8(key.bootId), utf8(key.kernelRelease), utf8(key.configuration),
+                utf8(result.getModel()), utf8(result.getBoardModel())
+        };
+        int size = 4 + 2 + 1 + 1 + 4 + 8;
+        for (byte[] string : strings) {
+            if (string.length > 0xFFFF) {
+                return null;
+            }
+            size += 2 + string.length;
+        }
+        PiRevision revision = result.getRevision().orElse(null);
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        bytes.putInt(MAGIC).putShort(VERSION);
+        putString(bytes, strings[0]);
+        putString(bytes, strings[1]);
+        putString(bytes, strings[2]);
+        bytes.put((byte) ((result.isRaspberryPi() ? FLAG_RASPBERRY_PI : 0) | (revision != null ? FLAG_REVISION : 0)));
+        bytes.put((byte) result.getSource().ordinal());
+        putString(bytes, strings[3]);
+        putString(bytes, strings[4]);
+        bytes.putInt(revision != null ? revision.getCode() : 0);
+        bytes.putLong(result.getArmFeatures().getBits());
+        return bytes.array();
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer bytes, byte[] string) {
+        bytes.putShort((short) string.length).put(string);
+    }
+
+    private static String getString(ByteBuffer bytes) {
+        int length = Short.toUnsignedInt(bytes.getShort());
+        if (length > bytes.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String string = StandardCharsets.UTF_8.decode(bytes.slice().limit(length)).toString();
+        bytes.position(bytes.position() + length);
+        return string;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.util.Optional;
+
+/**
+ * Immutable snapshot of a single Raspberry Pi detection run.
+ * Instances are cached by {@link RaspberryPiDetector} so repeated queries do not re-read system files.
+ */
+public final class DetectionResult {
+
+    /**
+     * The system source that gave the definitive detection answer.
+     */
+    public enum Source {
+        /** No source gave an answer, e.g. not running on Linux or no source could be read. */
+        NONE,
+        /** The device tree model, typically {@code /proc/device-tree/model}. */
+        DEVICE_TREE_MODEL,
+        /** The device tree compatible list, typically {@code /sys/firmware/devicetree/base/compatible}. */
+        DEVICE_TREE_COMPATIBLE,
+        /** The CPU info file, typically {@code /proc/cpuinfo}. */
+        CPU_INFO
+    }
+
+    /**
+     * Result used when the current system is not a Raspberry Pi and no source gave an answer.
+     */
+    static final DetectionResult NOT_RASPBERRY_PI = notRaspberryPi(Source.NONE);
+
+    private final boolean raspberryPi;
+    private final Source source;
+    private final String model;
+    private final String boardModel;
+    private final PiRevision revision;
+    private final ArmFeatures armFeatures;
+
+    DetectionResult(boolean raspberryPi, Source source, String model, String boardModel, PiRevision revision,
+                    ArmFeatures armFeatures) {
+        this.raspberryPi = raspberryPi;
+        this.source = source;
+        this.model = model;
+        this.boardModel = boardModel;
+        this.revision = revision;
+        this.armFeatures = armFeatures;
+    }
+
+    static DetectionResult notRaspberryPi(Source source) {
+        return notRaspberryPi(source, ArmFeatures.NONE);
+    }
+
+    static DetectionResult notRaspberryPi(Source source, ArmFeatures armFeatures) {
+        return new DetectionResult(false, source, "", "", null, armFeatures);
+    }
+
+    /**
+     * @return true if the system was detected as a Raspberry Pi, false otherwise
+     */
+    public boolean isRaspberryPi() {
+        return raspberryPi;
+    }
+
+    /**
+     * @return the model information, or an empty string if not running on a Pi
+     */
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * @return the source that gave the definitive answer
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return the board model, e.g. {@code Raspberry Pi 4 Model B Rev 1.4}, or an empty string if not known
+     */
+    public String getBoardModel() {
+        return boardModel;
+    }
+
+    /**
+     * @return the decoded board revision, or empty if not running on a Pi or the revision code is unknown
+     */
+    public Optional<PiRevision> getRevision() {
+        return Optional.ofNullable(revision);
+    }
+
+    /**
+     * Gets the CPU features listed by the CPU info file. They are known on any Linux system whose CPU info file
+     * can be read, whichever source decided the detection.
+     *
+     * @return the CPU features, or {@link ArmFeatures#NONE} if not known
+     */
+    public ArmFeatures getArmFeatures() {
+        return armFeatures;
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionResult{raspberryPi=" + raspberryPi + ", source=" + source + ", model='" + model
+                + "', boardModel='" + boardModel + "', revision=" + revision + ", armFeatures=" + armFeatures + "}";
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Batch analyser of captured {@code /proc/cpuinfo} dumps, e.g. collected from a fleet of devices.
+ * <p>
+ * The input is a directory tree of dump files, or a single file. Any file may be gzip compressed and may hold
+ * several concatenated dumps, separated by {@code ==> name <==} headers (as written by {@code tail} or
+ * {@code head} over several files) or by the {@code processor : 0} line that starts every dump. Files are
+ * streamed through {@link CpuInfoParser}, so memory use does not depend on their size. Dumps are parsed in
+ * parallel on a fork/join pool, a batch of files per task for a directory, or for a single file a batch of the
+ * dumps split off on the calling thread per task, and aggregated into histograms of the Raspberry Pi models, SoCs,
+ * memory sizes and revision codes. Boards are recognised with the marker database of the
+ * {@linkplain RaspberryPiDetector#defaultDetector() shared detector}.
+ * <p>
+ * Run from the command line with {@code java com.bhaweb.util.FleetInventory <directory or file> [parallelism]}.
+ */
+public final class FleetInventory {
+
+    // Dumps or files handed to one task
+    private static final int BATCH_SIZE = 512;
+    /**
+     * Longest dump accepted from a concatenated file, longer dumps fail the analysis.
+     */
+    static final int MAX_DUMP_LENGTH = 16 * 1024 * 1024;
+    private static final int DUMP_BUFFER_SIZE = 16 * 1024;
+    private static final byte[] HEADER_START_BYTES = "==> ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_END_BYTES = " <==".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROCESSOR_KEY_BYTES = CpuInfo.PROCESSOR_KEY.getBytes(StandardCharsets.US_ASCII);
+    private static final String UNKNOWN = "unknown";
+
+    private FleetInventory() {
+    }
+
+    /**
+     * Aggregated result of an analysis.
+     */
+    public static final class Report {
+
+        private final long dumpCount;
+        private final long raspberryPiCount;
+        private final Map<String, Long> models;
+        private final Map<String, Long> socs;
+        private final Map<String, Long> memory;
+        private final Map<String, Long> revisions;
+        private final Duration elapsed;
+
+        Report(Tally tally, Duration elapsed) {
+            this.dumpCount = tally.dumps;
+            this.raspberryPiCount = tally.raspberryPis;
+            this.models = sorted(tally.models);
+            this.socs = sorted(tally.socs);
+            this.memory = sorted(tally.memory);
+            this.revisions = sorted(tally.revisions);
+            this.elapsed = elapsed;
+        }
+
+        private static Map<String, Long> sorted(Map<String, Long> counts) {
+            Map<String, Long> sorted = new LinkedHashMap<>();
+            counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .forEachOrdered(entry -> sorted.put(entry.getKey(), entry.getValue()));
+            return Collections.unmodifiableMap(sorted);
+        }
+
+        /**
+         * @return the number of dumps analysed
+         */
+        public long getDumpCount() {
+            return dumpCount;
+        }
+
+        /**
+         * @return the number of dumps from a Raspberry Pi
+         */
+        public long getRaspberryPiCount() {
+            return raspberryPiCount;
+        }
+
+        /**
+         * @return the Raspberry Pi dumps per board model, e.g. "Raspberry Pi 4 Model B Rev 1.4", most frequent first
+         */
+        public Map<String, Long> getModels() {
+            return models;
+        }
+
+        /**
+         * @return the Raspberry Pi dumps per SoC, e.g. "BCM2711", most frequent first
+         */
+        public Map<String, Long> getSocs() {
+            return socs;
+        }
+
+        /**
+         * @return the Raspberry Pi dumps per memory size, e.g. "4096 MB", most frequent first
+         */
+        public Map<String, Long> getMemory() {
+            return memory;
+        }
+
+        /**
+         * @return the Raspberry Pi dumps per revision code, e.g. "c03114", most frequent first
+         */
+        public Map<String, Long> getRevisions() {
+            return revisions;
+        }
+
+        /**
+         * @return the wall clock time of the analysis
+         */
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return the throughput of the analysis in dumps per second
+         */
+        public double getDumpsPerSecond() {
+            long nanos = Math.max(1, elapsed.toNanos());
+            return dumpCount * 1e9 / nanos;
+        }
+
+        /**
+         * Prints the report as text.
+         *
+         * @param out the stream to print to
+         */
+        public void print(PrintStream out) {
+            out.printf("Dumps: %d, Raspberry Pi: %d, other: %d%n", dumpCount, raspberryPiCount,
+                    dumpCount - raspberryPiCount);
+            out.printf("Elapsed: %d ms, %.0f dumps/second%n", elapsed.toMillis(), getDumpsPerSecond());
+            print(out, "Model", models);
+            print(out, "SoC", socs);
+            print(out, "RAM", memory);
+            print(out, "Revision", revisions);
+        }
+
+        private static void print(PrintStream out, String title, Map<String, Long> counts) {
+            out.println();
+            out.println(title);
+            counts.forEach((key, count) -> out.printf("%10d  %s%n", count, key));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Report{dumps=%d, raspberryPis=%d, dumpsPerSecond=%.0f}", dumpCount,
+                    raspberryPiCount, getDumpsPerSecond());
+        }
+    }
+
+    /**
+     * Mutable counts of one task, merged into the report.
+     */
+    static final class Tally {
+
+        private long dumps;
+        private long raspberryPis;
+        private final Map<String, Long> models = new HashMap<>();
+        private final Map<String, Long> socs = new HashMap<>();
+        private final Map<String, Long> memory = new HashMap<>();
+        private final Map<String, Long> revisions = new HashMap<>();
+
+        void add(CpuInfoFields cpuInfo) {
+            dumps++;
+            if (!cpuInfo.isRaspberryPi(RaspberryPiDetector.defaultDetector().markers())) {
+                return;
+            }
+            raspberryPis++;
+            PiRevision revision = PiRevision.parse(cpuInfo.getRevision()).orElse(null);
+            String model = cpuInfo.getModel();
+            if (model.isEmpty()) {
+                model = revision == null ? UNKNOWN : "Raspberry Pi " + revision.getBoardType().getDisplayName();
+            }
+            count(models, model);
+            String soc = revision == null ? null : revision.getSoc().map(Enum::name).orElse(null);
+            count(socs, soc != null ? soc : cpuInfo.getHardware().isEmpty() ? UNKNOWN : cpuInfo.getHardware());
+            count(memory, revision == null ? UNKNOWN : revision.getMemoryMb() + " MB");
+            count(revisions, cpuInfo.getRevision().isEmpty() ? UNKNOWN : cpuInfo.getRevision());
+        }
+
+        private static void count(Map<String, Long> counts, String key) {
+            counts.merge(key, 1L, Long::sum);
+        }
+
+        Tally merge(Tally other) {
+            dumps += other.dumps;
+            raspberryPis += other.raspberryPis;
+            other.models.forEach((key, count) -> models.merge(key, count, Long::sum));
+            other.socs.forEach((key, count) -> socs.merge(key, count, Long::sum));
+            other.memory.forEach((key, count) -> memory.merge(key, count, Long::sum));
+            other.revisions.forEach((key, count) -> revisions.merge(key, count, Long::sum));
+            return this;
+        }
+    }
+
+    /**
+     * Analyses the dumps below a directory, or in a single file, using the common fork/join pool.
+     *
+     * @param source a directory tree of dump files, or a single dump file
+     * @return the report
+     * @throws IOException if the source cannot be read
+     */
+    public static Report analyze(Path source) throws IOException {
+        return analyze(source, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Analyses the dumps below a directory, or in a single file.
+     *
+     * @param source a directory tree of dump files, or a single dump file
+     * @param pool the pool parsing the dumps
+     * @return the report
+     * @throws IOException if the source cannot be read
+     */
+    public static Report analyze(Path source, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        Batcher batcher = new Batcher(pool);
+        try {
+            if (Files.isDirectory(source)) {
+                List<Path> files = new ArrayList<>(BATCH_SIZE);
+                // Files are batched in walk order as the walk finds them, the tally does not depend on the order
+                try (Stream<Path> paths = Files.walk(source)) {
+                    paths.filter(Files::isRegularFile).forEach(file -> {
+                        files.add(file);
+                        if (files.size() == BATCH_SIZE) {
+                            batcher.submit(fileBatch(new ArrayList<>(files)));
+                            files.clear();
+                        }
+                    });
+                }
+                batcher.submit(fileBatch(files));
+            } else {
+                // One big file is split into dumps on this thread, the dumps are parsed and tallied in batches
+                List<byte[]> dumps = new ArrayList<>(BATCH_SIZE);
+                readDumps(source, dump -> {
+                    dumps.add(dump);
+                    if (dumps.size() == BATCH_SIZE) {
+                        batcher.submit(dumpBatch(new ArrayList<>(dumps)));
+                        dumps.clear();
+                    }
+                });
+                batcher.submit(dumpBatch(dumps));
+            }
+            return new Report(batcher.finish(), Duration.ofNanos(System.nanoTime() - start));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ForkJoinTask<Tally> fileBatch(List<Path> files) {
+        return ForkJoinTask.adapt(() -> {
+            Tally tally = new Tally();
+            for (Path file : files) {
+                readDumps(file, dump -> tally.add(parse(dump)));
+            }
+            return tally;
+        });
+    }
+
+    private static ForkJoinTask<Tally> dumpBatch(List<byte[]> dumps) {
+        return ForkJoinTask.adapt(() -> {
+            Tally tally = new Tally();
+            for (byte[] dump : dumps) {
+                tally.add(parse(dump));
+            }
+            return tally;
+        });
+    }
+
+    /**
+     * Submits batches to the pool, keeping a bounded number in flight so a huge input is not held in memory.
+     */
+    private static final class Batcher {
+
+        private final ForkJoinPool pool;
+        private final int maxInFlight;
+        private final Deque<ForkJoinTask<Tally>> inFlight = new ArrayDeque<>();
+        private final Tally total = new Tally();
+
+        Batcher(ForkJoinPool pool) {
+            this.pool = pool;
+            this.maxInFlight = 2 * pool.getParallelism();
+        }
+
+        void submit(ForkJoinTask<Tally> batch) {
+            if (inFlight.size() >= maxInFlight) {
+                total.merge(join(inFlight.removeFirst()));
+            }
+            inFlight.addLast(pool.submit(batch));
+        }
+
+        Tally finish() {
+            while (!inFlight.isEmpty()) {
+                total.merge(join(inFlight.removeFirst()));
+            }
+            return total;
+        }
+
+        private static Tally join(ForkJoinTask<Tally> task) {
+            try {
+                return task.join();
+            } catch (RuntimeException e) {
+                // Unwrap failures reading files in the pool, rethrown on the caller thread
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw (UncheckedIOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Streams the dumps of a file, which may be gzip compressed and may hold several dumps.
+     *
+     * @param file the file
+     * @param dumps receives the text of each dump
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    static void readDumps(Path file, Consumer<byte[]> dumps) {
+        try (ReadableByteChannel channel = Channels.newChannel(open(file))) {
+            split(channel, dumps);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        in.mark(2);
+        int magic = in.read() | in.read() << 8;
+        in.reset();
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(in) : in;
+    }
+
+    /**
+     * Splits concatenated dumps on {@code ==> name <==} headers, and on a {@code processor : 0} line following a
+     * processor line of the current dump. Only the lines that may split are looked at, the fields are left to
+     * {@link #parse(byte[])}.
+     *
+     * @param channel the concatenated dumps
+     * @param dumps receives the text of each dump, without its header
+     * @throws IOException if reading fails or a dump is longer than {@link #MAX_DUMP_LENGTH}
+     */
+    static void split(ReadableByteChannel channel, Consumer<byte[]> dumps) throws IOException {
+        Splitter splitter = new Splitter(dumps);
+        CpuInfoParser.lines(channel, splitter);
+        splitter.flush();
+    }
+
+    /**
+     * Parses the fields of a dump returned by {@link #split(ReadableByteChannel, Consumer)}.
+     *
+     * @param dump the text of the dump
+     * @return the fields
+     * @throws UncheckedIOException if the dump cannot be parsed
+     */
+    static CpuInfoFields parse(byte[] dump) {
+        CpuInfoFields fields = new CpuInfoFields();
+        try {
+            CpuInfoParser.parse(Channels.newChannel(new ByteArrayInputStream(dump)), fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fields;
+    }
+
+    /**
+     * Copies the lines of concatenated dumps into the text of the current dump.
+     */
+    private static final class Splitter implements CpuInfoParser.LineVisitor {
+
+        private final Consumer<byte[]> dumps;
+        private byte[] dump = new byte[DUMP_BUFFER_SIZE];
+        private int length;
+        // Whether the current dump has a field line, dumps without one are dropped as in CpuInfoFields.isEmpty
+        private boolean hasField;
+        private boolean hasProcessor;
+
+        Splitter(Consumer<byte[]> dumps) {
+            this.dumps = dumps;
+        }
+
+        @Override
+        public void line(byte[] bytes, int from, int to) throws IOException {
+            int start = CpuInfoParser.trimStart(bytes, from, to);
+            int end = CpuInfoParser.trimEnd(bytes, start, to);
+            if (isHeader(bytes, start, end)) {
+                flush();
+                return;
+            }
+            // Only processor lines can start a dump, other lines are copied without looking for a colon
+            if (start < end && bytes[start] == 'p') {
+                int colon = CpuInfoParser.indexOf(bytes, (byte) ':', start, end);
+                if (colon > 0 && regionEquals(bytes, start, CpuInfoParser.trimEnd(bytes, start, colon),
+                        PROCESSOR_KEY_BYTES)) {
+                    int valueStart = CpuInfoParser.trimStart(bytes, colon + 1, end);
+                    if (hasProcessor && end - valueStart == 1 && bytes[valueStart] == '0') {
+                        flush();
+                    }
+                    hasProcessor = true;
+                }
+            }
+            if (!hasField) {
+                hasField = CpuInfoParser.indexOf(bytes, (byte) ':', start, end) >= 0;
+            }
+            append(bytes, from, to);
+        }
+
+        private void append(byte[] bytes, int from, int to) throws IOException {
+            int required = length + to - from + 1;
+            if (required > dump.length) {
+                if (required > MAX_DUMP_LENGTH) {
+                    throw new IOException("Dump longer than " + MAX_DUMP_LENGTH + " bytes");
+                }
+                dump = Arrays.copyOf(dump, Math.min(Math.max(required, dump.length * 2), MAX_DUMP_LENGTH));
+            }
+            System.arraycopy(bytes, from, dump, length, to - from);
+            length += to - from;
+            dump[length++] = '\n';
+        }
+
+        void flush() {
+            if (hasField) {
+                dumps.accept(Arrays.copyOf(dump, length));
+            }
+            length = 0;
+            hasField = false;
+            hasProcessor = false;
+        }
+
+        private static boolean isHeader(byte[] bytes, int from, int to) {
+            return to - from >= HEADER_START_BYTES.length + HEADER_END_BYTES.length
+                    && regionEquals(bytes, from, from + HEADER_START_BYTES.length, HEADER_START_BYTES)
+                    && regionEquals(bytes, to - HEADER_END_BYTES.length, to, HEADER_END_BYTES);
+        }
+
+        private static boolean regionEquals(byte[] bytes, int from, int to, byte[] expected) {
+            return Arrays.equals(bytes, from, to, expected, 0, expected.length);
+        }
+    }
+
+    /**
+     * Analyses the dumps given on the command line and prints the report.
+     *
+     * @param args the directory or file to analyse, optionally followed by the parallelism
+     * @throws IOException if the source cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java " + FleetInventory.class.getName() + " <directory or file> [parallelism]");
+            System.exit(2);
+        }
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            analyze(Path.of(args[0]), pool).print(System.out);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.util.Objects;
+
+/**
+ * Java Flight Recorder events describing the board, so slowdowns in a recording can be correlated with its state.
+ * <p>
+ * Three events are defined, all disabled by default and enabled by name in a recording or a {@code .jfc} file:
+ * <ul>
+ *     <li>{@code com.bhaweb.util.Detection}: each detection run, with its duration, source and whether the result
+ *     came from the persistent cache. Emitted by every {@link RaspberryPiDetector}.</li>
+ *     <li>{@code com.bhaweb.util.Board}: the detected board descriptor, at the start of each recording chunk.</li>
+ *     <li>{@code com.bhaweb.util.HardwareState}: temperature, CPU frequency and firmware throttling bits, every
+ *     second by default.</li>
+ * </ul>
+ * The periodic events need {@link #register()}. When no recording is running, emitting costs a flag check and
+ * allocates nothing, and on runtimes without the {@code jdk.jfr} module, such as trimmed {@code jlink} images,
+ * everything here is a no-op.
+ */
+public final class JfrEvents {
+
+    // The event classes are only loaded when the module is present
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private static RaspberryPiDetector registeredDetector;
+    private static ThrottleMonitor registeredMonitor;
+    private static boolean ownsMonitor;
+
+    private JfrEvents() {
+    }
+
+    /**
+     * @return true if the runtime includes Java Flight Recorder
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Registers the periodic events for the shared detector, sampling hardware state with a monitor of the local
+     * machine, created on the first sample.
+     */
+    public static void register() {
+        register(RaspberryPiDetector.defaultDetector(), null);
+    }
+
+    /**
+     * Registers the periodic events, replacing an earlier registration.
+     *
+     * @param detector the detector describing the board
+     * @param monitor the monitor supplying hardware state, sampled for each event unless it is running, or null to
+     * create one on the first sample and close it on {@link #unregister()}
+     */
+    public static synchronized void register(RaspberryPiDetector detector, ThrottleMonitor monitor) {
+        Objects.requireNonNull(detector, "detector");
+        if (!AVAILABLE) {
+            return;
+        }
+        unregister();
+        registeredDetector = detector;
+        registeredMonitor = monitor;
+        ownsMonitor = false;
+        JfrRecorder.register();
+    }
+
+    /**
+     * Removes the periodic events, and closes the monitor created for them.
+     */
+    public static synchronized void unregister() {
+        if (registeredDetector == null) {
+            return;
+        }
+        JfrRecorder.unregister();
+        if (ownsMonitor) {
+            try {
+                registeredMonitor.close();
+            } catch (java.io.IOException e) {
+                // sampling has stopped anyway
+            }
+        }
+        registeredDetector = null;
+        registeredMonitor = null;
+        ownsMonitor = false;
+    }
+
+    static synchronized DetectionResult registeredDetection() {
+        return registeredDetector == null ? null : registeredDetector.detection();
+    }
+
+    /**
+     * @return the state to report, or null if unregistered
+     */
+    static synchronized ThrottleState registeredState() {
+        if (registeredDetector == null) {
+            return null;
+        }
+        if (registeredMonitor == null) {
+            registeredMonitor = ThrottleMonitor.builder().build();
+            ownsMonitor = true;
+        }
+        return registeredMonitor.isRunning() ? registeredMonitor.getState() : registeredMonitor.sample();
+    }
+
+    /**
+     * Starts timing a detection.
+     *
+     * @return the event to pass to {@link #commitDetection(Object, DetectionResult, boolean)}, or null if the event
+     * is not recorded
+     */
+    static Object beginDetection() {
+        return AVAILABLE ? JfrRecorder.beginDetection() : null;
+    }
+
+    /**
+     * Ends and commits a detection event.
+     *
+     * @param event the event from {@link #beginDetection()}, or null
+     * @param result the detection result
+     * @param cached true if the result came from the persistent cache
+     */
+    static void commitDetection(Object event, DetectionResult result, boolean cached) {
+        if (event != null) {
+            JfrRecorder.commitDetection(event, result, cached);
+        }
+    }
+}
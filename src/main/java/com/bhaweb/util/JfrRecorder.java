@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * The event types behind {@link JfrEvents}, kept apart so the {@code jdk.jfr} classes are only loaded when the module
+ * is present.
+ */
+final class JfrRecorder {
+
+    private static final String CATEGORY = "Raspberry Pi";
+    private static final Runnable BOARD_HOOK = JfrRecorder::emitBoard;
+    private static final Runnable HARDWARE_STATE_HOOK = JfrRecorder::emitHardwareState;
+
+    private JfrRecorder() {
+    }
+
+    @Name("com.bhaweb.util.Detection")
+    @Label("Board Detection")
+    @Description("A detection run of a RaspberryPiDetector")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DetectionEvent extends Event {
+
+        @Label("Raspberry Pi")
+        boolean raspberryPi;
+
+        @Label("Source")
+        @Description("The system source that gave the definitive answer")
+        String source;
+
+        @Label("Model")
+        String model;
+
+        @Label("Cached")
+        @Description("The result was read from the persistent cache")
+        boolean cached;
+    }
+
+    @Name("com.bhaweb.util.Board")
+    @Label("Board")
+    @Description("The detected board")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    @Period("beginChunk")
+    static final class BoardEvent extends Event {
+
+        @Label("Raspberry Pi")
+        boolean raspberryPi;
+
+        @Label("Model")
+        String model;
+
+        @Label("Board Model")
+        String boardModel;
+
+        @Label("Revision Code")
+        String revision;
+
+        @Label("Board Type")
+        String boardType;
+
+        @Label("SoC")
+        String soc;
+
+        @Label("Memory")
+        @DataAmount
+        long memory;
+
+        @Label("CPU Features")
+        String armFeatures;
+    }
+
+    @Name("com.bhaweb.util.HardwareState")
+    @Label("Hardware State")
+    @Description("Temperature, CPU frequency and firmware throttling state")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    @Period("1 s")
+    static final class HardwareStateEvent extends Event {
+
+        @Label("Max Temperature")
+        @Description("Highest thermal zone temperature in degrees Celsius, NaN if unknown")
+        double maxTemperature;
+
+        @Label("Max CPU Frequency")
+        @Description("Highest current CPU frequency, -1 if unknown")
+        @Frequency
+        long maxFrequency;
+
+        @Label("Throttled Bits")
+        @Description("The firmware get_throttled bitmask, -1 if unknown")
+        int throttledBits;
+
+        @Label("Under Voltage")
+        boolean underVoltage;
+
+        @Label("Frequency Capped")
+        boolean frequencyCapped;
+
+        @Label("Throttled")
+        boolean throttled;
+
+        @Label("Soft Temperature Limit")
+        boolean softTemperatureLimit;
+    }
+
+    static void register() {
+        FlightRecorder.addPeriodicEvent(BoardEvent.class, BOARD_HOOK);
+        FlightRecorder.addPeriodicEvent(HardwareStateEvent.class, HARDWARE_STATE_HOOK);
+    }
+
+    static void unregister() {
+        FlightRecorder.removePeriodicEvent(BOARD_HOOK);
+        FlightRecorder.removePeriodicEvent(HARDWARE_STATE_HOOK);
+    }
+
+    static Object beginDetection() {
+        // Until a recording starts nothing is allocated, nor is the recorder initialized
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        DetectionEvent event = new DetectionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitDetection(Object detection, DetectionResult result, boolean cached) {
+        DetectionEvent event = (DetectionEvent) detection;
+        event.end();
+        if (event.shouldCommit()) {
+            event.raspberryPi = result.isRaspberryPi();
+            event.source = result.getSource().name();
+            event.model = result.getModel();
+            event.cached = cached;
+            event.commit();
+        }
+    }
+
+    private static void emitBoard() {
+        DetectionResult result = JfrEvents.registeredDetection();
+        if (result == null) {
+            return;
+        }
+        BoardEvent event = new BoardEvent();
+        event.raspberryPi = result.isRaspberryPi();
+        event.model = result.getModel();
+        event.boardModel = result.getBoardModel();
+        result.getRevision().ifPresent(revision -> {
+            event.revision = Integer.toHexString(revision.getCode());
+            event.boardType = revision.getBoardType().getDisplayName();
+            event.soc = revision.getSoc().map(Enum::name).orElse(null);
+            event.memory = revision.getMemoryMb() * 1024L * 1024;
+        });
+        event.armFeatures = result.getArmFeatures().getNames();
+        event.commit();
+    }
+
+    private static void emitHardwareState() {
+        ThrottleState state = JfrEvents.registeredState();
+        if (state == null) {
+            return;
+        }
+        HardwareStateEvent event = new HardwareStateEvent();
+        event.maxTemperature = state.getMaxTemperatureCelsius();
+        long maxFrequencyKHz = state.getMaxFrequencyKHz();
+        event.maxFrequency = maxFrequencyKHz < 0 ? -1 : maxFrequencyKHz * 1000;
+        event.throttledBits = state.getThrottledBits();
+        event.underVoltage = state.isActive(ThrottleState.Condition.UNDER_VOLTAGE);
+        event.frequencyCapped = state.isActive(ThrottleState.Condition.FREQUENCY_CAPPED);
+        event.throttled = state.isActive(ThrottleState.Condition.THROTTLED);
+        event.softTemperatureLimit = state.isActive(ThrottleState.Condition.SOFT_TEMP_LIMIT);
+        event.commit();
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Recommends JVM flags for the board the JVM runs on: maximum heap, garbage collector, JIT tiers, compiler threads
+ * and code cache size.
+ * <p>
+ * The budget is the physical memory ({@code /proc/meminfo}, else the total the JVM reports for the local machine,
+ * else the RAM size decoded from the Pi revision code) and CPUs, capped by the cgroup limits of the process as read
+ * by {@link ContainerLimits}. Without a known memory size there is no recommendation. Small budgets, such as a
+ * 512 MB Pi Zero 2 W, get a modest heap, the serial collector and the C1 compiler only, trading peak throughput for
+ * startup time and footprint. Large budgets, such as an 8 GB Pi 5, get G1 and full tiered compilation.
+ * <p>
+ * Launch scripts can run {@code java -cp utest.jar com.bhaweb.util.JvmTuningAdvisor}, which prints the flags on one
+ * line, or with {@code --explain} to also print the budget they were derived from.
+ */
+public final class JvmTuningAdvisor {
+
+    // Below the JVM's own server class machine threshold the serial collector does best
+    static final long SERIAL_GC_MEMORY_MB = 1792;
+    // At or below this budget only C1 compiles, its code is smaller and it warms up faster
+    static final long C1_ONLY_MEMORY_MB = 1024;
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Garbage collector choice.
+     */
+    public enum GarbageCollector {
+        SERIAL("-XX:+UseSerialGC"),
+        G1("-XX:+UseG1GC");
+
+        private final String flag;
+
+        GarbageCollector(String flag) {
+            this.flag = flag;
+        }
+
+        /**
+         * @return the flag selecting the collector
+         */
+        public String getFlag() {
+            return flag;
+        }
+    }
+
+    /**
+     * Immutable set of recommended settings, and the budget they were derived from.
+     */
+    public static final class Recommendation {
+
+        private final long memoryMb;
+        private final boolean memoryLimited;
+        private final int cpuCount;
+        private final long maxHeapMb;
+        private final GarbageCollector garbageCollector;
+        private final int tieredStopAtLevel;
+        private final int compilerCount;
+        private final int reservedCodeCacheMb;
+
+        Recommendation(long memoryMb, boolean memoryLimited, int cpuCount, long maxHeapMb,
+                       GarbageCollector garbageCollector, int tieredStopAtLevel, int compilerCount,
+                       int reservedCodeCacheMb) {
+            this.memoryMb = memoryMb;
+            this.memoryLimited = memoryLimited;
+            this.cpuCount = cpuCount;
+            this.maxHeapMb = maxHeapMb;
+            this.garbageCollector = garbageCollector;
+            this.tieredStopAtLevel = tieredStopAtLevel;
+            this.compilerCount = compilerCount;
+            this.reservedCodeCacheMb = reservedCodeCacheMb;
+        }
+
+        /**
+         * @return the memory budget in megabytes
+         */
+        public long getMemoryMb() {
+            return memoryMb;
+        }
+
+        /**
+         * @return true if the budget is a cgroup limit rather than the physical memory
+         */
+        public boolean isMemoryLimited() {
+            return memoryLimited;
+        }
+
+        /**
+         * @return the CPUs the JVM may use
+         */
+        public int getCpuCount() {
+            return cpuCount;
+        }
+
+        /**
+         * @return the recommended maximum heap in megabytes, for {@code -Xmx}
+         */
+        public long getMaxHeapMb() {
+            return maxHeapMb;
+        }
+
+        /**
+         * @return the recommended garbage collector
+         */
+        public GarbageCollector getGarbageCollector() {
+            return garbageCollector;
+        }
+
+        /**
+         * @return the highest compilation tier, 1 for C1 only or 4 for full tiered compilation
+         */
+        public int getTieredStopAtLevel() {
+            return tieredStopAtLevel;
+        }
+
+        /**
+         * @return the number of JIT compiler threads, for {@code -XX:CICompilerCount}
+         */
+        public int getCompilerCount() {
+            return compilerCount;
+        }
+
+        /**
+         * @return the code cache size in megabytes, for {@code -XX:ReservedCodeCacheSize}
+         */
+        public int getReservedCodeCacheMb() {
+            return reservedCodeCacheMb;
+        }
+
+        /**
+         * @return the JVM flags applying the recommendation
+         */
+        public List<String> toFlags() {
+            List<String> flags = new ArrayList<>();
+            flags.add("-Xmx" + maxHeapMb + "m");
+            flags.add(garbageCollector.getFlag());
+            if (tieredStopAtLevel < 4) {
+                flags.add("-XX:TieredStopAtLevel=" + tieredStopAtLevel);
+            }
+            flags.add("-XX:CICompilerCount=" + compilerCount);
+            flags.add("-XX:ReservedCodeCacheSize=" + reservedCodeCacheMb + "m");
+            return Collections.unmodifiableList(flags);
+        }
+
+        @Override
+        public String toString() {
+            return "Recommendation{memoryMb=" + memoryMb + ", memoryLimited=" + memoryLimited + ", cpus=" + cpuCount
+                    + ", flags=" + toFlags() + "}";
+        }
+    }
+
+    private final RaspberryPiDetector detector;
+    private final Path root;
+    private final long memoryMb;
+    private final int cpuCount;
+
+    private JvmTuningAdvisor(Builder builder) {
+        this.root = builder.root;
+        this.detector = builder.detector != null ? builder.detector
+                : builder.root != null ? RaspberryPiDetector.builder().root(builder.root).build()
+                : RaspberryPiDetector.defaultDetector();
+        this.memoryMb = builder.memoryMb;
+        this.cpuCount = builder.cpuCount;
+    }
+
+    /**
+     * Creates a builder of advisors.
+     *
+     * @return a new builder, by default reading the local machine
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads the budget of the JVM and derives the recommendation.
+     *
+     * @return the recommendation, or empty if the memory size is not known
+     */
+    public Optional<Recommendation> recommend() {
+        long physicalMb = -1;
+        long limitMb = -1;
+        int cpus = cpuCount;
+        try (ContainerLimits limits = root != null ? ContainerLimits.open(root) : ContainerLimits.open()) {
+            if (limits.getHardwareMemoryBytes() > 0) {
+                physicalMb = limits.getHardwareMemoryBytes() / MB;
+            }
+            long effective = limits.getEffectiveMemoryBytes();
+            if (effective > 0 && (physicalMb < 0 || effective / MB < physicalMb)) {
+                limitMb = effective / MB;
+            }
+            if (cpus <= 0) {
+                cpus = limits.getEffectiveCpuCount();
+                if (root == null) {
+                    cpus = Math.min(cpus, Runtime.getRuntime().availableProcessors());
+                }
+            }
+        } catch (IOException e) {
+            // closing failed, the limits were read
+        }
+        if (memoryMb > 0) {
+            return Optional.of(recommend(memoryMb, false, cpus));
+        }
+        if (physicalMb < 0) {
+            physicalMb = totalMemoryMb();
+        }
+        if (physicalMb < 0) {
+            physicalMb = boardMemoryMb();
+        }
+        if (physicalMb < 0) {
+            // A cgroup limit alone says nothing about how much of it the machine can back
+            return Optional.empty();
+        }
+        boolean limited = limitMb > 0 && limitMb < physicalMb;
+        return Optional.of(recommend(limited ? limitMb : physicalMb, limited, cpus));
+    }
+
+    /**
+     * Derives the recommendation for a budget.
+     *
+     * @param memoryMb the memory budget in megabytes
+     * @param limited true if the budget is a cgroup limit, so the process need not leave room for others
+     * @param cpus the CPUs the JVM may use
+     * @return the recommendation
+     */
+    static Recommendation recommend(long memoryMb, boolean limited, int cpus) {
+        // A container limit is the budget of this process alone, physical memory is shared with the OS
+        double heapFraction = limited ? 0.75 : memoryMb <= 512 ? 0.4 : memoryMb <= 2048 ? 0.5 : 0.6;
+        long maxHeapMb = Math.max(16, (long) (memoryMb * heapFraction));
+        boolean small = memoryMb < SERIAL_GC_MEMORY_MB || cpus < 2;
+        GarbageCollector gc = small ? GarbageCollector.SERIAL : GarbageCollector.G1;
+        boolean c1Only = memoryMb <= C1_ONLY_MEMORY_MB || cpus < 2;
+        int tieredStopAtLevel = c1Only ? 1 : 4;
+        // Tiered compilation needs at least one C1 and one C2 thread
+        int compilerCount = c1Only ? 1 : cpus <= 4 ? 2 : 3;
+        int codeCacheMb = c1Only ? 32 : memoryMb <= 2048 ? 64 : 240;
+        return new Recommendation(memoryMb, limited, cpus, maxHeapMb, gc, tieredStopAtLevel, compilerCount,
+                codeCacheMb);
+    }
+
+    // The local machine as the JVM sees it, so not for a root standing in for another machine
+    private long totalMemoryMb() {
+        if (root != null) {
+            return -1;
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long bytes = ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize();
+            return bytes > 0 ? bytes / MB : -1;
+        }
+        return -1;
+    }
+
+    private long boardMemoryMb() {
+        return detector.detection().getRevision().map(revision -> (long) revision.getMemoryMb()).orElse(-1L);
+    }
+
+    /**
+     * Prints the recommended flags on one line, and with {@code --explain} the budget they were derived from.
+     *
+     * @param args optionally {@code --explain}
+     */
+    public static void main(String[] args) {
+        boolean explain = args.length == 1 && args[0].equals("--explain");
+        if (args.length > 1 || (args.length == 1 && !explain)) {
+            System.err.println("Usage: java " + JvmTuningAdvisor.class.getName() + " [--explain]");
+            System.exit(2);
+        }
+        JvmTuningAdvisor advisor = builder().build();
+        Recommendation recommendation = advisor.recommend().orElse(null);
+        if (recommendation == null) {
+            // No flags, so launch scripts fall back to the JVM defaults
+            System.err.println("# Memory: unknown, no recommendation");
+            return;
+        }
+        if (explain) {
+            DetectionResult detection = advisor.detector.detection();
+            System.out.println("# Board: " + (detection.isRaspberryPi() ? detection.getModel() : "not a Raspberry Pi"));
+            System.out.println("# Memory: " + recommendation.getMemoryMb() + " MB"
+                    + (recommendation.isMemoryLimited() ? " (cgroup limit)" : ""));
+            System.out.println("# CPUs: " + recommendation.getCpuCount());
+        }
+        System.out.println(String.join(" ", recommendation.toFlags()));
+    }
+
+    /**
+     * Builder of {@link JvmTuningAdvisor} instances.
+     */
+    public static final class Builder {
+
+        private Path root;
+        private RaspberryPiDetector detector;
+        private long memoryMb;
+        private int cpuCount;
+
+        private Builder() {
+        }
+
+        /**
+         * Reads the standard locations below the given directory instead of {@code /}, e.g.
+         * {@code root/proc/meminfo}.
+         *
+         * @param root the directory standing in for the file system root
+         * @return this builder
+         */
+        public Builder root(Path root) {
+            this.root = Objects.requireNonNull(root, "root");
+            return this;
+        }
+
+        /**
+         * @param detector the detector supplying the board RAM size when {@code /proc/meminfo} cannot be read
+         * @return this builder
+         */
+        public Builder detector(RaspberryPiDetector detector) {
+            this.detector = Objects.requireNonNull(detector, "detector");
+            return this;
+        }
+
+        /**
+         * @param memoryMb the memory budget in megabytes, instead of reading it
+         * @return this builder
+         * @throws IllegalArgumentException if the budget is not positive
+         */
+        public Builder memoryMb(long memoryMb) {
+            if (memoryMb < 1) {
+                throw new IllegalArgumentException("Memory must be positive: " + memoryMb);
+            }
+            this.memoryMb = memoryMb;
+            return this;
+        }
+
+        /**
+         * @param cpuCount the CPUs the JVM may use, instead of reading them
+         * @return this builder
+         * @throws IllegalArgumentException if the count is not positive
+         */
+        public Builder cpuCount(int cpuCount) {
+            if (cpuCount < 1) {
+                throw new IllegalArgumentException("CPU count must be positive: " + cpuCount);
+            }
+            this.cpuCount = cpuCount;
+            return this;
+        }
+
+        /**
+         * @return a new advisor
+         */
+        public JvmTuningAdvisor build() {
+            return new JvmTuningAdvisor(this);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.util.Arrays;
+
+/**
+ * Matches a fixed set of ASCII markers in a single pass, using an Aho-Corasick automaton compiled into a dense
+ * transition table. Failure links are folded into the table, so matching costs one array lookup per input character
+ * and allocates nothing. Bytes or characters outside ASCII never match and restart the automaton.
+ * <p>
+ * Markers can also be matched as prefixes only, following trie edges until the first failure link.
+ */
+final class MarkerMatcher {
+
+    private static final int ALPHABET = 128;
+
+    // transitions[state * ALPHABET + c] is the next state, state 0 is the root
+    private final int[] transitions;
+    // index of the marker recognised on entering a state, or -1
+    private final int[] matches;
+    // length of the text leading from the root to each state along trie edges
+    private final int[] depths;
+    private final int[] markerLengths;
+
+    /**
+     * Compiles a matcher for the given markers.
+     *
+     * @param markers the markers, each non-empty and ASCII only
+     * @throws IllegalArgumentException if a marker is empty or not ASCII
+     */
+    MarkerMatcher(String... markers) {
+        int maxStates = 1;
+        for (String marker : markers) {
+            if (marker.isEmpty()) {
+                throw new IllegalArgumentException("Empty marker");
+            }
+            maxStates += marker.length();
+        }
+        int[] trie = new int[maxStates * ALPHABET];
+        int[] found = new int[maxStates];
+        Arrays.fill(found, -1);
+        int[] depth = new int[maxStates];
+        int[] lengths = new int[markers.length];
+        int states = 1;
+
+        // Build the trie, 0 meaning "no edge" since the root is never a child
+        for (int m = 0; m < markers.length; m++) {
+            String marker = markers[m];
+            int state = 0;
+            for (int i = 0; i < marker.length(); i++) {
+                char c = marker.charAt(i);
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Marker is not ASCII: " + marker);
+                }
+                int next = trie[state * ALPHABET + c];
+                if (next == 0) {
+                    next = states++;
+                    trie[state * ALPHABET + c] = next;
+                    depth[next] = depth[state] + 1;
+                }
+                state = next;
+            }
+            lengths[m] = marker.length();
+            if (found[state] < 0) {
+                found[state] = m;
+            }
+        }
+
+        // Breadth first over the trie, folding failure links into the missing edges
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = trie[c];
+            if (child != 0) {
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            if (found[state] < 0) {
+                // A marker ending inside this one is also recognised here
+                found[state] = found[fail[state]];
+            }
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = trie[state * ALPHABET + c];
+                int fallback = trie[fail[state] * ALPHABET + c];
+                if (child != 0) {
+                    fail[child] = fallback;
+                    queue[tail++] = child;
+                } else {
+                    trie[state * ALPHABET + c] = fallback;
+                }
+            }
+        }
+        this.transitions = Arrays.copyOf(trie, states * ALPHABET);
+        this.matches = Arrays.copyOf(found, states);
+        this.depths = Arrays.copyOf(depth, states);
+        this.markerLengths = lengths;
+    }
+
+    /**
+     * Finds the first marker occurring in a range of ASCII bytes.
+     *
+     * @param bytes the bytes
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the index of the marker that completes first, or -1 if none occurs
+     */
+    int find(byte[] bytes, int from, int to) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            int c = bytes[i];
+            // Negative bytes are outside ASCII
+            state = c < 0 ? 0 : transitions[state * ALPHABET + c];
+            if (matches[state] >= 0) {
+                return matches[state];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first marker occurring in a range of characters.
+     *
+     * @param text the text
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the index of the marker that completes first, or -1 if none occurs
+     */
+    int find(CharSequence text, int from, int to) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            state = c >= ALPHABET ? 0 : transitions[state * ALPHABET + c];
+            if (matches[state] >= 0) {
+                return matches[state];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the longest marker that a range of ASCII bytes starts with.
+     *
+     * @param bytes the bytes
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the index of the longest marker the range starts with, or -1 if none
+     */
+    int findPrefix(byte[] bytes, int from, int to) {
+        int state = 0;
+        int found = -1;
+        for (int i = from; i < to; i++) {
+            int c = bytes[i];
+            state = c < 0 ? 0 : transitions[state * ALPHABET + c];
+            int length = i - from + 1;
+            if (depths[state] != length) {
+                // Left the trie through a failure link, no longer marker starts at from
+                break;
+            }
+            if (matches[state] >= 0 && markerLengths[matches[state]] == length) {
+                found = matches[state];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the longest marker that a range of characters starts with.
+     *
+     * @param text the text
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the index of the longest marker the range starts with, or -1 if none
+     */
+    int findPrefix(CharSequence text, int from, int to) {
+        int state = 0;
+        int found = -1;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            state = c >= ALPHABET ? 0 : transitions[state * ALPHABET + c];
+            int length = i - from + 1;
+            if (depths[state] != length) {
+                // Left the trie through a failure link, no longer marker starts at from
+                break;
+            }
+            if (matches[state] >= 0 && markerLengths[matches[state]] == length) {
+                found = matches[state];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks if any marker occurs in the text.
+     *
+     * @param text the text
+     * @return true if any marker occurs, false otherwise
+     */
+    boolean matches(CharSequence text) {
+        return find(text, 0, text.length()) >= 0;
+    }
+}
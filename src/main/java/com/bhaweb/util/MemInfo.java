@@ -0,0 +1,240 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Sampler of {@code /proc/meminfo}, for live memory pressure on boards with little RAM.
+ * <p>
+ * The file is kept open and each {@link #sample()} re-reads it into a reused direct buffer, parsing the fields of
+ * interest in place into a {@code long} array, so sampling allocates nothing once the buffer has grown to fit.
+ * Instances are not thread safe.
+ */
+public final class MemInfo implements Closeable {
+
+    /**
+     * Path of the memory info file.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    public static final String DEFAULT_MEM_INFO_PATH = "/proc/meminfo";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Field of {@code /proc/meminfo}, all sizes in kB.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    public enum Field {
+        MEM_TOTAL("MemTotal"),
+        MEM_FREE("MemFree"),
+        MEM_AVAILABLE("MemAvailable"),
+        BUFFERS("Buffers"),
+        CACHED("Cached"),
+        SWAP_CACHED("SwapCached"),
+        ACTIVE("Active"),
+        INACTIVE("Inactive"),
+        SWAP_TOTAL("SwapTotal"),
+        SWAP_FREE("SwapFree"),
+        DIRTY("Dirty"),
+        WRITEBACK("Writeback"),
+        SHMEM("Shmem"),
+        SLAB("Slab"),
+        S_RECLAIMABLE("SReclaimable"),
+        CMA_TOTAL("CmaTotal"),
+        CMA_FREE("CmaFree");
+
+        private final String key;
+        private final byte[] keyBytes;
+
+        Field(String key) {
+            this.key = key;
+            this.keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * @return the key of the field in the file, e.g. "MemTotal"
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    private final SysFile file;
+    private final long[] values = new long[FIELDS.length];
+
+    private MemInfo(SysFile file) {
+        this.file = file;
+        Arrays.fill(values, -1);
+    }
+
+    /**
+     * Opens the memory info file of the local machine.
+     *
+     * @return the sampler, not yet sampled
+     * @throws IOException if the file cannot be opened
+     */
+    public static MemInfo open() throws IOException {
+        return open(Path.of(DEFAULT_MEM_INFO_PATH));
+    }
+
+    /**
+     * Opens a memory info file.
+     *
+     * @param path the file, e.g. {@code /proc/meminfo}
+     * @return the sampler, not yet sampled
+     * @throws IOException if the file cannot be opened
+     */
+    public static MemInfo open(Path path) throws IOException {
+        SysFile file = SysFile.open(path, BUFFER_SIZE);
+        if (file == null) {
+            throw new IOException("Cannot open " + path);
+        }
+        return new MemInfo(file);
+    }
+
+    /**
+     * Re-reads the file. Fields missing from the file read as -1.
+     *
+     * @return true if the file was read, false if it could not be read and the previous values were kept
+     */
+    public boolean sample() {
+        ByteBuffer bytes = file.read();
+        while (bytes != null && file.isFull()) {
+            file.grow();
+            bytes = file.read();
+        }
+        if (bytes == null) {
+            return false;
+        }
+        parse(bytes, values);
+        return true;
+    }
+
+    /**
+     * Parses {@code Key:   value kB} lines into the values of the known fields.
+     */
+    static void parse(ByteBuffer bytes, long[] values) {
+        Arrays.fill(values, -1);
+        int limit = bytes.limit();
+        int line = 0;
+        while (line < limit) {
+            int colon = line;
+            while (colon < limit && bytes.get(colon) != ':' && bytes.get(colon) != '\n') {
+                colon++;
+            }
+            int end = colon;
+            while (end < limit && bytes.get(end) != '\n') {
+                end++;
+            }
+            if (colon < end) {
+                Field field = field(bytes, line, colon);
+                if (field != null) {
+                    long value = SysFile.parseLong(bytes, colon + 1, end, 10);
+                    values[field.ordinal()] = value == SysFile.UNAVAILABLE ? -1 : value;
+                }
+            }
+            line = end + 1;
+        }
+    }
+
+    private static Field field(ByteBuffer bytes, int from, int to) {
+        int length = to - from;
+        for (Field field : FIELDS) {
+            byte[] key = field.keyBytes;
+            if (key.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && bytes.get(from + i) == key[i]) {
+                i++;
+            }
+            if (i == length) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param field the field
+     * @return the value in kB from the last sample, or -1 if the field is missing or nothing was sampled yet
+     */
+    public long get(Field field) {
+        return values[field.ordinal()];
+    }
+
+    /**
+     * @return the total usable memory in kB, or -1 if unknown
+     */
+    public long getTotalKb() {
+        return get(Field.MEM_TOTAL);
+    }
+
+    /**
+     * Gets the memory available for new work without swapping. Kernels older than 3.14 do not report it, in which
+     * case it is estimated as free plus buffers plus page cache.
+     *
+     * @return the available memory in kB, or -1 if unknown
+     */
+    public long getAvailableKb() {
+        long available = get(Field.MEM_AVAILABLE);
+        if (available >= 0) {
+            return available;
+        }
+        long free = get(Field.MEM_FREE);
+        return free < 0 ? -1 : free + Math.max(0, get(Field.BUFFERS)) + Math.max(0, get(Field.CACHED));
+    }
+
+    /**
+     * @return the fraction of memory in use, from 0 to 1, or NaN if unknown
+     */
+    public double getUsedFraction() {
+        long total = getTotalKb();
+        long available = getAvailableKb();
+        return total <= 0 || available < 0 ? Double.NaN : 1.0 - (double) Math.min(available, total) / total;
+    }
+
+    /**
+     * @return the fraction of swap in use, from 0 to 1, 0 without swap, or NaN if unknown
+     */
+    public double getSwapUsedFraction() {
+        long total = get(Field.SWAP_TOTAL);
+        long free = get(Field.SWAP_FREE);
+        if (total < 0 || free < 0) {
+            return Double.NaN;
+        }
+        return total == 0 ? 0 : 1.0 - (double) Math.min(free, total) / total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MemInfo{totalKb=" + getTotalKb() + ", availableKb=" + getAvailableKb() + ", swapTotalKb="
+                + get(Field.SWAP_TOTAL) + ", swapFreeKb=" + get(Field.SWAP_FREE) + "}";
+    }
+}
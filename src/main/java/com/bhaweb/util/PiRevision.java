@@ -0,0 +1,274 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.util.Optional;
+
+/**
+ * Immutable descriptor decoded from a Raspberry Pi revision code, the {@code Revision} field of {@code /proc/cpuinfo}.
+ * <p>
+ * New-style codes (bit 23 set) are bitfields, laid out as {@code NOQuuuWuFMMMCCCCPPPPTTTTTTTTRRRR}: memory size (M),
+ * manufacturer (C), processor (P), board type (T) and PCB revision (R). Old-style codes, used by the first boards,
+ * are looked up in a small table of the equivalent descriptors. Decoding uses only bit masks and static arrays.
+ */
+public final class PiRevision {
+
+    /**
+     * System on chip used by a board.
+     */
+    public enum Soc {
+        BCM2835, BCM2836, BCM2837, BCM2711, BCM2712
+    }
+
+    /**
+     * Board type, see {@link #getBoardTypeCode()} for the raw code.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    public enum BoardType {
+        A("A"),
+        B("B"),
+        A_PLUS("A+"),
+        B_PLUS("B+"),
+        PI_2B("2B"),
+        ALPHA("Alpha"),
+        CM1("CM1"),
+        PI_3B("3B"),
+        ZERO("Zero"),
+        CM3("CM3"),
+        ZERO_W("Zero W"),
+        PI_3B_PLUS("3B+"),
+        PI_3A_PLUS("3A+"),
+        CM3_PLUS("CM3+"),
+        PI_4B("4B"),
+        ZERO_2_W("Zero 2 W"),
+        PI_400("400"),
+        CM4("CM4"),
+        CM4S("CM4S"),
+        PI_5("5"),
+        CM5("CM5"),
+        PI_500("500"),
+        CM5_LITE("CM5 Lite"),
+        UNKNOWN("unknown");
+
+        private final String displayName;
+
+        BoardType(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * @return the name used by the Raspberry Pi documentation, e.g. "3B+"
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final int NEW_STYLE_FLAG = 1 << 23;
+
+    // Internal descriptor layout, matching new-style codes where they overlap:
+    // bits 0-3 PCB minor revision, 4-11 board type, 12-15 SoC, 16-19 manufacturer, 20-22 memory, 24-27 PCB major
+    private static final int REVISION_MASK = 0xF;
+    private static final int TYPE_SHIFT = 4;
+    private static final int TYPE_MASK = 0xFF;
+    private static final int SOC_SHIFT = 12;
+    private static final int SOC_MASK = 0xF;
+    private static final int MANUFACTURER_SHIFT = 16;
+    private static final int MANUFACTURER_MASK = 0xF;
+    private static final int MEMORY_SHIFT = 20;
+    private static final int MEMORY_MASK = 0x7;
+    private static final int MAJOR_SHIFT = 24;
+
+    // Board types indexed by board type code, null for unused or internal codes
+    private static final BoardType[] BOARD_TYPES = {
+            BoardType.A, BoardType.B, BoardType.A_PLUS, BoardType.B_PLUS, BoardType.PI_2B, BoardType.ALPHA,
+            BoardType.CM1, null, BoardType.PI_3B, BoardType.ZERO, BoardType.CM3, null, BoardType.ZERO_W,
+            BoardType.PI_3B_PLUS, BoardType.PI_3A_PLUS, null, BoardType.CM3_PLUS, BoardType.PI_4B,
+            BoardType.ZERO_2_W, BoardType.PI_400, BoardType.CM4, BoardType.CM4S, null, BoardType.PI_5, BoardType.CM5,
+            BoardType.PI_500, BoardType.CM5_LITE
+    };
+    private static final Soc[] SOCS = Soc.values();
+    private static final int[] MEMORY_MB = {256, 512, 1024, 2048, 4096, 8192, 16384};
+    // Index 6 is not assigned in new-style codes, it is only used for old-style boards made by Qisda
+    private static final String[] MANUFACTURERS = {
+            "Sony UK", "Egoman", "Embest", "Sony Japan", "Embest", "Stadium", "Qisda"
+    };
+
+    // Old-style codes 0x00-0x15 as internal descriptors, 0 for unused codes
+    private static final int[] OLD_STYLE = new int[0x16];
+
+    static {
+        oldStyle(0x02, BoardType.B, 0, 1, 1, 0);
+        oldStyle(0x03, BoardType.B, 0, 1, 1, 0);
+        oldStyle(0x04, BoardType.B, 0, 0, 2, 0);
+        oldStyle(0x05, BoardType.B, 0, 6, 2, 0);
+        oldStyle(0x06, BoardType.B, 0, 1, 2, 0);
+        oldStyle(0x07, BoardType.A, 0, 1, 2, 0);
+        oldStyle(0x08, BoardType.A, 0, 0, 2, 0);
+        oldStyle(0x09, BoardType.A, 0, 6, 2, 0);
+        oldStyle(0x0d, BoardType.B, 1, 1, 2, 0);
+        oldStyle(0x0e, BoardType.B, 1, 0, 2, 0);
+        oldStyle(0x0f, BoardType.B, 1, 1, 2, 0);
+        oldStyle(0x10, BoardType.B_PLUS, 1, 0, 1, 2);
+        oldStyle(0x11, BoardType.CM1, 1, 0, 1, 0);
+        oldStyle(0x12, BoardType.A_PLUS, 0, 0, 1, 1);
+        oldStyle(0x13, BoardType.B_PLUS, 1, 2, 1, 2);
+        oldStyle(0x14, BoardType.CM1, 1, 2, 1, 0);
+        oldStyle(0x15, BoardType.A_PLUS, 0, 2, 1, 1);
+    }
+
+    private static void oldStyle(int code, BoardType type, int memory, int manufacturer, int major, int minor) {
+        int typeCode = 0;
+        while (BOARD_TYPES[typeCode] != type) {
+            typeCode++;
+        }
+        OLD_STYLE[code] = major << MAJOR_SHIFT | memory << MEMORY_SHIFT | manufacturer << MANUFACTURER_SHIFT
+                | typeCode << TYPE_SHIFT | minor;
+    }
+
+    private final int code;
+    private final int descriptor;
+
+    private PiRevision(int code, int descriptor) {
+        this.code = code;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Decodes a revision code.
+     *
+     * @param code the revision code
+     * @return the descriptor, or empty if the code is not a known revision code
+     */
+    public static Optional<PiRevision> decode(int code) {
+        if ((code & NEW_STYLE_FLAG) != 0) {
+            // The memory field is 3 bits wide, but only some values are assigned
+            if (((code >>> MEMORY_SHIFT) & MEMORY_MASK) >= MEMORY_MB.length) {
+                return Optional.empty();
+            }
+            return Optional.of(new PiRevision(code, (code & (NEW_STYLE_FLAG - 1)) | 1 << MAJOR_SHIFT));
+        }
+        // Old-style codes may carry the warranty bit (bit 24) above the table index
+        int index = code & (NEW_STYLE_FLAG - 1);
+        if (index >= OLD_STYLE.length || OLD_STYLE[index] == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new PiRevision(code, OLD_STYLE[index]));
+    }
+
+    /**
+     * Decodes a revision code written in hexadecimal, as it appears in {@code /proc/cpuinfo}.
+     *
+     * @param revision the revision code, e.g. {@code c03114}, with or without a {@code 0x} prefix
+     * @return the descriptor, or empty if the text is not a known revision code
+     */
+    public static Optional<PiRevision> parse(String revision) {
+        int start = revision.startsWith("0x") || revision.startsWith("0X") ? 2 : 0;
+        int length = revision.length() - start;
+        if (length == 0 || length > 8) {
+            return Optional.empty();
+        }
+        int code = 0;
+        for (int i = start; i < revision.length(); i++) {
+            int digit = Character.digit(revision.charAt(i), 16);
+            if (digit < 0) {
+                return Optional.empty();
+            }
+            code = code << 4 | digit;
+        }
+        return decode(code);
+    }
+
+    /**
+     * @return the revision code this descriptor was decoded from
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return true if the code uses the new-style bitfield layout, false for old-style codes
+     */
+    public boolean isNewStyle() {
+        return (code & NEW_STYLE_FLAG) != 0;
+    }
+
+    /**
+     * Gets the board type code, which new-style codes carry in bits 4-11.
+     * For old-style codes this is the code of the equivalent board type.
+     *
+     * @return the board type code
+     */
+    public int getBoardTypeCode() {
+        return (descriptor >>> TYPE_SHIFT) & TYPE_MASK;
+    }
+
+    /**
+     * @return the board type, or {@link BoardType#UNKNOWN} for unassigned codes
+     */
+    public BoardType getBoardType() {
+        int type = getBoardTypeCode();
+        BoardType boardType = type < BOARD_TYPES.length ? BOARD_TYPES[type] : null;
+        return boardType == null ? BoardType.UNKNOWN : boardType;
+    }
+
+    /**
+     * @return the system on chip, or empty for unassigned processor codes
+     */
+    public Optional<Soc> getSoc() {
+        int soc = (descriptor >>> SOC_SHIFT) & SOC_MASK;
+        return soc < SOCS.length ? Optional.of(SOCS[soc]) : Optional.empty();
+    }
+
+    /**
+     * @return the memory size in megabytes
+     */
+    public int getMemoryMb() {
+        return MEMORY_MB[(descriptor >>> MEMORY_SHIFT) & MEMORY_MASK];
+    }
+
+    /**
+     * @return the manufacturer name, or "unknown" for unassigned manufacturer codes
+     */
+    public String getManufacturer() {
+        int manufacturer = (descriptor >>> MANUFACTURER_SHIFT) & MANUFACTURER_MASK;
+        return manufacturer < MANUFACTURERS.length ? MANUFACTURERS[manufacturer] : "unknown";
+    }
+
+    /**
+     * @return the PCB revision, e.g. "1.4"
+     */
+    public String getPcbRevision() {
+        return (descriptor >>> MAJOR_SHIFT) + "." + (descriptor & REVISION_MASK);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PiRevision && ((PiRevision) o).code == code;
+    }
+
+    @Override
+    public int hashCode() {
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PiRevision{code=%x, board=%s, soc=%s, memoryMb=%d, manufacturer=%s, pcb=%s}",
+                code, getBoardType().getDisplayName(), getSoc().map(Enum::name).orElse("unknown"), getMemoryMb(),
+                getManufacturer(), getPcbRevision());
+    }
+}
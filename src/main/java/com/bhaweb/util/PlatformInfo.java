@@ -0,0 +1,506 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the identity of the board and gauges of its hardware state over JMX, for monitoring agents and
+ * {@code jconsole}, as {@value #OBJECT_NAME}.
+ * <p>
+ * The board is detected when the instance is built. The gauges are sampled from a {@link ThrottleMonitor},
+ * {@link MemInfo}, {@link CpuStat} and {@link PressureMonitor} on a fixed interval by a daemon thread, and attributes
+ * are served from the latest sample, so however often an agent polls, the system files are only read once per
+ * interval. Registration is opt-in, with {@link #register()}.
+ */
+public final class PlatformInfo implements PlatformInfoMXBean, Closeable {
+
+    /**
+     * Name the instance is registered under.
+     */
+    public static final String OBJECT_NAME = "com.bhaweb.util:type=PlatformInfo";
+
+    /**
+     * Default sampling interval.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(5);
+
+    private static final long KB = 1024;
+
+    // guarded by PlatformInfo.class
+    private static PlatformInfo registered;
+
+    /**
+     * The gauges of one sample.
+     */
+    private static final class Sample {
+
+        private final ThrottleState throttle;
+        private final double cpuUtilization;
+        private final long memoryTotalKb;
+        private final long memoryAvailableKb;
+        private final double memoryUsedFraction;
+        private final double swapUsedFraction;
+        private final double memoryPressure;
+
+        Sample(ThrottleState throttle, CpuStat cpuStat, MemInfo memInfo, PressureMonitor pressure) {
+            this.throttle = throttle;
+            this.cpuUtilization = cpuStat == null ? Double.NaN : cpuStat.getUtilization();
+            this.memoryTotalKb = memInfo == null ? -1 : memInfo.getTotalKb();
+            this.memoryAvailableKb = memInfo == null ? -1 : memInfo.getAvailableKb();
+            this.memoryUsedFraction = memInfo == null ? Double.NaN : memInfo.getUsedFraction();
+            this.swapUsedFraction = memInfo == null ? Double.NaN : memInfo.getSwapUsedFraction();
+            this.memoryPressure = pressure.getAverage(PressureMonitor.Resource.MEMORY, PressureMonitor.Kind.SOME, 10);
+        }
+    }
+
+    private final DetectionResult detection;
+    private final String armFeatures;
+    private final long maxFrequencyKHz;
+    private final ThrottleMonitor throttleMonitor;
+    private final MemInfo memInfo;
+    private final CpuStat cpuStat;
+    private final PressureMonitor pressureMonitor;
+    private final Duration interval;
+    private final SampleHistory history;
+    private final Object lock = new Object();
+
+    private volatile Sample sample;
+    // guarded by lock
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    private PlatformInfo(Builder builder) {
+        RaspberryPiDetector detector = builder.detector != null ? builder.detector
+                : builder.root == null ? RaspberryPiDetector.defaultDetector()
+                : RaspberryPiDetector.builder().root(builder.root).build();
+        Path root = builder.root == null ? Path.of("/") : builder.root;
+        this.detection = detector.detection();
+        this.armFeatures = detection.getArmFeatures().getNames();
+        this.maxFrequencyKHz = CpuTopology.read(root).getMaxFrequencyKHz();
+        this.throttleMonitor = ThrottleMonitor.builder().root(root).build();
+        this.memInfo = openQuietly(() -> MemInfo.open(root.resolve(MemInfo.DEFAULT_MEM_INFO_PATH.substring(1))));
+        this.cpuStat = openQuietly(() -> CpuStat.open(root.resolve(CpuStat.DEFAULT_STAT_PATH.substring(1))));
+        this.pressureMonitor = PressureMonitor.builder().root(root).build();
+        this.interval = builder.interval;
+        this.history = builder.history;
+        sample();
+    }
+
+    private interface Opener<T> {
+        T open() throws IOException;
+    }
+
+    private static <T> T openQuietly(Opener<T> opener) {
+        try {
+            return opener.open();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a builder for an instance describing the local machine.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Registers an instance describing the local machine with the platform MBean server, and starts sampling.
+     * Does nothing if already registered.
+     *
+     * @return the registered instance
+     * @throws IllegalStateException if another MBean is registered under {@value #OBJECT_NAME}
+     */
+    public static synchronized PlatformInfo register() {
+        if (registered == null) {
+            PlatformInfo info = builder().build();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(info, objectName());
+            } catch (JMException e) {
+                closeQuietly(info);
+                throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+            }
+            registered = info.start();
+        }
+        return registered;
+    }
+
+    /**
+     * Unregisters the instance registered by {@link #register()} and stops its sampling. Does nothing if none is
+     * registered.
+     */
+    public static synchronized void unregister() {
+        if (registered == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch (InstanceNotFoundException e) {
+            // unregistered by someone else
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + OBJECT_NAME, e);
+        } finally {
+            closeQuietly(registered);
+            registered = null;
+        }
+    }
+
+    /**
+     * @return the name the instance is registered under
+     */
+    public static ObjectName objectName() {
+        try {
+            return new ObjectName(OBJECT_NAME);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(PlatformInfo info) {
+        try {
+            info.close();
+        } catch (IOException e) {
+            // sampling has stopped anyway
+        }
+    }
+
+    /**
+     * Samples the gauges now, and records them in the {@linkplain Builder#history(SampleHistory) history} if any.
+     * Attributes are served from this sample until the next.
+     *
+     * @throws IllegalStateException if closed
+     */
+    public void sample() {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Platform info is closed");
+            }
+            ThrottleState throttle = throttleMonitor.sample();
+            if (memInfo != null) {
+                memInfo.sample();
+            }
+            if (cpuStat != null) {
+                cpuStat.sample();
+            }
+            pressureMonitor.sample();
+            Sample current = new Sample(throttle, cpuStat, memInfo, pressureMonitor);
+            if (history != null) {
+                history.record(System.currentTimeMillis(), throttle.getMaxTemperatureCelsius(),
+                        throttle.getMaxFrequencyKHz(), current.cpuUtilization, current.memoryUsedFraction,
+                        throttle.getThrottledBits());
+            }
+            sample = current;
+        }
+    }
+
+    /**
+     * Starts sampling on the configured interval, on a daemon thread. Does nothing if already started.
+     *
+     * @return this instance
+     * @throws IllegalStateException if closed
+     */
+    public PlatformInfo start() {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Platform info is closed");
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "platform-info");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long nanos = interval.toNanos();
+                scheduler.scheduleAtFixedRate(this::scheduledSample, nanos, nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return this;
+    }
+
+    // An exception escaping a scheduled task would cancel all later samples and silently freeze the gauges
+    private void scheduledSample() {
+        try {
+            synchronized (lock) {
+                if (!closed) {
+                    sample();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep sampling, getSampleAgeMillis() shows the gauges are stale until a sample succeeds
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * @return the sampling interval used after {@link #start()}
+     */
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the detection result describing the board
+     */
+    public DetectionResult getDetection() {
+        return detection;
+    }
+
+    @Override
+    public boolean isRaspberryPi() {
+        return detection.isRaspberryPi();
+    }
+
+    @Override
+    public String getModel() {
+        return detection.getModel();
+    }
+
+    @Override
+    public String getBoardModel() {
+        return detection.getBoardModel();
+    }
+
+    @Override
+    public String getRevisionCode() {
+        return detection.getRevision().map(revision -> Integer.toHexString(revision.getCode())).orElse("");
+    }
+
+    @Override
+    public String getBoardType() {
+        return detection.getRevision().map(revision -> revision.getBoardType().getDisplayName()).orElse("");
+    }
+
+    @Override
+    public String getSoc() {
+        return detection.getRevision().flatMap(PiRevision::getSoc).map(Enum::name).orElse("");
+    }
+
+    @Override
+    public int getBoardMemoryMb() {
+        return detection.getRevision().map(PiRevision::getMemoryMb).orElse(-1);
+    }
+
+    @Override
+    public String getArmFeatures() {
+        return armFeatures;
+    }
+
+    @Override
+    public double getTemperatureCelsius() {
+        return sample.throttle.getMaxTemperatureCelsius();
+    }
+
+    @Override
+    public long getFrequencyKHz() {
+        return sample.throttle.getMaxFrequencyKHz();
+    }
+
+    @Override
+    public long getMaxFrequencyKHz() {
+        return maxFrequencyKHz;
+    }
+
+    @Override
+    public int getThrottledBits() {
+        return sample.throttle.getThrottledBits();
+    }
+
+    @Override
+    public boolean isUnderVoltage() {
+        return sample.throttle.isActive(ThrottleState.Condition.UNDER_VOLTAGE);
+    }
+
+    @Override
+    public boolean isFrequencyCapped() {
+        return sample.throttle.isActive(ThrottleState.Condition.FREQUENCY_CAPPED);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return sample.throttle.isActive(ThrottleState.Condition.THROTTLED);
+    }
+
+    @Override
+    public boolean isSoftTemperatureLimit() {
+        return sample.throttle.isActive(ThrottleState.Condition.SOFT_TEMP_LIMIT);
+    }
+
+    @Override
+    public double getCpuUtilization() {
+        return sample.cpuUtilization;
+    }
+
+    @Override
+    public long getMemoryTotalBytes() {
+        long kb = sample.memoryTotalKb;
+        return kb < 0 ? -1 : kb * KB;
+    }
+
+    @Override
+    public long getMemoryAvailableBytes() {
+        long kb = sample.memoryAvailableKb;
+        return kb < 0 ? -1 : kb * KB;
+    }
+
+    @Override
+    public double getMemoryUsedFraction() {
+        return sample.memoryUsedFraction;
+    }
+
+    @Override
+    public double getSwapUsedFraction() {
+        return sample.swapUsedFraction;
+    }
+
+    @Override
+    public double getMemoryPressure() {
+        return sample.memoryPressure;
+    }
+
+    @Override
+    public long getSampleAgeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sample.throttle.getTimestampNanos());
+    }
+
+    /**
+     * Stops sampling and closes the system files. The latest sample stays available.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            IOException failure = null;
+            for (Closeable file : new Closeable[] {throttleMonitor, pressureMonitor, memInfo, cpuStat}) {
+                try {
+                    if (file != null) {
+                        file.close();
+                    }
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PlatformInfo{model='" + getModel() + "', revision=" + getRevisionCode() + ", temperature="
+                + getTemperatureCelsius() + ", frequencyKHz=" + getFrequencyKHz() + ", throttledBits="
+                + getThrottledBits() + ", memoryUsed=" + getMemoryUsedFraction() + "}";
+    }
+
+    /**
+     * Builder of {@link PlatformInfo} instances.
+     */
+    public static final class Builder {
+
+        private Path root;
+        private RaspberryPiDetector detector;
+        private Duration interval = DEFAULT_INTERVAL;
+        private SampleHistory history;
+
+        private Builder() {
+        }
+
+        /**
+         * Reads the standard locations below the given directory instead of {@code /}, e.g.
+         * {@code root/proc/meminfo}.
+         *
+         * @param root the directory standing in for the file system root
+         * @return this builder
+         */
+        public Builder root(Path root) {
+            this.root = Objects.requireNonNull(root, "root");
+            return this;
+        }
+
+        /**
+         * @param detector the detector describing the board, by default the shared detector, or one reading below
+         * the {@linkplain #root(Path) root}
+         * @return this builder
+         */
+        public Builder detector(RaspberryPiDetector detector) {
+            this.detector = Objects.requireNonNull(detector, "detector");
+            return this;
+        }
+
+        /**
+         * @param interval the sampling interval used after {@link PlatformInfo#start()}
+         * @return this builder
+         * @throws IllegalArgumentException if the interval is not positive
+         */
+        public Builder interval(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("Interval must be positive: " + interval);
+            }
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Records every sample in a history. Samples are taken one at a time, so the history has a single writer as
+         * long as nothing else records in it.
+         *
+         * @param history the history
+         * @return this builder
+         */
+        public Builder history(SampleHistory history) {
+            this.history = Objects.requireNonNull(history, "history");
+            return this;
+        }
+
+        /**
+         * Detects the board, opens the system files and takes a first sample. The instance must be closed to release
+         * the files.
+         *
+         * @return a new instance
+         */
+        public PlatformInfo build() {
+            return new PlatformInfo(this);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+/**
+ * Management interface of {@link PlatformInfo}: the identity of the board and gauges of its hardware state.
+ * <p>
+ * The gauges come from the latest sample, so reading an attribute never reads system files. Values that are not
+ * known read as NaN, -1 or an empty string.
+ */
+public interface PlatformInfoMXBean {
+
+    /**
+     * @return true if the system was detected as a Raspberry Pi
+     */
+    boolean isRaspberryPi();
+
+    /**
+     * @return the model information, or an empty string if not running on a Pi
+     */
+    String getModel();
+
+    /**
+     * @return the board model, e.g. {@code Raspberry Pi 4 Model B Rev 1.4}, or an empty string if not known
+     */
+    String getBoardModel();
+
+    /**
+     * @return the revision code in hexadecimal, e.g. {@code c03114}, or an empty string if not known
+     */
+    String getRevisionCode();
+
+    /**
+     * @return the board type, e.g. {@code 4B}, or an empty string if not known
+     */
+    String getBoardType();
+
+    /**
+     * @return the system on chip, e.g. {@code BCM2711}, or an empty string if not known
+     */
+    String getSoc();
+
+    /**
+     * @return the memory size of the board in megabytes from the revision code, or -1 if not known
+     */
+    int getBoardMemoryMb();
+
+    /**
+     * @return the CPU features as listed by the CPU info file, e.g. {@code fp asimd crc32}
+     */
+    String getArmFeatures();
+
+    /**
+     * @return the highest thermal zone temperature in degrees Celsius, or NaN if not known
+     */
+    double getTemperatureCelsius();
+
+    /**
+     * @return the highest current CPU frequency in kHz, or -1 if not known
+     */
+    long getFrequencyKHz();
+
+    /**
+     * @return the highest maximum CPU frequency in kHz, or -1 if not known
+     */
+    long getMaxFrequencyKHz();
+
+    /**
+     * @return the firmware throttling bitmask, as printed by {@code vcgencmd get_throttled}, or -1 if not known
+     */
+    int getThrottledBits();
+
+    /**
+     * @return true if the supply voltage is low now
+     */
+    boolean isUnderVoltage();
+
+    /**
+     * @return true if the ARM frequency is capped now
+     */
+    boolean isFrequencyCapped();
+
+    /**
+     * @return true if the ARM core is throttled now
+     */
+    boolean isThrottled();
+
+    /**
+     * @return true if the soft temperature limit is active now
+     */
+    boolean isSoftTemperatureLimit();
+
+    /**
+     * @return the utilization of all CPUs between the last two samples, from 0 to 1, or NaN if not known
+     */
+    double getCpuUtilization();
+
+    /**
+     * @return the total usable memory in bytes, or -1 if not known
+     */
+    long getMemoryTotalBytes();
+
+    /**
+     * @return the memory available for new work without swapping in bytes, or -1 if not known
+     */
+    long getMemoryAvailableBytes();
+
+    /**
+     * @return the fraction of memory in use, from 0 to 1, or NaN if not known
+     */
+    double getMemoryUsedFraction();
+
+    /**
+     * @return the fraction of swap in use, from 0 to 1, or NaN if not known
+     */
+    double getSwapUsedFraction();
+
+    /**
+     * @return the percentage of time some task stalled on memory over the last 10 seconds, from the pressure stall
+     * information, or NaN if not supported
+     */
+    double getMemoryPressure();
+
+    /**
+     * @return the age of the latest sample in milliseconds
+     */
+    long getSampleAgeMillis();
+}
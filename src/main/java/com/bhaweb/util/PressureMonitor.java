@@ -0,0 +1,571 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads Linux Pressure Stall Information from {@code /proc/pressure/{cpu,memory,io}}, the share of time tasks were
+ * stalled waiting for a resource, and calls triggers when stalls exceed a threshold.
+ * <p>
+ * The files are kept open and re-read in place on each {@link #sample()}, so sampling allocates nothing. Triggers
+ * follow the semantics of kernel PSI triggers, a stall time threshold within a time window, reported at most once
+ * per window. The kernel only signals its own triggers through {@code poll()} with {@code POLLPRI}, which the JDK
+ * does not expose, so triggers are evaluated here from the {@code total} stall counters on every sample. With
+ * {@link #start()} samples are taken on the {@linkplain Builder#pollInterval(Duration) poll interval}, which bounds
+ * the reaction time to a stall.
+ */
+public final class PressureMonitor implements Closeable {
+
+    /**
+     * Default poll interval.
+     */
+    public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMillis(100);
+
+    static final String PRESSURE_DIR = "proc/pressure";
+
+    private static final int BUFFER_SIZE = 256;
+
+    /**
+     * Resource whose pressure is reported.
+     */
+    public enum Resource {
+        CPU("cpu"), MEMORY("memory"), IO("io");
+
+        private final String fileName;
+
+        Resource(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return the name of the file below {@code /proc/pressure}
+         */
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    /**
+     * Scope of a stall.
+     */
+    public enum Kind {
+        /** At least one task was stalled. */
+        SOME,
+        /** All non-idle tasks were stalled at the same time. */
+        FULL
+    }
+
+    /**
+     * Called when a trigger fires.
+     */
+    @FunctionalInterface
+    public interface TriggerListener {
+
+        /**
+         * @param trigger the trigger that fired
+         * @param stallMicros the stall time within the trigger window, in microseconds
+         */
+        void onPressure(Trigger trigger, long stallMicros);
+    }
+
+    /**
+     * A stall time threshold within a time window, created by {@link #addTrigger}.
+     */
+    public final class Trigger implements Closeable {
+
+        private final Resource resource;
+        private final Kind kind;
+        private final long thresholdMicros;
+        private final long windowNanos;
+        private final TriggerListener listener;
+        // ring of (time, total) samples covering the window, guarded by the monitor lock
+        private final long[] times;
+        private final long[] totals;
+        private int head;
+        private int size;
+        private boolean fired;
+        private long lastFiredNanos;
+
+        private Trigger(Resource resource, Kind kind, Duration threshold, Duration window,
+                TriggerListener listener) {
+            this.resource = resource;
+            this.kind = kind;
+            this.thresholdMicros = threshold.toNanos() / 1000;
+            this.windowNanos = window.toNanos();
+            this.listener = listener;
+            int capacity = (int) Math.min(4096, window.toNanos() / pollInterval.toNanos() + 2);
+            this.times = new long[capacity];
+            this.totals = new long[capacity];
+        }
+
+        /**
+         * @return the resource watched
+         */
+        public Resource getResource() {
+            return resource;
+        }
+
+        /**
+         * @return the kind of stall watched
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the stall time threshold
+         */
+        public Duration getThreshold() {
+            return Duration.ofNanos(thresholdMicros * 1000);
+        }
+
+        /**
+         * @return the time window
+         */
+        public Duration getWindow() {
+            return Duration.ofNanos(windowNanos);
+        }
+
+        /**
+         * Records a sample and reports whether the threshold was exceeded, at most once per window.
+         *
+         * @return the stall time within the window, or -1 if the trigger does not fire
+         */
+        long update(long now, long total) {
+            if (total < 0) {
+                return -1;
+            }
+            // Drop samples older than the window, the oldest one left is the baseline, which errs on the side of
+            // not firing by at most one poll interval of stall time
+            while (size > 0 && now - times[head] > windowNanos) {
+                head = (head + 1) % times.length;
+                size--;
+            }
+            if (size == times.length) {
+                head = (head + 1) % times.length;
+                size--;
+            }
+            int tail = (head + size) % times.length;
+            times[tail] = now;
+            totals[tail] = total;
+            size++;
+            long stall = total - totals[head];
+            if (stall < thresholdMicros || (fired && now - lastFiredNanos < windowNanos)) {
+                return -1;
+            }
+            fired = true;
+            lastFiredNanos = now;
+            return stall;
+        }
+
+        /**
+         * Removes the trigger.
+         */
+        @Override
+        public void close() {
+            triggers.remove(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Trigger{" + resource + " " + kind + " " + getThreshold() + " in " + getWindow() + "}";
+        }
+    }
+
+    // Per resource and kind: avg10, avg60 and avg300 in hundredths of a percent, then total in microseconds
+    private static final int FIELDS = 4;
+    private static final int TOTAL = 3;
+    private static final int[] AVERAGE_WINDOWS = {10, 60, 300};
+    private static final Resource[] RESOURCES = Resource.values();
+
+    private final SysFile[] files = new SysFile[RESOURCES.length];
+    private final long[] values = new long[RESOURCES.length * 2 * FIELDS];
+    private final Duration pollInterval;
+    private final CopyOnWriteArrayList<Trigger> triggers = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    private PressureMonitor(Builder builder) {
+        for (Resource resource : RESOURCES) {
+            Path path = builder.paths.get(resource);
+            files[resource.ordinal()] = SysFile.open(path != null ? path
+                    : builder.root.resolve(PRESSURE_DIR).resolve(resource.getFileName()), BUFFER_SIZE);
+        }
+        this.pollInterval = builder.pollInterval;
+        Arrays.fill(values, -1);
+    }
+
+    /**
+     * Creates a builder for a monitor of the local machine.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param resource the resource
+     * @return true if the pressure file of the resource exists, PSI needs Linux 4.20 and {@code psi=1} on some
+     * kernels
+     */
+    public boolean isSupported(Resource resource) {
+        return files[resource.ordinal()] != null;
+    }
+
+    /**
+     * Re-reads the pressure files and evaluates the triggers.
+     *
+     * @return true if any pressure file was read
+     * @throws IllegalStateException if the monitor is closed
+     */
+    public boolean sample() {
+        boolean read = false;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Monitor is closed");
+            }
+            for (Resource resource : RESOURCES) {
+                SysFile file = files[resource.ordinal()];
+                ByteBuffer bytes = file == null ? null : file.read();
+                if (bytes != null) {
+                    parse(bytes, values, resource.ordinal() * 2 * FIELDS);
+                    read = true;
+                }
+            }
+            long now = System.nanoTime();
+            for (Trigger trigger : triggers) {
+                long stall = trigger.update(now, getTotalMicros(trigger.resource, trigger.kind));
+                if (stall >= 0) {
+                    fire(trigger, stall);
+                }
+            }
+        }
+        return read;
+    }
+
+    private static void fire(Trigger trigger, long stall) {
+        try {
+            trigger.listener.onPressure(trigger, stall);
+        } catch (RuntimeException e) {
+            // A failing listener must not stop sampling or starve the other triggers
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Parses the {@code some} and {@code full} lines of a pressure file, e.g.
+     * {@code some avg10=1.53 avg60=0.87 avg300=0.22 total=1041276}, into values from the given offset.
+     * Values missing from the file, such as {@code full} for CPU before Linux 5.13, are set to -1.
+     */
+    static void parse(ByteBuffer bytes, long[] values, int offset) {
+        Arrays.fill(values, offset, offset + 2 * FIELDS, -1);
+        int limit = bytes.limit();
+        int line = 0;
+        while (line < limit) {
+            int end = line;
+            while (end < limit && bytes.get(end) != '\n') {
+                end++;
+            }
+            int kind = startsWith(bytes, line, end, "some ") ? 0 : startsWith(bytes, line, end, "full ") ? 1 : -1;
+            if (kind >= 0) {
+                int base = offset + kind * FIELDS;
+                for (int i = line; i < end; i++) {
+                    if (bytes.get(i) != '=') {
+                        continue;
+                    }
+                    int field = field(bytes, line, i);
+                    if (field == TOTAL) {
+                        values[base + TOTAL] = SysFile.parseLong(bytes, i + 1, end, 10);
+                    } else if (field >= 0) {
+                        values[base + field] = parseHundredths(bytes, i + 1, end);
+                    }
+                }
+            }
+            line = end + 1;
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes.get(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Identifies the key ending before the '=' at index equals
+    private static int field(ByteBuffer bytes, int line, int equals) {
+        int start = equals;
+        while (start > line && bytes.get(start - 1) != ' ') {
+            start--;
+        }
+        if (startsWith(bytes, start, equals, "total") && equals - start == 5) {
+            return TOTAL;
+        }
+        if (startsWith(bytes, start, equals, "avg")) {
+            int window = (int) SysFile.parseLong(bytes, start + 3, equals, 10);
+            for (int field = 0; field < AVERAGE_WINDOWS.length; field++) {
+                if (AVERAGE_WINDOWS[field] == window) {
+                    return field;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Parses a percentage with two decimals, e.g. 12.34, as 1234
+    private static long parseHundredths(ByteBuffer bytes, int from, int to) {
+        long value = 0;
+        int decimals = -1;
+        int i = from;
+        for (; i < to && decimals < 2; i++) {
+            byte b = bytes.get(i);
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (b >= '0' && b <= '9') {
+                value = value * 10 + b - '0';
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i == from) {
+            return -1;
+        }
+        for (int d = Math.max(decimals, 0); d < 2; d++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    /**
+     * Gets a running average of the share of time tasks were stalled, from the last sample.
+     *
+     * @param resource the resource
+     * @param kind the kind of stall
+     * @param windowSeconds the averaging window, 10, 60 or 300 seconds
+     * @return the percentage of time stalled, from 0 to 100, or NaN if not available
+     * @throws IllegalArgumentException if the window is not 10, 60 or 300
+     */
+    public double getAverage(Resource resource, Kind kind, int windowSeconds) {
+        int field = Arrays.binarySearch(AVERAGE_WINDOWS, windowSeconds);
+        if (field < 0) {
+            throw new IllegalArgumentException("Window must be 10, 60 or 300 seconds: " + windowSeconds);
+        }
+        long hundredths;
+        synchronized (lock) {
+            hundredths = values[index(resource, kind) + field];
+        }
+        return hundredths < 0 ? Double.NaN : hundredths / 100.0;
+    }
+
+    /**
+     * @param resource the resource
+     * @param kind the kind of stall
+     * @return the total stall time since boot in microseconds from the last sample, or -1 if not available
+     */
+    public long getTotalMicros(Resource resource, Kind kind) {
+        synchronized (lock) {
+            return values[index(resource, kind) + TOTAL];
+        }
+    }
+
+    private static int index(Resource resource, Kind kind) {
+        return (resource.ordinal() * 2 + kind.ordinal()) * FIELDS;
+    }
+
+    /**
+     * Adds a trigger, which fires when tasks were stalled for at least the threshold within the window, at most once
+     * per window. The window should span several poll intervals.
+     *
+     * @param resource the resource
+     * @param kind the kind of stall
+     * @param threshold the stall time threshold, e.g. 150ms
+     * @param window the time window, e.g. 1s
+     * @param listener called on the sampling thread when the trigger fires
+     * @return the trigger, closing it removes it
+     * @throws IllegalArgumentException if the threshold is not positive or exceeds the window
+     */
+    public Trigger addTrigger(Resource resource, Kind kind, Duration threshold, Duration window,
+            TriggerListener listener) {
+        Objects.requireNonNull(resource, "resource");
+        Objects.requireNonNull(kind, "kind");
+        Objects.requireNonNull(listener, "listener");
+        if (threshold.isNegative() || threshold.isZero() || threshold.compareTo(window) > 0) {
+            throw new IllegalArgumentException("Threshold " + threshold + " must be positive and within " + window);
+        }
+        Trigger trigger = new Trigger(resource, kind, threshold, window, listener);
+        triggers.add(trigger);
+        return trigger;
+    }
+
+    /**
+     * Starts sampling on the poll interval, on a daemon thread. Does nothing if already started.
+     *
+     * @return this monitor
+     * @throws IllegalStateException if the monitor is closed
+     */
+    public PressureMonitor start() {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Monitor is closed");
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "pressure-monitor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleAtFixedRate(this::sample, 0, pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the poll interval used after {@link #start()}
+     */
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Stops sampling and closes the pressure files. The last sample stays available.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            triggers.clear();
+            IOException failure = null;
+            for (SysFile file : files) {
+                if (file == null) {
+                    continue;
+                }
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("PressureMonitor{");
+        for (Resource resource : RESOURCES) {
+            text.append(resource).append("=").append(getAverage(resource, Kind.SOME, 10)).append("%, ");
+        }
+        return text.append("triggers=").append(triggers.size()).append("}").toString();
+    }
+
+    /**
+     * Builder of {@link PressureMonitor} instances.
+     */
+    public static final class Builder {
+
+        private Path root = Path.of("/");
+        private final Map<Resource, Path> paths = new EnumMap<>(Resource.class);
+        private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+
+        private Builder() {
+        }
+
+        /**
+         * Reads the standard locations below the given directory instead of {@code /},
+         * e.g. {@code root/proc/pressure/cpu}.
+         *
+         * @param root the directory standing in for the file system root
+         * @return this builder
+         */
+        public Builder root(Path root) {
+            this.root = Objects.requireNonNull(root, "root");
+            return this;
+        }
+
+        /**
+         * Reads the pressure of a resource from another file, e.g. {@code cpu.pressure} of a cgroup.
+         *
+         * @param resource the resource
+         * @param path the pressure file
+         * @return this builder
+         */
+        public Builder path(Resource resource, Path path) {
+            paths.put(Objects.requireNonNull(resource, "resource"), Objects.requireNonNull(path, "path"));
+            return this;
+        }
+
+        /**
+         * @param pollInterval the sampling interval used after {@link PressureMonitor#start()}
+         * @return this builder
+         * @throws IllegalArgumentException if the interval is not positive
+         */
+        public Builder pollInterval(Duration pollInterval) {
+            if (pollInterval.isNegative() || pollInterval.isZero()) {
+                throw new IllegalArgumentException("Poll interval must be positive: " + pollInterval);
+            }
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * Opens the pressure files and creates the monitor. The monitor must be closed to release them.
+         *
+         * @return a new monitor
+         */
+        public PressureMonitor build() {
+            return new PressureMonitor(this);
+        }
+    }
+}
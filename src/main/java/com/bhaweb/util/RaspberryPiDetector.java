@@ -15,13 +15,32 @@
  */
 package com.bhaweb.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility class to detect if the application is running on a Raspberry Pi.
+ * <p>
+ * Sources are consulted from cheapest to most expensive, stopping at the first definitive answer:
+ * the device tree model, the device tree compatible list, and finally the CPU info file.
+ * <p>
+ * Detection is performed lazily on first use and the resulting {@link DetectionResult} is cached, so subsequent
+ * calls do not re-read system files. Use {@link #refreshDetection()} or {@link #invalidateDetection()} to discard
+ * the cached result.
+ * <p>
+ * The static methods query a shared detector bound to the default file system. Detectors reading other locations,
+ * e.g. a copy of {@code /proc} and {@code /sys} in a test, are created with {@link #builder()}. Detector instances
+ * are immutable apart from their cached result, and safe to share between threads.
  */
 public class RaspberryPiDetector {
 
@@ -31,13 +50,107 @@ public class RaspberryPiDetector {
      */
     @SuppressWarnings("SpellCheckingInspection")
     protected static final String DEFAULT_CPU_INFO_PATH = "/proc/cpuinfo";
-    // Allow overriding the CPU info path for testing purposes
-    protected static String CPU_INFO_PATH = DEFAULT_CPU_INFO_PATH;
+    /**
+     * Path to the device tree model, a NUL terminated string such as "Raspberry Pi 4 Model B Rev 1.4".
+     */
+    protected static final String DEFAULT_DEVICE_TREE_MODEL_PATH = "/proc/device-tree/model";
+    /**
+     * Path to the device tree compatible list, a sequence of NUL terminated strings such as "raspberrypi,4-model-b".
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    protected static final String DEFAULT_DEVICE_TREE_COMPATIBLE_PATH = "/sys/firmware/devicetree/base/compatible";
+    /**
+     * Path to the boot id, which changes on every boot and keys the persistent detection cache.
+     */
+    protected static final String DEFAULT_BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+    /**
+     * Path to the kernel release, which keys the persistent detection cache.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    protected static final String DEFAULT_KERNEL_RELEASE_PATH = "/proc/sys/kernel/osrelease";
+    /**
+     * System property naming a marker database file to use instead of the bundled one, in the format of the
+     * bundled {@code com/bhaweb/util/sbc-markers.txt} resource. It is read on the first detection of each detector
+     * not given a {@linkplain Builder#markerDatabase(Path) database of its own}. A file that cannot be read or
+     * parsed fails that detection with an {@link IllegalStateException}, and is read again by the next one.
+     */
+    public static final String MARKER_DATABASE_PROPERTY = "com.bhaweb.util.sbcMarkers";
+    protected static final String RASPBERRY_PI_MODEL_PREFIX = "Raspberry Pi";
+    protected static final String UNKNOWN_MODEL = "Raspberry Pi (model unknown)";
     protected static final String MODEL_NAME_PREFIX = "model name";
     protected static final String HARDWARE_PREFIX = "Hardware";
-    protected static final String[] RASPBERRY_PI_HARDWARE_MARKERS = {
-            "BCM2708", "BCM2709", "BCM2710", "BCM2711", "BCM2835", "BCM2836", "BCM2837", "BCM2838"
-    };
+
+    private static final SbcMarkers BUNDLED_MARKERS = SbcMarkers.bundled();
+
+    /**
+     * Device tree compatible markers of the bundled marker database, each matched as an entry prefix.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    protected static final String[] RASPBERRY_PI_COMPATIBLE_MARKERS =
+            BUNDLED_MARKERS.getMarkers(SbcMarkers.Field.COMPATIBLE);
+    /**
+     * CPU info {@code Hardware} markers of the bundled marker database, e.g. "BCM2835".
+     */
+    protected static final String[] RASPBERRY_PI_HARDWARE_MARKERS =
+            BUNDLED_MARKERS.getMarkers(SbcMarkers.Field.HARDWARE);
+
+    private static final byte[] HARDWARE_KEY_BYTES = HARDWARE_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MODEL_KEY_BYTES = CpuInfo.MODEL_KEY.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FEATURES_KEY_BYTES = CpuInfo.FEATURES_KEY.getBytes(StandardCharsets.US_ASCII);
+
+    // Shared detector used by the static methods
+    private static final RaspberryPiDetector DEFAULT = builder().build();
+
+    private final Path cpuInfoPath;
+    private final Path deviceTreeModelPath;
+    private final Path deviceTreeCompatiblePath;
+    // Lower case OS name, or null to read the os.name system property on each detection
+    private final String osName;
+    // Persistent cache file, or null to always detect live
+    private final Path cacheFile;
+    private final Path bootIdPath;
+    private final Path kernelReleasePath;
+    // Marker database file, or null for the file named by the system property or else the bundled database
+    private final Path markerDatabase;
+    // Compiled on first detection, so the cost of detection does not depend on the number of boards known
+    private volatile SbcMarkers markers;
+    // Cached detection result, null until first detection or after invalidation
+    private final AtomicReference<DetectionResult> detection = new AtomicReference<>();
+
+    /**
+     * Creates a detector from the builder settings.
+     *
+     * @param builder the builder
+     */
+    protected RaspberryPiDetector(Builder builder) {
+        this.cpuInfoPath = builder.resolve(builder.cpuInfoPath, DEFAULT_CPU_INFO_PATH);
+        this.deviceTreeModelPath = builder.resolve(builder.deviceTreeModelPath, DEFAULT_DEVICE_TREE_MODEL_PATH);
+        this.deviceTreeCompatiblePath =
+                builder.resolve(builder.deviceTreeCompatiblePath, DEFAULT_DEVICE_TREE_COMPATIBLE_PATH);
+        this.osName = builder.osName == null ? null : builder.osName.toLowerCase();
+        this.cacheFile = builder.cacheFile;
+        this.bootIdPath = builder.resolve(null, DEFAULT_BOOT_ID_PATH);
+        this.kernelReleasePath = builder.resolve(null, DEFAULT_KERNEL_RELEASE_PATH);
+        this.markerDatabase = builder.markerDatabase;
+    }
+
+    /**
+     * Creates a builder for detector instances.
+     *
+     * @return a new builder, by default reading the standard locations of the default file system
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the shared detector used by the static methods.
+     *
+     * @return the shared detector
+     */
+    public static RaspberryPiDetector defaultDetector() {
+        return DEFAULT;
+    }
 
     /**
      * Checks if the current system is a Raspberry Pi.
@@ -45,48 +158,296 @@ public class RaspberryPiDetector {
      * @return true if running on a Raspberry Pi, false otherwise
      */
     public static boolean isRaspberryPi() {
+        return getDetection().isRaspberryPi();
+    }
+
+    /**
+     * Gets the Raspberry Pi model information if available.
+     * 
+     * @return a string containing the model information, or an empty string if not running on a Pi
+     */
+    public static String getRaspberryPiModel() {
+        return getDetection().getModel();
+    }
+
+    /**
+     * Gets the decoded board revision of the Raspberry Pi, from the {@code Revision} field of the CPU info.
+     *
+     * @return the board revision, or empty if not running on a Pi or the revision code is unknown
+     */
+    public static Optional<PiRevision> getRaspberryPiRevision() {
+        return getDetection().getRevision();
+    }
+
+    /**
+     * Gets the cached detection result, performing detection if no result is cached yet.
+     * If several threads race on the first call, each may detect but all observe the same cached result.
+     *
+     * @return the detection result
+     */
+    public static DetectionResult getDetection() {
+        return DEFAULT.detection();
+    }
+
+    /**
+     * Performs detection again and replaces the cached result.
+     *
+     * @return the new detection result
+     */
+    public static DetectionResult refreshDetection() {
+        return DEFAULT.refresh();
+    }
+
+    /**
+     * Discards the cached detection result, so the next query performs detection again.
+     */
+    public static void invalidateDetection() {
+        DEFAULT.invalidate();
+    }
+
+    /**
+     * Gets the cached detection result of this detector, performing detection if no result is cached yet.
+     * If several threads race on the first call, each may detect but all observe the same cached result.
+     * With a {@linkplain Builder#cacheFile(Path) cache file}, a result persisted since the last boot is used
+     * instead of detecting.
+     *
+     * @return the detection result
+     */
+    public DetectionResult detection() {
+        DetectionResult result = detection.get();
+        if (result != null) {
+            return result;
+        }
+        DetectionResult detected = loadOrDetect();
+        if (detection.compareAndSet(null, detected)) {
+            return detected;
+        }
+        // Another thread won the race (or invalidated in between), prefer its result if still present
+        return Objects.requireNonNullElse(detection.get(), detected);
+    }
+
+    /**
+     * Performs detection again and replaces the cached result of this detector, and the persisted result if any.
+     *
+     * @return the new detection result
+     */
+    public DetectionResult refresh() {
+        Object event = JfrEvents.beginDetection();
+        DetectionResult detected = detect();
+        JfrEvents.commitDetection(event, detected, false);
+        store(detected);
+        detection.set(detected);
+        return detected;
+    }
+
+    /**
+     * Discards the cached detection result of this detector, and deletes the persisted result if any, so the next
+     * query performs detection again.
+     */
+    public void invalidate() {
+        detection.set(null);
+        if (cacheFile != null) {
+            try {
+                Files.deleteIfExists(cacheFile);
+            } catch (IOException e) {
+                // A stale file is replaced by the next detection anyway
+            }
+        }
+    }
+
+    private DetectionResult loadOrDetect() {
+        Object event = JfrEvents.beginDetection();
+        DetectionCache.Key key = cacheKey();
+        if (key != null) {
+            DetectionResult cached = DetectionCache.read(cacheFile, key);
+            if (cached != null) {
+                JfrEvents.commitDetection(event, cached, true);
+                return cached;
+            }
+        }
+        DetectionResult detected = detect();
+        JfrEvents.commitDetection(event, detected, false);
+        if (key != null) {
+            DetectionCache.write(cacheFile, key, detected);
+        }
+        return detected;
+    }
+
+    private void store(DetectionResult result) {
+        DetectionCache.Key key = cacheKey();
+        if (key != null) {
+            DetectionCache.write(cacheFile, key, result);
+        }
+    }
+
+    // The key covers the boot, the kernel and every setting that changes the answer
+    private DetectionCache.Key cacheKey() {
+        if (cacheFile == null) {
+            return null;
+        }
+        SbcMarkers markers = markers();
+        String configuration = cpuInfoPath.toUri() + "\n" + deviceTreeModelPath.toUri() + "\n"
+                + deviceTreeCompatiblePath.toUri() + "\n" + (osName == null ? getOsName() : osName) + "\n"
+                + markers.getSource() + " " + markers.getVersion();
+        return DetectionCache.Key.read(bootIdPath, kernelReleasePath, configuration);
+    }
+
+    /**
+     * Gets the marker database of this detector, reading it on first use.
+     *
+     * @return the marker database
+     * @throws IllegalStateException if a marker database file cannot be read or is malformed, so a misconfigured
+     * override fails loudly rather than silently detecting with other markers
+     */
+    SbcMarkers markers() {
+        SbcMarkers result = markers;
+        if (result == null) {
+            result = readMarkers();
+            markers = result;
+        }
+        return result;
+    }
+
+    private SbcMarkers readMarkers() {
+        Path file = markerDatabase;
+        try {
+            if (file == null) {
+                String override = System.getProperty(MARKER_DATABASE_PROPERTY);
+                if (override == null) {
+                    return BUNDLED_MARKERS;
+                }
+                file = Path.of(override);
+            }
+            return SbcMarkers.read(file);
+        } catch (IOException | InvalidPathException e) {
+            throw new IllegalStateException("Cannot read the marker database: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the CPU info file this detector reads
+     */
+    public Path getCpuInfoPath() {
+        return cpuInfoPath;
+    }
+
+    /**
+     * @return the device tree model file this detector reads
+     */
+    public Path getDeviceTreeModelPath() {
+        return deviceTreeModelPath;
+    }
+
+    /**
+     * @return the device tree compatible file this detector reads
+     */
+    public Path getDeviceTreeCompatiblePath() {
+        return deviceTreeCompatiblePath;
+    }
+
+    /**
+     * @return the file the detection result is persisted in, or empty if it is not persisted
+     */
+    public Optional<Path> getCacheFile() {
+        return Optional.ofNullable(cacheFile);
+    }
+
+    // Protected methods that can be overridden for testing
+
+    /**
+     * Performs detection, consulting each source at most once.
+     * A device tree model naming a Raspberry Pi, or a device tree compatible list, is definitive, otherwise the
+     * CPU info file decides. Once the system is known to be a Raspberry Pi, the CPU info file supplies the model.
+     * On Linux the CPU info file also supplies the CPU features, whichever source decided.
+     *
+     * @return the detection result
+     */
+    protected DetectionResult detect() {
         // Check if we're running on Linux first
-        String osName = getOsName();
+        String osName = this.osName == null ? getOsName() : this.osName;
         if (!osName.contains("linux")) {
-            return false;
+            return DetectionResult.NOT_RASPBERRY_PI;
+        }
+
+        SbcMarkers markers = markers();
+        String boardModel = readDeviceTreeString(deviceTreeModelPath);
+        if (boardModel != null && markers.findModel(boardModel) >= 0) {
+            return raspberryPi(DetectionResult.Source.DEVICE_TREE_MODEL, boardModel, readCpuInfoQuietly());
+        }
+        if (boardModel == null) {
+            boardModel = "";
         }
 
-        // Check for Raspberry Pi specific CPU info
-        File cpuInfoFile = getCpuInfoFile();
-        if (!cpuInfoFile.exists()) {
-            return false;
+        String compatible = readDeviceTreeString(deviceTreeCompatiblePath);
+        if (compatible != null) {
+            String board = compatibleBoard(markers, compatible);
+            if (board == null) {
+                return DetectionResult.notRaspberryPi(DetectionResult.Source.DEVICE_TREE_COMPATIBLE,
+                        readArmFeaturesQuietly(markers));
+            }
+            CpuInfoFields cpuInfo = readCpuInfoQuietly();
+            if (boardModel.isEmpty() && (cpuInfo == null || cpuInfo.getModel().isEmpty())) {
+                // No model string anywhere, name the board from the marker database
+                boardModel = board;
+            }
+            return raspberryPi(DetectionResult.Source.DEVICE_TREE_COMPATIBLE, boardModel, cpuInfo);
         }
 
+        // Check for Raspberry Pi specific CPU info, streamed so large files are never held in memory, and matched on
+        // the raw bytes while the fields are collected in the same pass
+        if (!Files.exists(cpuInfoPath)) {
+            return DetectionResult.NOT_RASPBERRY_PI;
+        }
         try {
-            String cpuInfo = readCpuInfo(cpuInfoFile);
-            return containsRaspberryPiHardware(cpuInfo);
+            CpuInfoScan scan = scanCpuInfo(cpuInfoPath, markers);
+            if (!scan.isRaspberryPi()) {
+                return DetectionResult.notRaspberryPi(DetectionResult.Source.CPU_INFO, scan.getArmFeatures());
+            }
+            return raspberryPi(DetectionResult.Source.CPU_INFO, boardModel, scan.getFields());
         } catch (IOException e) {
             // If we can't read the file, assume it's not a Raspberry Pi
-            return false;
+            return DetectionResult.NOT_RASPBERRY_PI;
         }
     }
 
-    /**
-     * Gets the Raspberry Pi model information if available.
-     * 
-     * @return a string containing the model information, or an empty string if not running on a Pi
-     */
-    public static String getRaspberryPiModel() {
-        if (!isRaspberryPi()) {
-            return "";
+    private static DetectionResult raspberryPi(DetectionResult.Source source, String boardModel,
+                                               CpuInfoFields cpuInfo) {
+        if (boardModel.isEmpty() && cpuInfo != null) {
+            boardModel = cpuInfo.getModel();
         }
+        String model;
+        if (cpuInfo != null && !cpuInfo.getModelName().isEmpty()) {
+            model = cpuInfo.getModelName();
+        } else {
+            // 64-bit kernels omit "model name", fall back to the board model
+            model = boardModel.isEmpty() ? UNKNOWN_MODEL : boardModel;
+        }
+        PiRevision revision = cpuInfo == null ? null : PiRevision.parse(cpuInfo.getRevision()).orElse(null);
+        ArmFeatures armFeatures = cpuInfo == null ? ArmFeatures.NONE : cpuInfo.getArmFeatures();
+        return new DetectionResult(true, source, model, boardModel, revision, armFeatures);
+    }
 
-        File cpuInfoFile = getCpuInfoFile();
+    private ArmFeatures readArmFeaturesQuietly(SbcMarkers markers) {
+        if (!Files.exists(cpuInfoPath)) {
+            return ArmFeatures.NONE;
+        }
         try {
-            String cpuInfo = readCpuInfo(cpuInfoFile);
-            return extractModelInfo(cpuInfo);
+            return scanCpuInfo(cpuInfoPath, markers).getArmFeatures();
         } catch (IOException e) {
-            // todo: log the error
-            return "Raspberry Pi (model unknown)";
+            return ArmFeatures.NONE;
         }
     }
 
-    // Protected methods that can be overridden for testing
+    private CpuInfoFields readCpuInfoQuietly() {
+        if (!Files.exists(cpuInfoPath)) {
+            return null;
+        }
+        try {
+            return CpuInfoFields.read(cpuInfoPath);
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
     /**
      * Gets the OS name.
@@ -98,12 +459,70 @@ public class RaspberryPiDetector {
     }
 
     /**
-     * Gets the CPU info file.
-     * 
-     * @return the CPU info file
+     * Reads a device tree string property, converting the NUL separators of string lists to line breaks.
+     *
+     * @param file the device tree property file
+     * @return the property value without trailing NULs, or null if the file does not exist or cannot be read
+     */
+    protected static String readDeviceTreeString(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            return null;
+        }
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == 0) {
+                bytes[i] = '\n';
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Checks if a device tree compatible list names Raspberry Pi hardware, using the marker database of the
+     * {@linkplain #defaultDetector() shared detector}. Detectors given a database of their own match against that
+     * instead.
+     *
+     * @param compatible the compatible list, one entry per line
+     * @return true if any entry starts with a Raspberry Pi compatible marker, false otherwise
      */
-    protected static File getCpuInfoFile() {
-        return new File(CPU_INFO_PATH);
+    protected static boolean isRaspberryPiCompatible(String compatible) {
+        return compatibleBoard(DEFAULT.markers(), compatible) != null;
+    }
+
+    /**
+     * Matches the entries of a device tree compatible list against the marker database.
+     *
+     * @param compatible the compatible list, one entry per line
+     * @return the board named by the first entry naming one, an empty string if entries match but none names a
+     * board, or null if no entry matches
+     */
+    private static String compatibleBoard(SbcMarkers markers, String compatible) {
+        String board = null;
+        int start = 0;
+        while (start < compatible.length()) {
+            int end = compatible.indexOf('\n', start);
+            if (end < 0) {
+                end = compatible.length();
+            }
+            int marker = markers.findCompatible(compatible, start, end);
+            if (marker >= 0) {
+                board = markers.getBoard(SbcMarkers.Field.COMPATIBLE, marker);
+                if (!board.isEmpty()) {
+                    return board;
+                }
+            }
+            start = end + 1;
+        }
+        return board;
     }
 
     /**
@@ -114,36 +533,130 @@ public class RaspberryPiDetector {
      * @throws IOException if an I/O error occurs
      */
     protected static String readCpuInfo(File cpuInfoFile) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(cpuInfoFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+        return readCpuInfo(cpuInfoFile.toPath());
+    }
+
+    /**
+     * Reads the CPU info from the given file, which may belong to any file system.
+     *
+     * @param cpuInfoFile the CPU info file
+     * @return the CPU info as a string
+     * @throws IOException if an I/O error occurs
+     */
+    protected static String readCpuInfo(Path cpuInfoFile) throws IOException {
+        // Files under /proc report a size of zero, readAllBytes reads them until end of stream regardless
+        return new String(Files.readAllBytes(cpuInfoFile), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scans a CPU info file for a Raspberry Pi, streaming it and matching the markers of this detector on its raw
+     * bytes. The {@code Hardware} field is matched against all hardware markers in one pass, and a {@code Model}
+     * field starting with a model marker is also accepted.
+     *
+     * @param cpuInfoFile the CPU info file, which may belong to any file system
+     * @return the scan result
+     * @throws IOException if an I/O error occurs
+     */
+    CpuInfoScan scanCpuInfo(Path cpuInfoFile) throws IOException {
+        return scanCpuInfo(cpuInfoFile, markers());
+    }
+
+    private static CpuInfoScan scanCpuInfo(Path cpuInfoFile, SbcMarkers markers) throws IOException {
+        CpuInfoScan scan = new CpuInfoScan(markers);
+        try (SeekableByteChannel channel = Files.newByteChannel(cpuInfoFile)) {
+            CpuInfoParser.lines(channel, scan);
+        }
+        return scan;
+    }
+
+    /**
+     * Raw CPU info lines matched against the marker database, and the features of the first {@code Features}
+     * field parsed, without allocating per line. The same pass collects the {@link CpuInfoFields} a Raspberry Pi
+     * result is built from, so the file is read once.
+     */
+    static final class CpuInfoScan implements CpuInfoParser.LineVisitor {
+
+        private final SbcMarkers markers;
+        private final CpuInfoFields fields = new CpuInfoFields();
+        private final CpuInfoParser.FieldLines fieldLines = new CpuInfoParser.FieldLines(fields);
+        private boolean raspberryPi;
+        // null until a Features field is seen
+        private ArmFeatures armFeatures;
+
+        CpuInfoScan(SbcMarkers markers) {
+            this.markers = markers;
+        }
+
+        @Override
+        public void line(byte[] bytes, int from, int to) {
+            fieldLines.line(bytes, from, to);
+            // Only the Hardware, Model and Features fields matter, other lines are skipped without looking for a colon
+            if (from == to || (bytes[from] != 'H' && bytes[from] != 'M' && bytes[from] != 'F')) {
+                return;
+            }
+            int colon = CpuInfoParser.indexOf(bytes, (byte) ':', from, to);
+            if (colon < 0) {
+                return;
             }
+            int keyEnd = CpuInfoParser.trimEnd(bytes, from, colon);
+            int valueStart = CpuInfoParser.trimStart(bytes, colon + 1, to);
+            int valueEnd = CpuInfoParser.trimEnd(bytes, valueStart, to);
+            if (regionEquals(bytes, from, keyEnd, HARDWARE_KEY_BYTES)) {
+                raspberryPi |= markers.findHardware(bytes, valueStart, valueEnd) >= 0;
+            } else if (regionEquals(bytes, from, keyEnd, MODEL_KEY_BYTES)) {
+                raspberryPi |= markers.findModel(bytes, valueStart, valueEnd) >= 0;
+            } else if (armFeatures == null && regionEquals(bytes, from, keyEnd, FEATURES_KEY_BYTES)) {
+                armFeatures = ArmFeatures.parse(bytes, valueStart, valueEnd);
+            }
+        }
+
+        /**
+         * @return true if the {@code Hardware} field names Raspberry Pi hardware or the {@code Model} field names a
+         * Raspberry Pi, false otherwise
+         */
+        boolean isRaspberryPi() {
+            return raspberryPi;
+        }
+
+        /**
+         * @return the features of the first {@code Features} field, or {@link ArmFeatures#NONE} if there is none
+         */
+        ArmFeatures getArmFeatures() {
+            return armFeatures == null ? ArmFeatures.NONE : armFeatures;
         }
-        return content.toString();
+
+        /**
+         * @return the fields collected from the scanned lines
+         */
+        CpuInfoFields getFields() {
+            return fields;
+        }
+    }
+
+    private static boolean regionEquals(byte[] bytes, int from, int to, byte[] expected) {
+        return Arrays.equals(bytes, from, to, expected, 0, expected.length);
     }
 
     /**
-     * Checks if the CPU info contains Raspberry Pi hardware markers.
+     * Checks if the CPU info contains Raspberry Pi hardware markers, using the marker database of the
+     * {@linkplain #defaultDetector() shared detector}.
      * 
      * @param cpuInfo the CPU info
      * @return true if the CPU info contains Raspberry Pi hardware markers, false otherwise
      */
     protected static boolean containsRaspberryPiHardware(String cpuInfo) {
-        String[] lines = cpuInfo.split("\n");
-        for (String line : lines) {
-            // Check for Raspberry Pi hardware markers
-            if (line.startsWith(HARDWARE_PREFIX)) {
-                String hardware = line.split(":", 2)[1].trim();
-                for (String marker : RASPBERRY_PI_HARDWARE_MARKERS) {
-                    if (hardware.contains(marker)) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return containsRaspberryPiHardware(CpuInfo.parse(cpuInfo));
+    }
+
+    /**
+     * Checks if the parsed CPU info contains Raspberry Pi hardware markers, using the marker database of the
+     * {@linkplain #defaultDetector() shared detector}.
+     *
+     * @param cpuInfo the parsed CPU info
+     * @return true if the {@code Hardware} field contains a Raspberry Pi hardware marker, false otherwise
+     */
+    protected static boolean containsRaspberryPiHardware(CpuInfo cpuInfo) {
+        return DEFAULT.markers().findHardware(cpuInfo.getHardware()) >= 0;
     }
 
     /**
@@ -153,12 +666,140 @@ public class RaspberryPiDetector {
      * @return the model information, or "Raspberry Pi (model unknown)" if not found
      */
     protected static String extractModelInfo(String cpuInfo) {
-        String[] lines = cpuInfo.split("\n");
-        for (String line : lines) {
-            if (line.startsWith(MODEL_NAME_PREFIX)) {
-                return line.split(":", 2)[1].trim();
+        return extractModelInfo(CpuInfo.parse(cpuInfo));
+    }
+
+    /**
+     * Extracts the model information from the parsed CPU info.
+     *
+     * @param cpuInfo the parsed CPU info
+     * @return the model information, or "Raspberry Pi (model unknown)" if not found
+     */
+    protected static String extractModelInfo(CpuInfo cpuInfo) {
+        String modelName = cpuInfo.getModelName();
+        return modelName.isEmpty() ? UNKNOWN_MODEL : modelName;
+    }
+
+    /**
+     * Builder for {@link RaspberryPiDetector} instances.
+     * Individual file paths take precedence over the root, which defaults to the root of the default file system.
+     */
+    public static class Builder {
+
+        private Path root;
+        private Path cpuInfoPath;
+        private Path deviceTreeModelPath;
+        private Path deviceTreeCompatiblePath;
+        private String osName;
+        private Path cacheFile;
+        private Path markerDatabase;
+
+        /**
+         * Creates a builder, use {@link RaspberryPiDetector#builder()}.
+         */
+        protected Builder() {
+        }
+
+        /**
+         * Reads the standard locations below the given directory instead of {@code /}, e.g. {@code root/proc/cpuinfo}.
+         *
+         * @param root the directory standing in for the file system root
+         * @return this builder
+         */
+        public Builder root(Path root) {
+            this.root = Objects.requireNonNull(root, "root");
+            return this;
+        }
+
+        /**
+         * Reads the standard locations of the given file system instead of the default file system.
+         *
+         * @param fileSystem the file system
+         * @return this builder
+         */
+        public Builder fileSystem(FileSystem fileSystem) {
+            return root(fileSystem.getPath("/"));
+        }
+
+        /**
+         * @param cpuInfoPath the CPU info file to read
+         * @return this builder
+         */
+        public Builder cpuInfoPath(Path cpuInfoPath) {
+            this.cpuInfoPath = Objects.requireNonNull(cpuInfoPath, "cpuInfoPath");
+            return this;
+        }
+
+        /**
+         * @param deviceTreeModelPath the device tree model file to read
+         * @return this builder
+         */
+        public Builder deviceTreeModelPath(Path deviceTreeModelPath) {
+            this.deviceTreeModelPath = Objects.requireNonNull(deviceTreeModelPath, "deviceTreeModelPath");
+            return this;
+        }
+
+        /**
+         * @param deviceTreeCompatiblePath the device tree compatible file to read
+         * @return this builder
+         */
+        public Builder deviceTreeCompatiblePath(Path deviceTreeCompatiblePath) {
+            this.deviceTreeCompatiblePath =
+                    Objects.requireNonNull(deviceTreeCompatiblePath, "deviceTreeCompatiblePath");
+            return this;
+        }
+
+        /**
+         * Fixes the OS name instead of reading the {@code os.name} system property on each detection.
+         *
+         * @param osName the OS name, e.g. "Linux"
+         * @return this builder
+         */
+        public Builder osName(String osName) {
+            this.osName = Objects.requireNonNull(osName, "osName");
+            return this;
+        }
+
+        /**
+         * Persists the detection result in the given file, so the next JVM started since the same boot and on the
+         * same kernel loads it instead of detecting. Not persisted by default.
+         *
+         * @param cacheFile the cache file, e.g. below {@code /run} or {@code /var/cache}
+         * @return this builder
+         */
+        public Builder cacheFile(Path cacheFile) {
+            this.cacheFile = Objects.requireNonNull(cacheFile, "cacheFile");
+            return this;
+        }
+
+        /**
+         * Reads the board markers from the given file instead of the bundled database or the file named by the
+         * {@value #MARKER_DATABASE_PROPERTY} system property. The file is read on the first detection.
+         *
+         * @param markerDatabase a file in the format of the bundled {@code com/bhaweb/util/sbc-markers.txt} resource
+         * @return this builder
+         */
+        public Builder markerDatabase(Path markerDatabase) {
+            this.markerDatabase = Objects.requireNonNull(markerDatabase, "markerDatabase");
+            return this;
+        }
+
+        /**
+         * @return a new detector with the current settings
+         */
+        public RaspberryPiDetector build() {
+            return new RaspberryPiDetector(this);
+        }
+
+        Path resolve(Path path, String defaultPath) {
+            if (path != null) {
+                return path;
+            }
+            if (root == null) {
+                return Path.of(defaultPath);
             }
+            // Resolve relative to the root, so it also works for roots of other file systems
+            return root.resolve(defaultPath.substring(1));
         }
-        return "Raspberry Pi (model unknown)";
     }
 }
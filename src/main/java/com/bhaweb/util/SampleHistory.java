@@ -0,0 +1,367 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity history of hardware samples, kept off the heap in columns, for looking back at what led up to a
+ * throttling incident.
+ * <p>
+ * Samples are stored in one direct buffer allocated up front, a column per value, so hours of per-second samples
+ * cost a few hundred kilobytes of native memory and nothing on the heap, and recording never allocates. Once full,
+ * each sample overwrites the oldest.
+ * <p>
+ * One thread records, any number of threads query, without locks: a query reads the samples it needs and then checks
+ * the write counter again. If the writer may have overwritten some of them meanwhile, the query is repeated leaving
+ * out more of the oldest samples each time, so a result never includes a torn sample. Queries take windows of wall
+ * clock time and scan the retained samples, which stays cheap at these sizes and tolerates the clock jumps of boards
+ * without a real time clock.
+ */
+public final class SampleHistory {
+
+    /**
+     * A value recorded with each sample.
+     */
+    public enum Column {
+        /** The highest thermal zone temperature in degrees Celsius. */
+        TEMPERATURE_CELSIUS,
+        /** The highest current CPU frequency in kHz. */
+        FREQUENCY_KHZ,
+        /** The utilization of all CPUs, from 0 to 1. */
+        CPU_UTILIZATION,
+        /** The fraction of memory in use, from 0 to 1. */
+        MEMORY_USED_FRACTION
+    }
+
+    /**
+     * Receives the samples of a window, oldest first.
+     */
+    public interface Visitor {
+
+        /**
+         * @param timestampMillis the wall clock time of the sample
+         * @param values the values of the sample indexed by {@link Column#ordinal()}, NaN where not known. The array
+         * is reused for the next sample
+         * @param throttledBits the firmware throttling bitmask, or -1 if not known
+         */
+        void sample(long timestampMillis, double[] values, int throttledBits);
+    }
+
+    /**
+     * Aggregates of one column over a window. Samples where the value is not known are not counted.
+     */
+    public static final class Stats {
+
+        private final int count;
+        private final double min;
+        private final double max;
+        private final double average;
+
+        Stats(int count, double min, double max, double average) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.average = average;
+        }
+
+        /**
+         * @return the number of samples with a known value
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the lowest value, or NaN if none
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * @return the highest value, or NaN if none
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * @return the average value, or NaN if none
+         */
+        public double getAverage() {
+            return average;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{count=" + count + ", min=" + min + ", max=" + max + ", average=" + average + "}";
+        }
+    }
+
+    private static final Column[] COLUMNS = Column.values();
+    private static final int TIMESTAMP_BYTES = Long.BYTES;
+    private static final int THROTTLED_BYTES = Integer.BYTES;
+    private static final int SAMPLE_BYTES = TIMESTAMP_BYTES + THROTTLED_BYTES + COLUMNS.length * Float.BYTES;
+    private static final Stats EMPTY = new Stats(0, Double.NaN, Double.NaN, Double.NaN);
+
+    private final int capacity;
+    // One slot more than the capacity, the slot being written is never one a query may read
+    private final int slots;
+    private final ByteBuffer buffer;
+    private final int throttledOffset;
+    private final int[] columnOffsets = new int[COLUMNS.length];
+
+    // Number of samples recorded, published after each sample is written
+    private volatile long written;
+
+    private SampleHistory(int capacity) {
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        this.buffer = ByteBuffer.allocateDirect(slots * SAMPLE_BYTES).order(ByteOrder.nativeOrder());
+        this.throttledOffset = slots * TIMESTAMP_BYTES;
+        int offset = throttledOffset + slots * THROTTLED_BYTES;
+        for (Column column : COLUMNS) {
+            columnOffsets[column.ordinal()] = offset;
+            offset += slots * Float.BYTES;
+        }
+    }
+
+    /**
+     * Allocates a history.
+     *
+     * @param capacity the number of samples retained
+     * @return an empty history
+     * @throws IllegalArgumentException if the capacity is not positive or too large
+     */
+    public static SampleHistory allocate(int capacity) {
+        if (capacity < 1 || capacity >= Integer.MAX_VALUE / SAMPLE_BYTES) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        return new SampleHistory(capacity);
+    }
+
+    /**
+     * Allocates a history retaining the samples of a period.
+     *
+     * @param retention the period to retain, e.g. 3 hours
+     * @param interval the sampling interval, e.g. 1 second
+     * @return an empty history
+     * @throws IllegalArgumentException if either is not positive or the capacity would be too large
+     */
+    public static SampleHistory allocate(Duration retention, Duration interval) {
+        if (retention.isNegative() || retention.isZero() || interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Retention and interval must be positive: " + retention + ", "
+                    + interval);
+        }
+        long capacity = -Math.floorDiv(-retention.toNanos(), interval.toNanos());
+        return allocate((int) Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the number of samples retained once full
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of samples recorded so far, including overwritten ones
+     */
+    public long getRecordedCount() {
+        return written;
+    }
+
+    /**
+     * @return the number of samples retained now
+     */
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /**
+     * @return the off-heap memory used, in bytes
+     */
+    public long getMemoryBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Records a sample, overwriting the oldest once full. Must only be called by one thread at a time.
+     *
+     * @param timestampMillis the wall clock time of the sample
+     * @param temperatureCelsius the highest temperature, or NaN if not known
+     * @param frequencyKHz the highest current CPU frequency, or -1 if not known
+     * @param cpuUtilization the CPU utilization, or NaN if not known
+     * @param memoryUsedFraction the fraction of memory in use, or NaN if not known
+     * @param throttledBits the firmware throttling bitmask, or -1 if not known
+     */
+    public void record(long timestampMillis, double temperatureCelsius, long frequencyKHz, double cpuUtilization,
+                       double memoryUsedFraction, int throttledBits) {
+        long index = written;
+        int slot = (int) (index % slots);
+        buffer.putLong(slot * TIMESTAMP_BYTES, timestampMillis);
+        buffer.putInt(throttledOffset + slot * THROTTLED_BYTES, throttledBits);
+        put(Column.TEMPERATURE_CELSIUS, slot, temperatureCelsius);
+        put(Column.FREQUENCY_KHZ, slot, frequencyKHz < 0 ? Double.NaN : frequencyKHz);
+        put(Column.CPU_UTILIZATION, slot, cpuUtilization);
+        put(Column.MEMORY_USED_FRACTION, slot, memoryUsedFraction);
+        // The volatile write publishes the sample
+        written = index + 1;
+    }
+
+    private void put(Column column, int slot, double value) {
+        buffer.putFloat(columnOffsets[column.ordinal()] + slot * Float.BYTES, (float) value);
+    }
+
+    private float get(Column column, int slot) {
+        return buffer.getFloat(columnOffsets[column.ordinal()] + slot * Float.BYTES);
+    }
+
+    private long timestamp(int slot) {
+        return buffer.getLong(slot * TIMESTAMP_BYTES);
+    }
+
+    /**
+     * @return the index of the oldest sample that was not overwritten since {@code end} was read
+     */
+    private long oldestIntact() {
+        // Orders the reads of the samples before the read of the counter
+        VarHandle.acquireFence();
+        // The writer may be writing sample written, over sample written - slots
+        return written - slots + 1;
+    }
+
+    // Leaves out twice as many of the oldest samples on each retry, so a query ends even if the writer keeps lapping
+    private static long next(long skip) {
+        return Math.max(1, skip * 2);
+    }
+
+    /**
+     * Aggregates a column over a window.
+     *
+     * @param column the column
+     * @param fromMillis the start of the window, inclusive
+     * @param toMillis the end of the window, exclusive
+     * @return the aggregates
+     */
+    public Stats stats(Column column, long fromMillis, long toMillis) {
+        for (long skip = 0; ; skip = next(skip)) {
+            long end = written;
+            long start = Math.max(0, end - capacity) + skip;
+            int count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i % slots);
+                long timestamp = timestamp(slot);
+                float value = get(column, slot);
+                if (timestamp >= fromMillis && timestamp < toMillis && !Float.isNaN(value)) {
+                    count++;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                }
+            }
+            if (start >= oldestIntact()) {
+                return count == 0 ? EMPTY : new Stats(count, min, max, sum / count);
+            }
+        }
+    }
+
+    /**
+     * Computes a percentile of a column over a window, by the nearest rank method.
+     *
+     * @param column the column
+     * @param fromMillis the start of the window, inclusive
+     * @param toMillis the end of the window, exclusive
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at the percentile, or NaN if the window holds no known value
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public double percentile(Column column, long fromMillis, long toMillis, double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100: " + percentile);
+        }
+        float[] values = new float[size()];
+        int count;
+        for (long skip = 0; ; skip = next(skip)) {
+            long end = written;
+            long start = Math.max(0, end - capacity) + skip;
+            if (values.length < end - start) {
+                values = new float[(int) Math.max(0, end - start)];
+            }
+            count = 0;
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i % slots);
+                long timestamp = timestamp(slot);
+                float value = get(column, slot);
+                if (timestamp >= fromMillis && timestamp < toMillis && !Float.isNaN(value)) {
+                    values[count++] = value;
+                }
+            }
+            if (start >= oldestIntact()) {
+                break;
+            }
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(values, 0, count);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return values[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Visits the samples of a window, oldest first. Samples overwritten while being read are skipped.
+     *
+     * @param fromMillis the start of the window, inclusive
+     * @param toMillis the end of the window, exclusive
+     * @param visitor the visitor
+     * @return the number of samples visited
+     */
+    public int forEach(long fromMillis, long toMillis, Visitor visitor) {
+        double[] values = new double[COLUMNS.length];
+        long end = written;
+        int visited = 0;
+        for (long i = Math.max(0, end - capacity); i < end; i++) {
+            int slot = (int) (i % slots);
+            long timestamp = timestamp(slot);
+            int throttledBits = buffer.getInt(throttledOffset + slot * THROTTLED_BYTES);
+            for (Column column : COLUMNS) {
+                values[column.ordinal()] = get(column, slot);
+            }
+            if (i < oldestIntact()) {
+                continue;
+            }
+            if (timestamp >= fromMillis && timestamp < toMillis) {
+                visitor.sample(timestamp, values, throttledBits);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleHistory{capacity=" + capacity + ", size=" + size() + ", recorded=" + written + "}";
+    }
+}
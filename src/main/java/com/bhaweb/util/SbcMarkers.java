@@ -0,0 +1,262 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database of the markers identifying single board computers, compiled into one {@link MarkerMatcher} per field.
+ * <p>
+ * The database is read from the bundled {@value #RESOURCE} resource, or from a file given to a detector, e.g. by
+ * the {@value RaspberryPiDetector#MARKER_DATABASE_PROPERTY} system property, on its first detection. Matching
+ * costs one table lookup per character however many entries the database holds.
+ */
+final class SbcMarkers {
+
+    /**
+     * Name of the bundled database, relative to this class.
+     */
+    static final String RESOURCE = "sbc-markers.txt";
+
+    /**
+     * Field of the system an entry is matched against.
+     */
+    enum Field {
+        /** Substring of the {@code Hardware} field of CPU info. */
+        HARDWARE("hardware"),
+        /** Prefix of a device tree compatible entry. */
+        COMPATIBLE("compatible"),
+        /** Prefix of the device tree model or the {@code Model} field of CPU info. */
+        MODEL("model");
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final String VERSION_KEY = "version";
+    private static final Field[] FIELDS = Field.values();
+
+    private final String source;
+    private final int version;
+    // Indexed by field ordinal
+    private final String[][] markers = new String[FIELDS.length][];
+    private final String[][] boards = new String[FIELDS.length][];
+    private final MarkerMatcher[] matchers = new MarkerMatcher[FIELDS.length];
+
+    private SbcMarkers(String source, int version, Map<Field, List<String[]>> entries) {
+        this.source = source;
+        this.version = version;
+        for (Field field : FIELDS) {
+            List<String[]> fieldEntries = entries.get(field);
+            String[] fieldMarkers = new String[fieldEntries.size()];
+            String[] fieldBoards = new String[fieldEntries.size()];
+            for (int i = 0; i < fieldMarkers.length; i++) {
+                fieldMarkers[i] = fieldEntries.get(i)[0];
+                fieldBoards[i] = fieldEntries.get(i)[1];
+            }
+            markers[field.ordinal()] = fieldMarkers;
+            boards[field.ordinal()] = fieldBoards;
+            matchers[field.ordinal()] = new MarkerMatcher(fieldMarkers);
+        }
+    }
+
+    /**
+     * Loads the bundled database.
+     *
+     * @return the database
+     * @throws IllegalStateException if the bundled resource is missing or malformed, i.e. the library is broken
+     */
+    static SbcMarkers bundled() {
+        InputStream in = SbcMarkers.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new IllegalStateException("Missing resource " + RESOURCE);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return parse(reader, RESOURCE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read resource " + RESOURCE, e);
+        }
+    }
+
+    /**
+     * Reads a database file.
+     *
+     * @param file the file
+     * @return the database
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    static SbcMarkers read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader, file.toString());
+        }
+    }
+
+    /**
+     * Parses a database: a {@code version} line and one tab separated {@code field marker [board]} line per entry.
+     * Blank lines and lines starting with {@code #} are ignored.
+     *
+     * @param reader the database text
+     * @param source the name of the database, used in error messages
+     * @return the database
+     * @throws IOException if reading fails or the database is malformed
+     */
+    static SbcMarkers parse(BufferedReader reader, String source) throws IOException {
+        Map<Field, List<String[]>> entries = new EnumMap<>(Field.class);
+        for (Field field : FIELDS) {
+            entries.put(field, new ArrayList<>());
+        }
+        int version = -1;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            String key = columns[0].trim();
+            if (columns.length < 2 || columns.length > 3 || columns[1].isEmpty()) {
+                throw malformed(source, lineNumber, "expected <field> <marker> [board]");
+            }
+            if (key.equals(VERSION_KEY)) {
+                try {
+                    version = Integer.parseInt(columns[1].trim());
+                } catch (NumberFormatException e) {
+                    throw malformed(source, lineNumber, "invalid version " + columns[1]);
+                }
+                continue;
+            }
+            Field field = field(key);
+            if (field == null) {
+                throw malformed(source, lineNumber, "unknown field " + key);
+            }
+            String marker = columns[1];
+            for (int i = 0; i < marker.length(); i++) {
+                if (marker.charAt(i) >= 128) {
+                    throw malformed(source, lineNumber, "marker is not ASCII");
+                }
+            }
+            entries.get(field).add(new String[]{marker, columns.length == 3 ? columns[2].trim() : ""});
+        }
+        if (version < 0) {
+            throw new IOException(source + ": missing version");
+        }
+        return new SbcMarkers(source, version, entries);
+    }
+
+    private static Field field(String key) {
+        for (Field field : FIELDS) {
+            if (field.key.equals(key)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static IOException malformed(String source, int lineNumber, String message) {
+        return new IOException(source + ":" + lineNumber + ": " + message);
+    }
+
+    /**
+     * @return the resource or file the database was read from
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the version declared by the database
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @param field the field
+     * @return a copy of the markers of the field, in database order
+     */
+    String[] getMarkers(Field field) {
+        return markers[field.ordinal()].clone();
+    }
+
+    /**
+     * @param field the field
+     * @param index the index of a marker of the field
+     * @return the board named by the entry, or an empty string if it names none
+     */
+    String getBoard(Field field, int index) {
+        return boards[field.ordinal()][index];
+    }
+
+    /**
+     * @param hardware the {@code Hardware} field value
+     * @return the index of the first hardware marker occurring in the value, or -1 if none
+     */
+    int findHardware(CharSequence hardware) {
+        return matchers[Field.HARDWARE.ordinal()].find(hardware, 0, hardware.length());
+    }
+
+    /**
+     * @param bytes ASCII bytes holding a {@code Hardware} field value
+     * @param from the start of the value, inclusive
+     * @param to the end of the value, exclusive
+     * @return the index of the first hardware marker occurring in the value, or -1 if none
+     */
+    int findHardware(byte[] bytes, int from, int to) {
+        return matchers[Field.HARDWARE.ordinal()].find(bytes, from, to);
+    }
+
+    /**
+     * @param compatible text holding compatible entries
+     * @param from the start of an entry, inclusive
+     * @param to the end of the entry, exclusive
+     * @return the index of the longest compatible marker the entry starts with, or -1 if none
+     */
+    int findCompatible(CharSequence compatible, int from, int to) {
+        return matchers[Field.COMPATIBLE.ordinal()].findPrefix(compatible, from, to);
+    }
+
+    /**
+     * @param model a device tree or CPU info model
+     * @return the index of the longest model marker the model starts with, or -1 if none
+     */
+    int findModel(CharSequence model) {
+        return matchers[Field.MODEL.ordinal()].findPrefix(model, 0, model.length());
+    }
+
+    /**
+     * @param bytes ASCII bytes holding a model
+     * @param from the start of the model, inclusive
+     * @param to the end of the model, exclusive
+     * @return the index of the longest model marker the model starts with, or -1 if none
+     */
+    int findModel(byte[] bytes, int from, int to) {
+        return matchers[Field.MODEL.ordinal()].findPrefix(bytes, from, to);
+    }
+}
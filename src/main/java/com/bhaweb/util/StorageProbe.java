@@ -0,0 +1,421 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Immutable description of the block device holding a path, read from {@code /proc/self/mountinfo} and the queue
+ * attributes of {@code /sys/block}, with I/O buffer sizes recommended for it.
+ * <p>
+ * I/O on a Pi is an order of magnitude faster on an NVMe drive behind the PCIe lane of a Pi 5 than on a microSD card,
+ * so buffer sizes chosen for one are wrong for the other. The device is classified as an SD card or eMMC from the
+ * MMC device type, as NVMe from its name, and otherwise as a solid state or rotating disk from the
+ * {@code rotational} attribute. Paths on file systems without a block device, e.g. {@code tmpfs} or an
+ * {@code overlay} in a container, are {@link Type#UNKNOWN} and get conservative defaults.
+ */
+public final class StorageProbe {
+
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String MOUNT_INFO = "proc/self/mountinfo";
+    static final String BLOCK_DIR = "sys/block";
+
+    private static final int DEFAULT_BLOCK_SIZE = 512;
+    private static final int KB = 1024;
+
+    /**
+     * Kind of storage device.
+     */
+    public enum Type {
+        /** An SD or microSD card. */
+        SD_CARD(128 * KB, 512 * KB),
+        /** Soldered eMMC, e.g. on compute modules. */
+        EMMC(128 * KB, 256 * KB),
+        /** An NVMe drive, e.g. on the PCIe lane of a Pi 5. */
+        NVME(256 * KB, 1024 * KB),
+        /** A non-rotating disk, e.g. a USB SSD or flash drive. */
+        SSD(128 * KB, 256 * KB),
+        /** A rotating disk. */
+        HDD(1024 * KB, 1024 * KB),
+        /** No block device was found for the path. */
+        UNKNOWN(64 * KB, 64 * KB);
+
+        private final int readBufferSize;
+        private final int writeBufferSize;
+
+        Type(int readBufferSize, int writeBufferSize) {
+            this.readBufferSize = readBufferSize;
+            this.writeBufferSize = writeBufferSize;
+        }
+    }
+
+    private final Path path;
+    private final String mountPoint;
+    private final String fileSystemType;
+    private final String deviceNumber;
+    private final String deviceName;
+    private final String partitionName;
+    private final Type type;
+    private final int rotational;
+    private final int logicalBlockSize;
+    private final int physicalBlockSize;
+    private final long optimalIoSize;
+    private final long maxRequestBytes;
+    private final String scheduler;
+
+    private StorageProbe(Path path, Mount mount, Path diskDir, Path partitionDir) {
+        this.path = path;
+        this.mountPoint = mount == null ? "" : mount.mountPoint;
+        this.fileSystemType = mount == null ? "" : mount.fileSystemType;
+        this.deviceNumber = mount == null ? "" : mount.deviceNumber;
+        this.deviceName = diskDir == null ? "" : diskDir.getFileName().toString();
+        this.partitionName = partitionDir == null ? "" : partitionDir.getFileName().toString();
+        Path queue = diskDir == null ? null : diskDir.resolve("queue");
+        this.rotational = queue == null ? -1 : (int) CpuTopology.readLong(queue.resolve("rotational"));
+        this.logicalBlockSize = queue == null ? -1 : (int) CpuTopology.readLong(queue.resolve("logical_block_size"));
+        this.physicalBlockSize = queue == null ? -1
+                : (int) CpuTopology.readLong(queue.resolve("physical_block_size"));
+        this.optimalIoSize = queue == null ? -1 : CpuTopology.readLong(queue.resolve("optimal_io_size"));
+        long maxSectorsKb = queue == null ? -1 : CpuTopology.readLong(queue.resolve("max_sectors_kb"));
+        this.maxRequestBytes = maxSectorsKb <= 0 ? -1 : maxSectorsKb * KB;
+        this.scheduler = queue == null ? "" : selectedScheduler(CpuTopology.readString(queue.resolve("scheduler")));
+        this.type = diskDir == null ? Type.UNKNOWN : classify(deviceName, diskDir, rotational);
+    }
+
+    /**
+     * Probes the device holding a path of the local machine.
+     *
+     * @param path the path, which need not exist yet
+     * @return the description of its device
+     */
+    public static StorageProbe probe(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        try {
+            // Follow symbolic links to the file system actually holding the path, where it exists
+            absolute = absolute.toRealPath();
+        } catch (IOException e) {
+            // probe the path as given
+        }
+        return probe(Path.of("/"), absolute);
+    }
+
+    /**
+     * Probes the device holding a path, reading the standard locations below the given directory, e.g.
+     * {@code root/proc/self/mountinfo}.
+     *
+     * @param root the directory standing in for the file system root
+     * @param path the absolute path as the probed system sees it, e.g. {@code /var/log}
+     * @return the description of its device
+     */
+    public static StorageProbe probe(Path root, Path path) {
+        Path absolute = Path.of("/").resolve(path.toString()).normalize();
+        Mount mount = findMount(root.resolve(MOUNT_INFO), absolute);
+        Path diskDir = null;
+        Path partitionDir = null;
+        if (mount != null) {
+            Path[] device = findDevice(root.resolve(BLOCK_DIR), mount.deviceNumber);
+            if (device != null) {
+                diskDir = device[0];
+                partitionDir = device[1];
+            }
+        }
+        return new StorageProbe(absolute, mount, diskDir, partitionDir);
+    }
+
+    /**
+     * One line of {@code mountinfo}.
+     */
+    private static final class Mount {
+
+        private final String deviceNumber;
+        private final String mountPoint;
+        private final String fileSystemType;
+
+        Mount(String deviceNumber, String mountPoint, String fileSystemType) {
+            this.deviceNumber = deviceNumber;
+            this.mountPoint = mountPoint;
+            this.fileSystemType = fileSystemType;
+        }
+    }
+
+    /**
+     * Finds the mount holding a path, the one with the longest mount point containing it, and of those the last
+     * mounted, which hides the others.
+     */
+    private static Mount findMount(Path mountInfo, Path path) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(mountInfo, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+        Mount found = null;
+        int foundDepth = -1;
+        for (String line : lines) {
+            Mount mount = parseMount(line);
+            if (mount == null) {
+                continue;
+            }
+            Path mountPoint = Path.of(mount.mountPoint);
+            if (path.startsWith(mountPoint) && mountPoint.getNameCount() >= foundDepth) {
+                found = mount;
+                foundDepth = mountPoint.getNameCount();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Parses {@code id parent major:minor root mount-point options [optional...] - type source super-options}.
+     *
+     * @return the mount, or null if the line is malformed
+     */
+    private static Mount parseMount(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length < 7) {
+            return null;
+        }
+        int separator = 6;
+        while (separator < fields.length && !fields[separator].equals("-")) {
+            separator++;
+        }
+        if (separator + 1 >= fields.length || fields[2].indexOf(':') < 0 || !fields[4].startsWith("/")) {
+            return null;
+        }
+        return new Mount(fields[2], unescape(fields[4]), fields[separator + 1]);
+    }
+
+    /**
+     * Decodes the octal escapes the kernel writes for spaces, tabs, newlines and backslashes in paths.
+     */
+    static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder text = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 3 < field.length() && isOctal(field, i + 1, i + 4)) {
+                text.append((char) Integer.parseInt(field, i + 1, i + 4, 8));
+                i += 3;
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean isOctal(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '7') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the disk, and the partition if any, with the given device number.
+     *
+     * @return the disk directory and the partition directory or null, or null if not found
+     */
+    private static Path[] findDevice(Path blockDir, String deviceNumber) {
+        try (DirectoryStream<Path> disks = Files.newDirectoryStream(blockDir)) {
+            for (Path disk : disks) {
+                if (deviceNumber.equals(CpuTopology.readString(disk.resolve("dev")))) {
+                    return new Path[] {disk, null};
+                }
+                try (DirectoryStream<Path> partitions = Files.newDirectoryStream(disk,
+                        entry -> entry.getFileName().toString().startsWith(disk.getFileName().toString()))) {
+                    for (Path partition : partitions) {
+                        if (deviceNumber.equals(CpuTopology.readString(partition.resolve("dev")))) {
+                            return new Path[] {disk, partition};
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static Type classify(String name, Path diskDir, int rotational) {
+        if (name.startsWith("nvme")) {
+            return Type.NVME;
+        }
+        if (name.startsWith("mmcblk")) {
+            // The MMC bus reports SD for removable cards and MMC for soldered eMMC
+            return "MMC".equals(CpuTopology.readString(diskDir.resolve("device/type"))) ? Type.EMMC : Type.SD_CARD;
+        }
+        if (rotational == 1) {
+            return Type.HDD;
+        }
+        return rotational == 0 ? Type.SSD : Type.UNKNOWN;
+    }
+
+    /**
+     * @return the scheduler in brackets of e.g. {@code [mq-deadline] none}, or the whole text if none is
+     */
+    private static String selectedScheduler(String schedulers) {
+        if (schedulers == null) {
+            return "";
+        }
+        int open = schedulers.indexOf('[');
+        int close = schedulers.indexOf(']', open + 1);
+        return open >= 0 && close > open ? schedulers.substring(open + 1, close) : schedulers;
+    }
+
+    /**
+     * @return the probed path, absolute
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the mount point of the file system holding the path, or an empty string if not found
+     */
+    public String getMountPoint() {
+        return mountPoint;
+    }
+
+    /**
+     * @return the file system type, e.g. {@code ext4}, or an empty string if not found
+     */
+    public String getFileSystemType() {
+        return fileSystemType;
+    }
+
+    /**
+     * @return the device number of the file system, e.g. {@code 179:2}, or an empty string if not found
+     */
+    public String getDeviceNumber() {
+        return deviceNumber;
+    }
+
+    /**
+     * @return the name of the disk, e.g. {@code mmcblk0}, or an empty string if not found
+     */
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * @return the name of the partition, e.g. {@code mmcblk0p2}, or an empty string if the file system is on the
+     * whole disk or not found
+     */
+    public String getPartitionName() {
+        return partitionName;
+    }
+
+    /**
+     * @return the kind of device
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the device reports itself as rotating, false if not or unknown
+     */
+    public boolean isRotational() {
+        return rotational == 1;
+    }
+
+    /**
+     * @return the smallest unit the device can address in bytes, or -1 if unknown
+     */
+    public int getLogicalBlockSize() {
+        return logicalBlockSize;
+    }
+
+    /**
+     * @return the smallest unit the device writes without a read-modify-write in bytes, or -1 if unknown
+     */
+    public int getPhysicalBlockSize() {
+        return physicalBlockSize;
+    }
+
+    /**
+     * @return the preferred request size for sustained I/O in bytes, 0 if the device does not report one, or -1 if
+     * unknown
+     */
+    public long getOptimalIoSize() {
+        return optimalIoSize;
+    }
+
+    /**
+     * @return the I/O scheduler of the device, e.g. {@code mq-deadline}, or an empty string if unknown
+     */
+    public String getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the alignment that buffers, offsets and lengths need for direct I/O, e.g. with
+     * {@code ExtendedOpenOption.DIRECT}.
+     *
+     * @return the logical block size, or 512 if unknown
+     */
+    public int getDirectIoAlignment() {
+        return logicalBlockSize > 0 ? logicalBlockSize : DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Recommends a buffer size for sequential reads: a size suited to the kind of device, raised to its optimal I/O
+     * size as far as its largest request allows, and rounded up to its physical block size.
+     *
+     * @return the buffer size in bytes
+     */
+    public int getReadBufferSize() {
+        return bufferSize(type.readBufferSize);
+    }
+
+    /**
+     * Recommends a buffer size for sequential writes, as {@link #getReadBufferSize()} does for reads. Writes to flash
+     * cards get larger buffers than reads, since small writes cost them whole erase blocks.
+     *
+     * @return the buffer size in bytes
+     */
+    public int getWriteBufferSize() {
+        return bufferSize(type.writeBufferSize);
+    }
+
+    private int bufferSize(int base) {
+        long size = base;
+        if (optimalIoSize > size) {
+            size = maxRequestBytes > 0 ? Math.min(optimalIoSize, Math.max(maxRequestBytes, base)) : optimalIoSize;
+        }
+        int block = Math.max(physicalBlockSize, getDirectIoAlignment());
+        size = (size + block - 1) / block * block;
+        return (int) Math.min(size, Integer.MAX_VALUE / block * block);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageProbe{path=" + path + ", mountPoint=" + mountPoint + ", fileSystem=" + fileSystemType
+                + ", device=" + deviceName + ", partition=" + partitionName + ", type=" + type + ", rotational="
+                + rotational + ", logicalBlockSize=" + logicalBlockSize + ", physicalBlockSize=" + physicalBlockSize
+                + ", optimalIoSize=" + optimalIoSize + ", scheduler=" + scheduler + "}";
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A sysfs or procfs file that is read repeatedly. The channel is opened once and each read is a positional read
+ * from offset 0 into a reused direct buffer, which makes the kernel regenerate the content, so sampling allocates
+ * nothing. A channel closed by interrupting a reading thread is reopened by the next read. Instances are not thread
+ * safe.
+ */
+final class SysFile implements Closeable {
+
+    /**
+     * Value returned when the attribute cannot be read or parsed.
+     */
+    static final long UNAVAILABLE = Long.MIN_VALUE;
+
+    private static final int ATTRIBUTE_BUFFER_SIZE = 64;
+
+    private final Path path;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean closed;
+
+    private SysFile(Path path, FileChannel channel, int bufferSize) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Opens a single value attribute for repeated reads.
+     *
+     * @param path the attribute file
+     * @return the opened attribute, or null if it does not exist or cannot be opened
+     */
+    static SysFile open(Path path) {
+        return open(path, ATTRIBUTE_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a file for repeated reads.
+     *
+     * @param path the file
+     * @param bufferSize the initial buffer size, which should hold the whole file
+     * @return the opened file, or null if it does not exist or cannot be opened
+     */
+    static SysFile open(Path path, int bufferSize) {
+        try {
+            return new SysFile(path, FileChannel.open(path, StandardOpenOption.READ), bufferSize);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the attribute file
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Reads the file from the start until the end of the file or until the buffer is full, see {@link #grow()}.
+     *
+     * @return the buffer holding the content from position 0 to its limit, valid until the next read, or null if
+     * the file cannot be read
+     */
+    ByteBuffer read() {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining() && read(buffer.position()) >= 0) {
+                // procfs may return the content in page sized chunks
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * @return true if the last read filled the buffer, so the content may have been cut short
+     */
+    boolean isFull() {
+        return buffer.limit() == buffer.capacity();
+    }
+
+    /**
+     * Doubles the buffer, for a file that outgrew it.
+     */
+    void grow() {
+        buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+    }
+
+    /**
+     * Reads the attribute as a number, ignoring surrounding whitespace and an optional {@code 0x} prefix for hex.
+     *
+     * @param radix 10 or 16
+     * @return the value, or {@link #UNAVAILABLE} if it cannot be read or is not a number
+     */
+    long readLong(int radix) {
+        buffer.clear();
+        try {
+            // Attributes are small, one read at offset 0 returns the whole value
+            if (read(0) <= 0) {
+                return UNAVAILABLE;
+            }
+        } catch (IOException e) {
+            return UNAVAILABLE;
+        }
+        return parseLong(buffer, 0, buffer.position(), radix);
+    }
+
+    // Reads into the buffer, reopening the channel once if an interrupt during an earlier read closed it
+    private int read(long position) throws IOException {
+        try {
+            return channel.read(buffer, position);
+        } catch (ClosedChannelException e) {
+            if (closed) {
+                throw e;
+            }
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            return channel.read(buffer, position);
+        }
+    }
+
+    /**
+     * Parses a number from a range of a buffer, without allocating. Leading whitespace is skipped, and the number
+     * ends at whitespace or at the end of the range, so a unit such as {@code kB} may follow.
+     *
+     * @param bytes the buffer, read with absolute gets
+     * @param from the start of the range, inclusive
+     * @param limit the end of the range, exclusive
+     * @param radix 10 or 16
+     * @return the value, or {@link #UNAVAILABLE} if the range does not start with a number
+     */
+    static long parseLong(ByteBuffer bytes, int from, int limit, int radix) {
+        int i = from;
+        while (i < limit && bytes.get(i) <= ' ') {
+            i++;
+        }
+        boolean negative = i < limit && bytes.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (radix == 16 && i + 1 < limit && bytes.get(i) == '0' && (bytes.get(i + 1) | 0x20) == 'x') {
+            i += 2;
+        }
+        int start = i;
+        long value = 0;
+        for (; i < limit; i++) {
+            int digit = Character.digit(bytes.get(i), radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+        }
+        if (i == start || (i < limit && bytes.get(i) > ' ')) {
+            return UNAVAILABLE;
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Appends hardware samples to a memory mapped file in large pages, to spare SD cards the many small writes of a
+ * line-per-sample log.
+ * <p>
+ * Samples are encoded into a page on the heap and only copied into the mapping, and forced to storage, when the page
+ * is full or the {@linkplain Policy#getFlushInterval() flush interval} has passed, so storage sees few writes. Each
+ * flush appends the samples since the previous one to the page as a frame, so only the new bytes are copied and
+ * forced. The file grows a segment of pages at a time. Each value is stored as a zigzag varint delta from the same
+ * value of the previous sample in the page, which takes a few bytes per sample, and pages decode on their own. The
+ * {@linkplain Policy#forStorage(StorageProbe) policy} picks the page size and flush interval from the device holding
+ * the journal, or from the board, which tells what storage it most likely runs from.
+ * <pre>
+ * header page: int magic "RPTJ", short format version, int page size
+ * page:        frames, then zeros
+ * frame:       int record bytes, int CRC-32C of the records, records
+ * record:      byte presence mask, varint timestamp delta, then a varint delta for each present value
+ * </pre>
+ * Temperatures are stored in thousandths of a degree, frequencies in kHz and fractions in ten thousandths. A page
+ * without frames ends the journal, and so does a frame failing its checksum, as left by a crash while it was being
+ * forced, so a crash loses at most the samples not yet flushed. Reopening the journal zeroes such a frame and appends
+ * on a fresh page. Appending and flushing are synchronized; replay reads a journal that is not being written, or the
+ * flushed part of one.
+ */
+public final class TelemetryJournal implements Closeable {
+
+    static final int MAGIC = 0x5250544A;
+    static final short VERSION = 1;
+    static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    // A mask byte and six varints of at most 10 bytes
+    static final int MAX_RECORD_BYTES = 1 + 6 * 10;
+
+    private static final int MIN_PAGE_SIZE = 4096;
+    private static final int MAX_PAGE_SIZE = 1024 * 1024;
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final double MILLI = 1000;
+    private static final double FRACTION_SCALE = 10_000;
+    private static final int TEMPERATURE = 0;
+    private static final int FREQUENCY = 1;
+    private static final int CPU_UTILIZATION = 2;
+    private static final int MEMORY_USED = 3;
+    private static final int THROTTLED = 4;
+    private static final int VALUES = 5;
+
+    /**
+     * The page size and flush interval of a journal.
+     */
+    public static final class Policy {
+
+        /**
+         * For SD cards: pages of 64 KiB, a multiple of common erase block fractions, forced at most every minute.
+         */
+        public static final Policy SD_CARD = new Policy(64 * 1024, Duration.ofMinutes(1));
+
+        /**
+         * For the eMMC of compute modules: pages of 16 KiB, forced at most every 15 seconds.
+         */
+        public static final Policy EMMC = new Policy(16 * 1024, Duration.ofSeconds(15));
+
+        /**
+         * For other storage: pages of 4 KiB, forced at most every 5 seconds.
+         */
+        public static final Policy DEFAULT = new Policy(4096, Duration.ofSeconds(5));
+
+        private static final Set<PiRevision.BoardType> EMMC_BOARDS = EnumSet.of(PiRevision.BoardType.CM1,
+                PiRevision.BoardType.CM3, PiRevision.BoardType.CM3_PLUS, PiRevision.BoardType.CM4,
+                PiRevision.BoardType.CM4S, PiRevision.BoardType.CM5);
+
+        private final int pageSize;
+        private final Duration flushInterval;
+
+        private Policy(int pageSize, Duration flushInterval) {
+            this.pageSize = pageSize;
+            this.flushInterval = flushInterval;
+        }
+
+        /**
+         * Creates a policy.
+         *
+         * @param pageSize the page size, a power of two from 4 KiB to 1 MiB
+         * @param flushInterval the longest time samples stay in memory, zero to force every sample
+         * @return the policy
+         * @throws IllegalArgumentException if the page size or interval is out of range
+         */
+        public static Policy of(int pageSize, Duration flushInterval) {
+            if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+                throw new IllegalArgumentException("Page size must be a power of two from 4 KiB to 1 MiB: "
+                        + pageSize);
+            }
+            if (flushInterval.isNegative()) {
+                throw new IllegalArgumentException("Flush interval must not be negative: " + flushInterval);
+            }
+            return new Policy(pageSize, flushInterval);
+        }
+
+        /**
+         * Picks the policy for the storage a board most likely runs from: the eMMC of a compute module, an SD card
+         * for other Raspberry Pi boards, and the default elsewhere.
+         *
+         * @param detection the detection result of the board
+         * @return the policy
+         */
+        public static Policy forBoard(DetectionResult detection) {
+            if (!detection.isRaspberryPi()) {
+                return DEFAULT;
+            }
+            return detection.getRevision()
+                    .map(revision -> EMMC_BOARDS.contains(revision.getBoardType()) ? EMMC : SD_CARD)
+                    .orElse(SD_CARD);
+        }
+
+        /**
+         * Picks the policy for a storage device: the SD card and eMMC policies for those, and the default with pages
+         * of at least the physical block size for other devices.
+         *
+         * @param storage the device holding the journal
+         * @return the policy
+         */
+        public static Policy forStorage(StorageProbe storage) {
+            switch (storage.getType()) {
+                case SD_CARD:
+                    return SD_CARD;
+                case EMMC:
+                    return EMMC;
+                default:
+                    int blockSize = storage.getPhysicalBlockSize();
+                    boolean larger = blockSize > DEFAULT.pageSize && blockSize <= MAX_PAGE_SIZE;
+                    return larger && Integer.bitCount(blockSize) == 1
+                            ? new Policy(blockSize, DEFAULT.flushInterval) : DEFAULT;
+            }
+        }
+
+        /**
+         * @return the page size in bytes
+         */
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        /**
+         * @return the longest time appended samples stay in memory before being forced to storage
+         */
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        @Override
+        public String toString() {
+            return "Policy{pageSize=" + pageSize + ", flushInterval=" + flushInterval + "}";
+        }
+    }
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final long flushIntervalNanos;
+    // The page being filled, its frames copied into the mapping on flush
+    private final ByteBuffer page;
+    private final long[] previous = new long[VALUES];
+    private final CRC32C crc = new CRC32C();
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long pageStart;
+    // The end of the frames already in the mapping, where the header of the pending frame goes
+    private int flushed;
+    private long previousTimestamp;
+    private long lastFlushNanos;
+    private boolean closed;
+
+    private TelemetryJournal(FileChannel channel, int pageSize, long nextPage, Duration flushInterval)
+            throws IOException {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.page = ByteBuffer.allocate(pageSize);
+        this.lastFlushNanos = System.nanoTime();
+        startPage(nextPage);
+    }
+
+    /**
+     * Opens a journal with the policy for the device holding it, or for the board detected by the shared detector if
+     * the device is not known.
+     *
+     * @param file the journal file, created if missing
+     * @return the journal, appending after the existing pages
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public static TelemetryJournal open(Path file) throws IOException {
+        StorageProbe storage = StorageProbe.probe(file.toAbsolutePath().getParent());
+        return open(file, storage.getType() == StorageProbe.Type.UNKNOWN
+                ? Policy.forBoard(RaspberryPiDetector.getDetection()) : Policy.forStorage(storage));
+    }
+
+    /**
+     * Opens a journal. An existing journal keeps the page size it was created with.
+     *
+     * @param file the journal file, created if missing
+     * @param policy the page size and flush interval
+     * @return the journal, appending after the existing pages
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public static TelemetryJournal open(Path file, Policy policy) throws IOException {
+        Objects.requireNonNull(policy, "policy");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            int pageSize = policy.getPageSize();
+            long nextPage;
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(pageSize);
+                header.putInt(MAGIC).putShort(VERSION).putInt(pageSize).rewind();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+                nextPage = pageSize;
+            } else {
+                pageSize = readPageSize(channel, file);
+                nextPage = pageSize;
+                ByteBuffer frameBytes = ByteBuffer.allocate(Integer.BYTES);
+                // Appending starts on a fresh page, after the last one holding frames
+                while (nextPage < channel.size()) {
+                    frameBytes.clear();
+                    if (channel.read(frameBytes, nextPage) < Integer.BYTES || frameBytes.getInt(0) == 0) {
+                        break;
+                    }
+                    nextPage += pageSize;
+                }
+                if (nextPage > pageSize) {
+                    nextPage = repairLastPage(channel, nextPage - pageSize, pageSize);
+                }
+                clearPage(channel, nextPage, pageSize);
+            }
+            return new TelemetryJournal(channel, pageSize, nextPage, policy.getFlushInterval());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Pages are forced in order, so only the last page holding frames can end in a torn one. Zeroing it lets replay
+    // reach the pages appended after reopening.
+    private static long repairLastPage(FileChannel channel, long start, int pageSize) throws IOException {
+        ByteBuffer last = readPage(channel, start, pageSize);
+        int end = intactEnd(last, new CRC32C());
+        if (!isTorn(last, end)) {
+            return start + pageSize;
+        }
+        zero(channel, start + end, last.limit() - end);
+        return end == 0 ? start : start + pageSize;
+    }
+
+    // A crash can persist the records of a page's first frame but not its header, leaving a page that looks unused.
+    // Zeroing it keeps those bytes from ending replay once new frames are appended before them.
+    private static void clearPage(FileChannel channel, long start, int pageSize) throws IOException {
+        if (start >= channel.size()) {
+            return;
+        }
+        ByteBuffer page = readPage(channel, start, pageSize);
+        for (int i = 0; i < page.limit(); i++) {
+            if (page.get(i) != 0) {
+                zero(channel, start, page.limit());
+                return;
+            }
+        }
+    }
+
+    private static ByteBuffer readPage(FileChannel channel, long start, int pageSize) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate((int) Math.min(pageSize, channel.size() - start));
+        while (page.hasRemaining() && channel.read(page, start + page.position()) > 0) {
+            // keep reading
+        }
+        return page.flip();
+    }
+
+    private static void zero(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(length);
+        while (zeros.hasRemaining()) {
+            channel.write(zeros, position + zeros.position());
+        }
+        channel.force(false);
+    }
+
+    private static int readPageSize(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + Integer.BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading
+        }
+        header.flip();
+        if (header.remaining() < header.capacity() || header.getInt() != MAGIC || header.getShort() != VERSION) {
+            throw new IOException("Not a telemetry journal: " + file);
+        }
+        int pageSize = header.getInt();
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IOException("Corrupt telemetry journal page size " + pageSize + ": " + file);
+        }
+        return pageSize;
+    }
+
+    /**
+     * @return the page size in bytes
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Appends a sample. The sample is forced to storage when its page fills up, or with the first sample appended
+     * after the flush interval, or by {@link #flush()}.
+     *
+     * @param timestampMillis the wall clock time of the sample
+     * @param temperatureCelsius the highest temperature, or NaN if not known
+     * @param frequencyKHz the highest current CPU frequency, or -1 if not known
+     * @param cpuUtilization the CPU utilization, or NaN if not known
+     * @param memoryUsedFraction the fraction of memory in use, or NaN if not known
+     * @param throttledBits the firmware throttling bitmask, or -1 if not known
+     * @throws IOException if a page cannot be written
+     * @throws IllegalStateException if the journal is closed
+     */
+    public synchronized void append(long timestampMillis, double temperatureCelsius, long frequencyKHz,
+                                    double cpuUtilization, double memoryUsedFraction, int throttledBits)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (page.remaining() < MAX_RECORD_BYTES) {
+            if (hasPendingFrame()) {
+                writeFrame();
+            }
+            startPage(pageStart + pageSize);
+        }
+        int mask = 0;
+        int maskPosition = page.position();
+        page.put((byte) 0);
+        putSigned(timestampMillis - previousTimestamp);
+        previousTimestamp = timestampMillis;
+        mask |= putValue(TEMPERATURE, Double.isNaN(temperatureCelsius), Math.round(temperatureCelsius * MILLI));
+        mask |= putValue(FREQUENCY, frequencyKHz < 0, frequencyKHz);
+        mask |= putValue(CPU_UTILIZATION, Double.isNaN(cpuUtilization), Math.round(cpuUtilization * FRACTION_SCALE));
+        mask |= putValue(MEMORY_USED, Double.isNaN(memoryUsedFraction),
+                Math.round(memoryUsedFraction * FRACTION_SCALE));
+        mask |= putValue(THROTTLED, throttledBits < 0, throttledBits);
+        page.put(maskPosition, (byte) mask);
+        if (System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    private int putValue(int index, boolean unknown, long value) {
+        if (unknown) {
+            return 0;
+        }
+        putSigned(value - previous[index]);
+        previous[index] = value;
+        return 1 << index;
+    }
+
+    private void putSigned(long value) {
+        // Zigzag, so small negative deltas stay short
+        long bits = (value << 1) ^ (value >> 63);
+        while ((bits & ~0x7FL) != 0) {
+            page.put((byte) (bits & 0x7F | 0x80));
+            bits >>>= 7;
+        }
+        page.put((byte) bits);
+    }
+
+    /**
+     * Writes the samples appended since the last flush to the mapping and forces them to storage.
+     *
+     * @throws IOException if the samples cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed && hasPendingFrame()) {
+            writeFrame();
+        }
+        lastFlushNanos = System.nanoTime();
+    }
+
+    private boolean hasPendingFrame() {
+        return page.position() > flushed + FRAME_HEADER_BYTES;
+    }
+
+    private void writeFrame() {
+        int recordsStart = flushed + FRAME_HEADER_BYTES;
+        int recordBytes = page.position() - recordsStart;
+        crc.reset();
+        crc.update(page.array(), recordsStart, recordBytes);
+        page.putInt(flushed, recordBytes).putInt(flushed + Integer.BYTES, (int) crc.getValue());
+        int offset = (int) (pageStart - segmentStart) + flushed;
+        int length = page.position() - flushed;
+        segment.put(offset, page.array(), flushed, length);
+        segment.force(offset, length);
+        flushed = page.position();
+        // A page too full for another frame is left on the next append
+        page.position(Math.min(flushed + FRAME_HEADER_BYTES, pageSize));
+    }
+
+    private void startPage(long start) throws IOException {
+        if (segment == null || start + pageSize > segmentStart + SEGMENT_BYTES) {
+            // Segments start on page boundaries, mapping them extends the file
+            segmentStart = start;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_BYTES);
+        }
+        pageStart = start;
+        page.clear();
+        flushed = 0;
+        page.position(FRAME_HEADER_BYTES);
+        previousTimestamp = 0;
+        Arrays.fill(previous, 0);
+    }
+
+    /**
+     * Flushes the current page and closes the file. The file keeps its preallocated, empty pages.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * Replays the samples of a journal in the order they were appended, up to the first page without frames or the
+     * first torn frame.
+     *
+     * @param file the journal file
+     * @param visitor the visitor, receiving values indexed by {@link SampleHistory.Column#ordinal()}
+     * @return the number of samples replayed
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static long replay(Path file, SampleHistory.Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int pageSize = readPageSize(channel, file);
+            long size = channel.size();
+            Replayer replayer = new Replayer(visitor);
+            // Pages are read a segment at a time, the segment size being a multiple of every page size
+            for (long segmentStart = pageSize; segmentStart < size; segmentStart += SEGMENT_BYTES) {
+                int length = (int) Math.min(SEGMENT_BYTES, size - segmentStart);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, length);
+                for (int pageOffset = 0; pageOffset < length; pageOffset += pageSize) {
+                    if (!replayer.page(segment.slice(pageOffset, Math.min(pageSize, length - pageOffset)))) {
+                        return replayer.replayed;
+                    }
+                }
+            }
+            return replayer.replayed;
+        }
+    }
+
+    // The offset after the last frame of a page that passes its checksum
+    private static int intactEnd(ByteBuffer page, CRC32C crc) {
+        int offset = 0;
+        while (offset + FRAME_HEADER_BYTES <= page.limit()) {
+            int recordBytes = page.getInt(offset);
+            int recordsStart = offset + FRAME_HEADER_BYTES;
+            if (recordBytes <= 0 || recordBytes > page.limit() - recordsStart) {
+                break;
+            }
+            crc.reset();
+            crc.update(page.slice(recordsStart, recordBytes));
+            if ((int) crc.getValue() != page.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            offset = recordsStart + recordBytes;
+        }
+        return offset;
+    }
+
+    private static boolean isTorn(ByteBuffer page, int intactEnd) {
+        return intactEnd + FRAME_HEADER_BYTES <= page.limit() && page.getInt(intactEnd) != 0;
+    }
+
+    /**
+     * Decodes the frames of consecutive pages.
+     */
+    private static final class Replayer {
+
+        private final SampleHistory.Visitor visitor;
+        private final double[] values = new double[SampleHistory.Column.values().length];
+        private final long[] previous = new long[VALUES];
+        private final CRC32C crc = new CRC32C();
+        private long replayed;
+
+        Replayer(SampleHistory.Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        /**
+         * Replays the intact frames of a page.
+         *
+         * @param page the page
+         * @return whether the journal continues on the next page
+         */
+        boolean page(ByteBuffer page) {
+            int end = intactEnd(page, crc);
+            Arrays.fill(previous, 0);
+            long timestamp = 0;
+            for (int offset = 0; offset < end; ) {
+                int recordBytes = page.getInt(offset);
+                ByteBuffer records = page.slice(offset + FRAME_HEADER_BYTES, recordBytes);
+                offset += FRAME_HEADER_BYTES + recordBytes;
+                try {
+                    while (records.hasRemaining()) {
+                        int mask = records.get();
+                        timestamp += getSigned(records);
+                        for (int index = 0; index < VALUES; index++) {
+                            if ((mask & 1 << index) != 0) {
+                                previous[index] += getSigned(records);
+                            }
+                        }
+                        sample(timestamp, mask);
+                    }
+                } catch (IOException e) {
+                    // Records that do not decode despite their checksum end the journal like a torn frame
+                    return false;
+                }
+            }
+            return end > 0 && !isTorn(page, end);
+        }
+
+        private void sample(long timestamp, int mask) {
+            values[SampleHistory.Column.TEMPERATURE_CELSIUS.ordinal()] =
+                    (mask & 1 << TEMPERATURE) == 0 ? Double.NaN : previous[TEMPERATURE] / MILLI;
+            values[SampleHistory.Column.FREQUENCY_KHZ.ordinal()] =
+                    (mask & 1 << FREQUENCY) == 0 ? Double.NaN : previous[FREQUENCY];
+            values[SampleHistory.Column.CPU_UTILIZATION.ordinal()] =
+                    (mask & 1 << CPU_UTILIZATION) == 0 ? Double.NaN : previous[CPU_UTILIZATION] / FRACTION_SCALE;
+            values[SampleHistory.Column.MEMORY_USED_FRACTION.ordinal()] =
+                    (mask & 1 << MEMORY_USED) == 0 ? Double.NaN : previous[MEMORY_USED] / FRACTION_SCALE;
+            visitor.sample(timestamp, values, (mask & 1 << THROTTLED) == 0 ? -1 : (int) previous[THROTTLED]);
+            replayed++;
+        }
+    }
+
+    private static long getSigned(ByteBuffer bytes) throws IOException {
+        long bits = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            if (!bytes.hasRemaining()) {
+                throw new IOException("Corrupt telemetry journal record");
+            }
+            byte b = bytes.get();
+            bits |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (bits >>> 1) ^ -(bits & 1);
+            }
+        }
+        throw new IOException("Corrupt telemetry journal varint");
+    }
+
+    @Override
+    public String toString() {
+        return "TelemetryJournal{pageSize=" + pageSize + ", flushIntervalNanos=" + flushIntervalNanos + "}";
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor whose parallelism follows the thermal state of a Raspberry Pi.
+ * <p>
+ * Tasks run on a pool with one thread per permit. On each {@link ThrottleMonitor} sample the executor gives up a
+ * permit while the SoC is within the hysteresis band below the temperature limit, or the firmware reports it
+ * frequency capped, throttled or at the soft temperature limit. It takes a permit back once the SoC has cooled a
+ * further band width below with no condition active. In between the permits are held, so the pool does not flap.
+ * Running tasks are never interrupted; surplus threads exit when they finish their current task.
+ * <p>
+ * The executor only adapts when the detector reports a Raspberry Pi, elsewhere it behaves as a fixed thread pool
+ * of the maximum size.
+ */
+public final class ThermalAwareExecutor extends AbstractExecutorService {
+
+    /**
+     * Default temperature limit in degrees Celsius, the soft limit at which recent Pi firmware starts to throttle.
+     */
+    public static final double DEFAULT_TEMPERATURE_LIMIT_CELSIUS = 80.0;
+
+    /**
+     * Default width in degrees Celsius of the band below the limit in which permits are given up.
+     */
+    public static final double DEFAULT_HYSTERESIS_CELSIUS = 5.0;
+
+    private final ThreadPoolExecutor pool;
+    private final ThrottleMonitor monitor;
+    private final boolean ownsMonitor;
+    private final ThrottleMonitor.Listener listener = new ThrottleMonitor.Listener() {
+        @Override
+        public void onSample(ThrottleState state) {
+            adjust(state);
+        }
+    };
+    private final int minPermits;
+    private final int maxPermits;
+    private final double hotCelsius;
+    private final double coolCelsius;
+
+    // guarded by pool, changed only from the sampling thread
+    private int permits;
+
+    private ThermalAwareExecutor(Builder builder, int maxPermits, ThrottleMonitor monitor, boolean ownsMonitor) {
+        this.minPermits = builder.minPermits;
+        this.maxPermits = maxPermits;
+        this.hotCelsius = builder.temperatureLimitCelsius - builder.hysteresisCelsius;
+        this.coolCelsius = builder.temperatureLimitCelsius - 2 * builder.hysteresisCelsius;
+        this.permits = maxPermits;
+        this.pool = new ThreadPoolExecutor(maxPermits, maxPermits, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), builder.threadFactory);
+        this.monitor = monitor;
+        this.ownsMonitor = ownsMonitor;
+        if (monitor != null) {
+            monitor.addListener(listener);
+        }
+    }
+
+    /**
+     * Creates a builder for an executor adapting to the local machine.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if the executor adapts to the thermal state, false if it runs at a fixed size
+     */
+    public boolean isAdaptive() {
+        return monitor != null;
+    }
+
+    /**
+     * Gets the current permit count, the number of tasks allowed to run at the same time.
+     *
+     * @return the permit count
+     */
+    public int getPermits() {
+        synchronized (pool) {
+            return permits;
+        }
+    }
+
+    /**
+     * @return the lowest permit count the executor throttles down to
+     */
+    public int getMinPermits() {
+        return minPermits;
+    }
+
+    /**
+     * @return the highest permit count, used while the SoC is cool
+     */
+    public int getMaxPermits() {
+        return maxPermits;
+    }
+
+    /**
+     * @return the number of threads currently running tasks
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Adjusts the permits to a thermal sample, by at most one permit per sample.
+     */
+    void adjust(ThrottleState state) {
+        double temperature = state.getMaxTemperatureCelsius();
+        boolean limited = state.isActive(ThrottleState.Condition.SOFT_TEMP_LIMIT)
+                || state.isActive(ThrottleState.Condition.FREQUENCY_CAPPED)
+                || state.isActive(ThrottleState.Condition.THROTTLED);
+        synchronized (pool) {
+            if (pool.isShutdown()) {
+                return;
+            }
+            if (limited || temperature >= hotCelsius) {
+                resize(Math.max(minPermits, permits - 1));
+            } else if (!(temperature > coolCelsius)) {
+                // Also reached when no temperature can be read, so permits are not held forever
+                resize(Math.min(maxPermits, permits + 1));
+            }
+        }
+    }
+
+    private void resize(int newPermits) {
+        if (newPermits < permits) {
+            pool.setCorePoolSize(newPermits);
+            pool.setMaximumPoolSize(newPermits);
+        } else if (newPermits > permits) {
+            pool.setMaximumPoolSize(newPermits);
+            pool.setCorePoolSize(newPermits);
+        }
+        permits = newPermits;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    /**
+     * Shuts down the pool and stops adapting. A monitor created by the executor is closed.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (pool) {
+            pool.shutdown();
+        }
+        detach();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending;
+        synchronized (pool) {
+            pending = pool.shutdownNow();
+        }
+        detach();
+        return pending;
+    }
+
+    private void detach() {
+        if (monitor == null) {
+            return;
+        }
+        monitor.removeListener(listener);
+        if (ownsMonitor) {
+            try {
+                monitor.close();
+            } catch (IOException e) {
+                // nothing left to sample, the attributes are released on a best effort basis
+            }
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "ThermalAwareExecutor{permits=" + getPermits() + ", minPermits=" + minPermits + ", maxPermits="
+                + maxPermits + ", adaptive=" + isAdaptive() + ", active=" + getActiveCount() + "}";
+    }
+
+    /**
+     * Builder of {@link ThermalAwareExecutor} instances.
+     */
+    public static final class Builder {
+
+        private RaspberryPiDetector detector;
+        private ThrottleMonitor monitor;
+        private int minPermits = 1;
+        private int maxPermits;
+        private double temperatureLimitCelsius = DEFAULT_TEMPERATURE_LIMIT_CELSIUS;
+        private double hysteresisCelsius = DEFAULT_HYSTERESIS_CELSIUS;
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+        private Builder() {
+        }
+
+        /**
+         * @param detector the detector deciding whether to adapt, instead of the shared detector
+         * @return this builder
+         */
+        public Builder detector(RaspberryPiDetector detector) {
+            this.detector = Objects.requireNonNull(detector, "detector");
+            return this;
+        }
+
+        /**
+         * Uses the given monitor instead of starting one with the default settings. The caller keeps ownership of
+         * the monitor, and starts or samples it.
+         *
+         * @param monitor the monitor driving the executor
+         * @return this builder
+         */
+        public Builder monitor(ThrottleMonitor monitor) {
+            this.monitor = Objects.requireNonNull(monitor, "monitor");
+            return this;
+        }
+
+        /**
+         * @param minPermits the lowest permit count, 1 by default
+         * @return this builder
+         * @throws IllegalArgumentException if the count is less than one
+         */
+        public Builder minPermits(int minPermits) {
+            if (minPermits < 1) {
+                throw new IllegalArgumentException("Minimum permits must be at least 1: " + minPermits);
+            }
+            this.minPermits = minPermits;
+            return this;
+        }
+
+        /**
+         * @param maxPermits the highest permit count, by default {@link CpuTopology#recommendedCpuBoundPoolSize()}
+         * @return this builder
+         * @throws IllegalArgumentException if the count is less than one
+         */
+        public Builder maxPermits(int maxPermits) {
+            if (maxPermits < 1) {
+                throw new IllegalArgumentException("Maximum permits must be at least 1: " + maxPermits);
+            }
+            this.maxPermits = maxPermits;
+            return this;
+        }
+
+        /**
+         * @param temperatureLimitCelsius the temperature to stay below, in degrees Celsius
+         * @return this builder
+         */
+        public Builder temperatureLimitCelsius(double temperatureLimitCelsius) {
+            this.temperatureLimitCelsius = temperatureLimitCelsius;
+            return this;
+        }
+
+        /**
+         * Sets the width of the band below the limit in which permits are given up. Permits are taken back once the
+         * temperature falls a further band width below.
+         *
+         * @param hysteresisCelsius the band width in degrees Celsius
+         * @return this builder
+         * @throws IllegalArgumentException if the width is negative
+         */
+        public Builder hysteresisCelsius(double hysteresisCelsius) {
+            if (!(hysteresisCelsius >= 0)) {
+                throw new IllegalArgumentException("Hysteresis must not be negative: " + hysteresisCelsius);
+            }
+            this.hysteresisCelsius = hysteresisCelsius;
+            return this;
+        }
+
+        /**
+         * @param threadFactory the factory of the pool threads
+         * @return this builder
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+            return this;
+        }
+
+        /**
+         * Creates the executor. On a Raspberry Pi without a given monitor, a monitor is built and started, and is
+         * closed when the executor shuts down.
+         *
+         * @return a new executor
+         * @throws IllegalArgumentException if the minimum permits exceed the maximum permits
+         */
+        public ThermalAwareExecutor build() {
+            int max = maxPermits > 0 ? maxPermits : CpuTopology.read().recommendedCpuBoundPoolSize();
+            if (minPermits > max) {
+                throw new IllegalArgumentException("Minimum permits " + minPermits + " exceed maximum " + max);
+            }
+            RaspberryPiDetector piDetector = detector != null ? detector : RaspberryPiDetector.defaultDetector();
+            if (!piDetector.detection().isRaspberryPi()) {
+                return new ThermalAwareExecutor(this, max, null, false);
+            }
+            if (monitor != null) {
+                return new ThermalAwareExecutor(this, max, monitor, false);
+            }
+            ThrottleMonitor ownMonitor = ThrottleMonitor.builder().build();
+            ThermalAwareExecutor executor = new ThermalAwareExecutor(this, max, ownMonitor, true);
+            ownMonitor.start();
+            return executor;
+        }
+    }
+}
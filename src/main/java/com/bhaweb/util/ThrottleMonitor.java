@@ -0,0 +1,411 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the SoC temperature, the CPU frequencies and the Raspberry Pi firmware throttling bitmask, to make
+ * thermal throttling and under-voltage capping visible.
+ * <p>
+ * The sysfs attributes are opened once when the monitor is built and re-read in place on each sample, so sampling
+ * only allocates the resulting {@link ThrottleState}. Samples are taken on demand with {@link #sample()}, or on a
+ * fixed interval by a daemon thread after {@link #start()}. Listeners see every sample and every change of a
+ * {@linkplain ThrottleState.Condition throttling condition}. Attributes that do not exist, e.g. the firmware bitmask
+ * on other boards, are left out of the samples.
+ */
+public final class ThrottleMonitor implements Closeable {
+
+    /**
+     * Default sampling interval.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String THERMAL_DIR = "sys/class/thermal";
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String THROTTLED_PATH = "sys/devices/platform/soc/soc:firmware/get_throttled";
+    static final String PLATFORM_DIR = "sys/devices/platform";
+
+    private static final int THROTTLED_RADIX = 16;
+
+    /**
+     * Receives samples and throttling transitions. Listeners run on the sampling thread and should return quickly.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every sample.
+         *
+         * @param state the sample
+         */
+        default void onSample(ThrottleState state) {
+        }
+
+        /**
+         * Called when a throttling condition becomes active or inactive. Conditions already active in the first
+         * sample are reported as becoming active.
+         *
+         * @param condition the condition
+         * @param active true if the condition became active, false if it cleared
+         * @param state the sample showing the change
+         */
+        default void onTransition(ThrottleState.Condition condition, boolean active, ThrottleState state) {
+        }
+    }
+
+    private final SysFile[] thermalZones;
+    private final SysFile[] frequencies;
+    private final SysFile throttled;
+    private final Duration interval;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+
+    private volatile ThrottleState state;
+    // guarded by lock
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    private ThrottleMonitor(Builder builder) {
+        this.thermalZones = openAll(numbered(builder.root.resolve(THERMAL_DIR), "thermal_zone"), "temp");
+        this.frequencies = openAll(numbered(builder.root.resolve(CpuTopology.CPU_DIR), "cpu"),
+                "cpufreq/scaling_cur_freq");
+        this.throttled = SysFile.open(builder.throttledPath != null ? builder.throttledPath
+                : findThrottledPath(builder.root));
+        this.interval = builder.interval;
+    }
+
+    /**
+     * Creates a builder for a monitor of the local machine.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the sampling interval used after {@link #start()}
+     */
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the number of thermal zones sampled
+     */
+    public int getThermalZoneCount() {
+        return thermalZones.length;
+    }
+
+    /**
+     * @return the number of CPUs whose frequency is sampled
+     */
+    public int getCpuCount() {
+        return frequencies.length;
+    }
+
+    /**
+     * @return true if the firmware throttling bitmask is sampled
+     */
+    public boolean hasThrottledBits() {
+        return throttled != null;
+    }
+
+    /**
+     * @param listener the listener to add
+     */
+    public void addListener(Listener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Takes a sample now and notifies the listeners.
+     *
+     * @return the sample
+     * @throws IllegalStateException if the monitor is closed
+     */
+    public ThrottleState sample() {
+        ThrottleState previous;
+        ThrottleState current;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Monitor is closed");
+            }
+            long[] temperatures = new long[thermalZones.length];
+            for (int i = 0; i < thermalZones.length; i++) {
+                temperatures[i] = thermalZones[i].readLong(10);
+            }
+            long[] cpuFrequencies = new long[frequencies.length];
+            for (int i = 0; i < frequencies.length; i++) {
+                cpuFrequencies[i] = frequencies[i].readLong(10);
+            }
+            long bits = throttled == null ? SysFile.UNAVAILABLE : throttled.readLong(THROTTLED_RADIX);
+            current = new ThrottleState(System.nanoTime(), temperatures, cpuFrequencies,
+                    bits < 0 || bits > Integer.MAX_VALUE ? -1 : (int) bits);
+            previous = state;
+            state = current;
+            // Notify under the lock so listeners see samples in order
+            notifyListeners(previous, current);
+        }
+        return current;
+    }
+
+    private void notifyListeners(ThrottleState previous, ThrottleState current) {
+        int previousBits = previous == null ? 0 : Math.max(previous.getThrottledBits(), 0);
+        int changed = current.hasThrottledBits() ? previousBits ^ current.getThrottledBits() : 0;
+        for (Listener listener : listeners) {
+            try {
+                listener.onSample(current);
+                if (changed != 0) {
+                    for (ThrottleState.Condition condition : ThrottleState.Condition.values()) {
+                        if ((changed & condition.getActiveMask()) != 0) {
+                            listener.onTransition(condition, current.isActive(condition), current);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // A failing listener must not stop sampling or starve the other listeners
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the latest sample, taking one if none was taken yet.
+     *
+     * @return the latest sample
+     * @throws IllegalStateException if no sample was taken and the monitor is closed
+     */
+    public ThrottleState getState() {
+        ThrottleState current = state;
+        return current != null ? current : sample();
+    }
+
+    /**
+     * Starts sampling on the configured interval, on a daemon thread. Does nothing if already started.
+     *
+     * @return this monitor
+     * @throws IllegalStateException if the monitor is closed
+     */
+    public ThrottleMonitor start() {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Monitor is closed");
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "throttle-monitor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleAtFixedRate(this::sample, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true if sampling on the interval was started and the monitor is not closed
+     */
+    public boolean isRunning() {
+        synchronized (lock) {
+            return scheduler != null && !closed;
+        }
+    }
+
+    /**
+     * Stops sampling and closes the sysfs attributes. The latest sample stays available.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            IOException failure = null;
+            for (SysFile file : allFiles()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private List<SysFile> allFiles() {
+        List<SysFile> files = new ArrayList<>(List.of(thermalZones));
+        files.addAll(List.of(frequencies));
+        if (throttled != null) {
+            files.add(throttled);
+        }
+        return files;
+    }
+
+    /**
+     * Lists the entries of a directory named by a prefix and a number, e.g. {@code cpu0}, in number order.
+     */
+    static List<Path> numbered(Path dir, String prefix) {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "[0-9]*")) {
+            for (Path entry : stream) {
+                if (number(entry, prefix) >= 0) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            return entries;
+        }
+        entries.sort(Comparator.comparingInt(entry -> number(entry, prefix)));
+        return entries;
+    }
+
+    private static int number(Path entry, String prefix) {
+        String name = entry.getFileName().toString();
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name, prefix.length(), name.length(), 10);
+    }
+
+    private static SysFile[] openAll(List<Path> dirs, String attribute) {
+        List<SysFile> files = new ArrayList<>(dirs.size());
+        for (Path dir : dirs) {
+            SysFile file = SysFile.open(dir.resolve(attribute));
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files.toArray(new SysFile[0]);
+    }
+
+    /**
+     * Finds the firmware {@code get_throttled} attribute, which moves with the SoC node name on some boards,
+     * e.g. below {@code soc@107c000000} on the Pi 5.
+     */
+    static Path findThrottledPath(Path root) {
+        Path standard = root.resolve(THROTTLED_PATH);
+        if (Files.exists(standard)) {
+            return standard;
+        }
+        try (DirectoryStream<Path> socs = Files.newDirectoryStream(root.resolve(PLATFORM_DIR), "soc*")) {
+            for (Path soc : socs) {
+                try (DirectoryStream<Path> nodes = Files.newDirectoryStream(soc, "*:firmware")) {
+                    for (Path node : nodes) {
+                        Path candidate = node.resolve("get_throttled");
+                        if (Files.exists(candidate)) {
+                            return candidate;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return standard;
+        }
+        return standard;
+    }
+
+    /**
+     * Builder of {@link ThrottleMonitor} instances.
+     */
+    public static final class Builder {
+
+        private Path root = Path.of("/");
+        private Path throttledPath;
+        private Duration interval = DEFAULT_INTERVAL;
+
+        private Builder() {
+        }
+
+        /**
+         * Reads the standard locations below the given directory instead of {@code /},
+         * e.g. {@code root/sys/class/thermal}.
+         *
+         * @param root the directory standing in for the file system root
+         * @return this builder
+         */
+        public Builder root(Path root) {
+            this.root = Objects.requireNonNull(root, "root");
+            return this;
+        }
+
+        /**
+         * @param throttledPath the firmware throttling bitmask file to read instead of searching for it
+         * @return this builder
+         */
+        public Builder throttledPath(Path throttledPath) {
+            this.throttledPath = Objects.requireNonNull(throttledPath, "throttledPath");
+            return this;
+        }
+
+        /**
+         * @param interval the sampling interval used after {@link ThrottleMonitor#start()}
+         * @return this builder
+         * @throws IllegalArgumentException if the interval is not positive
+         */
+        public Builder interval(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("Interval must be positive: " + interval);
+            }
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Opens the sysfs attributes and creates the monitor. The monitor must be closed to release them.
+         *
+         * @return a new monitor
+         */
+        public ThrottleMonitor build() {
+            return new ThrottleMonitor(this);
+        }
+    }
+}
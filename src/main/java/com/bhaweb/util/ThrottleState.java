@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+/**
+ * Immutable sample of the thermal, frequency and firmware throttling state, taken by {@link ThrottleMonitor}.
+ */
+public final class ThrottleState {
+
+    /**
+     * Throttling condition reported by the Raspberry Pi firmware {@code get_throttled} bitmask. Each condition has a
+     * bit set while it is active and a sticky bit, 16 bits higher, set once it has occurred since boot.
+     */
+    public enum Condition {
+        /** The supply voltage is below 4.63V. */
+        UNDER_VOLTAGE(0),
+        /** The ARM frequency is capped. */
+        FREQUENCY_CAPPED(1),
+        /** The ARM core is throttled. */
+        THROTTLED(2),
+        /** The soft temperature limit is active. */
+        SOFT_TEMP_LIMIT(3);
+
+        private final int activeMask;
+
+        Condition(int bit) {
+            this.activeMask = 1 << bit;
+        }
+
+        /**
+         * @return the bit of the condition being active
+         */
+        public int getActiveMask() {
+            return activeMask;
+        }
+
+        /**
+         * @return the sticky bit of the condition having occurred since boot
+         */
+        public int getOccurredMask() {
+            return activeMask << 16;
+        }
+    }
+
+    private final long timestampNanos;
+    private final long[] temperaturesMilliCelsius;
+    private final long[] frequenciesKHz;
+    private final int throttled;
+
+    ThrottleState(long timestampNanos, long[] temperaturesMilliCelsius, long[] frequenciesKHz, int throttled) {
+        this.timestampNanos = timestampNanos;
+        this.temperaturesMilliCelsius = temperaturesMilliCelsius;
+        this.frequenciesKHz = frequenciesKHz;
+        this.throttled = throttled;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the sample
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return the number of thermal zones sampled
+     */
+    public int getThermalZoneCount() {
+        return temperaturesMilliCelsius.length;
+    }
+
+    /**
+     * @param zone the index of the thermal zone, in zone number order
+     * @return the temperature in degrees Celsius, or NaN if it could not be read
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public double getTemperatureCelsius(int zone) {
+        long milliCelsius = temperaturesMilliCelsius[zone];
+        return milliCelsius == SysFile.UNAVAILABLE ? Double.NaN : milliCelsius / 1000.0;
+    }
+
+    /**
+     * @return the highest temperature of all thermal zones in degrees Celsius, or NaN if none could be read
+     */
+    public double getMaxTemperatureCelsius() {
+        double max = Double.NaN;
+        for (int zone = 0; zone < temperaturesMilliCelsius.length; zone++) {
+            double temperature = getTemperatureCelsius(zone);
+            if (Double.isNaN(max) || temperature > max) {
+                max = temperature;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of CPUs whose frequency was sampled
+     */
+    public int getCpuCount() {
+        return frequenciesKHz.length;
+    }
+
+    /**
+     * @param cpu the index of the CPU, in CPU number order
+     * @return the current frequency in kHz, or -1 if it could not be read
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public long getFrequencyKHz(int cpu) {
+        long frequency = frequenciesKHz[cpu];
+        return frequency == SysFile.UNAVAILABLE ? -1 : frequency;
+    }
+
+    /**
+     * @return the highest current frequency of all CPUs in kHz, or -1 if none could be read
+     */
+    public long getMaxFrequencyKHz() {
+        long max = -1;
+        for (int cpu = 0; cpu < frequenciesKHz.length; cpu++) {
+            max = Math.max(max, getFrequencyKHz(cpu));
+        }
+        return max;
+    }
+
+    /**
+     * @return true if the firmware throttling bitmask was read, false if it is not available
+     */
+    public boolean hasThrottledBits() {
+        return throttled >= 0;
+    }
+
+    /**
+     * @return the firmware throttling bitmask, or -1 if it is not available
+     */
+    public int getThrottledBits() {
+        return throttled;
+    }
+
+    /**
+     * @param condition the condition
+     * @return true if the condition is active, false if not or unknown
+     */
+    public boolean isActive(Condition condition) {
+        return throttled >= 0 && (throttled & condition.getActiveMask()) != 0;
+    }
+
+    /**
+     * @param condition the condition
+     * @return true if the condition has occurred since boot, false if not or unknown
+     */
+    public boolean hasOccurred(Condition condition) {
+        return throttled >= 0 && (throttled & condition.getOccurredMask()) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ThrottleState{maxTemperatureCelsius=%.1f, maxFrequencyKHz=%d, throttled=%s}",
+                getMaxTemperatureCelsius(), getMaxFrequencyKHz(),
+                throttled >= 0 ? "0x" + Integer.toHexString(throttled) : "unknown");
+    }
+}
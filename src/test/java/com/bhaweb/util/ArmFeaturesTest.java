@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for ArmFeatures.
+ */
+public class ArmFeaturesTest
+{
+
+  @Test
+  public void testParse_64Bit() {
+    ArmFeatures features = ArmFeatures.parse("fp asimd evtstrm aes pmull sha1 sha2 crc32 atomics fphp asimdhp cpuid "
+        + "asimdrdm lrcpc dcpop asimddp");
+
+    assertTrue(features.has(ArmFeatures.Feature.ASIMD));
+    assertTrue(features.has(ArmFeatures.Feature.ATOMICS));
+    assertTrue(features.hasSimd());
+    assertFalse(features.has(ArmFeatures.Feature.NEON));
+    assertFalse(features.has(ArmFeatures.Feature.SVE));
+    assertTrue(features.hasAll(ArmFeatures.Feature.AES.getMask() | ArmFeatures.Feature.PMULL.getMask()));
+    assertFalse(features.hasAll(ArmFeatures.Feature.AES.getMask() | ArmFeatures.Feature.SHA3.getMask()));
+  }
+
+  @Test
+  public void testParse_32Bit() {
+    ArmFeatures features = ArmFeatures.parse(" half thumb\tfastmult vfp edsp neon  vfpv3 tls unknownflag crc32 ");
+
+    assertTrue(features.has(ArmFeatures.Feature.NEON));
+    assertTrue(features.has(ArmFeatures.Feature.CRC32));
+    assertTrue(features.hasSimd());
+    assertFalse(features.has(ArmFeatures.Feature.ASIMD));
+    assertEquals("crc32 half thumb fastmult vfp edsp tls neon vfpv3", features.getNames());
+    assertEquals("ArmFeatures{crc32 half thumb fastmult vfp edsp tls neon vfpv3}", features.toString());
+  }
+
+  @Test
+  public void testParse_Bytes() {
+    String line = "Features\t: half thumb fastmult vfp edsp neon vfpv3 tls unknownflag crc32 ";
+    byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+
+    ArmFeatures features = ArmFeatures.parse(bytes, line.indexOf(':') + 1, bytes.length);
+
+    assertEquals(ArmFeatures.parse(line.substring(line.indexOf(':') + 1)), features);
+    assertSame(ArmFeatures.NONE, ArmFeatures.parse(bytes, 0, line.indexOf(':')));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertSame(ArmFeatures.NONE, ArmFeatures.parse(""));
+    assertSame(ArmFeatures.NONE, ArmFeatures.parse("x86 sse2"));
+    assertTrue(ArmFeatures.NONE.isEmpty());
+    assertEquals("", ArmFeatures.NONE.getNames());
+    assertFalse(ArmFeatures.NONE.hasSimd());
+  }
+
+  @Test
+  public void testFromBits() {
+    ArmFeatures features = ArmFeatures.parse("fp asimd crc32");
+
+    assertEquals(features, ArmFeatures.fromBits(features.getBits()));
+    // Bits beyond the known features are dropped
+    assertEquals(features, ArmFeatures.fromBits(features.getBits() | 1L << 63));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for ContainerLimits.
+ */
+public class ContainerLimitsTest
+{
+
+  private static final long GB = 1024L * 1024 * 1024;
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void createBoard() throws IOException {
+    // A 4 GB, 4 core Pi 4
+    createFile("sys/devices/system/cpu/online", "0-3\n");
+    createFile("proc/meminfo", "MemTotal:        4194304 kB\n");
+  }
+
+  @Test
+  public void testV2() throws IOException {
+    createBoard();
+    createFile("proc/self/cgroup", "0::/system.slice/docker-1.scope\n");
+    createFile("sys/fs/cgroup/cgroup.controllers", "cpuset cpu io memory pids\n");
+    createFile("sys/fs/cgroup/system.slice/memory.max", "2147483648\n");
+    createFile("sys/fs/cgroup/system.slice/cpu.max", "max 100000\n");
+    createFile("sys/fs/cgroup/system.slice/docker-1.scope/cpu.max", "150000 100000\n");
+    createFile("sys/fs/cgroup/system.slice/docker-1.scope/cpu.weight", "200\n");
+    createFile("sys/fs/cgroup/system.slice/docker-1.scope/memory.max", "max\n");
+    createFile("sys/fs/cgroup/system.slice/docker-1.scope/memory.high", "1610612736\n");
+    createFile("sys/fs/cgroup/system.slice/docker-1.scope/cpuset.cpus.effective", "0-2\n");
+
+    try (ContainerLimits limits = ContainerLimits.open(tempDir)) {
+      assertEquals(ContainerLimits.Version.V2, limits.getVersion());
+      assertEquals(1.5, limits.getCpuLimit(), 1e-9);
+      assertEquals(200, limits.getCpuWeight());
+      assertEquals(3, limits.getCpusetCount());
+      // The parent's limit applies
+      assertEquals(2 * GB, limits.getMemoryMaxBytes());
+      assertEquals(1536L * 1024 * 1024, limits.getMemoryHighBytes());
+      assertEquals(1.5, limits.getEffectiveCpus(), 1e-9);
+      assertEquals(2, limits.getEffectiveCpuCount());
+      assertEquals(1536L * 1024 * 1024, limits.getEffectiveMemoryBytes());
+      assertTrue(limits.isLimited());
+
+      // Re-sampling picks up a changed limit
+      createFile("sys/fs/cgroup/system.slice/docker-1.scope/cpu.max", "max 100000\n");
+      assertTrue(limits.sample());
+      assertEquals(3, limits.getEffectiveCpuCount());
+    }
+  }
+
+  @Test
+  public void testV1() throws IOException {
+    createBoard();
+    createFile("proc/self/cgroup", """
+        12:memory:/docker/abc
+        11:cpu,cpuacct:/docker/abc
+        10:cpuset:/docker/abc
+        """);
+    createFile("sys/fs/cgroup/memory/docker/abc/memory.limit_in_bytes", "1073741824\n");
+    // No limit, as reported by a kernel with 16 KiB pages
+    createFile("sys/fs/cgroup/memory/docker/abc/memory.soft_limit_in_bytes", "9223372036854759424\n");
+    createFile("sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712\n");
+    createFile("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.cfs_quota_us", "50000\n");
+    createFile("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.cfs_period_us", "100000\n");
+    createFile("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.shares", "1024\n");
+    createFile("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_quota_us", "-1\n");
+    createFile("sys/fs/cgroup/cpuset/docker/abc/cpuset.cpus", "1,3\n");
+
+    try (ContainerLimits limits = ContainerLimits.open(tempDir)) {
+      assertEquals(ContainerLimits.Version.V1, limits.getVersion());
+      assertEquals(0.5, limits.getCpuLimit(), 1e-9);
+      assertEquals(100, limits.getCpuWeight());
+      assertEquals(2, limits.getCpusetCount());
+      assertEquals(GB, limits.getMemoryMaxBytes());
+      assertEquals(-1, limits.getMemoryHighBytes());
+      assertEquals(1, limits.getEffectiveCpuCount());
+      assertEquals(GB, limits.getEffectiveMemoryBytes());
+    }
+  }
+
+  @Test
+  public void testNoCgroups() throws IOException {
+    createBoard();
+
+    try (ContainerLimits limits = ContainerLimits.open(tempDir)) {
+      assertEquals(ContainerLimits.Version.NONE, limits.getVersion());
+      assertFalse(limits.sample());
+      assertEquals(4, limits.getEffectiveCpuCount());
+      assertEquals(4 * GB, limits.getEffectiveMemoryBytes());
+      assertFalse(limits.isLimited());
+    }
+  }
+
+  @Test
+  public void testCountCpuList() {
+    assertEquals(4, count("0-3\n"));
+    assertEquals(6, count("0-3,6,8\n"));
+    assertEquals(1, count("5"));
+    assertEquals(0, count("\n"));
+    assertEquals(-1, count("3-1"));
+    assertEquals(-1, count("0-x"));
+  }
+
+  private static int count(String list) {
+    byte[] bytes = list.getBytes(StandardCharsets.US_ASCII);
+    return ContainerLimits.countCpuList(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+}
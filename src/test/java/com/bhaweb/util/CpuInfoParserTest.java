@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for CpuInfoParser.
+ */
+public class CpuInfoParserTest
+{
+
+  private static ReadableByteChannel channel(String text) {
+    return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+  }
+
+  /**
+   * Channel handing out a few bytes per read, so lines straddle buffer refills.
+   */
+  private static ReadableByteChannel trickle(String text) {
+    InputStream in = new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 3));
+      }
+    };
+    return Channels.newChannel(in);
+  }
+
+  @Test
+  public void testParse_Visitor() throws IOException {
+    List<String> events = new ArrayList<>();
+    CpuInfoParser.parse(trickle("==> host <==\nprocessor\t: 0\nmodel name  :  ARMv7 \n\n Hardware\t:BCM2835"),
+        new CpuInfoParser.Visitor()
+        {
+          @Override
+          public void field(CharSequence key, CharSequence value) {
+            events.add(key + "=" + value);
+          }
+
+          @Override
+          public void blankLine() {
+            events.add("blank");
+          }
+
+          @Override
+          public void otherLine(CharSequence line) {
+            events.add("other " + line);
+          }
+        });
+
+    assertEquals(List.of("other ==> host <==", "processor=0", "model name=ARMv7", "blank", "Hardware=BCM2835"),
+        events);
+  }
+
+  @Test
+  public void testParse_StopsWhenDone() throws IOException {
+    List<String> keys = new ArrayList<>();
+    CpuInfoParser.parse(channel("a: 1\nb: 2\nc: 3\n"), new CpuInfoParser.Visitor()
+    {
+      @Override
+      public void field(CharSequence key, CharSequence value) {
+        keys.add(key.toString());
+      }
+
+      @Override
+      public boolean isDone() {
+        return keys.size() == 2;
+      }
+    });
+
+    assertEquals(List.of("a", "b"), keys);
+  }
+
+  @Test
+  public void testParse_LargeInput() throws IOException {
+    // Far larger than the parse buffer, one block per processor
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 4096; i++) {
+      text.append("processor\t: ").append(i).append("\nBogoMIPS\t: 108.00\nFeatures\t: fp asimd evtstrm crc32\n\n");
+    }
+    text.append("Hardware\t: BCM2835\nRevision\t: c03114\nModel\t\t: Raspberry Pi 4 Model B Rev 1.4\n");
+    CpuInfoFields fields = new CpuInfoFields();
+
+    CpuInfoParser.parse(channel(text.toString()), fields);
+
+    assertEquals(4096, fields.getProcessorCount());
+    assertEquals("fp asimd evtstrm crc32", fields.getFeatures());
+    assertEquals("c03114", fields.getRevision());
+    assertTrue(fields.isRaspberryPi(RaspberryPiDetector.defaultDetector().markers()));
+  }
+
+  @Test
+  public void testParse_LongLine() throws IOException {
+    String flags = "x".repeat(20_000);
+    List<String> values = new ArrayList<>();
+    CpuInfoParser.parse(trickle("flags\t: " + flags + "\nnext : 1\n"), new CpuInfoParser.Visitor()
+    {
+      @Override
+      public void field(CharSequence key, CharSequence value) {
+        values.add(value.toString());
+      }
+    });
+
+    assertEquals(List.of(flags, "1"), values);
+    String tooLong = "y".repeat(CpuInfoParser.MAX_LINE_LENGTH + 1);
+    assertThrows(IOException.class, () -> CpuInfoParser.parse(channel(tooLong), new CpuInfoParser.Visitor()
+    {
+    }));
+  }
+
+  @Test
+  public void testBlocks() {
+    String text = "\n\nprocessor\t: 0\nBogoMIPS\t: 108.00\n\n\nprocessor\t: 1\nBogoMIPS\t: 108.00\n \n"
+        + "Hardware\t: BCM2835";
+
+    List<String> blocks = CpuInfoParser.blocks(trickle(text)).collect(Collectors.toList());
+
+    assertEquals(List.of("processor\t: 0\nBogoMIPS\t: 108.00", "processor\t: 1\nBogoMIPS\t: 108.00",
+        "Hardware\t: BCM2835"), blocks);
+    assertEquals(CpuInfoTest.PI_4_CPU_INFO.split("\n\n").length,
+        CpuInfoParser.blocks(channel(CpuInfoTest.PI_4_CPU_INFO)).count());
+  }
+
+  @Test
+  public void testBlocks_ReadFailure() {
+    ReadableByteChannel failing = Channels.newChannel(new InputStream()
+    {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("read failed");
+      }
+    });
+
+    assertThrows(UncheckedIOException.class, () -> CpuInfoParser.blocks(failing).count());
+  }
+
+  @Test
+  public void testIndexOfNewline() {
+    byte[] bytes = "0123456789abcdef\nxyz".getBytes(StandardCharsets.US_ASCII);
+
+    assertEquals(16, CpuInfoParser.indexOfNewline(bytes, 0, bytes.length));
+    assertEquals(16, CpuInfoParser.indexOfNewline(bytes, 9, bytes.length));
+    assertEquals(bytes.length, CpuInfoParser.indexOfNewline(bytes, 17, bytes.length));
+    assertEquals(12, CpuInfoParser.indexOfNewline(bytes, 3, 12));
+  }
+}
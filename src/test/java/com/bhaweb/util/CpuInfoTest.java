@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test class for CpuInfo.
+ */
+public class CpuInfoTest
+{
+
+  @SuppressWarnings("SpellCheckingInspection")
+  static final String PI_4_CPU_INFO = """
+      processor\t: 0
+      model name\t: ARMv7 Processor rev 3 (v7l)
+      BogoMIPS\t: 108.00
+      Features\t: half thumb fastmult vfp edsp neon vfpv3 tls vfpv4 idiva idivt vfpd32 lpae evtstrm crc32
+      CPU implementer\t: 0x41
+
+      processor\t: 1
+      model name\t: ARMv7 Processor rev 3 (v7l)
+      BogoMIPS\t: 108.00
+      Features\t: half thumb fastmult vfp edsp neon vfpv3 tls vfpv4 idiva idivt vfpd32 lpae evtstrm crc32
+      CPU implementer\t: 0x41
+
+      Hardware\t: BCM2711
+      Revision\t: c03114
+      Serial\t\t: 100000002a5e7b5c
+      Model\t\t: Raspberry Pi 4 Model B Rev 1.4
+      """;
+
+  @Test
+  public void testParse_RaspberryPi() {
+    CpuInfo cpuInfo = CpuInfo.parse(PI_4_CPU_INFO);
+
+    assertEquals("BCM2711", cpuInfo.getHardware());
+    assertEquals("c03114", cpuInfo.getRevision());
+    assertEquals("100000002a5e7b5c", cpuInfo.getSerial());
+    assertEquals("Raspberry Pi 4 Model B Rev 1.4", cpuInfo.getModel());
+    assertEquals("ARMv7 Processor rev 3 (v7l)", cpuInfo.getModelName());
+    assertEquals("half thumb fastmult vfp edsp neon vfpv3 tls vfpv4 idiva idivt vfpd32 lpae evtstrm crc32",
+        cpuInfo.getFeatures());
+    assertEquals(2, cpuInfo.getProcessorCount());
+    assertEquals("""
+        processor\t: 1
+        model name\t: ARMv7 Processor rev 3 (v7l)
+        BogoMIPS\t: 108.00
+        Features\t: half thumb fastmult vfp edsp neon vfpv3 tls vfpv4 idiva idivt vfpd32 lpae evtstrm crc32
+        CPU implementer\t: 0x41""", cpuInfo.getProcessorBlock(1));
+  }
+
+  @Test
+  public void testParse_BlocksWithoutBlankLineOrTrailingNewline() {
+    CpuInfo cpuInfo = CpuInfo.parse("processor\t: 0\nvendor_id\t: GenuineIntel\nprocessor\t: 1\nflags\t: fpu");
+
+    assertEquals(2, cpuInfo.getProcessorCount());
+    assertEquals("processor\t: 0\nvendor_id\t: GenuineIntel", cpuInfo.getProcessorBlock(0));
+    assertEquals("processor\t: 1\nflags\t: fpu", cpuInfo.getProcessorBlock(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> cpuInfo.getProcessorBlock(2));
+  }
+
+  @Test
+  public void testParse_MissingFieldsAreEmpty() {
+    CpuInfo cpuInfo = CpuInfo.parse("""
+        no colon on this line
+        model-bad-name\t: ARMv7 Processor rev 3 (v7l)
+        Hardware\t:
+        """);
+
+    assertEquals("", cpuInfo.getHardware());
+    assertEquals("", cpuInfo.getModelName());
+    assertEquals("", cpuInfo.getRevision());
+    assertEquals(0, cpuInfo.getProcessorCount());
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for CpuStat.
+ */
+public class CpuStatTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private Path write(String cpuLines) throws IOException {
+    String content = cpuLines + "intr 1234 0 0 0 5 6\nctxt 987654\nbtime 1700000000\nprocesses 4242\n";
+    return Files.write(tempDir.resolve("stat"), content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testSample_Utilization() throws IOException {
+    Path stat = write("""
+        cpu  400 0 100 1400 100 0 0 0 0 0
+        cpu0 100 0 50 800 50 0 0 0 0 0
+        cpu1 300 0 50 600 50 0 0 0 0 0
+        """);
+
+    try (CpuStat cpuStat = CpuStat.open(stat)) {
+      assertTrue(cpuStat.sample());
+      assertEquals(2, cpuStat.getCpuCount());
+      assertEquals(1, cpuStat.getCpuId(1));
+      assertEquals(100, cpuStat.getTicks(-1, CpuStat.Field.SYSTEM));
+      assertTrue(Double.isNaN(cpuStat.getUtilization()));
+
+      write("""
+          cpu  500 0 100 1700 200 0 0 0 0 0
+          cpu0 190 0 50 810 50 0 0 0 0 0
+          cpu1 310 0 50 890 150 0 0 0 0 0
+          """);
+      assertTrue(cpuStat.sample());
+
+      // 100 busy of 500 ticks overall, 90 of 100 on cpu0 and 10 of 400 on cpu1
+      assertEquals(0.2, cpuStat.getUtilization(), 1e-12);
+      assertEquals(0.9, cpuStat.getUtilization(0), 1e-12);
+      assertEquals(0.025, cpuStat.getUtilization(1), 1e-12);
+      assertEquals(0.2, cpuStat.getIoWaitFraction(), 1e-12);
+
+      double[] utilizations = new double[4];
+      assertEquals(2, cpuStat.getUtilizations(utilizations));
+      assertEquals(0.9, utilizations[0], 1e-12);
+      assertThrows(IndexOutOfBoundsException.class, () -> cpuStat.getUtilization(2));
+    }
+  }
+
+  @Test
+  public void testSample_OlderKernelColumns() throws IOException {
+    try (CpuStat cpuStat = CpuStat.open(write("cpu  10 20 30 40\ncpu0 10 20 30 40\n"))) {
+      assertTrue(cpuStat.sample());
+      assertEquals(40, cpuStat.getTicks(0, CpuStat.Field.IDLE));
+      assertEquals(0, cpuStat.getTicks(0, CpuStat.Field.STEAL));
+    }
+  }
+
+  @Test
+  public void testSample_CpuHotplugRestartsInterval() throws IOException {
+    Path stat = write("cpu  10 0 0 10 0 0 0 0 0 0\ncpu0 5 0 0 5 0 0 0 0 0 0\ncpu1 5 0 0 5 0 0 0 0 0 0\n");
+
+    try (CpuStat cpuStat = CpuStat.open(stat)) {
+      cpuStat.sample();
+      write("cpu  20 0 0 20 0 0 0 0 0 0\ncpu0 10 0 0 10 0 0 0 0 0 0\ncpu2 10 0 0 10 0 0 0 0 0 0\n");
+      cpuStat.sample();
+      assertEquals(2, cpuStat.getCpuId(1));
+      assertTrue(Double.isNaN(cpuStat.getUtilization(0)));
+
+      write("cpu  30 0 0 30 0 0 0 0 0 0\ncpu0 20 0 0 10 0 0 0 0 0 0\ncpu2 10 0 0 20 0 0 0 0 0 0\n");
+      cpuStat.sample();
+      assertEquals(1.0, cpuStat.getUtilization(0), 1e-12);
+      assertEquals(0.0, cpuStat.getUtilization(1), 1e-12);
+    }
+  }
+
+  @Test
+  public void testSample_ManyCpus() throws IOException {
+    StringBuilder lines = new StringBuilder("cpu  12800 0 0 12800 0 0 0 0 0 0\n");
+    for (int cpu = 0; cpu < 128; cpu++) {
+      lines.append("cpu").append(cpu).append(" 100 0 0 100 0 0 0 0 0 0\n");
+    }
+
+    try (CpuStat cpuStat = CpuStat.open(write(lines.toString()))) {
+      assertTrue(cpuStat.sample());
+      assertEquals(128, cpuStat.getCpuCount());
+      assertEquals(127, cpuStat.getCpuId(127));
+      assertEquals(100, cpuStat.getTicks(127, CpuStat.Field.USER));
+    }
+  }
+}
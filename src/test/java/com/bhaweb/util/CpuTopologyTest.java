@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for CpuTopology.
+ */
+public class CpuTopologyTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void createCpu(int id, int core, int cluster, long maxFrequencyKHz) throws IOException {
+    String dir = CpuTopology.CPU_DIR + "/cpu" + id + "/";
+    createFile(dir + "topology/core_id", core + "\n");
+    createFile(dir + "topology/physical_package_id", "0\n");
+    if (cluster >= 0) {
+      createFile(dir + "topology/cluster_id", cluster + "\n");
+    }
+    createFile(dir + "cpufreq/cpuinfo_max_freq", maxFrequencyKHz + "\n");
+  }
+
+  @Test
+  public void testParseCpuList() {
+    BitSet cpus = CpuTopology.parseCpuList("0-3,6,8-9");
+    assertEquals(7, cpus.cardinality());
+    assertTrue(cpus.get(3));
+    assertFalse(cpus.get(4));
+    assertTrue(cpus.get(9));
+
+    assertEquals(1, CpuTopology.parseCpuList("0").cardinality());
+    assertEquals(0, CpuTopology.parseCpuList("").cardinality());
+    assertThrows(IllegalArgumentException.class, () -> CpuTopology.parseCpuList("0-"));
+    assertThrows(IllegalArgumentException.class, () -> CpuTopology.parseCpuList("a"));
+    assertThrows(IllegalArgumentException.class, () -> CpuTopology.parseCpuList("3-1"));
+  }
+
+  @Test
+  public void testRead_Pi4WithOfflineCore() throws IOException {
+    createFile(CpuTopology.CPU_DIR + "/possible", "0-3\n");
+    createFile(CpuTopology.CPU_DIR + "/online", "0-2\n");
+    for (int id = 0; id < 3; id++) {
+      createCpu(id, id, -1, 1800000);
+    }
+
+    CpuTopology topology = CpuTopology.read(tempDir, 8);
+
+    assertTrue(topology.isFromSysfs());
+    assertEquals(4, topology.getPossibleCount());
+    assertEquals(3, topology.getOnlineCount());
+    assertFalse(topology.isOnline(3));
+    assertEquals(3, topology.getCoreCount());
+    assertEquals(1, topology.getClusterCount());
+    assertEquals(1800000, topology.getMaxFrequencyKHz());
+    assertEquals(3, topology.recommendedCpuBoundPoolSize());
+    assertEquals(12, topology.recommendedIoBoundPoolSize(3.0));
+    assertThrows(IllegalArgumentException.class, () -> topology.recommendedIoBoundPoolSize(-1));
+  }
+
+  @Test
+  public void testRead_BigLittle() throws IOException {
+    createFile(CpuTopology.CPU_DIR + "/possible", "0-5\n");
+    createFile(CpuTopology.CPU_DIR + "/online", "0-5\n");
+    for (int id = 0; id < 4; id++) {
+      createCpu(id, id, 0, 1416000);
+    }
+    createCpu(4, 0, 1, 1800000);
+    createCpu(5, 1, 1, 1800000);
+
+    CpuTopology topology = CpuTopology.read(tempDir, 6);
+
+    assertEquals(6, topology.getCoreCount());
+    assertEquals(2, topology.getClusterCount());
+    assertEquals(2, topology.getPerformanceCpuCount());
+    assertEquals(1800000, topology.getCpus().get(5).getMaxFrequencyKHz());
+  }
+
+  @Test
+  public void testRead_ProcessorLimit() throws IOException {
+    createFile(CpuTopology.CPU_DIR + "/online", "0-3\n");
+
+    CpuTopology topology = CpuTopology.read(tempDir, 2);
+
+    assertEquals(4, topology.getPossibleCount());
+    assertEquals(4, topology.getCoreCount());
+    assertEquals(-1, topology.getCpus().get(0).getCoreId());
+    assertEquals(2, topology.recommendedCpuBoundPoolSize());
+  }
+
+  @Test
+  public void testRead_FallsBackToCpuInfo() throws IOException {
+    createFile(CpuTopology.CPU_INFO, CpuInfoTest.PI_4_CPU_INFO);
+
+    CpuTopology topology = CpuTopology.read(tempDir, 8);
+
+    assertFalse(topology.isFromSysfs());
+    assertEquals(2, topology.getOnlineCount());
+    assertEquals(2, topology.recommendedCpuBoundPoolSize());
+  }
+
+  @Test
+  public void testRead_MalformedListFallsBack() throws IOException {
+    createFile(CpuTopology.CPU_DIR + "/possible", "0-3\n");
+    createFile(CpuTopology.CPU_DIR + "/online", "3-1\n");
+
+    CpuTopology topology = CpuTopology.read(tempDir, 4);
+
+    assertFalse(topology.isFromSysfs());
+    assertEquals(4, topology.getOnlineCount());
+  }
+
+  @Test
+  public void testRead_FallsBackToProcessorLimit() {
+    CpuTopology topology = CpuTopology.read(tempDir, 3);
+
+    assertFalse(topology.isFromSysfs());
+    assertEquals(3, topology.getOnlineCount());
+  }
+}
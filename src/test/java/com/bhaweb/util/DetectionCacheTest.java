@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for DetectionCache.
+ */
+public class DetectionCacheTest
+{
+
+  private static final DetectionCache.Key KEY = new DetectionCache.Key("0f1e2d3c", "6.6.31+rpt-rpi-v8", "config");
+
+  @TempDir
+  Path tempDir;
+
+  private static DetectionResult pi4() {
+    return new DetectionResult(true, DetectionResult.Source.DEVICE_TREE_MODEL, "ARMv7 Processor rev 3 (v7l)",
+        "Raspberry Pi 4 Model B Rev 1.4", PiRevision.decode(0xc03114).orElseThrow(),
+        ArmFeatures.parse("fp asimd evtstrm crc32 cpuid"));
+  }
+
+  @Test
+  public void testWriteAndRead() {
+    Path file = tempDir.resolve("detection.bin");
+
+    assertTrue(DetectionCache.write(file, KEY, pi4()));
+    DetectionResult result = DetectionCache.read(file, KEY);
+
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.DEVICE_TREE_MODEL, result.getSource());
+    assertEquals("ARMv7 Processor rev 3 (v7l)", result.getModel());
+    assertEquals("Raspberry Pi 4 Model B Rev 1.4", result.getBoardModel());
+    assertEquals(0xc03114, result.getRevision().orElseThrow().getCode());
+    assertEquals(pi4().getArmFeatures(), result.getArmFeatures());
+    assertFalse(Files.exists(tempDir.resolve("detection.bin.tmp")));
+  }
+
+  @Test
+  public void testRead_NotRaspberryPi() {
+    Path file = tempDir.resolve("detection.bin");
+
+    DetectionCache.write(file, KEY, DetectionResult.notRaspberryPi(DetectionResult.Source.CPU_INFO));
+    DetectionResult result = DetectionCache.read(file, KEY);
+
+    assertFalse(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.CPU_INFO, result.getSource());
+    assertTrue(result.getRevision().isEmpty());
+  }
+
+  @Test
+  public void testRead_Misses() throws IOException {
+    Path file = tempDir.resolve("detection.bin");
+    assertNull(DetectionCache.read(file, KEY));
+
+    DetectionCache.write(file, KEY, pi4());
+    assertNull(DetectionCache.read(file, new DetectionCache.Key("other boot", "6.6.31+rpt-rpi-v8", "config")));
+    assertNull(DetectionCache.read(file, new DetectionCache.Key("0f1e2d3c", "6.12.0", "config")));
+    assertNull(DetectionCache.read(file, new DetectionCache.Key("0f1e2d3c", "6.6.31+rpt-rpi-v8", "other")));
+
+    // Truncated, from another version or with trailing garbage
+    byte[] bytes = DetectionCache.encode(KEY, pi4());
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+    assertNull(DetectionCache.read(file, KEY));
+    ByteBuffer otherVersion = ByteBuffer.wrap(bytes.clone());
+    otherVersion.putShort(4, (short) (DetectionCache.VERSION + 1));
+    Files.write(file, otherVersion.array());
+    assertNull(DetectionCache.read(file, KEY));
+    Files.write(file, Arrays.copyOf(bytes, bytes.length + 1));
+    assertNull(DetectionCache.read(file, KEY));
+  }
+
+  @Test
+  public void testKeyRead() throws IOException {
+    Path bootId = Files.writeString(tempDir.resolve("boot_id"), "0f1e2d3c\n");
+    Path release = Files.writeString(tempDir.resolve("osrelease"), "6.6.31+rpt-rpi-v8\n");
+
+    assertEquals(KEY, DetectionCache.Key.read(bootId, release, "config"));
+    assertNull(DetectionCache.Key.read(tempDir.resolve("missing"), release, "config"));
+  }
+}
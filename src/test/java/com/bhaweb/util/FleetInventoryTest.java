@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for FleetInventory.
+ */
+public class FleetInventoryTest
+{
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final String PI_ZERO_W_CPU_INFO = """
+      processor\t: 0
+      model name\t: ARMv6-compatible processor rev 7 (v6l)
+      Hardware\t: BCM2835
+      Revision\t: 9000c1
+      Model\t\t: Raspberry Pi Zero W Rev 1.1
+      """;
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final String X86_CPU_INFO = """
+      processor\t: 0
+      vendor_id\t: GenuineIntel
+      model name\t: Intel(R) Xeon(R) CPU
+
+      processor\t: 1
+      vendor_id\t: GenuineIntel
+      model name\t: Intel(R) Xeon(R) CPU
+      """;
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void createGzipFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testSplit() throws IOException {
+    String concatenated = "==> device-1 <==\n" + CpuInfoTest.PI_4_CPU_INFO + "\n==> device-2 <==\n" + X86_CPU_INFO
+        + PI_ZERO_W_CPU_INFO + CpuInfoTest.PI_4_CPU_INFO;
+    List<CpuInfoFields> dumps = new ArrayList<>();
+
+    FleetInventory.split(Channels.newChannel(
+        new ByteArrayInputStream(concatenated.getBytes(StandardCharsets.UTF_8))),
+        dump -> dumps.add(FleetInventory.parse(dump)));
+
+    assertEquals(4, dumps.size());
+    assertEquals(2, dumps.get(0).getProcessorCount());
+    assertEquals(2, dumps.get(1).getProcessorCount());
+    assertEquals("9000c1", dumps.get(2).getRevision());
+    assertEquals("c03114", dumps.get(3).getRevision());
+  }
+
+  @Test
+  public void testAnalyze_Directory() throws IOException {
+    createFile("site-a/pi4-1.txt", CpuInfoTest.PI_4_CPU_INFO);
+    createFile("site-a/zero.txt", PI_ZERO_W_CPU_INFO);
+    createFile("site-b/server.txt", X86_CPU_INFO);
+    createGzipFile("site-b/archive.gz", CpuInfoTest.PI_4_CPU_INFO + CpuInfoTest.PI_4_CPU_INFO);
+
+    FleetInventory.Report report = FleetInventory.analyze(tempDir, new ForkJoinPool(2));
+
+    assertEquals(5, report.getDumpCount());
+    assertEquals(4, report.getRaspberryPiCount());
+    assertEquals(Map.of("Raspberry Pi 4 Model B Rev 1.4", 3L, "Raspberry Pi Zero W Rev 1.1", 1L), report.getModels());
+    assertEquals(List.of("BCM2711", "BCM2835"), List.copyOf(report.getSocs().keySet()));
+    assertEquals(Map.of("4096 MB", 3L, "512 MB", 1L), report.getMemory());
+    assertEquals(3L, report.getRevisions().get("c03114"));
+    assertTrue(report.getDumpsPerSecond() > 0);
+  }
+
+  @Test
+  public void testAnalyze_ConcatenatedFile() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1500; i++) {
+      content.append(i % 3 == 0 ? PI_ZERO_W_CPU_INFO : CpuInfoTest.PI_4_CPU_INFO);
+    }
+    createGzipFile("fleet.gz", content.toString());
+
+    FleetInventory.Report report = FleetInventory.analyze(tempDir.resolve("fleet.gz"), new ForkJoinPool(3));
+
+    assertEquals(1500, report.getDumpCount());
+    assertEquals(1500, report.getRaspberryPiCount());
+    assertEquals(500L, report.getSocs().get("BCM2835"));
+    assertEquals(1000L, report.getSocs().get("BCM2711"));
+  }
+
+  @Test
+  public void testAnalyze_Missing() {
+    assertThrows(IOException.class, () -> FleetInventory.analyze(tempDir.resolve("missing")));
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for JfrEvents.
+ */
+public class JfrEventsTest
+{
+
+  private static final String DETECTION = "com.bhaweb.util.Detection";
+  private static final String BOARD = "com.bhaweb.util.Board";
+  private static final String HARDWARE_STATE = "com.bhaweb.util.HardwareState";
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private RaspberryPiDetector createPi4() throws IOException {
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    createFile("proc/cpuinfo", "processor\t: 0\nFeatures\t: fp asimd crc32\nHardware\t: BCM2835\n"
+        + "Revision\t: c03114\nModel\t\t: Raspberry Pi 4 Model B Rev 1.4\n");
+    createFile("sys/class/thermal/thermal_zone0/temp", "61500\n");
+    createFile("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "1500000\n");
+    createFile(ThrottleMonitor.THROTTLED_PATH, "0x50005\n");
+    return RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+  }
+
+  private List<RecordedEvent> events(Recording recording, String name) throws IOException {
+    Path file = tempDir.resolve(name + ".jfr");
+    recording.dump(file);
+    return RecordingFile.readAllEvents(file).stream()
+        .filter(event -> event.getEventType().getName().equals(name))
+        .collect(Collectors.toList());
+  }
+
+  @AfterEach
+  public void unregister() {
+    JfrEvents.unregister();
+  }
+
+  @Test
+  public void testIsAvailable() {
+    assertTrue(JfrEvents.isAvailable());
+  }
+
+  @Test
+  public void testDetection_NotRecorded() throws IOException {
+    RaspberryPiDetector detector = createPi4();
+
+    try (Recording recording = new Recording()) {
+      recording.start();
+      assertNull(JfrEvents.beginDetection());
+      detector.detection();
+      recording.stop();
+      assertTrue(events(recording, DETECTION).isEmpty());
+    }
+  }
+
+  @Test
+  public void testDetection() throws IOException {
+    createPi4();
+    createFile("proc/sys/kernel/random/boot_id", "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0\n");
+    createFile("proc/sys/kernel/osrelease", "6.6.31+rpt-rpi-v8\n");
+    RaspberryPiDetector.Builder builder = RaspberryPiDetector.builder().root(tempDir).osName("Linux")
+        .cacheFile(tempDir.resolve("cache/detection.bin"));
+
+    try (Recording recording = new Recording()) {
+      recording.enable(DETECTION).withThreshold(Duration.ZERO);
+      recording.start();
+      builder.build().detection();
+      builder.build().detection();
+      recording.stop();
+
+      List<RecordedEvent> events = events(recording, DETECTION);
+      assertEquals(2, events.size());
+      RecordedEvent detected = events.get(0);
+      assertTrue(detected.getBoolean("raspberryPi"));
+      assertEquals("DEVICE_TREE_MODEL", detected.getString("source"));
+      assertEquals("Raspberry Pi 4 Model B Rev 1.4", detected.getString("model"));
+      assertFalse(detected.getBoolean("cached"));
+      assertTrue(events.get(1).getBoolean("cached"));
+    }
+  }
+
+  @Test
+  public void testPeriodicEvents() throws IOException, InterruptedException {
+    RaspberryPiDetector detector = createPi4();
+    ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).build();
+    JfrEvents.register(detector, monitor);
+
+    try (Recording recording = new Recording()) {
+      recording.enable(BOARD);
+      recording.enable(HARDWARE_STATE).withPeriod(Duration.ofMillis(20));
+      recording.start();
+      Thread.sleep(200);
+      recording.stop();
+
+      List<RecordedEvent> boards = events(recording, BOARD);
+      assertFalse(boards.isEmpty());
+      RecordedEvent board = boards.get(0);
+      assertTrue(board.getBoolean("raspberryPi"));
+      assertEquals("c03114", board.getString("revision"));
+      assertEquals("4B", board.getString("boardType"));
+      assertEquals("BCM2711", board.getString("soc"));
+      assertEquals(4096L * 1024 * 1024, board.getLong("memory"));
+      assertEquals(ArmFeatures.parse("fp asimd crc32").getNames(), board.getString("armFeatures"));
+
+      List<RecordedEvent> states = events(recording, HARDWARE_STATE);
+      assertFalse(states.isEmpty());
+      RecordedEvent state = states.get(0);
+      assertEquals(61.5, state.getDouble("maxTemperature"), 1e-9);
+      assertEquals(1_500_000_000L, state.getLong("maxFrequency"));
+      assertEquals(0x50005, state.getInt("throttledBits"));
+      assertTrue(state.getBoolean("underVoltage"));
+      assertFalse(state.getBoolean("frequencyCapped"));
+      assertTrue(state.getBoolean("throttled"));
+    } finally {
+      JfrEvents.unregister();
+      monitor.close();
+    }
+  }
+}
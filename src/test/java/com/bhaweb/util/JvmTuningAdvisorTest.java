@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for JvmTuningAdvisor.
+ */
+public class JvmTuningAdvisorTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRecommend_PiZero2W() {
+    JvmTuningAdvisor.Recommendation recommendation = JvmTuningAdvisor.recommend(427, false, 4);
+
+    assertEquals(JvmTuningAdvisor.GarbageCollector.SERIAL, recommendation.getGarbageCollector());
+    assertEquals(1, recommendation.getTieredStopAtLevel());
+    assertEquals(List.of("-Xmx170m", "-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1", "-XX:CICompilerCount=1",
+        "-XX:ReservedCodeCacheSize=32m"), recommendation.toFlags());
+  }
+
+  @Test
+  public void testRecommend_Pi5With8Gb() {
+    JvmTuningAdvisor.Recommendation recommendation = JvmTuningAdvisor.recommend(8048, false, 4);
+
+    assertEquals(List.of("-Xmx4828m", "-XX:+UseG1GC", "-XX:CICompilerCount=2", "-XX:ReservedCodeCacheSize=240m"),
+        recommendation.toFlags());
+    assertEquals(4, recommendation.getTieredStopAtLevel());
+  }
+
+  @Test
+  public void testRecommend_SingleCpuContainer() {
+    JvmTuningAdvisor.Recommendation recommendation = JvmTuningAdvisor.recommend(4096, true, 1);
+
+    assertEquals(3072, recommendation.getMaxHeapMb());
+    assertEquals(JvmTuningAdvisor.GarbageCollector.SERIAL, recommendation.getGarbageCollector());
+    assertEquals(1, recommendation.getCompilerCount());
+  }
+
+  @Test
+  public void testRecommend_ReadsMemInfoAndCgroupLimit() throws IOException {
+    createFile("proc/meminfo", "MemTotal:        3884096 kB\nMemFree:          123456 kB\n");
+    createFile("proc/self/cgroup", "0::/system.slice/app.service\n");
+    createFile("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+    createFile("sys/fs/cgroup/system.slice/app.service/memory.max", "1073741824\n");
+
+    JvmTuningAdvisor.Recommendation recommendation = JvmTuningAdvisor.builder().root(tempDir).cpuCount(4).build()
+        .recommend().orElseThrow();
+
+    assertEquals(1024, recommendation.getMemoryMb());
+    assertTrue(recommendation.isMemoryLimited());
+    assertEquals(768, recommendation.getMaxHeapMb());
+
+    createFile("sys/fs/cgroup/system.slice/app.service/memory.max", "max\n");
+    recommendation = JvmTuningAdvisor.builder().root(tempDir).cpuCount(4).build().recommend().orElseThrow();
+    assertEquals(3793, recommendation.getMemoryMb());
+    assertFalse(recommendation.isMemoryLimited());
+    assertEquals(JvmTuningAdvisor.GarbageCollector.G1, recommendation.getGarbageCollector());
+  }
+
+  @Test
+  public void testRecommend_FallsBackToBoardRevision() throws IOException {
+    createFile("proc/cpuinfo", "processor\t: 0\nHardware\t: BCM2835\nRevision\t: 902120\n");
+
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    JvmTuningAdvisor.Recommendation recommendation = JvmTuningAdvisor.builder().root(tempDir).detector(detector)
+        .cpuCount(4).build().recommend().orElseThrow();
+
+    // Zero 2 W, 512 MB
+    assertEquals(512, recommendation.getMemoryMb());
+    assertEquals(204, recommendation.getMaxHeapMb());
+  }
+
+  @Test
+  public void testRecommend_UnknownMemory() throws IOException {
+    // A cgroup limit, but neither meminfo nor a Pi revision to tell the machine's memory
+    createFile("proc/self/cgroup", "0::/system.slice/app.service\n");
+    createFile("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+    createFile("sys/fs/cgroup/system.slice/app.service/memory.max", "1073741824\n");
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+
+    assertEquals(Optional.empty(),
+        JvmTuningAdvisor.builder().root(tempDir).detector(detector).cpuCount(4).build().recommend());
+  }
+
+  @Test
+  public void testBuilder_Validation() {
+    assertThrows(IllegalArgumentException.class, () -> JvmTuningAdvisor.builder().memoryMb(0));
+    assertThrows(IllegalArgumentException.class, () -> JvmTuningAdvisor.builder().cpuCount(0));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for MarkerMatcher.
+ */
+public class MarkerMatcherTest
+{
+
+  @Test
+  public void testFind_Bytes() {
+    MarkerMatcher matcher = new MarkerMatcher(RaspberryPiDetector.RASPBERRY_PI_HARDWARE_MARKERS);
+    byte[] bytes = "Hardware\t: BCM2711\n".getBytes(StandardCharsets.US_ASCII);
+
+    assertEquals(3, matcher.find(bytes, 0, bytes.length));
+    // The marker is cut off by the end of the range
+    assertEquals(-1, matcher.find(bytes, 0, bytes.length - 2));
+  }
+
+  @Test
+  public void testFind_OverlappingMarkers() {
+    MarkerMatcher matcher = new MarkerMatcher("abcd", "bc", "cde");
+
+    // "bc" completes before "abcd" and is reported first
+    assertEquals(1, matcher.find("xabcdx", 0, 6));
+    assertEquals(2, matcher.find("abcde", 2, 5));
+    // Failure links restart matching inside a partial match
+    assertEquals(0, new MarkerMatcher("abcd").find("ababcd", 0, 6));
+    assertFalse(matcher.matches("acbd"));
+  }
+
+  @Test
+  public void testFindPrefix_LongestWins() {
+    MarkerMatcher matcher = new MarkerMatcher("pi,", "pi,3-model-b", "pi,3-model-b-plus", "brcm,");
+    byte[] bytes = "pi,3-model-b-plus".getBytes(StandardCharsets.US_ASCII);
+
+    assertEquals(2, matcher.findPrefix(bytes, 0, bytes.length));
+    assertEquals(1, matcher.findPrefix("pi,3-model-b", 0, 12));
+    assertEquals(0, matcher.findPrefix("pi,4-model-b", 0, 12));
+    // Markers occurring later in the text are not prefixes
+    assertEquals(-1, matcher.findPrefix("x,brcm,bcm2712", 0, 14));
+    assertEquals(3, matcher.findPrefix("x,brcm,bcm2712", 2, 14));
+    assertEquals(-1, matcher.findPrefix("pi", 0, 2));
+  }
+
+  @Test
+  public void testFind_NonAsciiRestarts() {
+    MarkerMatcher matcher = new MarkerMatcher("BCM2835");
+
+    assertTrue(matcher.matches("Hardware: BCM2835"));
+    assertFalse(matcher.matches("BCM\u00e92835"));
+    byte[] bytes = {'B', 'C', 'M', (byte) 0xC3, '2', '8', '3', '5'};
+    assertEquals(-1, matcher.find(bytes, 0, bytes.length));
+  }
+
+  @Test
+  public void testConstructor_InvalidMarkers() {
+    assertThrows(IllegalArgumentException.class, () -> new MarkerMatcher(""));
+    assertThrows(IllegalArgumentException.class, () -> new MarkerMatcher("caf\u00e9"));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for MemInfo.
+ */
+public class MemInfoTest
+{
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final String PI_4_MEM_INFO = """
+      MemTotal:        1891540 kB
+      MemFree:          986444 kB
+      MemAvailable:    1398932 kB
+      Buffers:           40180 kB
+      Cached:           493616 kB
+      SwapCached:            0 kB
+      Active:           321040 kB
+      Inactive:         390804 kB
+      Active(anon):       2640 kB
+      SwapTotal:        102396 kB
+      SwapFree:          76797 kB
+      Dirty:                56 kB
+      Shmem:             19428 kB
+      HugePages_Total:       0
+      CmaTotal:         262144 kB
+      CmaFree:          250276 kB
+      """;
+
+  @TempDir
+  Path tempDir;
+
+  private Path write(String content) throws IOException {
+    return Files.write(tempDir.resolve("meminfo"), content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testSample() throws IOException {
+    try (MemInfo memInfo = MemInfo.open(write(PI_4_MEM_INFO))) {
+      assertEquals(-1, memInfo.getTotalKb());
+      assertTrue(Double.isNaN(memInfo.getUsedFraction()));
+
+      assertTrue(memInfo.sample());
+      assertEquals(1891540, memInfo.getTotalKb());
+      assertEquals(1398932, memInfo.getAvailableKb());
+      assertEquals(321040, memInfo.get(MemInfo.Field.ACTIVE));
+      assertEquals(250276, memInfo.get(MemInfo.Field.CMA_FREE));
+      assertEquals(-1, memInfo.get(MemInfo.Field.SLAB));
+      assertEquals(1.0 - 1398932.0 / 1891540, memInfo.getUsedFraction(), 1e-12);
+      assertEquals(0.25, memInfo.getSwapUsedFraction(), 1e-3);
+
+      write(PI_4_MEM_INFO.replace("1398932", "  99999"));
+      assertTrue(memInfo.sample());
+      assertEquals(99999, memInfo.getAvailableKb());
+    }
+  }
+
+  @Test
+  public void testSample_EstimatesAvailableOnOldKernels() throws IOException {
+    try (MemInfo memInfo = MemInfo.open(write("MemTotal: 500000 kB\nMemFree: 100000 kB\nBuffers: 20000 kB\n"
+        + "Cached: 80000 kB\nSwapTotal: 0 kB\nSwapFree: 0 kB\n"))) {
+      assertTrue(memInfo.sample());
+      assertEquals(-1, memInfo.get(MemInfo.Field.MEM_AVAILABLE));
+      assertEquals(200000, memInfo.getAvailableKb());
+      assertEquals(0.6, memInfo.getUsedFraction(), 1e-12);
+      assertEquals(0.0, memInfo.getSwapUsedFraction());
+    }
+  }
+
+  @Test
+  public void testSample_UnparseableValue() throws IOException {
+    try (MemInfo memInfo = MemInfo.open(write(PI_4_MEM_INFO.replace("1891540", "garbage")))) {
+      assertTrue(memInfo.sample());
+      assertEquals(-1, memInfo.getTotalKb());
+      assertTrue(Double.isNaN(memInfo.getUsedFraction()));
+    }
+  }
+
+  @Test
+  public void testSample_LargerThanBuffer() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      content.append("Padding").append(i).append(":   1 kB\n");
+    }
+    content.append("MemTotal: 123 kB\n");
+
+    try (MemInfo memInfo = MemInfo.open(write(content.toString()))) {
+      assertTrue(memInfo.sample());
+      assertEquals(123, memInfo.getTotalKb());
+    }
+  }
+
+  @Test
+  public void testOpen_Missing() {
+    assertThrows(IOException.class, () -> MemInfo.open(tempDir.resolve("missing")));
+  }
+
+  @Test
+  public void testSample_Closed() throws IOException {
+    MemInfo memInfo = MemInfo.open(write(PI_4_MEM_INFO));
+    memInfo.close();
+    assertFalse(memInfo.sample());
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for PiRevision.
+ */
+public class PiRevisionTest
+{
+
+  @Test
+  public void testParse_Pi4B() {
+    PiRevision revision = PiRevision.parse("c03114").orElseThrow();
+
+    assertTrue(revision.isNewStyle());
+    assertEquals(0xc03114, revision.getCode());
+    assertEquals(PiRevision.BoardType.PI_4B, revision.getBoardType());
+    assertEquals(0x11, revision.getBoardTypeCode());
+    assertEquals(PiRevision.Soc.BCM2711, revision.getSoc().orElseThrow());
+    assertEquals(4096, revision.getMemoryMb());
+    assertEquals("Sony UK", revision.getManufacturer());
+    assertEquals("1.4", revision.getPcbRevision());
+  }
+
+  @Test
+  public void testParse_Pi5AndZero2W() {
+    PiRevision pi5 = PiRevision.parse("0xd04170").orElseThrow();
+    assertEquals(PiRevision.BoardType.PI_5, pi5.getBoardType());
+    assertEquals(PiRevision.Soc.BCM2712, pi5.getSoc().orElseThrow());
+    assertEquals(8192, pi5.getMemoryMb());
+
+    PiRevision zero2 = PiRevision.parse("902120").orElseThrow();
+    assertEquals(PiRevision.BoardType.ZERO_2_W, zero2.getBoardType());
+    assertEquals(PiRevision.Soc.BCM2837, zero2.getSoc().orElseThrow());
+    assertEquals(512, zero2.getMemoryMb());
+    assertEquals("Sony UK", zero2.getManufacturer());
+  }
+
+  @Test
+  public void testParse_OldStyle() {
+    PiRevision revision = PiRevision.parse("000e").orElseThrow();
+    assertFalse(revision.isNewStyle());
+    assertEquals(PiRevision.BoardType.B, revision.getBoardType());
+    assertEquals(PiRevision.Soc.BCM2835, revision.getSoc().orElseThrow());
+    assertEquals(512, revision.getMemoryMb());
+    assertEquals("2.0", revision.getPcbRevision());
+
+    // Warranty bit set on an old-style code
+    PiRevision warrantyVoid = PiRevision.parse("1000010").orElseThrow();
+    assertEquals(PiRevision.BoardType.B_PLUS, warrantyVoid.getBoardType());
+    assertEquals("1.2", warrantyVoid.getPcbRevision());
+  }
+
+  @Test
+  public void testParse_UnknownOrInvalid() {
+    assertTrue(PiRevision.parse("").isEmpty());
+    assertTrue(PiRevision.parse("xyz").isEmpty());
+    assertTrue(PiRevision.parse("123456789").isEmpty());
+    assertTrue(PiRevision.parse("000a").isEmpty());
+    // Unassigned memory size
+    assertTrue(PiRevision.decode(0xf03114).isEmpty());
+    // Internal board type code
+    assertEquals(PiRevision.BoardType.UNKNOWN, PiRevision.decode(0xa020f0).orElseThrow().getBoardType());
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for PlatformInfo.
+ */
+public class PlatformInfoTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private PlatformInfo.Builder createPi4() throws IOException {
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    createFile("proc/cpuinfo", "processor\t: 0\nFeatures\t: fp asimd crc32\nHardware\t: BCM2835\n"
+        + "Revision\t: c03114\n");
+    createFile("proc/meminfo", "MemTotal: 4000000 kB\nMemAvailable: 1000000 kB\nSwapTotal: 0 kB\nSwapFree: 0 kB\n");
+    createFile("proc/stat", "cpu  100 0 0 100 0 0 0 0 0 0\ncpu0 100 0 0 100 0 0 0 0 0 0\n");
+    createFile("proc/pressure/memory", "some avg10=12.50 avg60=3.00 avg300=1.00 total=4200\n"
+        + "full avg10=0.00 avg60=0.00 avg300=0.00 total=0\n");
+    createFile("sys/class/thermal/thermal_zone0/temp", "61500\n");
+    createFile("sys/devices/system/cpu/online", "0\n");
+    createFile("sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq", "1800000\n");
+    createFile("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "1500000\n");
+    createFile(ThrottleMonitor.THROTTLED_PATH, "0x50005\n");
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    return PlatformInfo.builder().root(tempDir).detector(detector);
+  }
+
+  @Test
+  public void testAttributes() throws IOException {
+    try (PlatformInfo info = createPi4().build()) {
+      assertTrue(info.isRaspberryPi());
+      assertEquals("Raspberry Pi 4 Model B Rev 1.4", info.getBoardModel());
+      assertEquals("c03114", info.getRevisionCode());
+      assertEquals("4B", info.getBoardType());
+      assertEquals("BCM2711", info.getSoc());
+      assertEquals(4096, info.getBoardMemoryMb());
+      assertEquals("fp asimd crc32", info.getArmFeatures());
+
+      assertEquals(61.5, info.getTemperatureCelsius(), 1e-9);
+      assertEquals(1500000, info.getFrequencyKHz());
+      assertEquals(1800000, info.getMaxFrequencyKHz());
+      assertEquals(0x50005, info.getThrottledBits());
+      assertTrue(info.isUnderVoltage());
+      assertFalse(info.isFrequencyCapped());
+      assertTrue(info.isThrottled());
+      assertFalse(info.isSoftTemperatureLimit());
+
+      assertEquals(4000000L * 1024, info.getMemoryTotalBytes());
+      assertEquals(1000000L * 1024, info.getMemoryAvailableBytes());
+      assertEquals(0.75, info.getMemoryUsedFraction(), 1e-9);
+      assertEquals(0.0, info.getSwapUsedFraction(), 1e-9);
+      assertEquals(12.5, info.getMemoryPressure(), 1e-9);
+      // Utilization needs two samples
+      assertTrue(Double.isNaN(info.getCpuUtilization()));
+    }
+  }
+
+  @Test
+  public void testAttributes_ServedFromSample() throws IOException {
+    try (PlatformInfo info = createPi4().build()) {
+      createFile("sys/class/thermal/thermal_zone0/temp", "70000\n");
+      createFile("proc/stat", "cpu  200 0 0 150 0 0 0 0 0 0\ncpu0 200 0 0 150 0 0 0 0 0 0\n");
+      assertEquals(61.5, info.getTemperatureCelsius(), 1e-9);
+      assertTrue(Double.isNaN(info.getCpuUtilization()));
+
+      info.sample();
+      assertEquals(70.0, info.getTemperatureCelsius(), 1e-9);
+      assertEquals(100.0 / 150, info.getCpuUtilization(), 1e-9);
+      assertTrue(info.getSampleAgeMillis() >= 0);
+    }
+  }
+
+  @Test
+  public void testAttributes_MissingFiles() throws IOException {
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+    try (PlatformInfo info = PlatformInfo.builder().root(tempDir).detector(detector).build()) {
+      assertFalse(info.isRaspberryPi());
+      assertEquals("", info.getRevisionCode());
+      assertEquals("", info.getSoc());
+      assertEquals(-1, info.getBoardMemoryMb());
+      assertTrue(Double.isNaN(info.getTemperatureCelsius()));
+      assertEquals(-1, info.getFrequencyKHz());
+      assertEquals(-1, info.getThrottledBits());
+      assertEquals(-1, info.getMemoryTotalBytes());
+      assertTrue(Double.isNaN(info.getMemoryUsedFraction()));
+      assertTrue(Double.isNaN(info.getMemoryPressure()));
+    }
+  }
+
+  @Test
+  public void testMXBean() throws IOException, JMException {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    ObjectName name = PlatformInfo.objectName();
+    try (PlatformInfo info = createPi4().build()) {
+      server.registerMBean(info, name);
+      assertEquals("BCM2711", server.getAttribute(name, "Soc"));
+      assertEquals(61.5, (Double) server.getAttribute(name, "TemperatureCelsius"), 1e-9);
+      assertEquals(Boolean.TRUE, server.getAttribute(name, "UnderVoltage"));
+      assertEquals(0x50005, server.getAttribute(name, "ThrottledBits"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void testStart() throws IOException, InterruptedException {
+    try (PlatformInfo info = createPi4().interval(Duration.ofMillis(10)).build()) {
+      assertSame(info, info.start());
+      createFile("sys/class/thermal/thermal_zone0/temp", "70000\n");
+      long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (info.getTemperatureCelsius() != 70.0 && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(70.0, info.getTemperatureCelsius(), 1e-9);
+    }
+  }
+
+  @Test
+  public void testHistory() throws IOException {
+    SampleHistory history = SampleHistory.allocate(10);
+    try (PlatformInfo info = createPi4().history(history).build()) {
+      createFile("sys/class/thermal/thermal_zone0/temp", "70000\n");
+      info.sample();
+    }
+    assertEquals(2, history.size());
+    SampleHistory.Stats stats = history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, Long.MAX_VALUE);
+    assertEquals(61.5, stats.getMin(), 1e-6);
+    assertEquals(70.0, stats.getMax(), 1e-6);
+    assertEquals(0.75, history.stats(SampleHistory.Column.MEMORY_USED_FRACTION, 0, Long.MAX_VALUE).getMax(), 1e-6);
+  }
+
+  @Test
+  public void testRegister() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      PlatformInfo info = PlatformInfo.register();
+      assertSame(info, PlatformInfo.register());
+      assertTrue(server.isRegistered(PlatformInfo.objectName()));
+    } finally {
+      PlatformInfo.unregister();
+    }
+    assertFalse(server.isRegistered(PlatformInfo.objectName()));
+  }
+
+  @Test
+  public void testClose() throws IOException {
+    PlatformInfo info = createPi4().build();
+    info.close();
+    assertThrows(IllegalStateException.class, info::sample);
+    assertThrows(IllegalStateException.class, info::start);
+    // The latest sample stays available
+    assertEquals(61.5, info.getTemperatureCelsius(), 1e-9);
+  }
+
+  @Test
+  public void testBuilder_InvalidInterval() {
+    assertThrows(IllegalArgumentException.class, () -> PlatformInfo.builder().interval(Duration.ZERO));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for PressureMonitor.
+ */
+public class PressureMonitorTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void writePressure(String resource, long someTotal, long fullTotal) throws IOException {
+    Path file = tempDir.resolve(PressureMonitor.PRESSURE_DIR).resolve(resource);
+    Files.createDirectories(file.getParent());
+    String content = "some avg10=12.34 avg60=0.5 avg300=100.00 total=" + someTotal + "\n"
+        + "full avg10=0.00 avg60=0.00 avg300=0.00 total=" + fullTotal + "\n";
+    Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testSample() throws IOException {
+    writePressure("cpu", 1041276, 0);
+    writePressure("memory", 5000, 2000);
+
+    try (PressureMonitor monitor = PressureMonitor.builder().root(tempDir).build()) {
+      assertTrue(monitor.isSupported(PressureMonitor.Resource.CPU));
+      assertFalse(monitor.isSupported(PressureMonitor.Resource.IO));
+      assertTrue(Double.isNaN(monitor.getAverage(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME, 10)));
+
+      assertTrue(monitor.sample());
+      assertEquals(12.34, monitor.getAverage(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME, 10), 1e-9);
+      assertEquals(0.5, monitor.getAverage(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME, 60), 1e-9);
+      assertEquals(100.0, monitor.getAverage(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME, 300), 1e-9);
+      assertEquals(1041276, monitor.getTotalMicros(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME));
+      assertEquals(2000, monitor.getTotalMicros(PressureMonitor.Resource.MEMORY, PressureMonitor.Kind.FULL));
+      assertEquals(-1, monitor.getTotalMicros(PressureMonitor.Resource.IO, PressureMonitor.Kind.SOME));
+      assertThrows(IllegalArgumentException.class,
+          () -> monitor.getAverage(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME, 30));
+    }
+  }
+
+  @Test
+  public void testSample_CpuWithoutFullLine() throws IOException {
+    Path file = tempDir.resolve("cpu.pressure");
+    Files.write(file, "some avg10=1.00 avg60=2.00 avg300=3.00 total=42\n".getBytes(StandardCharsets.US_ASCII));
+
+    try (PressureMonitor monitor = PressureMonitor.builder().root(tempDir)
+        .path(PressureMonitor.Resource.CPU, file).build()) {
+      monitor.sample();
+      assertEquals(42, monitor.getTotalMicros(PressureMonitor.Resource.CPU, PressureMonitor.Kind.SOME));
+      assertEquals(-1, monitor.getTotalMicros(PressureMonitor.Resource.CPU, PressureMonitor.Kind.FULL));
+    }
+  }
+
+  @Test
+  public void testTrigger() throws IOException {
+    writePressure("memory", 1000, 0);
+    List<Long> stalls = new ArrayList<>();
+
+    try (PressureMonitor monitor = PressureMonitor.builder().root(tempDir).build()) {
+      PressureMonitor.Trigger trigger = monitor.addTrigger(PressureMonitor.Resource.MEMORY,
+          PressureMonitor.Kind.SOME, Duration.ofMillis(100), Duration.ofMinutes(1),
+          (fired, stallMicros) -> stalls.add(stallMicros));
+      monitor.sample();
+      assertEquals(List.of(), stalls);
+
+      writePressure("memory", 51000, 0);
+      monitor.sample();
+      assertEquals(List.of(), stalls);
+
+      writePressure("memory", 151000, 0);
+      monitor.sample();
+      assertEquals(List.of(150000L), stalls);
+
+      // at most once per window
+      writePressure("memory", 500000, 0);
+      monitor.sample();
+      assertEquals(List.of(150000L), stalls);
+
+      trigger.close();
+      assertEquals(Duration.ofMillis(100), trigger.getThreshold());
+    }
+  }
+
+  @Test
+  public void testTrigger_Window() throws IOException {
+    writePressure("io", 0, 0);
+
+    try (PressureMonitor monitor = PressureMonitor.builder().root(tempDir).build()) {
+      PressureMonitor.Trigger trigger = monitor.addTrigger(PressureMonitor.Resource.IO,
+          PressureMonitor.Kind.FULL, Duration.ofMillis(100), Duration.ofSeconds(1), (fired, stallMicros) -> { });
+
+      // stalls spread over more than the window do not add up
+      assertEquals(-1, trigger.update(0, 0));
+      assertEquals(-1, trigger.update(600_000_000L, 60_000));
+      assertEquals(-1, trigger.update(1_200_000_000L, 120_000));
+      assertEquals(-1, trigger.update(1_800_000_000L, 180_000));
+      assertEquals(110_000, trigger.update(2_000_000_000L, 230_000));
+      assertEquals(-1, trigger.update(2_500_000_000L, 400_000));
+      assertEquals(300_000, trigger.update(3_000_000_000L, 530_000));
+    }
+  }
+
+  @Test
+  public void testAddTrigger_Invalid() throws IOException {
+    try (PressureMonitor monitor = PressureMonitor.builder().root(tempDir).build()) {
+      assertThrows(IllegalArgumentException.class, () -> monitor.addTrigger(PressureMonitor.Resource.CPU,
+          PressureMonitor.Kind.SOME, Duration.ofSeconds(2), Duration.ofSeconds(1), (trigger, stall) -> { }));
+      assertThrows(IllegalArgumentException.class, () -> monitor.addTrigger(PressureMonitor.Resource.CPU,
+          PressureMonitor.Kind.SOME, Duration.ZERO, Duration.ofSeconds(1), (trigger, stall) -> { }));
+    }
+  }
+}
@@ -15,21 +15,33 @@
  */
 package com.bhaweb.util;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test class for RaspberryPiDetector.
- * Uses a testable subclass to override system-dependent methods for testing.
+ * Detectors are built against a temporary directory standing in for the file system root.
  */
 public class RaspberryPiDetectorTest
 {
@@ -38,72 +50,60 @@ public class RaspberryPiDetectorTest
   Path tempDir;
 
   /**
-   * Testable subclass of RaspberryPiDetector that overrides system-dependent methods.
+   * Helper method to create a file below the temporary root with the given content.
    */
-  static class TestableRaspberryPiDetector
-      extends RaspberryPiDetector
-  {
-
-    private static boolean isRaspberryPi;
-
-    public static void setup(String cpuInfo) {
-      // Determine if this is a Raspberry Pi based on the CPU info
-      isRaspberryPi = cpuInfo != null && cpuInfo.contains("Hardware") && cpuInfo.contains("BCM");
-    }
-
-    // Override isRaspberryPi for specific tests
-    public static boolean isRaspberryPi() {
-      // For tests that need to force isRaspberryPi to return true
-      // NOTE: Kinda nasty that test method names must contain this prefix, very brittle
-      if (Thread.currentThread().getStackTrace()[2].getMethodName().contains("testGetRaspberryPiModel_")) {
-        return isRaspberryPi;
-      }
-      // Otherwise use the parent implementation
-      return RaspberryPiDetector.isRaspberryPi();
-    }
+  private Path createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
   }
 
   /**
    * Helper method to create a temporary CPU info file with the given content.
    */
-  private File createCpuInfoFile(String content) throws IOException {
-    @SuppressWarnings("SpellCheckingInspection") File cpuInfoFile = tempDir.resolve("cpuinfo").toFile();
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(cpuInfoFile))) {
-      writer.write(content);
-    }
-    return cpuInfoFile;
+  @SuppressWarnings("SpellCheckingInspection")
+  private Path createCpuInfoFile(String content) throws IOException {
+    return createFile("proc/cpuinfo", content);
+  }
+
+  /**
+   * Helper method to build a Linux detector reading below the temporary root.
+   */
+  private RaspberryPiDetector linuxDetector() {
+    return RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
   }
 
   @Test
-  public void testGetRaspberryPiModel_NonLinuxOS() {
-    // Set up the test detector with non-Linux OS
-    TestableRaspberryPiDetector.setup("");
+  public void testGetRaspberryPiModel_NonLinuxOS() throws IOException {
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\n");
+
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Mac OS X").build();
 
     // Test the method
-    assertFalse(TestableRaspberryPiDetector.isRaspberryPi());
+    assertFalse(detector.detection().isRaspberryPi());
+    assertEquals("", detector.detection().getModel());
   }
 
   @Test
-  public void testGetRaspberryPiModel_LinuxNonRaspberryPi() {
+  public void testGetRaspberryPiModel_LinuxNonRaspberryPi() throws IOException {
     // Create CPU info content for a non-Raspberry Pi Linux system
-    String cpuInfo = """
+    createCpuInfoFile("""
         processor\t: 0
         vendor_id\t: GenuineIntel
         cpu family\t: 6
         model\t\t: 142
         model name\t: Intel(R) Core(TM) i7-8565U CPU @ 1.80GHz
         stepping\t: 11
-        Hardware\t: Intel Corporation""";
-
-    // Set up the test detector with Linux OS
-    TestableRaspberryPiDetector.setup(cpuInfo);
+        Hardware\t: Intel Corporation""");
 
     // Test the method
-    assertFalse(TestableRaspberryPiDetector.isRaspberryPi());
+    DetectionResult result = linuxDetector().detection();
+    assertFalse(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.CPU_INFO, result.getSource());
   }
 
   @Test
-  public void testGetRaspberryPiModel_RaspberryPi() {
+  public void testGetRaspberryPiModel_RaspberryPi() throws IOException {
     // Create CPU info content for a Raspberry Pi
     @SuppressWarnings("SpellCheckingInspection") String cpuInfo = """
         processor\t: 0
@@ -121,143 +121,90 @@ public class RaspberryPiDetectorTest
 
     // Test the containsRaspberryPiHardware method directly
     assertTrue(RaspberryPiDetector.containsRaspberryPiHardware(cpuInfo));
+
+    // And detection end to end
+    createCpuInfoFile(cpuInfo);
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals("ARMv7 Processor rev 3 (v7l)", result.getModel());
+    assertEquals(PiRevision.BoardType.PI_4B, result.getRevision().orElseThrow().getBoardType());
   }
 
   @Test
   public void testGetRaspberryPiModel_FileNotExists() {
-    // Set up the test detector with Linux OS and a non-existent file
-    TestableRaspberryPiDetector.setup("");
-
-    // Set up the test detector with the mock file
-    TestableRaspberryPiDetector.setup("");
+    // No CPU info file below the root
+    DetectionResult result = linuxDetector().detection();
 
     // Test the method
-    assertFalse(TestableRaspberryPiDetector.isRaspberryPi());
+    assertFalse(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.NONE, result.getSource());
   }
 
   @Test
-  public void testGetRaspberryPiModel_IOExceptionHandling() {
-    // Set up the test detector to throw IOException
-    TestableRaspberryPiDetector.setup(null);
+  public void testGetRaspberryPiModel_IOExceptionHandling() throws IOException {
+    // A directory exists where the CPU info file is expected, so reading it fails
+    Files.createDirectories(tempDir.resolve("proc/cpuinfo"));
 
     // Test the method
-    assertFalse(TestableRaspberryPiDetector.isRaspberryPi());
+    DetectionResult result = linuxDetector().detection();
+    assertFalse(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.NONE, result.getSource());
   }
 
   @Test
   public void testGetRaspberryPiModel_MissingCPUInfoFile() {
-    TestableRaspberryPiDetector.setup("");
-
-    TestableRaspberryPiDetector.CPU_INFO_PATH = "bogus/path/to/cpuinfo";
+    RaspberryPiDetector detector = RaspberryPiDetector.builder()
+        .root(tempDir)
+        .cpuInfoPath(Path.of("bogus/path/to/cpuinfo"))
+        .osName("linux")
+        .build();
 
-    // Save the original os.name property
-    String origOSName = System.getProperty("os.name");
-    try {
-      // Set the os.name property to a Linux value
-      System.setProperty("os.name", "linux");
-
-      // Test the method
-      assertEquals("", TestableRaspberryPiDetector.getRaspberryPiModel());
-    } finally {
-      // restore os name property
-      System.setProperty("os.name", origOSName);
-      TestableRaspberryPiDetector.CPU_INFO_PATH = RaspberryPiDetector.DEFAULT_CPU_INFO_PATH;
-    }
+    // Test the method
+    assertEquals("", detector.detection().getModel());
   }
 
   @Test
   public void testGetRaspberryPiModel_NotRaspberryPi() throws IOException {
     // Create CPU info content for a non-Raspberry Pi Linux system
-    String cpuInfo = """
+    createCpuInfoFile("""
         processor\t: 0
         vendor_id\t: GenuineIntel
         cpu family\t: 6
         model\t\t: 142
         model name\t: Intel(R) Core(TM) i7-8565U CPU @ 1.80GHz
         stepping\t: 11
-        Hardware\t: Intel Corporation""";
+        Hardware\t: Intel Corporation""");
 
-    // Set up the test detector with Linux OS
-    TestableRaspberryPiDetector.setup(cpuInfo);
-
-    File cpuInfoFile = createCpuInfoFile(cpuInfo);
-    TestableRaspberryPiDetector.CPU_INFO_PATH = cpuInfoFile.getAbsolutePath();
-
-    // Save the original os.name property
-    String origOSName = System.getProperty("os.name");
-    try {
-      // Set the os.name property to a Linux value
-      System.setProperty("os.name", "linux");
-
-      // Test the method
-      assertEquals("", TestableRaspberryPiDetector.getRaspberryPiModel());
-    } finally {
-      // restore os name property
-      System.setProperty("os.name", origOSName);
-      TestableRaspberryPiDetector.CPU_INFO_PATH = RaspberryPiDetector.DEFAULT_CPU_INFO_PATH;
-    }
+    // Test the method
+    assertEquals("", linuxDetector().detection().getModel());
   }
 
   @Test
   public void testGetRaspberryPiModel_GoodModelName() throws IOException {
     // Create CPU info content for a Raspberry Pi with model info
-    String cpuInfo = """
+    createCpuInfoFile("""
         processor\t: 0
         model name\t: ARMv7 Processor rev 3 (v7l)
         BogoMIPS\t: 38.40
         Hardware\t: BCM2835
-        """;
-
-    // Set up the test detector with Linux OS
-    TestableRaspberryPiDetector.setup(cpuInfo);
+        """);
 
-    File cpuInfoFile = createCpuInfoFile(cpuInfo);
-    TestableRaspberryPiDetector.CPU_INFO_PATH = cpuInfoFile.getAbsolutePath();
-
-    // Save the original os.name property
-    String origOSName = System.getProperty("os.name");
-    try {
-      // Set the os.name property to a Linux value
-      System.setProperty("os.name", "linux");
-
-      // Test the method
-      assertEquals("ARMv7 Processor rev 3 (v7l)", TestableRaspberryPiDetector.getRaspberryPiModel());
-    } finally {
-      // restore os name property
-      System.setProperty("os.name", origOSName);
-      TestableRaspberryPiDetector.CPU_INFO_PATH = RaspberryPiDetector.DEFAULT_CPU_INFO_PATH;
-    }
+    // Test the method
+    assertEquals("ARMv7 Processor rev 3 (v7l)", linuxDetector().detection().getModel());
   }
 
-@Test
+  @Test
   public void testGetRaspberryPiModel_MissingModelName() throws IOException {
     // Create CPU info content for a Raspberry Pi with model info
-    String cpuInfo = """
+    createCpuInfoFile("""
         processor\t: 0
         model-bad-name\t: ARMv7 Processor rev 3 (v7l)
         BogoMIPS\t: 38.40
         Hardware\t: BCM2835
-        """;
+        """);
 
-    // Set up the test detector with Linux OS
-    TestableRaspberryPiDetector.setup(cpuInfo);
-
-    File cpuInfoFile = createCpuInfoFile(cpuInfo);
-    TestableRaspberryPiDetector.CPU_INFO_PATH = cpuInfoFile.getAbsolutePath();
-
-    // Save the original os.name property
-    String origOSName = System.getProperty("os.name");
-    try {
-      // Set the os.name property to a Linux value
-      System.setProperty("os.name", "linux");
-
-      // Test the method
-      assertEquals("Raspberry Pi (model unknown)", TestableRaspberryPiDetector.getRaspberryPiModel());
-    } finally {
-      // restore os name property
-      System.setProperty("os.name", origOSName);
-      TestableRaspberryPiDetector.CPU_INFO_PATH = RaspberryPiDetector.DEFAULT_CPU_INFO_PATH;
-    }
+    // Test the method
+    assertEquals("Raspberry Pi (model unknown)", linuxDetector().detection().getModel());
   }
 
   @Test
@@ -298,15 +245,289 @@ public class RaspberryPiDetectorTest
     try {
         // Set the os.name property to a non-Linux value
         System.setProperty("os.name", "SomeOS");
+        RaspberryPiDetector.invalidateDetection();
 
         // Test the method
         assertEquals("", RaspberryPiDetector.getRaspberryPiModel());
     } finally {
       // restore os name property
         System.setProperty("os.name", origOSName);
+        RaspberryPiDetector.invalidateDetection();
     }
   }
 
+  @Test
+  public void testGetDetection_CachedUntilRefreshed() throws IOException {
+    createCpuInfoFile("""
+        processor\t: 0
+        model name\t: ARMv7 Processor rev 3 (v7l)
+        Hardware\t: BCM2835
+        """);
+    RaspberryPiDetector detector = linuxDetector();
+
+    DetectionResult first = detector.detection();
+    assertTrue(first.isRaspberryPi());
+    assertSame(first, detector.detection());
+
+    // Changes to the file are not seen until the cached result is refreshed
+    createCpuInfoFile("processor\t: 0\nHardware\t: Intel Corporation\n");
+    assertTrue(detector.detection().isRaspberryPi());
+    assertFalse(detector.refresh().isRaspberryPi());
+    assertFalse(detector.detection().isRaspberryPi());
+
+    // Or after invalidation
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\n");
+    detector.invalidate();
+    assertTrue(detector.detection().isRaspberryPi());
+  }
+
+  @Test
+  public void testCacheFile_SkipsDetectionUntilReboot() throws IOException {
+    createFile("proc/sys/kernel/random/boot_id", "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0\n");
+    createFile("proc/sys/kernel/osrelease", "6.6.31+rpt-rpi-v8\n");
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    createCpuInfoFile("processor\t: 0\nRevision\t: c03114\n");
+    Path cacheFile = tempDir.resolve("cache/detection.bin");
+    RaspberryPiDetector.Builder builder = RaspberryPiDetector.builder().root(tempDir).osName("Linux")
+        .cacheFile(cacheFile);
+
+    DetectionResult detected = builder.build().detection();
+    assertTrue(Files.exists(cacheFile));
+
+    // A new detector, as in a restarted JVM, loads the persisted result instead of reading the sources
+    Files.delete(tempDir.resolve("proc/device-tree/model"));
+    DetectionResult loaded = builder.build().detection();
+    assertTrue(loaded.isRaspberryPi());
+    assertEquals(detected.getSource(), loaded.getSource());
+    assertEquals(detected.getBoardModel(), loaded.getBoardModel());
+    assertEquals(detected.getRevision(), loaded.getRevision());
+
+    // A reboot changes the key, so the sources are read again
+    createFile("proc/sys/kernel/random/boot_id", "99999999-4b5a-6978-8796-a5b4c3d2e1f0\n");
+    RaspberryPiDetector rebooted = builder.build();
+    assertEquals(DetectionResult.Source.CPU_INFO, rebooted.detection().getSource());
+
+    rebooted.invalidate();
+    assertFalse(Files.exists(cacheFile));
+    assertEquals(Optional.of(cacheFile), rebooted.getCacheFile());
+  }
+
+  @Test
+  public void testMarkerDatabase_Override() throws IOException {
+    createCpuInfoFile("processor\t: 0\nHardware\t: Allwinner sun50iw9 SUN50I\n");
+    Path markers = createFile("markers.txt", "version\t1\nhardware\tSUN50I\n");
+
+    assertFalse(linuxDetector().detection().isRaspberryPi());
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux")
+        .markerDatabase(markers).build();
+    assertTrue(detector.detection().isRaspberryPi());
+    assertTrue(detector.scanCpuInfo(tempDir.resolve("proc/cpuinfo")).isRaspberryPi());
+    assertFalse(linuxDetector().scanCpuInfo(tempDir.resolve("proc/cpuinfo")).isRaspberryPi());
+  }
+
+  @Test
+  public void testMarkerDatabase_MalformedFailsDetectionOnly() throws IOException {
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\n");
+    Path markers = createFile("markers.txt", "hardware\tBCM2835\n");
+    RaspberryPiDetector detector = RaspberryPiDetector.builder().root(tempDir).osName("Linux")
+        .markerDatabase(markers).build();
+
+    assertThrows(IllegalStateException.class, detector::detection);
+
+    // Nothing is cached, so fixing the file lets the next detection succeed
+    createFile("markers.txt", "version\t1\nhardware\tBCM2835\n");
+    assertTrue(detector.detection().isRaspberryPi());
+  }
+
+  @Test
+  public void testMarkerDatabase_MissingPropertyFileFailsDetectionOnly() throws IOException {
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\n");
+    System.setProperty(RaspberryPiDetector.MARKER_DATABASE_PROPERTY, tempDir.resolve("missing.txt").toString());
+    try {
+      assertThrows(IllegalStateException.class, () -> linuxDetector().detection());
+    } finally {
+      System.clearProperty(RaspberryPiDetector.MARKER_DATABASE_PROPERTY);
+    }
+    assertTrue(linuxDetector().detection().isRaspberryPi());
+  }
+
+  @Test
+  public void testBuilder_IndependentInstances() throws Exception {
+    // Detectors over different roots can be used concurrently without sharing state
+    Path piRoot = tempDir.resolve("pi");
+    Path intelRoot = tempDir.resolve("intel");
+    createFile("pi/proc/cpuinfo", "processor\t: 0\nHardware\t: BCM2835\n");
+    createFile("intel/proc/cpuinfo", "processor\t: 0\nHardware\t: Intel Corporation\n");
+    RaspberryPiDetector pi = RaspberryPiDetector.builder().root(piRoot).osName("Linux").build();
+    RaspberryPiDetector intel = RaspberryPiDetector.builder().root(intelRoot).osName("Linux").build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        RaspberryPiDetector detector = i % 2 == 0 ? pi : intel;
+        Callable<Boolean> refresh = () -> detector.refresh().isRaspberryPi();
+        results.add(executor.submit(refresh));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(i % 2 == 0, results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(piRoot.resolve("proc/cpuinfo"), pi.getCpuInfoPath());
+    assertEquals(piRoot.resolve("proc/device-tree/model"), pi.getDeviceTreeModelPath());
+  }
+
+  @Test
+  public void testBuilder_FileSystem() throws IOException {
+    // Any file system works, e.g. a zip file holding a capture of /proc
+    URI zip = URI.create("jar:" + tempDir.resolve("capture.zip").toUri());
+    try (FileSystem fileSystem = FileSystems.newFileSystem(zip, Map.of("create", "true"))) {
+      Path model = fileSystem.getPath("/proc/device-tree/model");
+      Files.createDirectories(model.getParent());
+      Files.write(model, "Raspberry Pi 3 Model B Plus Rev 1.3\0".getBytes(StandardCharsets.US_ASCII));
+      Files.writeString(fileSystem.getPath("/proc/cpuinfo"), "processor\t: 0\nRevision\t: a020d3\n");
+
+      DetectionResult result = RaspberryPiDetector.builder().fileSystem(fileSystem).osName("Linux").build().detection();
+      assertTrue(result.isRaspberryPi());
+      assertEquals(DetectionResult.Source.DEVICE_TREE_MODEL, result.getSource());
+      assertEquals(PiRevision.BoardType.PI_3B_PLUS, result.getRevision().orElseThrow().getBoardType());
+    }
+  }
+
+  @Test
+  public void testDetect_DeviceTreeModel() throws IOException {
+    createFile("proc/device-tree/model", "Raspberry Pi 4 Model B Rev 1.4\0");
+    // 64-bit kernels have neither a Hardware nor a model name line
+    createCpuInfoFile("processor\t: 0\nRevision\t: c03114\n");
+
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.DEVICE_TREE_MODEL, result.getSource());
+    assertEquals("Raspberry Pi 4 Model B Rev 1.4", result.getBoardModel());
+    assertEquals("Raspberry Pi 4 Model B Rev 1.4", result.getModel());
+    assertEquals(PiRevision.BoardType.PI_4B, result.getRevision().orElseThrow().getBoardType());
+  }
+
+  @Test
+  public void testDetect_DeviceTreeCompatible() throws IOException {
+    createFile("proc/device-tree/model", "Unknown board\0");
+    createFile("sys/firmware/devicetree/base/compatible", "raspberrypi,5-model-b\0brcm,bcm2712\0");
+
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.DEVICE_TREE_COMPATIBLE, result.getSource());
+    assertEquals("Unknown board", result.getModel());
+  }
+
+  @Test
+  public void testDetect_ComputeModule5NamedByMarkerDatabase() throws IOException {
+    createFile("sys/firmware/devicetree/base/compatible", "raspberrypi,5-compute-module\0brcm,bcm2712\0");
+    createCpuInfoFile("processor\t: 0\nBogoMIPS\t: 108.00\n");
+
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.DEVICE_TREE_COMPATIBLE, result.getSource());
+    assertEquals("Raspberry Pi Compute Module 5", result.getBoardModel());
+  }
+
+  @Test
+  public void testDetect_CpuInfoBcm2712Hardware() throws IOException {
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2712\nRevision\t: d04170\n");
+
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(PiRevision.BoardType.PI_5, result.getRevision().orElseThrow().getBoardType());
+  }
+
+  @Test
+  public void testDetect_ArmFeatures() throws IOException {
+    createCpuInfoFile(CpuInfoTest.PI_4_CPU_INFO);
+
+    ArmFeatures features = linuxDetector().detection().getArmFeatures();
+    assertTrue(features.has(ArmFeatures.Feature.NEON));
+    assertTrue(features.has(ArmFeatures.Feature.CRC32));
+    assertFalse(features.has(ArmFeatures.Feature.AES));
+
+    // Other ARM systems decided by the CPU info file report their features too
+    createCpuInfoFile("processor\t: 0\nFeatures\t: fp asimd aes pmull sha1 sha2 crc32 atomics\n");
+    DetectionResult other = linuxDetector().detection();
+    assertFalse(other.isRaspberryPi());
+    assertTrue(other.getArmFeatures().has(ArmFeatures.Feature.AES));
+  }
+
+  @Test
+  public void testDetect_DeviceTreeCompatibleIsDefinitive() throws IOException {
+    createFile("sys/firmware/devicetree/base/compatible", "pine64,rockpro64\0rockchip,rk3399\0");
+    // The CPU info would say otherwise, but only supplies the features
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\nFeatures\t: fp asimd crc32\n");
+
+    DetectionResult result = linuxDetector().detection();
+    assertFalse(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.DEVICE_TREE_COMPATIBLE, result.getSource());
+    assertTrue(result.getArmFeatures().has(ArmFeatures.Feature.CRC32));
+  }
+
+  @Test
+  public void testDetect_CpuInfoModelLine() throws IOException {
+    createCpuInfoFile("processor\t: 0\nModel\t\t: Raspberry Pi 5 Model B Rev 1.0\n");
+
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.CPU_INFO, result.getSource());
+    assertEquals("Raspberry Pi 5 Model B Rev 1.0", result.getModel());
+  }
+
+  @Test
+  public void testScanCpuInfo() throws IOException {
+    Path piCpuInfo = createCpuInfoFile(CpuInfoTest.PI_4_CPU_INFO);
+    RaspberryPiDetector.CpuInfoScan piScan = linuxDetector().scanCpuInfo(piCpuInfo);
+    assertTrue(piScan.isRaspberryPi());
+    // The fields of the result are collected in the same pass
+    assertEquals("c03114", piScan.getFields().getRevision());
+    assertEquals(2, piScan.getFields().getProcessorCount());
+
+    Path intelCpuInfo = createCpuInfoFile("processor\t: 0\nmodel name\t: Intel(R) Core(TM)\nHardware\t: Intel\n");
+    RaspberryPiDetector.CpuInfoScan scan = linuxDetector().scanCpuInfo(intelCpuInfo);
+    assertFalse(scan.isRaspberryPi());
+    assertSame(ArmFeatures.NONE, scan.getArmFeatures());
+  }
+
+  @Test
+  public void testScanCpuInfo_SkipsOtherLines() throws IOException {
+    // Hardware only on the last line, after lines longer than a word and keys that merely contain a marker
+    Path piCpuInfo = createCpuInfoFile("processor\t: 0\nflags\t\t: fpu vme de pse tsc msr pae mce cx8\n"
+        + "model name\t: Hardware: BCM2835\nHardware\t: BCM2711");
+    assertTrue(linuxDetector().scanCpuInfo(piCpuInfo).isRaspberryPi());
+
+    Path otherCpuInfo = createCpuInfoFile("processor\t: 0\nHardwareRevision\t: BCM2835\n"
+        + "model name\t: Hardware: BCM2835\nMachine\t: Raspberry Pi 4\n");
+    assertFalse(linuxDetector().scanCpuInfo(otherCpuInfo).isRaspberryPi());
+  }
+
+  @Test
+  public void testDetect_CpuInfoHardwareWithUnknownModel() throws IOException {
+    // A matching Hardware line is not overruled by a later Model line naming no known board
+    createCpuInfoFile("processor\t: 0\nHardware\t: BCM2835\nRevision\t: c03111\nModel\t\t: Custom carrier board\n");
+
+    assertTrue(linuxDetector().scanCpuInfo(tempDir.resolve("proc/cpuinfo")).isRaspberryPi());
+    DetectionResult result = linuxDetector().detection();
+    assertTrue(result.isRaspberryPi());
+    assertEquals(DetectionResult.Source.CPU_INFO, result.getSource());
+  }
+
+  @Test
+  public void testScanCpuInfo_Features() throws IOException {
+    Path otherCpuInfo = createCpuInfoFile("processor\t: 0\nFeatures\t: fp asimd crc32\nCPU part\t: 0xd08\n\n"
+        + "processor\t: 1\nFeatures\t: fp\nHardware\t: Rockchip RK3399\n");
+
+    RaspberryPiDetector.CpuInfoScan scan = linuxDetector().scanCpuInfo(otherCpuInfo);
+
+    assertFalse(scan.isRaspberryPi());
+    assertEquals(ArmFeatures.parse("fp asimd crc32"), scan.getArmFeatures());
+  }
+
   @Test
   public void testContainsRaspberryPiHardware_True() {
     // Create CPU info content with Raspberry Pi hardware
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for SampleHistory.
+ */
+public class SampleHistoryTest
+{
+
+  private static void record(SampleHistory history, long timestamp, double temperature) {
+    history.record(timestamp, temperature, 1500000, 0.5, 0.25, 0);
+  }
+
+  @Test
+  public void testStats() {
+    SampleHistory history = SampleHistory.allocate(10);
+    for (int i = 1; i <= 5; i++) {
+      record(history, 1000 * i, 40 + i);
+    }
+
+    SampleHistory.Stats stats = history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, Long.MAX_VALUE);
+    assertEquals(5, stats.getCount());
+    assertEquals(41, stats.getMin(), 1e-6);
+    assertEquals(45, stats.getMax(), 1e-6);
+    assertEquals(43, stats.getAverage(), 1e-6);
+
+    // The window end is exclusive
+    stats = history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 2000, 4000);
+    assertEquals(2, stats.getCount());
+    assertEquals(42.5, stats.getAverage(), 1e-6);
+
+    assertEquals(1500000, history.stats(SampleHistory.Column.FREQUENCY_KHZ, 0, 9000).getMax(), 1e-6);
+    assertEquals(0, history.stats(SampleHistory.Column.CPU_UTILIZATION, 9000, 10000).getCount());
+    assertTrue(Double.isNaN(history.stats(SampleHistory.Column.CPU_UTILIZATION, 9000, 10000).getAverage()));
+  }
+
+  @Test
+  public void testStats_UnknownValuesNotCounted() {
+    SampleHistory history = SampleHistory.allocate(10);
+    history.record(1000, Double.NaN, -1, Double.NaN, Double.NaN, -1);
+    record(history, 2000, 50);
+
+    assertEquals(1, history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 3000).getCount());
+    assertEquals(1, history.stats(SampleHistory.Column.FREQUENCY_KHZ, 0, 3000).getCount());
+  }
+
+  @Test
+  public void testOverwritesOldest() {
+    SampleHistory history = SampleHistory.allocate(3);
+    for (int i = 1; i <= 5; i++) {
+      record(history, 1000 * i, i);
+    }
+
+    assertEquals(3, history.size());
+    assertEquals(5, history.getRecordedCount());
+    SampleHistory.Stats stats = history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, Long.MAX_VALUE);
+    assertEquals(3, stats.getCount());
+    assertEquals(3, stats.getMin(), 1e-6);
+    assertEquals(5, stats.getMax(), 1e-6);
+  }
+
+  @Test
+  public void testPercentile() {
+    SampleHistory history = SampleHistory.allocate(200);
+    for (int i = 1; i <= 100; i++) {
+      record(history, i, i);
+    }
+
+    assertEquals(50, history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 1000, 50), 1e-6);
+    assertEquals(95, history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 1000, 95), 1e-6);
+    assertEquals(100, history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 1000, 100), 1e-6);
+    assertEquals(1, history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 1000, 0), 1e-6);
+    assertEquals(60, history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 51, 61, 100), 1e-6);
+    assertTrue(Double.isNaN(history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 500, 600, 50)));
+    assertThrows(IllegalArgumentException.class,
+        () -> history.percentile(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, 1000, 101));
+  }
+
+  @Test
+  public void testForEach() {
+    SampleHistory history = SampleHistory.allocate(2);
+    history.record(1000, 40, 600000, 0.1, 0.2, 0);
+    history.record(2000, 80, 1000000, 0.9, 0.3, 0x50005);
+    history.record(3000, 60, -1, Double.NaN, 0.4, -1);
+
+    List<String> samples = new ArrayList<>();
+    int visited = history.forEach(0, Long.MAX_VALUE, (timestamp, values, throttledBits) ->
+        samples.add(timestamp + " " + values[SampleHistory.Column.TEMPERATURE_CELSIUS.ordinal()] + " "
+            + values[SampleHistory.Column.FREQUENCY_KHZ.ordinal()] + " " + throttledBits));
+    assertEquals(2, visited);
+    assertEquals(List.of("2000 80.0 1000000.0 327685", "3000 60.0 NaN -1"), samples);
+  }
+
+  @Test
+  public void testAllocate_Retention() {
+    SampleHistory history = SampleHistory.allocate(Duration.ofHours(3), Duration.ofSeconds(1));
+    assertEquals(10800, history.getCapacity());
+    assertEquals(0, history.size());
+    assertTrue(history.getMemoryBytes() < 400_000);
+
+    assertThrows(IllegalArgumentException.class, () -> SampleHistory.allocate(0));
+    assertThrows(IllegalArgumentException.class, () -> SampleHistory.allocate(Duration.ZERO, Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void testConcurrentReaders_NeverSeeTornSamples() throws InterruptedException {
+    // Every value of sample i is i, a torn sample would mix values of two samples
+    SampleHistory history = SampleHistory.allocate(64);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicBoolean torn = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 2_000_000; i++) {
+        history.record(i, i % 1000, i % 1000, i % 1000, i % 1000, i % 1000);
+      }
+      done.set(true);
+    });
+    Thread reader = new Thread(() -> {
+      while (!done.get()) {
+        history.forEach(0, Long.MAX_VALUE, (timestamp, values, throttledBits) -> {
+          long expected = timestamp % 1000;
+          for (double value : values) {
+            if (value != expected) {
+              torn.set(true);
+            }
+          }
+          if (throttledBits != expected) {
+            torn.set(true);
+          }
+        });
+        SampleHistory.Stats stats = history.stats(SampleHistory.Column.TEMPERATURE_CELSIUS, 0, Long.MAX_VALUE);
+        if (stats.getCount() > 64) {
+          torn.set(true);
+        }
+      }
+    });
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+    assertFalse(torn.get());
+  }
+}
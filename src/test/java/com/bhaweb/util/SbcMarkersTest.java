@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for SbcMarkers.
+ */
+public class SbcMarkersTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private static SbcMarkers parse(String text) throws IOException {
+    return SbcMarkers.parse(new BufferedReader(new StringReader(text)), "test");
+  }
+
+  @Test
+  public void testBundled() {
+    SbcMarkers markers = SbcMarkers.bundled();
+
+    assertEquals(SbcMarkers.RESOURCE, markers.getSource());
+    assertTrue(markers.getVersion() >= 2);
+    assertTrue(Arrays.asList(markers.getMarkers(SbcMarkers.Field.HARDWARE)).contains("BCM2712"));
+    assertTrue(markers.findHardware("BCM2712") >= 0);
+    int cm4 = markers.findCompatible("raspberrypi,4-compute-module", 0, 28);
+    assertEquals("Raspberry Pi Compute Module 4", markers.getBoard(SbcMarkers.Field.COMPATIBLE, cm4));
+    assertTrue(markers.findModel("Raspberry Pi Compute Module 5 Rev 1.0") >= 0);
+  }
+
+  @Test
+  public void testParse() throws IOException {
+    SbcMarkers markers = parse("""
+        # comment
+        version\t7
+
+        hardware\tSUN50I
+        compatible\txunlong,\tOrange Pi
+        compatible\tallwinner,
+        model\tOrange Pi
+        """);
+
+    assertEquals(7, markers.getVersion());
+    assertEquals(0, markers.findHardware("Allwinner sun50iw9 SUN50I"));
+    assertEquals(-1, markers.findHardware("BCM2835"));
+    int orangePi = markers.findCompatible("xunlong,x", 0, 9);
+    assertEquals("Orange Pi", markers.getBoard(SbcMarkers.Field.COMPATIBLE, orangePi));
+    assertEquals("", markers.getBoard(SbcMarkers.Field.COMPATIBLE, markers.findCompatible("allwinner,h6", 0, 12)));
+    assertEquals(0, markers.findModel("Orange Pi Zero 3"));
+    assertEquals(-1, markers.findModel("Raspberry Pi 5"));
+  }
+
+  @Test
+  public void testParse_Malformed() {
+    assertThrows(IOException.class, () -> parse("hardware\tBCM2835\n"));
+    assertThrows(IOException.class, () -> parse("version\tx\n"));
+    assertThrows(IOException.class, () -> parse("version\t1\nsoc\tBCM2835\n"));
+    assertThrows(IOException.class, () -> parse("version\t1\nhardware\n"));
+    assertThrows(IOException.class, () -> parse("version\t1\nmodel\tRaspberry Pi\u00e9\n"));
+  }
+
+  @Test
+  public void testRead_OverrideFile() throws IOException {
+    Path file = tempDir.resolve("markers.txt");
+    Files.writeString(file, "version\t3\nhardware\tBCM2835\n");
+
+    SbcMarkers markers = SbcMarkers.read(file);
+    assertEquals(file.toString(), markers.getSource());
+    assertEquals(3, markers.getVersion());
+    assertEquals(0, markers.getMarkers(SbcMarkers.Field.COMPATIBLE).length);
+  }
+}
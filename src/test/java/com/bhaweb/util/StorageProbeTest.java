@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for StorageProbe.
+ */
+public class StorageProbeTest
+{
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final String MOUNT_INFO = ""
+      + "22 1 179:2 / / rw,noatime shared:1 - ext4 /dev/mmcblk0p2 rw\n"
+      + "23 22 0:21 / /proc rw,nosuid,nodev,noexec,relatime shared:12 - proc proc rw\n"
+      + "24 22 179:1 / /boot/firmware rw,relatime shared:2 - vfat /dev/mmcblk0p1 rw,fmask=0022\n"
+      + "25 22 259:1 / /mnt/nvme rw,relatime shared:3 - ext4 /dev/nvme0n1p1 rw\n"
+      + "26 22 8:1 / /mnt/usb\\040ssd rw,relatime - ext4 /dev/sda1 rw\n"
+      + "27 22 8:16 / /mnt/disk rw,relatime - xfs /dev/sdb rw\n"
+      + "28 22 0:30 / /mnt/nvme/cache rw,relatime - tmpfs tmpfs rw\n";
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void createDisk(String name, String dev, int rotational, int logical, int physical, long optimal,
+                          String scheduler) throws IOException {
+    String disk = StorageProbe.BLOCK_DIR + "/" + name;
+    createFile(disk + "/dev", dev + "\n");
+    createFile(disk + "/queue/rotational", rotational + "\n");
+    createFile(disk + "/queue/logical_block_size", logical + "\n");
+    createFile(disk + "/queue/physical_block_size", physical + "\n");
+    createFile(disk + "/queue/optimal_io_size", optimal + "\n");
+    createFile(disk + "/queue/max_sectors_kb", "1280\n");
+    createFile(disk + "/queue/scheduler", scheduler + "\n");
+  }
+
+  @BeforeEach
+  @SuppressWarnings("SpellCheckingInspection")
+  public void createTree() throws IOException {
+    createFile(StorageProbe.MOUNT_INFO, MOUNT_INFO);
+    createDisk("mmcblk0", "179:0", 0, 512, 512, 0, "[mq-deadline] none");
+    createFile("sys/block/mmcblk0/device/type", "SD\n");
+    createFile("sys/block/mmcblk0/mmcblk0p1/dev", "179:1\n");
+    createFile("sys/block/mmcblk0/mmcblk0p2/dev", "179:2\n");
+    createDisk("nvme0n1", "259:0", 0, 512, 4096, 0, "[none] mq-deadline kyber bfq");
+    createFile("sys/block/nvme0n1/nvme0n1p1/dev", "259:1\n");
+    createDisk("sda", "8:0", 0, 4096, 4096, 2 * 1024 * 1024, "mq-deadline [bfq] none");
+    createFile("sys/block/sda/sda1/dev", "8:1\n");
+    createDisk("sdb", "8:16", 1, 512, 4096, 0, "[bfq] none");
+  }
+
+  @Test
+  @SuppressWarnings("SpellCheckingInspection")
+  public void testProbe_SdCard() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/var/log/app.log"));
+
+    assertEquals("/", probe.getMountPoint());
+    assertEquals("ext4", probe.getFileSystemType());
+    assertEquals("179:2", probe.getDeviceNumber());
+    assertEquals("mmcblk0", probe.getDeviceName());
+    assertEquals("mmcblk0p2", probe.getPartitionName());
+    assertSame(StorageProbe.Type.SD_CARD, probe.getType());
+    assertFalse(probe.isRotational());
+    assertEquals("mq-deadline", probe.getScheduler());
+    assertEquals(512, probe.getDirectIoAlignment());
+    assertEquals(128 * 1024, probe.getReadBufferSize());
+    assertEquals(512 * 1024, probe.getWriteBufferSize());
+  }
+
+  @Test
+  @SuppressWarnings("SpellCheckingInspection")
+  public void testProbe_LongestMountPointWins() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/boot/firmware/config.txt"));
+    assertEquals("/boot/firmware", probe.getMountPoint());
+    assertEquals("mmcblk0p1", probe.getPartitionName());
+
+    // A prefix of a name is not a parent directory
+    assertEquals("/", StorageProbe.probe(tempDir, Path.of("/boot/firmware2")).getMountPoint());
+  }
+
+  @Test
+  public void testProbe_Emmc() throws IOException {
+    createFile("sys/block/mmcblk0/device/type", "MMC\n");
+    assertSame(StorageProbe.Type.EMMC, StorageProbe.probe(tempDir, Path.of("/home")).getType());
+  }
+
+  @Test
+  @SuppressWarnings("SpellCheckingInspection")
+  public void testProbe_Nvme() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/mnt/nvme/data"));
+
+    assertSame(StorageProbe.Type.NVME, probe.getType());
+    assertEquals("nvme0n1", probe.getDeviceName());
+    assertEquals("none", probe.getScheduler());
+    assertEquals(512, probe.getLogicalBlockSize());
+    assertEquals(4096, probe.getPhysicalBlockSize());
+    assertEquals(256 * 1024, probe.getReadBufferSize());
+    assertEquals(1024 * 1024, probe.getWriteBufferSize());
+  }
+
+  @Test
+  public void testProbe_SsdWithOptimalIoSize() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/mnt/usb ssd/backup"));
+
+    assertEquals("/mnt/usb ssd", probe.getMountPoint());
+    assertSame(StorageProbe.Type.SSD, probe.getType());
+    assertEquals("bfq", probe.getScheduler());
+    assertEquals(4096, probe.getDirectIoAlignment());
+    // Raised to the optimal I/O size, but not beyond the largest request of 1280 KiB
+    assertEquals(1280 * 1024, probe.getReadBufferSize());
+    assertEquals(2 * 1024 * 1024, probe.getOptimalIoSize());
+  }
+
+  @Test
+  public void testProbe_HddOnWholeDisk() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/mnt/disk"));
+
+    assertSame(StorageProbe.Type.HDD, probe.getType());
+    assertTrue(probe.isRotational());
+    assertEquals("sdb", probe.getDeviceName());
+    assertEquals("", probe.getPartitionName());
+    assertEquals(1024 * 1024, probe.getReadBufferSize());
+  }
+
+  @Test
+  public void testProbe_NoBlockDevice() {
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/mnt/nvme/cache/x"));
+
+    assertEquals("/mnt/nvme/cache", probe.getMountPoint());
+    assertEquals("tmpfs", probe.getFileSystemType());
+    assertSame(StorageProbe.Type.UNKNOWN, probe.getType());
+    assertEquals("", probe.getDeviceName());
+    assertEquals(-1, probe.getLogicalBlockSize());
+    assertEquals(512, probe.getDirectIoAlignment());
+    assertEquals(64 * 1024, probe.getReadBufferSize());
+    assertEquals(64 * 1024, probe.getWriteBufferSize());
+  }
+
+  @Test
+  public void testProbe_NoMountInfo() throws IOException {
+    Files.delete(tempDir.resolve(StorageProbe.MOUNT_INFO));
+    StorageProbe probe = StorageProbe.probe(tempDir, Path.of("/var"));
+
+    assertEquals("", probe.getMountPoint());
+    assertSame(StorageProbe.Type.UNKNOWN, probe.getType());
+  }
+
+  @Test
+  public void testProbe_LocalMachine() {
+    // Whatever the machine, probing must not fail
+    StorageProbe probe = StorageProbe.probe(tempDir);
+    assertTrue(probe.getReadBufferSize() >= 4096);
+    assertTrue(probe.getDirectIoAlignment() >= 512);
+  }
+
+  @Test
+  public void testUnescape() {
+    assertEquals("/mnt/a b\tc\\d", StorageProbe.unescape("/mnt/a\\040b\\011c\\134d"));
+    assertEquals("/plain", StorageProbe.unescape("/plain"));
+  }
+
+  @Test
+  public void testJournalPolicy_ForStorage() {
+    assertSame(TelemetryJournal.Policy.SD_CARD,
+        TelemetryJournal.Policy.forStorage(StorageProbe.probe(tempDir, Path.of("/var"))));
+    assertSame(TelemetryJournal.Policy.DEFAULT,
+        TelemetryJournal.Policy.forStorage(StorageProbe.probe(tempDir, Path.of("/mnt/nvme/cache"))));
+    TelemetryJournal.Policy policy =
+        TelemetryJournal.Policy.forStorage(StorageProbe.probe(tempDir, Path.of("/mnt/disk")));
+    assertEquals(4096, policy.getPageSize());
+    assertEquals(Duration.ofSeconds(5), policy.getFlushInterval());
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test class for SysFile.
+ */
+public class SysFileTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testReadLong_AfterInterrupt() throws IOException {
+    Path file = Files.write(tempDir.resolve("temp"), "51540\n".getBytes(StandardCharsets.US_ASCII));
+    try (SysFile attribute = SysFile.open(file)) {
+      assertEquals(51540, attribute.readLong(10));
+
+      // An interrupted read closes the channel
+      Thread.currentThread().interrupt();
+      try {
+        assertEquals(SysFile.UNAVAILABLE, attribute.readLong(10));
+      } finally {
+        Thread.interrupted();
+      }
+
+      // and the next one reopens it
+      assertEquals(51540, attribute.readLong(10));
+      assertEquals(6, attribute.read().limit());
+    }
+  }
+
+  @Test
+  public void testRead_Closed() throws IOException {
+    Path file = Files.write(tempDir.resolve("temp"), "51540\n".getBytes(StandardCharsets.US_ASCII));
+    SysFile attribute = SysFile.open(file);
+    attribute.close();
+
+    assertEquals(SysFile.UNAVAILABLE, attribute.readLong(10));
+    assertNull(attribute.read());
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test class for TelemetryJournal.
+ */
+public class TelemetryJournalTest
+{
+
+  private static final TelemetryJournal.Policy NEVER_FLUSH =
+      TelemetryJournal.Policy.of(4096, Duration.ofDays(1));
+
+  @TempDir
+  Path tempDir;
+
+  private static List<String> replay(Path file) throws IOException {
+    List<String> samples = new ArrayList<>();
+    long count = TelemetryJournal.replay(file, (timestamp, values, throttledBits) -> samples.add(timestamp + " "
+        + values[SampleHistory.Column.TEMPERATURE_CELSIUS.ordinal()] + " "
+        + values[SampleHistory.Column.FREQUENCY_KHZ.ordinal()] + " "
+        + values[SampleHistory.Column.CPU_UTILIZATION.ordinal()] + " "
+        + values[SampleHistory.Column.MEMORY_USED_FRACTION.ordinal()] + " " + throttledBits));
+    assertEquals(samples.size(), count);
+    return samples;
+  }
+
+  @Test
+  public void testAppendAndReplay() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(1_700_000_000_000L, 61.534, 1500000, 0.25, 0.5, 0);
+      journal.append(1_700_000_001_000L, 60.0, 600000, 0.0625, 0.5001, 0x50005);
+      journal.append(1_700_000_000_500L, Double.NaN, -1, Double.NaN, Double.NaN, -1);
+      journal.append(1_700_000_002_000L, -5.5, 1800000, 1.0, 0.4999, 0x50000);
+    }
+
+    assertEquals(List.of(
+        "1700000000000 61.534 1500000.0 0.25 0.5 0",
+        "1700000001000 60.0 600000.0 0.0625 0.5001 327685",
+        "1700000000500 NaN NaN NaN NaN -1",
+        "1700000002000 -5.5 1800000.0 1.0 0.4999 327680"), replay(file));
+  }
+
+  @Test
+  public void testAppend_ManyPagesAndSegments() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    int samples = 300_000;
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      for (int i = 0; i < samples; i++) {
+        journal.append(1000L * i, 40 + i % 20, 1500000, i % 100 / 100.0, 0.5, 0);
+      }
+    }
+    // Small deltas take a few bytes per sample, so this spans several 1 MiB segments
+    long[] next = {0};
+    long replayed = TelemetryJournal.replay(file, (timestamp, values, throttledBits) -> {
+      long i = next[0]++;
+      assertEquals(1000L * i, timestamp);
+      assertEquals(40 + i % 20, values[SampleHistory.Column.TEMPERATURE_CELSIUS.ordinal()], 1e-9);
+    });
+    assertEquals(samples, replayed);
+  }
+
+  @Test
+  public void testFlush() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(1000, 50, 1500000, 0.5, 0.5, 0);
+      // Coalesced in memory until flushed
+      assertEquals(0, replay(file).size());
+      journal.flush();
+      assertEquals(1, replay(file).size());
+    }
+  }
+
+  @Test
+  public void testFlushInterval_Zero() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file,
+        TelemetryJournal.Policy.of(4096, Duration.ZERO))) {
+      journal.append(1000, 50, 1500000, 0.5, 0.5, 0);
+      assertEquals(1, replay(file).size());
+    }
+  }
+
+  @Test
+  public void testReopen_AppendsWithOriginalPageSize() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(1000, 50, 1500000, 0.5, 0.5, 0);
+    }
+    try (TelemetryJournal journal = TelemetryJournal.open(file, TelemetryJournal.Policy.SD_CARD)) {
+      assertEquals(4096, journal.getPageSize());
+      journal.append(2000, 51, 1500000, 0.5, 0.5, 0);
+    }
+
+    List<String> samples = replay(file);
+    assertEquals(2, samples.size());
+    assertEquals("2000 51.0 1500000.0 0.5 0.5 0", samples.get(1));
+  }
+
+  @Test
+  public void testReplay_TornFrame() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(1000, 50, 1500000, 0.5, 0.5, 0);
+      journal.flush();
+      journal.append(2000, 51, 1500000, 0.5, 0.5, 0);
+    }
+    // Flip a bit in the records of the second frame, as a crash while forcing it might leave them
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES);
+      channel.read(bytes, 4096);
+      long record = 4096 + 2L * TelemetryJournal.FRAME_HEADER_BYTES + bytes.getInt(0);
+      bytes.clear().limit(1);
+      channel.read(bytes, record);
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) (bytes.get(0) ^ 0x40)}), record);
+    }
+    assertEquals(List.of("1000 50.0 1500000.0 0.5 0.5 0"), replay(file));
+
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(3000, 52, 1500000, 0.5, 0.5, 0);
+    }
+    assertEquals(List.of("1000 50.0 1500000.0 0.5 0.5 0", "3000 52.0 1500000.0 0.5 0.5 0"), replay(file));
+  }
+
+  @Test
+  public void testReopen_ClearsPageWithLostFrameHeader() throws IOException {
+    Path file = tempDir.resolve("telemetry.journal");
+    try (TelemetryJournal journal = TelemetryJournal.open(file, NEVER_FLUSH)) {
+      journal.append(1000, 50, 1500000, 0.5, 0.5, 0);
+    }
+    // The records of a first frame on the next page persisted, but not its header
+    byte[] records = new byte[4096 - TelemetryJournal.FRAME_HEADER_BYTES];
+    Arrays.fill(records, (byte) 1);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(records), 2 * 4096 + TelemetryJournal.FRAME_HEADER_BYTES);
+    }
+
+    // Frames of a sample each fill that page and continue on the next
+    int samples = 400;
+    try (TelemetryJournal journal = TelemetryJournal.open(file, TelemetryJournal.Policy.of(4096, Duration.ZERO))) {
+      for (int i = 1; i <= samples; i++) {
+        journal.append(1000 + 1000L * i, 50, 1500000, 0.5, 0.5, 0);
+      }
+    }
+    List<String> replayed = replay(file);
+    assertEquals(samples + 1, replayed.size());
+    assertEquals((1000 + 1000L * samples) + " 50.0 1500000.0 0.5 0.5 0", replayed.get(samples));
+  }
+
+  @Test
+  public void testOpen_NotAJournal() throws IOException {
+    Path file = tempDir.resolve("other.txt");
+    Files.write(file, "not a journal".getBytes(StandardCharsets.US_ASCII));
+
+    assertThrows(IOException.class, () -> TelemetryJournal.open(file, NEVER_FLUSH));
+    assertThrows(IOException.class, () -> TelemetryJournal.replay(file, (timestamp, values, bits) -> { }));
+  }
+
+  @Test
+  public void testAppend_Closed() throws IOException {
+    TelemetryJournal journal = TelemetryJournal.open(tempDir.resolve("telemetry.journal"), NEVER_FLUSH);
+    journal.close();
+    assertThrows(IllegalStateException.class, () -> journal.append(1000, 50, 1500000, 0.5, 0.5, 0));
+  }
+
+  @Test
+  public void testPolicy_ForBoard() {
+    assertSame(TelemetryJournal.Policy.DEFAULT,
+        TelemetryJournal.Policy.forBoard(DetectionResult.NOT_RASPBERRY_PI));
+    assertSame(TelemetryJournal.Policy.SD_CARD, TelemetryJournal.Policy.forBoard(raspberryPi("c03114")));
+    // Compute Module 4
+    assertSame(TelemetryJournal.Policy.EMMC, TelemetryJournal.Policy.forBoard(raspberryPi("b03140")));
+    assertSame(TelemetryJournal.Policy.SD_CARD, TelemetryJournal.Policy.forBoard(raspberryPi(null)));
+  }
+
+  private static DetectionResult raspberryPi(String revision) {
+    return new DetectionResult(true, DetectionResult.Source.CPU_INFO, "BCM2835", "",
+        revision == null ? null : PiRevision.parse(revision).orElseThrow(), ArmFeatures.NONE);
+  }
+
+  @Test
+  public void testPolicy_Of() {
+    assertEquals(8192, TelemetryJournal.Policy.of(8192, Duration.ofSeconds(1)).getPageSize());
+    assertThrows(IllegalArgumentException.class, () -> TelemetryJournal.Policy.of(1024, Duration.ZERO));
+    assertThrows(IllegalArgumentException.class, () -> TelemetryJournal.Policy.of(5000, Duration.ZERO));
+    assertThrows(IllegalArgumentException.class, () -> TelemetryJournal.Policy.of(4096, Duration.ofSeconds(-1)));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for ThermalAwareExecutor.
+ */
+public class ThermalAwareExecutorTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private ThrottleMonitor monitor;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    setTemperature(50000);
+    setThrottled("0");
+    monitor = ThrottleMonitor.builder().root(tempDir).build();
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    monitor.close();
+  }
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void setTemperature(int milliCelsius) throws IOException {
+    createFile("sys/class/thermal/thermal_zone0/temp", milliCelsius + "\n");
+  }
+
+  private void setThrottled(String bits) throws IOException {
+    createFile(ThrottleMonitor.THROTTLED_PATH, bits + "\n");
+  }
+
+  private RaspberryPiDetector detector(String cpuInfo) throws IOException {
+    createFile("proc/cpuinfo", cpuInfo);
+    return RaspberryPiDetector.builder().root(tempDir).osName("Linux").build();
+  }
+
+  private ThermalAwareExecutor.Builder piExecutor() throws IOException {
+    return ThermalAwareExecutor.builder().detector(detector(CpuInfoTest.PI_4_CPU_INFO)).monitor(monitor);
+  }
+
+  @Test
+  public void testAdjust_Hysteresis() throws Exception {
+    ThermalAwareExecutor executor = piExecutor().maxPermits(4).build();
+    try {
+      assertTrue(executor.isAdaptive());
+      assertEquals(4, executor.getPermits());
+
+      monitor.sample();
+      assertEquals(4, executor.getPermits());
+
+      // within the band below the 80 degree limit, one permit per sample
+      setTemperature(78000);
+      monitor.sample();
+      monitor.sample();
+      assertEquals(2, executor.getPermits());
+
+      // between the thresholds the permits are held
+      setTemperature(72000);
+      monitor.sample();
+      assertEquals(2, executor.getPermits());
+
+      setTemperature(65000);
+      monitor.sample();
+      assertEquals(3, executor.getPermits());
+      monitor.sample();
+      monitor.sample();
+      assertEquals(4, executor.getPermits());
+
+      assertEquals(Integer.valueOf(42), executor.submit(() -> 42).get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testAdjust_FirmwareConditions() throws Exception {
+    ThermalAwareExecutor executor = piExecutor().minPermits(2).maxPermits(4).build();
+    try {
+      setThrottled("20002");
+      for (int i = 0; i < 4; i++) {
+        monitor.sample();
+      }
+      assertEquals(2, executor.getPermits());
+
+      setThrottled("20000");
+      monitor.sample();
+      assertEquals(3, executor.getPermits());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPermitsLimitConcurrency() throws Exception {
+    ThermalAwareExecutor executor = piExecutor().maxPermits(2).build();
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      setTemperature(79000);
+      monitor.sample();
+      assertEquals(1, executor.getPermits());
+
+      Future<?> first = executor.submit(() -> {
+        started.countDown();
+        release.await();
+        return null;
+      });
+      Future<?> second = executor.submit(() -> {
+        started.countDown();
+        release.await();
+        return null;
+      });
+      assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+      assertEquals(1, started.getCount());
+
+      release.countDown();
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testNotRaspberryPi_FixedSize() throws Exception {
+    ThermalAwareExecutor executor = ThermalAwareExecutor.builder()
+        .detector(detector("processor\t: 0\nvendor_id\t: GenuineIntel\n"))
+        .monitor(monitor)
+        .maxPermits(3)
+        .build();
+    try {
+      assertFalse(executor.isAdaptive());
+      setTemperature(90000);
+      monitor.sample();
+      assertEquals(3, executor.getPermits());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBuilder_InvalidPermits() {
+    assertThrows(IllegalArgumentException.class, () -> ThermalAwareExecutor.builder().minPermits(0));
+    assertThrows(IllegalArgumentException.class, () -> ThermalAwareExecutor.builder().maxPermits(0));
+    assertThrows(IllegalArgumentException.class, () -> ThermalAwareExecutor.builder().hysteresisCelsius(-1));
+    assertThrows(IllegalArgumentException.class, () -> piExecutor().minPermits(3).maxPermits(2).build());
+  }
+}
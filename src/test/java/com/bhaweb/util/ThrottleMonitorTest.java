@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Dan Rollo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bhaweb.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for ThrottleMonitor.
+ */
+public class ThrottleMonitorTest
+{
+
+  @TempDir
+  Path tempDir;
+
+  private void createFile(String path, String content) throws IOException {
+    Path file = tempDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void createPi4Tree(String temperature, String throttled) throws IOException {
+    createFile("sys/class/thermal/thermal_zone0/temp", temperature);
+    for (int cpu = 0; cpu < 4; cpu++) {
+      createFile("sys/devices/system/cpu/cpu" + cpu + "/cpufreq/scaling_cur_freq", "1500000\n");
+    }
+    createFile(ThrottleMonitor.THROTTLED_PATH, throttled);
+  }
+
+  @Test
+  public void testSample() throws IOException {
+    createPi4Tree("48686\n", "0\n");
+    createFile("sys/class/thermal/thermal_zone1/temp", "51000\n");
+
+    try (ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).build()) {
+      assertEquals(2, monitor.getThermalZoneCount());
+      assertEquals(4, monitor.getCpuCount());
+      assertTrue(monitor.hasThrottledBits());
+
+      ThrottleState state = monitor.sample();
+      assertEquals(48.686, state.getTemperatureCelsius(0), 1e-9);
+      assertEquals(51.0, state.getMaxTemperatureCelsius(), 1e-9);
+      assertEquals(1500000, state.getMaxFrequencyKHz());
+      assertEquals(0, state.getThrottledBits());
+      assertFalse(state.isActive(ThrottleState.Condition.THROTTLED));
+      assertSame(state, monitor.getState());
+    }
+  }
+
+  @Test
+  public void testSample_RereadsChangedValues() throws IOException {
+    createPi4Tree("48686\n", "0\n");
+
+    try (ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).build()) {
+      monitor.sample();
+      createFile("sys/class/thermal/thermal_zone0/temp", "82250\n");
+      createFile(ThrottleMonitor.THROTTLED_PATH, "80008\n");
+
+      ThrottleState state = monitor.sample();
+      assertEquals(82.25, state.getMaxTemperatureCelsius(), 1e-9);
+      assertTrue(state.isActive(ThrottleState.Condition.SOFT_TEMP_LIMIT));
+      assertTrue(state.hasOccurred(ThrottleState.Condition.SOFT_TEMP_LIMIT));
+      assertFalse(state.hasOccurred(ThrottleState.Condition.UNDER_VOLTAGE));
+    }
+  }
+
+  @Test
+  public void testListener_Transitions() throws IOException {
+    createPi4Tree("60000\n", "50005\n");
+    List<String> transitions = new ArrayList<>();
+    int[] samples = new int[1];
+
+    try (ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).build()) {
+      monitor.addListener(new ThrottleMonitor.Listener()
+      {
+        @Override
+        public void onSample(ThrottleState state) {
+          samples[0]++;
+        }
+
+        @Override
+        public void onTransition(ThrottleState.Condition condition, boolean active, ThrottleState state) {
+          transitions.add(condition + "=" + active);
+        }
+      });
+
+      monitor.sample();
+      assertEquals(List.of("UNDER_VOLTAGE=true", "THROTTLED=true"), transitions);
+
+      transitions.clear();
+      monitor.sample();
+      assertEquals(List.of(), transitions);
+
+      createFile(ThrottleMonitor.THROTTLED_PATH, "50002\n");
+      monitor.sample();
+      assertEquals(List.of("UNDER_VOLTAGE=false", "FREQUENCY_CAPPED=true", "THROTTLED=false"), transitions);
+      assertEquals(3, samples[0]);
+    }
+  }
+
+  @Test
+  public void testMissingAttributes() throws IOException {
+    try (ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).build()) {
+      ThrottleState state = monitor.sample();
+
+      assertFalse(monitor.hasThrottledBits());
+      assertEquals(0, state.getThermalZoneCount());
+      assertTrue(Double.isNaN(state.getMaxTemperatureCelsius()));
+      assertEquals(-1, state.getMaxFrequencyKHz());
+      assertEquals(-1, state.getThrottledBits());
+      assertFalse(state.isActive(ThrottleState.Condition.UNDER_VOLTAGE));
+    }
+  }
+
+  @Test
+  public void testFindThrottledPath_Pi5() throws IOException {
+    createFile("sys/devices/platform/soc@107c000000/soc@107c000000:firmware/get_throttled", "0\n");
+
+    assertEquals(tempDir.resolve("sys/devices/platform/soc@107c000000/soc@107c000000:firmware/get_throttled"),
+        ThrottleMonitor.findThrottledPath(tempDir));
+  }
+
+  @Test
+  public void testStart() throws Exception {
+    createPi4Tree("48686\n", "0\n");
+    CountDownLatch sampled = new CountDownLatch(3);
+
+    ThrottleMonitor monitor = ThrottleMonitor.builder().root(tempDir).interval(Duration.ofMillis(10)).build();
+    monitor.addListener(new ThrottleMonitor.Listener()
+    {
+      @Override
+      public void onSample(ThrottleState state) {
+        sampled.countDown();
+      }
+    });
+    assertTrue(monitor.start().isRunning());
+    assertTrue(sampled.await(5, TimeUnit.SECONDS));
+
+    monitor.close();
+    assertFalse(monitor.isRunning());
+    assertThrows(IllegalStateException.class, monitor::sample);
+    assertThrows(IllegalArgumentException.class, () -> ThrottleMonitor.builder().interval(Duration.ZERO));
+  }
+
+  @Test
+  public void testParseLong() {
+    assertEquals(48686, parse(" 48686\n", 10));
+    assertEquals(-5000, parse("-5000\n", 10));
+    assertEquals(0x50005, parse("0x50005\n", 16));
+    assertEquals(0x80008, parse("80008", 16));
+    assertEquals(SysFile.UNAVAILABLE, parse("\n", 10));
+    assertEquals(SysFile.UNAVAILABLE, parse("12ab\n", 10));
+  }
+
+  private static long parse(String text, int radix) {
+    byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    return SysFile.parseLong(ByteBuffer.wrap(bytes), 0, bytes.length, radix);
+  }
+}